@@ -0,0 +1,39 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** How a state manager provided a token, see {@link CacheOutcome}. */
+@Name("com.google.fleetengine.auth.CacheLookup")
+@Label("Token Cache Lookup")
+@Category({"Fleet Engine", "Auth"})
+@Description("Whether a Fleet Engine token was served from the cache or signed")
+@StackTrace(false)
+final class CacheLookupEvent extends jdk.jfr.Event {
+  @Label("Token Type")
+  String tokenType;
+
+  @Label("Claim Count")
+  @Description("Number of authorization claims of the token")
+  int claimCount;
+
+  @Label("Cache Outcome")
+  String cacheOutcome;
+}
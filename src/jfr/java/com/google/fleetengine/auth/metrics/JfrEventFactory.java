@@ -0,0 +1,69 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import javax.annotation.Nullable;
+
+/**
+ * Creates {@code jdk.jfr} events, loaded reflectively by {@link AuthEvents}.
+ *
+ * <p>Events are only populated when enabled in a recording, so disabled events cost a single
+ * check.
+ */
+final class JfrEventFactory implements EventFactory {
+  @Override
+  public AuthEventScope beginTokenMint(
+      FleetEngineTokenType tokenType, FleetEngineTokenClaims claims, @Nullable Signer signer) {
+    TokenMintEvent event = new TokenMintEvent();
+    if (!event.isEnabled()) {
+      return AuthEventScope.NOOP;
+    }
+    event.tokenType = tokenType.name();
+    event.claimCount = claims.toMap().size();
+    event.signerClass = signer == null ? null : signer.getClass().getName();
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void commitCacheLookup(
+      FleetEngineTokenType tokenType, FleetEngineTokenClaims claims, CacheOutcome cacheOutcome) {
+    CacheLookupEvent event = new CacheLookupEvent();
+    if (!event.isEnabled()) {
+      return;
+    }
+    event.tokenType = tokenType.name();
+    event.claimCount = claims.toMap().size();
+    event.cacheOutcome = cacheOutcome.name();
+    event.commit();
+  }
+
+  @Override
+  public AuthEventScope beginSignerCall(FleetEngineToken token, Signer signer) {
+    SignerCallEvent event = new SignerCallEvent();
+    if (!event.isEnabled()) {
+      return AuthEventScope.NOOP;
+    }
+    event.tokenType = token.tokenType().name();
+    event.claimCount = token.authorizationClaims().toMap().size();
+    event.signerClass = signer.getClass().getName();
+    event.begin();
+    return event;
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Token requested from {@code AuthTokenMinter}, including cache lookups and signing. */
+@Name("com.google.fleetengine.auth.TokenMint")
+@Label("Token Mint")
+@Category({"Fleet Engine", "Auth"})
+@Description("Fleet Engine token requested from AuthTokenMinter")
+@StackTrace(false)
+final class TokenMintEvent extends jdk.jfr.Event implements AuthEventScope {
+  @Label("Token Type")
+  String tokenType;
+
+  @Label("Claim Count")
+  @Description("Number of authorization claims of the token")
+  int claimCount;
+
+  @Label("Signer Class")
+  String signerClass;
+
+  @Label("Error")
+  @Description("Class of the error the token request failed with")
+  String error;
+
+  @Override
+  public void fail(Throwable error) {
+    this.error = error.getClass().getName();
+  }
+
+  @Override
+  public void close() {
+    commit();
+  }
+}
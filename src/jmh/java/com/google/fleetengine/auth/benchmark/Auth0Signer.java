@@ -0,0 +1,63 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.fleetengine.auth.benchmark;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.google.common.collect.ImmutableMap;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import com.google.fleetengine.auth.token.factory.signer.util.CommonConstants;
+import com.google.fleetengine.auth.token.factory.signer.util.RSAPrivateKeyUtils;
+import java.security.spec.InvalidKeySpecException;
+
+/**
+ * Signs tokens the way {@code LocalSigner} did before it parsed its key once, as a baseline for
+ * {@link SignerBenchmark}.
+ *
+ * <p>The private key is parsed, and the JWT written by auth0, on every call.
+ */
+final class Auth0Signer implements Signer {
+  private final String clientEmail;
+  private final String privateKeyId;
+  private final String privateKey;
+
+  Auth0Signer(String clientEmail, String privateKeyId, String privateKey) {
+    this.clientEmail = clientEmail;
+    this.privateKeyId = privateKeyId;
+    this.privateKey = privateKey;
+  }
+
+  @Override
+  public FleetEngineToken sign(FleetEngineToken token) throws SigningTokenException {
+    try {
+      String signedToken =
+          JWT.create()
+              .withHeader(ImmutableMap.of("kid", privateKeyId))
+              .withExpiresAt(token.expirationTimestamp())
+              .withIssuer(clientEmail)
+              .withSubject(clientEmail)
+              .withAudience(token.audience())
+              .withIssuedAt(token.creationTimestamp())
+              .withClaim(
+                  CommonConstants.JWT_CLAIM_AUTHORIZATION_PROPERTY,
+                  token.authorizationClaims().toMap())
+              .sign(Algorithm.RSA256(null, RSAPrivateKeyUtils.getPrivateKey(privateKey)));
+      return token.toBuilder().setJwt(signedToken).build();
+    } catch (InvalidKeySpecException e) {
+      throw new SigningTokenException("Error while signing JWT.", e);
+    }
+  }
+}
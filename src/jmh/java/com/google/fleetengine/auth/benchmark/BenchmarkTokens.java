@@ -0,0 +1,151 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.benchmark;
+
+import com.google.fleetengine.auth.token.DeliveryFleetReaderClaims;
+import com.google.fleetengine.auth.token.DeliveryServerTokenClaims;
+import com.google.fleetengine.auth.token.DeliveryVehicleClaims;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.FleetReaderClaims;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
+import com.google.fleetengine.auth.token.TaskClaims;
+import com.google.fleetengine.auth.token.TripClaims;
+import com.google.fleetengine.auth.token.VehicleClaims;
+import com.google.fleetengine.auth.token.factory.FleetEngineTokenFactory;
+import com.google.fleetengine.auth.token.factory.FleetEngineTokenFactorySettings;
+import com.google.fleetengine.auth.token.factory.TokenFactory;
+import com.google.fleetengine.auth.token.factory.signer.LocalSigner;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.util.RSAPrivateKeyUtils;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/** Creates the signers, claims and unsigned tokens shared by the benchmarks. */
+final class BenchmarkTokens {
+  static final String CLIENT_EMAIL = "benchmark@fake_project.iam.gserviceaccount.com";
+  private static final String PRIVATE_KEY_ID = "1122334455aabbcc";
+
+  /** How tokens are signed with a private key. */
+  enum SignerImplementation {
+    /** {@link LocalSigner}, which parses its key once and writes JWTs from templates. */
+    LOCAL,
+    /** Parses the key and writes the JWT with auth0 on every call, as before. */
+    AUTH0
+  }
+
+  /** Whether tokens are authorized for every entity or for a single one. */
+  enum ClaimsScope {
+    WILDCARD,
+    ENTITY
+  }
+
+  private BenchmarkTokens() {}
+
+  /** Creates a token factory with the default settings. */
+  static TokenFactory createTokenFactory() {
+    return new FleetEngineTokenFactory(FleetEngineTokenFactorySettings.builder().build());
+  }
+
+  /** Creates a local signer with a freshly generated 2048 bit RSA key. */
+  static LocalSigner createLocalSigner() throws NoSuchAlgorithmException {
+    return LocalSigner.create(CLIENT_EMAIL, PRIVATE_KEY_ID, generatePrivateKey());
+  }
+
+  /** Creates a signer of the given implementation with a freshly generated 2048 bit RSA key. */
+  static Signer createSigner(SignerImplementation implementation)
+      throws NoSuchAlgorithmException {
+    String privateKey = generatePrivateKey();
+    switch (implementation) {
+      case AUTH0:
+        return new Auth0Signer(CLIENT_EMAIL, PRIVATE_KEY_ID, privateKey);
+      case LOCAL:
+      default:
+        return LocalSigner.create(CLIENT_EMAIL, PRIVATE_KEY_ID, privateKey);
+    }
+  }
+
+  /** Returns a base64 encoded PKCS#8 RSA private key. */
+  private static String generatePrivateKey() throws NoSuchAlgorithmException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance(RSAPrivateKeyUtils.KEY_ALGORITHM);
+    generator.initialize(2048);
+    byte[] privateKey = generator.generateKeyPair().getPrivate().getEncoded();
+    return Base64.getEncoder().encodeToString(privateKey);
+  }
+
+  /**
+   * Returns the claims a token of the given type is authorized with.
+   *
+   * <p>Server and fleet reader tokens only have wildcard claims, their scope is ignored.
+   *
+   * @param entityId id of the vehicle, trip or task when {@code scope} is {@link
+   *     ClaimsScope#ENTITY}
+   */
+  static FleetEngineTokenClaims claims(
+      FleetEngineTokenType tokenType, ClaimsScope scope, String entityId) {
+    boolean wildcard = scope == ClaimsScope.WILDCARD;
+    switch (tokenType) {
+      case SERVER:
+        return ServerTokenClaims.create();
+      case DELIVERY_SERVER:
+        return DeliveryServerTokenClaims.create();
+      case DELIVERY_FLEET_READER:
+        return DeliveryFleetReaderClaims.create();
+      case FLEET_READER:
+        return FleetReaderClaims.create();
+      case CONSUMER:
+        return wildcard ? TripClaims.create() : TripClaims.create(entityId);
+      case DELIVERY_CONSUMER:
+        return wildcard ? TaskClaims.create() : TaskClaims.create(entityId);
+      case UNTRUSTED_DELIVERY_DRIVER:
+      case TRUSTED_DELIVERY_DRIVER:
+        return wildcard ? DeliveryVehicleClaims.create() : DeliveryVehicleClaims.create(entityId);
+      case DRIVER:
+      case CUSTOM:
+      default:
+        return wildcard ? VehicleClaims.create() : VehicleClaims.create(entityId);
+    }
+  }
+
+  /** Creates an unsigned token of the given type through the matching factory method. */
+  static FleetEngineToken createToken(
+      TokenFactory tokenFactory, FleetEngineTokenType tokenType, FleetEngineTokenClaims claims) {
+    switch (tokenType) {
+      case SERVER:
+        return tokenFactory.createServerToken();
+      case DELIVERY_SERVER:
+        return tokenFactory.createDeliveryServerToken();
+      case DELIVERY_FLEET_READER:
+        return tokenFactory.createDeliveryFleetReaderToken();
+      case FLEET_READER:
+        return tokenFactory.createFleetReaderToken();
+      case DRIVER:
+        return tokenFactory.createDriverToken((VehicleClaims) claims);
+      case CONSUMER:
+        return tokenFactory.createConsumerToken((TripClaims) claims);
+      case DELIVERY_CONSUMER:
+        return tokenFactory.createDeliveryConsumerToken((TaskClaims) claims);
+      case UNTRUSTED_DELIVERY_DRIVER:
+        return tokenFactory.createUntrustedDeliveryDriverToken((DeliveryVehicleClaims) claims);
+      case TRUSTED_DELIVERY_DRIVER:
+        return tokenFactory.createTrustedDeliveryDriverToken((DeliveryVehicleClaims) claims);
+      case CUSTOM:
+      default:
+        return tokenFactory.createCustomToken(claims);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.benchmark;
+
+import com.google.common.io.ByteStreams;
+import com.google.fleetengine.auth.AuthTokenMinter;
+import com.google.fleetengine.auth.FleetEngineAuthTokenStateManager;
+import com.google.fleetengine.auth.client.FleetEngineAuthClientInterceptor;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead {@link FleetEngineAuthClientInterceptor} adds to an RPC.
+ *
+ * <p>Unary echo calls are made to an in-process gRPC server, so no network is involved. Each run
+ * reports RPCs per second and, through JMH's sample time mode, the p50, p99 and p999 latencies.
+ * Add {@code -PjmhArgs="-prof gc"} to also report the bytes allocated per RPC.
+ *
+ * <ul>
+ *   <li>{@code NONE}: no interceptor, the baseline.
+ *   <li>{@code CACHE_HIT}: an {@link AuthTokenMinter} signing server tokens with a {@link
+ *       com.google.fleetengine.auth.token.factory.signer.LocalSigner}, the token is cached.
+ *   <li>{@code CACHE_MISS}: same minter, but every token expires as soon as it is signed so every
+ *       RPC signs a new token.
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientInterceptorBenchmark {
+  private static final String SERVICE_NAME = "fleetengine.benchmark.Echo";
+
+  private static final MethodDescriptor<byte[], byte[]> ECHO_METHOD =
+      MethodDescriptor.<byte[], byte[]>newBuilder()
+          .setType(MethodDescriptor.MethodType.UNARY)
+          .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "Echo"))
+          .setRequestMarshaller(ByteArrayMarshaller.INSTANCE)
+          .setResponseMarshaller(ByteArrayMarshaller.INSTANCE)
+          .build();
+
+  private static final byte[] PAYLOAD = new byte[64];
+
+  /** How RPCs are authorized. */
+  public enum Auth {
+    NONE,
+    CACHE_HIT,
+    CACHE_MISS
+  }
+
+  @Param({"NONE", "CACHE_HIT", "CACHE_MISS"})
+  public Auth auth;
+
+  private Server server;
+  private ManagedChannel channel;
+  private Channel interceptedChannel;
+
+  @Setup
+  public void setup() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                ServerServiceDefinition.builder(SERVICE_NAME)
+                    .addMethod(
+                        ECHO_METHOD,
+                        ServerCalls.asyncUnaryCall(
+                            (request, responseObserver) -> {
+                              responseObserver.onNext(request);
+                              responseObserver.onCompleted();
+                            }))
+                    .build())
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).build();
+
+    if (auth == Auth.NONE) {
+      interceptedChannel = channel;
+      return;
+    }
+    AuthTokenMinter.Builder minter =
+        AuthTokenMinter.builder().setServerSigner(BenchmarkTokens.createLocalSigner());
+    if (auth == Auth.CACHE_MISS) {
+      minter.setTokenStateManager(new ExpiringStateManager());
+    }
+    interceptedChannel =
+        ClientInterceptors.intercept(
+            channel, FleetEngineAuthClientInterceptor.create(minter.build()));
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  @Benchmark
+  public byte[] echo() {
+    return ClientCalls.blockingUnaryCall(
+        interceptedChannel, ECHO_METHOD, CallOptions.DEFAULT, PAYLOAD);
+  }
+
+  /**
+   * Signs every token and marks it as expired, so neither the state manager nor the call
+   * credentials can reuse it.
+   */
+  private static final class ExpiringStateManager implements FleetEngineAuthTokenStateManager {
+    @Override
+    public FleetEngineToken signToken(Signer signer, FleetEngineToken token)
+        throws SigningTokenException {
+      return signer.sign(token.toBuilder().setExpirationTimestamp(new Date()).build());
+    }
+  }
+
+  /** Sends the bytes of a message as they are. */
+  private enum ByteArrayMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+    INSTANCE;
+
+    @Override
+    public InputStream stream(byte[] value) {
+      return new ByteArrayInputStream(value);
+    }
+
+    @Override
+    public byte[] parse(InputStream stream) {
+      try {
+        return ByteStreams.toByteArray(stream);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
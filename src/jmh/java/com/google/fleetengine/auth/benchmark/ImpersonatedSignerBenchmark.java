@@ -0,0 +1,99 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.benchmark;
+
+import com.google.auth.ServiceAccountSigner.SigningException;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
+import com.google.fleetengine.auth.token.factory.signer.FakeIamCredentialsServer;
+import com.google.fleetengine.auth.token.factory.signer.ImpersonatedSigner;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ImpersonatedSigner} against a local stand-in of the IAM Credentials API with
+ * injected latency, jitter and errors.
+ *
+ * <p>Signing goes through the same HTTP client code as against the real API. Failed signatures
+ * return {@code null} instead of failing the run, so error rates show up as lower throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImpersonatedSignerBenchmark {
+  private static final String SERVICE_ACCOUNT = "benchmark@fake_project.iam.gserviceaccount.com";
+
+  @Param({"0", "20", "100"})
+  public long latencyMillis;
+
+  @Param({"0", "20"})
+  public long jitterMillis;
+
+  @Param({"0", "0.01"})
+  public double errorRate;
+
+  private FakeIamCredentialsServer server;
+  private ImpersonatedSigner signer;
+  private FleetEngineToken unsignedToken;
+
+  @Setup
+  public void setup() throws Exception {
+    server =
+        FakeIamCredentialsServer.start()
+            .setLatency(Duration.ofMillis(latencyMillis))
+            .setJitter(Duration.ofMillis(jitterMillis))
+            .setErrorRate(errorRate);
+    signer =
+        ImpersonatedSigner.create(
+            SERVICE_ACCOUNT,
+            FakeIamCredentialsServer.sourceCredentials(),
+            server.transportFactory());
+    unsignedToken =
+        BenchmarkTokens.createToken(
+            BenchmarkTokens.createTokenFactory(),
+            FleetEngineTokenType.SERVER,
+            ServerTokenClaims.create());
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public FleetEngineToken sign() {
+    try {
+      return signer.sign(unsignedToken);
+    } catch (SigningException e) {
+      return null;
+    }
+  }
+}
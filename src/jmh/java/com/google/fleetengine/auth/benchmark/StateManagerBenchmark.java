@@ -0,0 +1,198 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.benchmark;
+
+import com.google.fleetengine.auth.CachingAuthStateManager;
+import com.google.fleetengine.auth.FleetEngineAuthTokenStateManager;
+import com.google.fleetengine.auth.NaiveAuthStateManager;
+import com.google.fleetengine.auth.PersistentAuthStateManager;
+import com.google.fleetengine.auth.PersistentAuthStateManagerSettings;
+import com.google.fleetengine.auth.RefreshAheadAuthStateManager;
+import com.google.fleetengine.auth.RefreshAheadAuthStateManagerSettings;
+import com.google.fleetengine.auth.SharedMemoryAuthStateManager;
+import com.google.fleetengine.auth.SharedMemoryAuthStateManagerSettings;
+import com.google.fleetengine.auth.StaleWhileRevalidateAuthStateManager;
+import com.google.fleetengine.auth.TokenStoreAuthStateManager;
+import com.google.fleetengine.auth.TokenStoreAuthStateManagerSettings;
+import com.google.fleetengine.auth.benchmark.BenchmarkTokens.ClaimsScope;
+import com.google.fleetengine.auth.store.InMemoryTokenStore;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.factory.FleetEngineTokenFactory;
+import com.google.fleetengine.auth.token.factory.FleetEngineTokenFactorySettings;
+import com.google.fleetengine.auth.token.factory.TokenFactory;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast state managers provide signed tokens of each type when the token is cached and
+ * when it has to be signed.
+ *
+ * <p>Every call requests the same wildcard claims. Cache hits are signed with the default token
+ * lifetime. Cache misses are signed with a one minute lifetime, which is already within the default
+ * five minute refresh window of the state managers, so every call signs a new token with a {@link
+ * com.google.fleetengine.auth.token.factory.signer.LocalSigner}. The stale-while-revalidate manager
+ * keeps serving such tokens while it signs their replacement in the background.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateManagerBenchmark {
+  /** State manager implementations under measurement. */
+  public enum Manager {
+    NAIVE,
+    CACHING,
+    REFRESH_AHEAD,
+    STALE_WHILE_REVALIDATE,
+    PERSISTENT,
+    TOKEN_STORE,
+    SHARED_MEMORY
+  }
+
+  /** Whether the requested token is already cached. */
+  public enum Cache {
+    HIT,
+    MISS
+  }
+
+  /** Lifetime of tokens signed for cache misses, shorter than the default refresh margin. */
+  private static final TokenPolicy MISS_POLICY =
+      TokenPolicy.builder()
+          .setLifetime(Duration.ofMinutes(1))
+          .setRefreshMargin(Duration.ofSeconds(30))
+          .build();
+
+  @Param({
+    "NAIVE",
+    "CACHING",
+    "REFRESH_AHEAD",
+    "STALE_WHILE_REVALIDATE",
+    "PERSISTENT",
+    "TOKEN_STORE",
+    "SHARED_MEMORY"
+  })
+  public Manager manager;
+
+  @Param({
+    "SERVER",
+    "DRIVER",
+    "CONSUMER",
+    "DELIVERY_SERVER",
+    "DELIVERY_CONSUMER",
+    "UNTRUSTED_DELIVERY_DRIVER",
+    "TRUSTED_DELIVERY_DRIVER",
+    "DELIVERY_FLEET_READER",
+    "FLEET_READER",
+    "CUSTOM"
+  })
+  public FleetEngineTokenType tokenType;
+
+  @Param({"HIT", "MISS"})
+  public Cache cache;
+
+  private FleetEngineAuthTokenStateManager stateManager;
+  private TokenFactory tokenFactory;
+  private Signer signer;
+  private FleetEngineTokenClaims claims;
+  private Path file;
+
+  @Setup
+  public void setup() throws GeneralSecurityException, IOException {
+    signer = BenchmarkTokens.createLocalSigner();
+    stateManager = createStateManager();
+    tokenFactory =
+        cache == Cache.HIT
+            ? BenchmarkTokens.createTokenFactory()
+            : new FleetEngineTokenFactory(
+                FleetEngineTokenFactorySettings.builder()
+                    .setTokenPolicies(
+                        TokenPolicies.builder().setDefaultPolicy(MISS_POLICY).build())
+                    .build());
+    claims = BenchmarkTokens.claims(tokenType, ClaimsScope.WILDCARD, null);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    if (stateManager instanceof AutoCloseable) {
+      ((AutoCloseable) stateManager).close();
+    }
+    if (file != null) {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Benchmark
+  public FleetEngineToken signToken() throws SigningTokenException {
+    return stateManager.signToken(
+        signer,
+        tokenType,
+        tokenFactory.audience(),
+        claims,
+        () -> BenchmarkTokens.createToken(tokenFactory, tokenType, claims));
+  }
+
+  private FleetEngineAuthTokenStateManager createStateManager() throws IOException {
+    switch (manager) {
+      case CACHING:
+        return new CachingAuthStateManager();
+      case REFRESH_AHEAD:
+        return new RefreshAheadAuthStateManager(
+            RefreshAheadAuthStateManagerSettings.builder().build());
+      case STALE_WHILE_REVALIDATE:
+        return new StaleWhileRevalidateAuthStateManager();
+      case PERSISTENT:
+        file = Files.createTempFile("fleetengine-auth-benchmark", ".tokens");
+        return new PersistentAuthStateManager(
+            PersistentAuthStateManagerSettings.builder().setPath(file).build());
+      case TOKEN_STORE:
+        return new TokenStoreAuthStateManager(
+            TokenStoreAuthStateManagerSettings.builder().build(), new InMemoryTokenStore());
+      case SHARED_MEMORY:
+        file = Files.createTempFile("fleetengine-auth-benchmark", ".shared");
+        return new SharedMemoryAuthStateManager(
+            SharedMemoryAuthStateManagerSettings.builder()
+                .setPath(file)
+                .setSignerIdentity(BenchmarkTokens.CLIENT_EMAIL)
+                .build());
+      case NAIVE:
+      default:
+        return new NaiveAuthStateManager();
+    }
+  }
+}
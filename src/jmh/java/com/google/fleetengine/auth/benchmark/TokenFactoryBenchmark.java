@@ -0,0 +1,73 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.benchmark;
+
+import com.google.fleetengine.auth.benchmark.BenchmarkTokens.ClaimsScope;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.TokenFactory;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures how fast {@link TokenFactory} creates unsigned tokens of each type. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenFactoryBenchmark {
+  @Param({
+    "SERVER",
+    "DRIVER",
+    "CONSUMER",
+    "DELIVERY_SERVER",
+    "DELIVERY_CONSUMER",
+    "UNTRUSTED_DELIVERY_DRIVER",
+    "TRUSTED_DELIVERY_DRIVER",
+    "DELIVERY_FLEET_READER",
+    "FLEET_READER",
+    "CUSTOM"
+  })
+  public FleetEngineTokenType tokenType;
+
+  @Param({"WILDCARD", "ENTITY"})
+  public ClaimsScope claimsScope;
+
+  private TokenFactory tokenFactory;
+  private FleetEngineTokenClaims claims;
+
+  @Setup
+  public void setup() {
+    tokenFactory = BenchmarkTokens.createTokenFactory();
+    claims = BenchmarkTokens.claims(tokenType, claimsScope, "entity-id");
+  }
+
+  @Benchmark
+  public FleetEngineToken createToken() {
+    return BenchmarkTokens.createToken(tokenFactory, tokenType, claims);
+  }
+}
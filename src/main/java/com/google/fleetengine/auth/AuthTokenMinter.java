@@ -15,11 +15,21 @@
 package com.google.fleetengine.auth;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.fleetengine.auth.client.FleetEngineTokenProvider;
+import com.google.fleetengine.auth.metrics.AuthEventScope;
+import com.google.fleetengine.auth.metrics.AuthEvents;
+import com.google.fleetengine.auth.token.DeliveryFleetReaderClaims;
+import com.google.fleetengine.auth.token.DeliveryServerTokenClaims;
 import com.google.fleetengine.auth.token.DeliveryVehicleClaims;
 import com.google.fleetengine.auth.token.FleetEngineToken;
 import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.FleetReaderClaims;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
 import com.google.fleetengine.auth.token.TaskClaims;
+import com.google.fleetengine.auth.token.TokenPolicies;
 import com.google.fleetengine.auth.token.TrackingClaims;
 import com.google.fleetengine.auth.token.TripClaims;
 import com.google.fleetengine.auth.token.VehicleClaims;
@@ -28,6 +38,19 @@ import com.google.fleetengine.auth.token.factory.FleetEngineTokenFactorySettings
 import com.google.fleetengine.auth.token.factory.TokenFactory;
 import com.google.fleetengine.auth.token.factory.signer.Signer;
 import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 /**
@@ -59,6 +82,21 @@ import javax.annotation.Nullable;
  */
 @AutoValue
 public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
+  private static final String MISSING_DRIVER_SIGNER_MESSAGE =
+      "Unable to sign Driver tokens due to the driver signer not being set.";
+  private static final String MISSING_CONSUMER_SIGNER_MESSAGE =
+      "Unable to sign consumer tokens due to the consumer signer not being set.";
+  private static final String MISSING_DELIVERY_CONSUMER_SIGNER_MESSAGE =
+      "Unable to sign delivery consumer tokens due to the delivery consumer signer not being set.";
+  private static final String MISSING_UNTRUSTED_DELIVERY_DRIVER_SIGNER_MESSAGE =
+      "Unable to sign untrusted delivery driver tokens due to the untrusted delivery driver "
+          + "signer not being set.";
+  private static final String MISSING_TRUSTED_DELIVERY_DRIVER_SIGNER_MESSAGE =
+      "Unable to sign trusted delivery driver tokens due to the trusted delivery driver "
+          + "signer not being set.";
+  private static final String MISSING_CUSTOM_SIGNER_MESSAGE =
+      "Unable to sign custom tokens due to the custom signer not being set.";
+
   /** Signer responsible for signing JWTs with a server key. */
   @Nullable
   public abstract Signer serverSigner();
@@ -105,6 +143,19 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
   /** Authorization state manager responsible for caching signed JWTs. */
   public abstract FleetEngineAuthTokenStateManager tokenStateManager();
 
+  /**
+   * Lifetime and refresh policies of the minted tokens, applied by the default token factory and
+   * state manager.
+   */
+  @Override
+  public abstract TokenPolicies tokenPolicies();
+
+  /** Runs blocking work needed by the asynchronous {@code get*TokenAsync} methods. */
+  public abstract Executor signingExecutor();
+
+  /** Maximum number of tokens signed at once by the bulk {@code get*Tokens} methods. */
+  public abstract int bulkSigningParallelism();
+
   /** Specifies which server signer to use by default. */
   abstract DefaultServerTokenType defaultServerTokenType();
 
@@ -115,10 +166,10 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
    * <p>{@link NaiveAuthStateManager} set as default state manager.
    */
   public static AuthTokenMinter.Builder builder() {
-    FleetEngineTokenFactorySettings settings = FleetEngineTokenFactorySettings.builder().build();
     return new AutoValue_AuthTokenMinter.Builder()
-        .setTokenStateManager(new NaiveAuthStateManager())
-        .setTokenFactory(new FleetEngineTokenFactory(settings))
+        .setTokenPolicies(TokenPolicies.defaults())
+        .setSigningExecutor(DefaultSigningExecutor.INSTANCE)
+        .setBulkSigningParallelism(Runtime.getRuntime().availableProcessors())
         .setDefaultServerTokenType(DefaultServerTokenType.ODRD);
   }
 
@@ -129,10 +180,10 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
    * <p>{@link NaiveAuthStateManager} set as default state manager.
    */
   public static AuthTokenMinter.Builder deliveryBuilder() {
-    FleetEngineTokenFactorySettings settings = FleetEngineTokenFactorySettings.builder().build();
     return new AutoValue_AuthTokenMinter.Builder()
-        .setTokenStateManager(new NaiveAuthStateManager())
-        .setTokenFactory(new FleetEngineTokenFactory(settings))
+        .setTokenPolicies(TokenPolicies.defaults())
+        .setSigningExecutor(DefaultSigningExecutor.INSTANCE)
+        .setBulkSigningParallelism(Runtime.getRuntime().availableProcessors())
         .setDefaultServerTokenType(DefaultServerTokenType.LMFS);
   }
 
@@ -147,8 +198,11 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
    *     FleetEngineAuthTokenStateManager#EXPIRATION_WINDOW_DURATION}
    */
   public FleetEngineToken getServerToken() throws SigningTokenException {
-    FleetEngineToken unsignedToken = tokenFactory().createServerToken();
-    return tokenStateManager().signToken(serverSigner(), unsignedToken);
+    return signToken(
+        serverSigner(),
+        FleetEngineTokenType.SERVER,
+        ServerTokenClaims.create(),
+        () -> tokenFactory().createServerToken());
   }
 
   /**
@@ -166,11 +220,13 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
    */
   public FleetEngineToken getDriverToken(VehicleClaims claims) throws SigningTokenException {
     if (driverSigner() == null) {
-      throw new SigningTokenException(
-          "Unable to sign Driver tokens due to the driver signer not being set.");
+      throw new SigningTokenException(MISSING_DRIVER_SIGNER_MESSAGE);
     }
-    FleetEngineToken unsignedToken = tokenFactory().createDriverToken(claims);
-    return tokenStateManager().signToken(driverSigner(), unsignedToken);
+    return signToken(
+        driverSigner(),
+        FleetEngineTokenType.DRIVER,
+        claims,
+        () -> tokenFactory().createDriverToken(claims));
   }
 
   /**
@@ -188,11 +244,13 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
    */
   public FleetEngineToken getConsumerToken(TripClaims claims) throws SigningTokenException {
     if (consumerSigner() == null) {
-      throw new SigningTokenException(
-          "Unable to sign consumer tokens due to the consumer signer not being set.");
+      throw new SigningTokenException(MISSING_CONSUMER_SIGNER_MESSAGE);
     }
-    FleetEngineToken unsignedToken = tokenFactory().createConsumerToken(claims);
-    return tokenStateManager().signToken(consumerSigner(), unsignedToken);
+    return signToken(
+        consumerSigner(),
+        FleetEngineTokenType.CONSUMER,
+        claims,
+        () -> tokenFactory().createConsumerToken(claims));
   }
 
   /**
@@ -207,8 +265,11 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
    *     {@link FleetEngineAuthTokenStateManager#EXPIRATION_WINDOW_DURATION} minutes.
    */
   public FleetEngineToken getDeliveryServerToken() throws SigningTokenException {
-    FleetEngineToken unsignedToken = tokenFactory().createDeliveryServerToken();
-    return tokenStateManager().signToken(deliveryServerSigner(), unsignedToken);
+    return signToken(
+        deliveryServerSigner(),
+        FleetEngineTokenType.DELIVERY_SERVER,
+        DeliveryServerTokenClaims.create(),
+        () -> tokenFactory().createDeliveryServerToken());
   }
 
   /**
@@ -226,12 +287,13 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
    */
   public FleetEngineToken getDeliveryConsumerToken(TaskClaims claims) throws SigningTokenException {
     if (deliveryConsumerSigner() == null) {
-      throw new SigningTokenException(
-          "Unable to sign delivery consumer tokens due to the delivery consumer signer not being"
-              + " set.");
+      throw new SigningTokenException(MISSING_DELIVERY_CONSUMER_SIGNER_MESSAGE);
     }
-    FleetEngineToken unsignedToken = tokenFactory().createDeliveryConsumerToken(claims);
-    return tokenStateManager().signToken(deliveryConsumerSigner(), unsignedToken);
+    return signToken(
+        deliveryConsumerSigner(),
+        FleetEngineTokenType.DELIVERY_CONSUMER,
+        claims,
+        () -> tokenFactory().createDeliveryConsumerToken(claims));
   }
 
   /**
@@ -250,12 +312,13 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
   public FleetEngineToken getDeliveryConsumerToken(TrackingClaims claims)
       throws SigningTokenException {
     if (deliveryConsumerSigner() == null) {
-      throw new SigningTokenException(
-          "Unable to sign delivery consumer tokens due to the delivery consumer signer not being"
-              + " set.");
+      throw new SigningTokenException(MISSING_DELIVERY_CONSUMER_SIGNER_MESSAGE);
     }
-    FleetEngineToken unsignedToken = tokenFactory().createDeliveryConsumerToken(claims);
-    return tokenStateManager().signToken(deliveryConsumerSigner(), unsignedToken);
+    return signToken(
+        deliveryConsumerSigner(),
+        FleetEngineTokenType.DELIVERY_CONSUMER,
+        claims,
+        () -> tokenFactory().createDeliveryConsumerToken(claims));
   }
 
   /**
@@ -274,12 +337,13 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
   public FleetEngineToken getUntrustedDeliveryVehicleToken(DeliveryVehicleClaims claims)
       throws SigningTokenException {
     if (untrustedDeliveryDriverSigner() == null) {
-      throw new SigningTokenException(
-          "Unable to sign untrusted delivery driver tokens due to the untrusted delivery driver "
-              + "signer not being set.");
+      throw new SigningTokenException(MISSING_UNTRUSTED_DELIVERY_DRIVER_SIGNER_MESSAGE);
     }
-    FleetEngineToken unsignedToken = tokenFactory().createUntrustedDeliveryDriverToken(claims);
-    return tokenStateManager().signToken(untrustedDeliveryDriverSigner(), unsignedToken);
+    return signToken(
+        untrustedDeliveryDriverSigner(),
+        FleetEngineTokenType.UNTRUSTED_DELIVERY_DRIVER,
+        claims,
+        () -> tokenFactory().createUntrustedDeliveryDriverToken(claims));
   }
 
   /**
@@ -298,12 +362,13 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
   public FleetEngineToken getTrustedDeliveryVehicleToken(DeliveryVehicleClaims claims)
       throws SigningTokenException {
     if (trustedDeliveryDriverSigner() == null) {
-      throw new SigningTokenException(
-          "Unable to sign trusted delivery driver tokens due to the trusted delivery driver "
-              + "signer not being set.");
+      throw new SigningTokenException(MISSING_TRUSTED_DELIVERY_DRIVER_SIGNER_MESSAGE);
     }
-    FleetEngineToken unsignedToken = tokenFactory().createTrustedDeliveryDriverToken(claims);
-    return tokenStateManager().signToken(trustedDeliveryDriverSigner(), unsignedToken);
+    return signToken(
+        trustedDeliveryDriverSigner(),
+        FleetEngineTokenType.TRUSTED_DELIVERY_DRIVER,
+        claims,
+        () -> tokenFactory().createTrustedDeliveryDriverToken(claims));
   }
 
   /**
@@ -324,13 +389,24 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
       TaskClaims taskClaims)
       throws SigningTokenException {
     if (trustedDeliveryDriverSigner() == null) {
-      throw new SigningTokenException(
-          "Unable to sign trusted delivery driver tokens due to the trusted delivery driver "
-              + "signer not being set.");
+      throw new SigningTokenException(MISSING_TRUSTED_DELIVERY_DRIVER_SIGNER_MESSAGE);
     }
+    // The merged claims are only known once the token factory creates the token.
     FleetEngineToken unsignedToken =
         tokenFactory().createTrustedDeliveryDriverToken(vehicleClaims, taskClaims);
-    return tokenStateManager().signToken(trustedDeliveryDriverSigner(), unsignedToken);
+    AuthEventScope event =
+        AuthEvents.beginTokenMint(
+            FleetEngineTokenType.TRUSTED_DELIVERY_DRIVER,
+            unsignedToken.authorizationClaims(),
+            trustedDeliveryDriverSigner());
+    try {
+      return tokenStateManager().signToken(trustedDeliveryDriverSigner(), unsignedToken);
+    } catch (SigningTokenException | RuntimeException | Error e) {
+      event.fail(e);
+      throw e;
+    } finally {
+      event.close();
+    }
   }
 
   /**
@@ -345,8 +421,11 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
    *     {@link FleetEngineAuthTokenStateManager#EXPIRATION_WINDOW_DURATION} minutes.
    */
   public FleetEngineToken getDeliveryFleetReaderToken() throws SigningTokenException {
-    FleetEngineToken unsignedToken = tokenFactory().createDeliveryFleetReaderToken();
-    return tokenStateManager().signToken(deliveryFleetReaderSigner(), unsignedToken);
+    return signToken(
+        deliveryFleetReaderSigner(),
+        FleetEngineTokenType.DELIVERY_FLEET_READER,
+        DeliveryFleetReaderClaims.create(),
+        () -> tokenFactory().createDeliveryFleetReaderToken());
   }
 
   /**
@@ -361,8 +440,11 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
    *     FleetEngineAuthTokenStateManager#EXPIRATION_WINDOW_DURATION} minutes.
    */
   public FleetEngineToken getFleetReaderToken() throws SigningTokenException {
-    FleetEngineToken unsignedToken = tokenFactory().createFleetReaderToken();
-    return tokenStateManager().signToken(fleetReaderSigner(), unsignedToken);
+    return signToken(
+        fleetReaderSigner(),
+        FleetEngineTokenType.FLEET_READER,
+        FleetReaderClaims.create(),
+        () -> tokenFactory().createFleetReaderToken());
   }
 
   /**
@@ -381,11 +463,357 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
   public FleetEngineToken getCustomToken(FleetEngineTokenClaims claims)
       throws SigningTokenException {
     if (customSigner() == null) {
-      throw new SigningTokenException(
-          "Unable to sign custom tokens due to the custom signer not being set.");
+      throw new SigningTokenException(MISSING_CUSTOM_SIGNER_MESSAGE);
     }
-    FleetEngineToken unsignedToken = tokenFactory().createCustomToken(claims);
-    return tokenStateManager().signToken(customSigner(), unsignedToken);
+    return signToken(
+        customSigner(),
+        FleetEngineTokenType.CUSTOM,
+        claims,
+        () -> tokenFactory().createCustomToken(claims));
+  }
+
+  /**
+   * Asynchronous variant of {@link #getServerToken()} that does not block the calling thread.
+   *
+   * @return future of a Fleet Engine token with the "Server" role, completed exceptionally with a
+   *     {@link SigningTokenException} if there is an issue while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getServerTokenAsync() {
+    return signTokenAsync(
+        serverSigner(),
+        null,
+        FleetEngineTokenType.SERVER,
+        ServerTokenClaims.create(),
+        () -> tokenFactory().createServerToken());
+  }
+
+  /**
+   * Asynchronous variant of {@link #getDriverToken(VehicleClaims)} that does not block the calling
+   * thread.
+   *
+   * @param claims custom vehicle claims
+   * @return future of a Fleet Engine token with the "Driver" role, completed exceptionally with a
+   *     {@link SigningTokenException} if the driver signer was not set, or if there is an issue
+   *     while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getDriverTokenAsync(VehicleClaims claims) {
+    return signTokenAsync(
+        driverSigner(),
+        MISSING_DRIVER_SIGNER_MESSAGE,
+        FleetEngineTokenType.DRIVER,
+        claims,
+        () -> tokenFactory().createDriverToken(claims));
+  }
+
+  /**
+   * Asynchronous variant of {@link #getConsumerToken(TripClaims)} that does not block the calling
+   * thread.
+   *
+   * @param claims custom trip claims
+   * @return future of a Fleet Engine token with the "Consumer" role, completed exceptionally with a
+   *     {@link SigningTokenException} if the consumer signer was not set, or if there is an issue
+   *     while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getConsumerTokenAsync(TripClaims claims) {
+    return signTokenAsync(
+        consumerSigner(),
+        MISSING_CONSUMER_SIGNER_MESSAGE,
+        FleetEngineTokenType.CONSUMER,
+        claims,
+        () -> tokenFactory().createConsumerToken(claims));
+  }
+
+  /**
+   * Asynchronous variant of {@link #getDeliveryServerToken()} that does not block the calling
+   * thread.
+   *
+   * @return future of a Fleet Engine token with the "Delivery Super User" role, completed
+   *     exceptionally with a {@link SigningTokenException} if there is an issue while signing the
+   *     token.
+   */
+  public CompletableFuture<FleetEngineToken> getDeliveryServerTokenAsync() {
+    return signTokenAsync(
+        deliveryServerSigner(),
+        null,
+        FleetEngineTokenType.DELIVERY_SERVER,
+        DeliveryServerTokenClaims.create(),
+        () -> tokenFactory().createDeliveryServerToken());
+  }
+
+  /**
+   * Asynchronous variant of {@link #getDeliveryConsumerToken(TaskClaims)} that does not block the
+   * calling thread.
+   *
+   * @param claims task claims
+   * @return future of a Fleet Engine token with the "Delivery Consumer" role, completed
+   *     exceptionally with a {@link SigningTokenException} if the delivery consumer signer was not
+   *     set, or if there is an issue while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getDeliveryConsumerTokenAsync(TaskClaims claims) {
+    return signTokenAsync(
+        deliveryConsumerSigner(),
+        MISSING_DELIVERY_CONSUMER_SIGNER_MESSAGE,
+        FleetEngineTokenType.DELIVERY_CONSUMER,
+        claims,
+        () -> tokenFactory().createDeliveryConsumerToken(claims));
+  }
+
+  /**
+   * Asynchronous variant of {@link #getDeliveryConsumerToken(TrackingClaims)} that does not block
+   * the calling thread.
+   *
+   * @param claims tracking claims
+   * @return future of a Fleet Engine token with the "Delivery Consumer" role, completed
+   *     exceptionally with a {@link SigningTokenException} if the delivery consumer signer was not
+   *     set, or if there is an issue while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getDeliveryConsumerTokenAsync(TrackingClaims claims) {
+    return signTokenAsync(
+        deliveryConsumerSigner(),
+        MISSING_DELIVERY_CONSUMER_SIGNER_MESSAGE,
+        FleetEngineTokenType.DELIVERY_CONSUMER,
+        claims,
+        () -> tokenFactory().createDeliveryConsumerToken(claims));
+  }
+
+  /**
+   * Asynchronous variant of {@link #getUntrustedDeliveryVehicleToken(DeliveryVehicleClaims)} that
+   * does not block the calling thread.
+   *
+   * @param claims delivery vehicle claims
+   * @return future of a Fleet Engine token with the "Untrusted Delivery Driver" role, completed
+   *     exceptionally with a {@link SigningTokenException} if the untrusted delivery driver signer
+   *     was not set, or if there is an issue while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getUntrustedDeliveryVehicleTokenAsync(
+      DeliveryVehicleClaims claims) {
+    return signTokenAsync(
+        untrustedDeliveryDriverSigner(),
+        MISSING_UNTRUSTED_DELIVERY_DRIVER_SIGNER_MESSAGE,
+        FleetEngineTokenType.UNTRUSTED_DELIVERY_DRIVER,
+        claims,
+        () -> tokenFactory().createUntrustedDeliveryDriverToken(claims));
+  }
+
+  /**
+   * Asynchronous variant of {@link #getTrustedDeliveryVehicleToken(DeliveryVehicleClaims)} that
+   * does not block the calling thread.
+   *
+   * @param claims delivery vehicle claims
+   * @return future of a Fleet Engine token with the "Trusted Delivery Driver" role, completed
+   *     exceptionally with a {@link SigningTokenException} if the trusted delivery driver signer
+   *     was not set, or if there is an issue while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getTrustedDeliveryVehicleTokenAsync(
+      DeliveryVehicleClaims claims) {
+    return signTokenAsync(
+        trustedDeliveryDriverSigner(),
+        MISSING_TRUSTED_DELIVERY_DRIVER_SIGNER_MESSAGE,
+        FleetEngineTokenType.TRUSTED_DELIVERY_DRIVER,
+        claims,
+        () -> tokenFactory().createTrustedDeliveryDriverToken(claims));
+  }
+
+  /**
+   * Asynchronous variant of {@link #getTrustedDeliveryVehicleToken(DeliveryVehicleClaims,
+   * TaskClaims)} that does not block the calling thread.
+   *
+   * @param vehicleClaims delivery vehicle claims
+   * @param taskClaims task claims
+   * @return future of a Fleet Engine token with the "Trusted Delivery Driver" role, completed
+   *     exceptionally with a {@link SigningTokenException} if the trusted delivery driver signer
+   *     was not set, or if there is an issue while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getTrustedDeliveryVehicleTokenAsync(
+      DeliveryVehicleClaims vehicleClaims, TaskClaims taskClaims) {
+    if (trustedDeliveryDriverSigner() == null) {
+      return failedFuture(
+          new SigningTokenException(MISSING_TRUSTED_DELIVERY_DRIVER_SIGNER_MESSAGE));
+    }
+    // The merged claims are only known once the token factory creates the token.
+    FleetEngineToken unsignedToken =
+        tokenFactory().createTrustedDeliveryDriverToken(vehicleClaims, taskClaims);
+    return signTokenAsync(
+        trustedDeliveryDriverSigner(),
+        null,
+        unsignedToken.tokenType(),
+        unsignedToken.authorizationClaims(),
+        () -> unsignedToken);
+  }
+
+  /**
+   * Asynchronous variant of {@link #getDeliveryFleetReaderToken()} that does not block the calling
+   * thread.
+   *
+   * @return future of a Fleet Engine token with the "Delivery Fleet Reader" role, completed
+   *     exceptionally with a {@link SigningTokenException} if there is an issue while signing the
+   *     token.
+   */
+  public CompletableFuture<FleetEngineToken> getDeliveryFleetReaderTokenAsync() {
+    return signTokenAsync(
+        deliveryFleetReaderSigner(),
+        null,
+        FleetEngineTokenType.DELIVERY_FLEET_READER,
+        DeliveryFleetReaderClaims.create(),
+        () -> tokenFactory().createDeliveryFleetReaderToken());
+  }
+
+  /**
+   * Asynchronous variant of {@link #getFleetReaderToken()} that does not block the calling thread.
+   *
+   * @return future of a Fleet Engine token with the "Fleet Reader" role, completed exceptionally
+   *     with a {@link SigningTokenException} if there is an issue while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getFleetReaderTokenAsync() {
+    return signTokenAsync(
+        fleetReaderSigner(),
+        null,
+        FleetEngineTokenType.FLEET_READER,
+        FleetReaderClaims.create(),
+        () -> tokenFactory().createFleetReaderToken());
+  }
+
+  /**
+   * Asynchronous variant of {@link #getCustomToken(FleetEngineTokenClaims)} that does not block the
+   * calling thread.
+   *
+   * @param claims custom fleet engine token claim
+   * @return future of a Fleet Engine token with any non standard role, completed exceptionally with
+   *     a {@link SigningTokenException} if the custom signer was not set, or if there is an issue
+   *     while signing the token.
+   */
+  public CompletableFuture<FleetEngineToken> getCustomTokenAsync(FleetEngineTokenClaims claims) {
+    return signTokenAsync(
+        customSigner(),
+        MISSING_CUSTOM_SIGNER_MESSAGE,
+        FleetEngineTokenType.CUSTOM,
+        claims,
+        () -> tokenFactory().createCustomToken(claims));
+  }
+
+  /**
+   * Returns Fleet Engine tokens signed with the driver signer, one for each of the specified
+   * vehicle claims.
+   *
+   * <p>Tokens are signed in parallel on {@link #signingExecutor()}, with at most {@link
+   * #bulkSigningParallelism()} tokens being signed at once. A claim whose token could not be signed
+   * does not prevent the remaining tokens from being signed.
+   *
+   * <p>Claims with the same {@link FleetEngineTokenClaims#toMap() map} are signed once. Results are
+   * keyed by the first of those claims in {@code claims}, so later duplicates have to be looked up
+   * with that first instance.
+   *
+   * @param claims custom vehicle claims, duplicates are only signed once
+   * @throws SigningTokenException if the thread was interrupted while waiting for tokens to be
+   *     signed.
+   * @return tokens with the "Driver" role and signing failures by the claims they were requested
+   *     for
+   */
+  public BulkTokenResult<VehicleClaims> getDriverTokens(Collection<VehicleClaims> claims)
+      throws SigningTokenException {
+    return signTokens(claims, this::getDriverTokenAsync);
+  }
+
+  /**
+   * Returns Fleet Engine tokens signed with the consumer signer, one for each of the specified trip
+   * claims.
+   *
+   * <p>See {@link #getDriverTokens(Collection)} for how tokens are signed.
+   *
+   * @param claims custom trip claims, duplicates are only signed once
+   * @throws SigningTokenException if the thread was interrupted while waiting for tokens to be
+   *     signed.
+   * @return tokens with the "Consumer" role and signing failures by the claims they were requested
+   *     for
+   */
+  public BulkTokenResult<TripClaims> getConsumerTokens(Collection<TripClaims> claims)
+      throws SigningTokenException {
+    return signTokens(claims, this::getConsumerTokenAsync);
+  }
+
+  /**
+   * Returns Fleet Engine tokens signed with the delivery consumer signer, one for each of the
+   * specified task claims.
+   *
+   * <p>See {@link #getDriverTokens(Collection)} for how tokens are signed.
+   *
+   * @param claims task claims, duplicates are only signed once
+   * @throws SigningTokenException if the thread was interrupted while waiting for tokens to be
+   *     signed.
+   * @return tokens with the "Delivery Consumer" role and signing failures by the claims they were
+   *     requested for
+   */
+  public BulkTokenResult<TaskClaims> getDeliveryConsumerTokens(Collection<TaskClaims> claims)
+      throws SigningTokenException {
+    return signTokens(claims, this::getDeliveryConsumerTokenAsync);
+  }
+
+  /**
+   * Returns Fleet Engine tokens signed with the delivery consumer signer, one for each of the
+   * specified tracking claims.
+   *
+   * <p>See {@link #getDriverTokens(Collection)} for how tokens are signed.
+   *
+   * @param claims tracking claims, duplicates are only signed once
+   * @throws SigningTokenException if the thread was interrupted while waiting for tokens to be
+   *     signed.
+   * @return tokens with the "Delivery Consumer" role and signing failures by the claims they were
+   *     requested for
+   */
+  public BulkTokenResult<TrackingClaims> getDeliveryConsumerTokensForTracking(
+      Collection<TrackingClaims> claims) throws SigningTokenException {
+    return signTokens(claims, this::getDeliveryConsumerTokenAsync);
+  }
+
+  /**
+   * Returns Fleet Engine tokens signed with the untrusted delivery driver signer, one for each of
+   * the specified delivery vehicle claims.
+   *
+   * <p>See {@link #getDriverTokens(Collection)} for how tokens are signed.
+   *
+   * @param claims delivery vehicle claims, duplicates are only signed once
+   * @throws SigningTokenException if the thread was interrupted while waiting for tokens to be
+   *     signed.
+   * @return tokens with the "Untrusted Delivery Driver" role and signing failures by the claims
+   *     they were requested for
+   */
+  public BulkTokenResult<DeliveryVehicleClaims> getUntrustedDeliveryVehicleTokens(
+      Collection<DeliveryVehicleClaims> claims) throws SigningTokenException {
+    return signTokens(claims, this::getUntrustedDeliveryVehicleTokenAsync);
+  }
+
+  /**
+   * Returns Fleet Engine tokens signed with the trusted delivery driver signer, one for each of the
+   * specified delivery vehicle claims.
+   *
+   * <p>See {@link #getDriverTokens(Collection)} for how tokens are signed.
+   *
+   * @param claims delivery vehicle claims, duplicates are only signed once
+   * @throws SigningTokenException if the thread was interrupted while waiting for tokens to be
+   *     signed.
+   * @return tokens with the "Trusted Delivery Driver" role and signing failures by the claims they
+   *     were requested for
+   */
+  public BulkTokenResult<DeliveryVehicleClaims> getTrustedDeliveryVehicleTokens(
+      Collection<DeliveryVehicleClaims> claims) throws SigningTokenException {
+    return signTokens(claims, this::getTrustedDeliveryVehicleTokenAsync);
+  }
+
+  /**
+   * Returns Fleet Engine tokens signed with the custom signer, one for each of the specified
+   * claims.
+   *
+   * <p>See {@link #getDriverTokens(Collection)} for how tokens are signed.
+   *
+   * @param claims custom fleet engine token claims, duplicates are only signed once
+   * @throws SigningTokenException if the thread was interrupted while waiting for tokens to be
+   *     signed.
+   * @return tokens with any non standard role and signing failures by the claims they were
+   *     requested for
+   */
+  public BulkTokenResult<FleetEngineTokenClaims> getCustomTokens(
+      Collection<FleetEngineTokenClaims> claims) throws SigningTokenException {
+    return signTokens(claims, this::getCustomTokenAsync);
   }
 
   /** Returns a non-expired server token with a base64 signed JWT. */
@@ -397,6 +825,182 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
     return getServerToken();
   }
 
+  /**
+   * Asynchronous variant of {@link #getSignedToken()} that does not block the calling thread.
+   *
+   * <p>Tokens held by the {@link #tokenStateManager()} are returned without scheduling any work,
+   * otherwise the token is signed on {@code executor} instead of on {@link #signingExecutor()}.
+   */
+  @Override
+  public CompletableFuture<FleetEngineToken> getSignedTokenAsync(Executor executor) {
+    if (defaultServerTokenType() == DefaultServerTokenType.LMFS) {
+      return signTokenAsync(
+          deliveryServerSigner(),
+          null,
+          FleetEngineTokenType.DELIVERY_SERVER,
+          DeliveryServerTokenClaims.create(),
+          () -> tokenFactory().createDeliveryServerToken(),
+          executor);
+    }
+    return signTokenAsync(
+        serverSigner(),
+        null,
+        FleetEngineTokenType.SERVER,
+        ServerTokenClaims.create(),
+        () -> tokenFactory().createServerToken(),
+        executor);
+  }
+
+  /** Signs a token through the state manager and records it as a flight recorder event. */
+  private FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    AuthEventScope event = AuthEvents.beginTokenMint(tokenType, claims, signer);
+    try {
+      return tokenStateManager()
+          .signToken(signer, tokenType, tokenFactory().audience(), claims, unsignedTokenSupplier);
+    } catch (SigningTokenException | RuntimeException | Error e) {
+      event.fail(e);
+      throw e;
+    } finally {
+      event.close();
+    }
+  }
+
+  /**
+   * Signs a token through the state manager without blocking the calling thread.
+   *
+   * @param missingSignerMessage message of the exception the future fails with when {@code signer}
+   *     is {@code null}, or {@code null} when the signer is not checked
+   */
+  private CompletableFuture<FleetEngineToken> signTokenAsync(
+      @Nullable Signer signer,
+      @Nullable String missingSignerMessage,
+      FleetEngineTokenType tokenType,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier) {
+    return signTokenAsync(
+        signer,
+        missingSignerMessage,
+        tokenType,
+        claims,
+        unsignedTokenSupplier,
+        signingExecutor());
+  }
+
+  /** Signs a token through the state manager, running any blocking work on {@code executor}. */
+  private CompletableFuture<FleetEngineToken> signTokenAsync(
+      @Nullable Signer signer,
+      @Nullable String missingSignerMessage,
+      FleetEngineTokenType tokenType,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+    if (signer == null && missingSignerMessage != null) {
+      return failedFuture(new SigningTokenException(missingSignerMessage));
+    }
+    AuthEventScope event = AuthEvents.beginTokenMint(tokenType, claims, signer);
+    CompletableFuture<FleetEngineToken> signedToken;
+    try {
+      signedToken =
+          tokenStateManager()
+              .signTokenAsync(
+                  signer,
+                  tokenType,
+                  tokenFactory().audience(),
+                  claims,
+                  unsignedTokenSupplier,
+                  executor);
+    } catch (RuntimeException e) {
+      signedToken = failedFuture(e);
+    }
+    return signedToken.whenComplete(
+        (token, error) -> {
+          if (error != null) {
+            event.fail(unwrap(error));
+          }
+          event.close();
+        });
+  }
+
+  /**
+   * Signs a token for each distinct claim, keeping at most {@link #bulkSigningParallelism()}
+   * signatures in flight, and waits for all of them.
+   */
+  private <C extends FleetEngineTokenClaims> BulkTokenResult<C> signTokens(
+      Collection<C> claims, Function<C, CompletableFuture<FleetEngineToken>> signTokenAsync)
+      throws SigningTokenException {
+    // Claims do not implement equals(), duplicates are detected by their map of claims and the
+    // first instance is kept.
+    Map<ImmutableMap<String, String>, C> claimsByMap = new LinkedHashMap<>();
+    for (C claim : claims) {
+      claimsByMap.putIfAbsent(claim.toMap(), claim);
+    }
+    Collection<C> distinctClaims = claimsByMap.values();
+    Map<C, FleetEngineToken> tokens = new ConcurrentHashMap<>(distinctClaims.size());
+    Map<C, SigningTokenException> failures = new ConcurrentHashMap<>();
+    Semaphore permits = new Semaphore(Math.max(1, bulkSigningParallelism()));
+    CountDownLatch remaining = new CountDownLatch(distinctClaims.size());
+
+    try {
+      for (C claim : distinctClaims) {
+        permits.acquire();
+        signTokenAsync
+            .apply(claim)
+            .whenComplete(
+                (token, error) -> {
+                  if (error == null) {
+                    tokens.put(claim, token);
+                  } else {
+                    failures.put(claim, toSigningTokenException(error));
+                  }
+                  permits.release();
+                  remaining.countDown();
+                });
+      }
+      remaining.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SigningTokenException("Interrupted while waiting for tokens to be signed.", e);
+    }
+
+    // Report results in the order the claims were requested.
+    ImmutableMap.Builder<C, FleetEngineToken> orderedTokens = ImmutableMap.builder();
+    ImmutableMap.Builder<C, SigningTokenException> orderedFailures = ImmutableMap.builder();
+    for (C claim : distinctClaims) {
+      FleetEngineToken token = tokens.get(claim);
+      if (token != null) {
+        orderedTokens.put(claim, token);
+      } else {
+        orderedFailures.put(claim, failures.get(claim));
+      }
+    }
+    return BulkTokenResult.create(orderedTokens.build(), orderedFailures.build());
+  }
+
+  private static SigningTokenException toSigningTokenException(Throwable error) {
+    Throwable cause = unwrap(error);
+    if (cause instanceof SigningTokenException) {
+      return (SigningTokenException) cause;
+    }
+    return new SigningTokenException("Error while signing token.", cause);
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null
+        ? error.getCause()
+        : error;
+  }
+
+  private static CompletableFuture<FleetEngineToken> failedFuture(Throwable error) {
+    CompletableFuture<FleetEngineToken> future = new CompletableFuture<>();
+    future.completeExceptionally(error);
+    return future;
+  }
+
   /** Builder class for FleetEngineAuth. */
   @AutoValue.Builder
   public abstract static class Builder {
@@ -437,19 +1041,64 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
     /**
      * Sets token factory that creates unsigned tokens.
      *
-     * <p>By default, uses {@link FleetEngineTokenFactory}.
+     * <p>By default, uses {@link FleetEngineTokenFactory} with the policies set through {@link
+     * #setTokenPolicies(TokenPolicies)}.
      */
     public abstract Builder setTokenFactory(TokenFactory tokenFactory);
 
+    abstract Optional<TokenFactory> tokenFactory();
+
     /**
      * Sets the authorization state manager responsible for caching signed JWTs.
      *
-     * <p>By default, uses a naive manager that only caches server tokens.
+     * <p>By default, uses a naive manager that only caches server tokens, with the policies set
+     * through {@link #setTokenPolicies(TokenPolicies)}.
      *
      * @param manager manager providing valid tokens
      */
     public abstract Builder setTokenStateManager(FleetEngineAuthTokenStateManager manager);
 
+    abstract Optional<FleetEngineAuthTokenStateManager> tokenStateManager();
+
+    /**
+     * Sets the lifetime and refresh policies of the minted tokens.
+     *
+     * <p>The default token factory and state manager are built with these policies, and {@link
+     * com.google.fleetengine.auth.client.FleetEngineAuthCallCredentials} created for the minter
+     * replace their tokens according to them. A token factory or state manager set explicitly must
+     * be configured with the same policies.
+     *
+     * <p>By default, uses {@link TokenPolicies#defaults()}.
+     *
+     * @param tokenPolicies policies of the minted tokens
+     */
+    public abstract Builder setTokenPolicies(TokenPolicies tokenPolicies);
+
+    abstract TokenPolicies tokenPolicies();
+
+    /**
+     * Sets the executor that runs blocking work, eg. remote signing calls, needed by the
+     * asynchronous {@code get*TokenAsync} methods.
+     *
+     * <p>By default, uses a shared pool of daemon threads that are released when idle.
+     *
+     * @param executor executor running blocking signing work
+     */
+    public abstract Builder setSigningExecutor(Executor executor);
+
+    /**
+     * Sets the maximum number of tokens signed at once by the bulk {@code get*Tokens} methods.
+     * Values below one are treated as one.
+     *
+     * <p>By default, uses the number of available processors. Raise it when signing is dominated by
+     * remote calls, eg. with {@link
+     * com.google.fleetengine.auth.token.factory.signer.ImpersonatedSigner}, and make sure {@link
+     * #setSigningExecutor(Executor)} has enough threads to match.
+     *
+     * @param parallelism maximum number of tokens being signed at once
+     */
+    public abstract Builder setBulkSigningParallelism(int parallelism);
+
     /**
      * Specifies whether to provide default Odrd or Lmfs token by default.
      *
@@ -457,8 +1106,34 @@ public abstract class AuthTokenMinter implements FleetEngineTokenProvider {
      */
     abstract Builder setDefaultServerTokenType(DefaultServerTokenType defaultServerTokenType);
 
+    abstract AuthTokenMinter autoBuild();
+
     /** Builds {@link AuthTokenMinter}. */
-    public abstract AuthTokenMinter build();
+    public AuthTokenMinter build() {
+      if (!tokenFactory().isPresent()) {
+        setTokenFactory(
+            new FleetEngineTokenFactory(
+                FleetEngineTokenFactorySettings.builder()
+                    .setTokenPolicies(tokenPolicies())
+                    .build()));
+      }
+      if (!tokenStateManager().isPresent()) {
+        setTokenStateManager(new NaiveAuthStateManager(tokenPolicies()));
+      }
+      return autoBuild();
+    }
+  }
+
+  /** Default executor of blocking work needed by asynchronous requests. */
+  private static final class DefaultSigningExecutor {
+    static final Executor INSTANCE =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("fleetengine-auth-signer-%d")
+                .build());
+
+    private DefaultSigningExecutor() {}
   }
 
   /** Used internally to specify whether to provide ODRD or LMFS tokens by default. */
@@ -0,0 +1,51 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+
+/**
+ * Outcome of minting a token for each of several claims, see eg. {@link
+ * AuthTokenMinter#getDriverTokens(java.util.Collection)}.
+ *
+ * <p>Every distinct requested claim is a key of exactly one of {@link #tokens()} and {@link
+ * #failures()}. Both maps iterate in the order the claims were requested. Claims with the same
+ * {@link FleetEngineTokenClaims#toMap() map} are duplicates, only the first requested instance is a
+ * key.
+ *
+ * @param <C> type of the authorization claims tokens were requested for
+ */
+@AutoValue
+public abstract class BulkTokenResult<C extends FleetEngineTokenClaims> {
+  /** Signed tokens by the claims they were requested for. */
+  public abstract ImmutableMap<C, FleetEngineToken> tokens();
+
+  /** Reasons tokens could not be signed by the claims they were requested for. */
+  public abstract ImmutableMap<C, SigningTokenException> failures();
+
+  /** Returns whether at least one token could not be signed. */
+  public boolean hasFailures() {
+    return !failures().isEmpty();
+  }
+
+  static <C extends FleetEngineTokenClaims> BulkTokenResult<C> create(
+      ImmutableMap<C, FleetEngineToken> tokens, ImmutableMap<C, SigningTokenException> failures) {
+    return new AutoValue_BulkTokenResult<>(tokens, failures);
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.TokenPolicy;
+
+/**
+ * Signed token with the deadlines of its {@link TokenPolicy} computed once, when it is cached.
+ *
+ * <p>Lookups compare the deadlines with {@link
+ * FleetEngineTokenExpiryValidator#isPastDeadline(long)} instead of recomputing them from the
+ * expiration timestamp of the token.
+ */
+final class CachedToken {
+  final FleetEngineToken token;
+
+  /** Epoch millis after which the token has to be replaced. */
+  final long refreshDeadlineMillis;
+
+  /** Epoch millis after which the token may no longer be served, even stale. */
+  final long staleDeadlineMillis;
+
+  private CachedToken(
+      FleetEngineToken token, long refreshDeadlineMillis, long staleDeadlineMillis) {
+    this.token = token;
+    this.refreshDeadlineMillis = refreshDeadlineMillis;
+    this.staleDeadlineMillis = staleDeadlineMillis;
+  }
+
+  /** Computes the deadlines of {@code token} under {@code policy}. */
+  static CachedToken create(FleetEngineToken token, TokenPolicy policy) {
+    long expirationMillis = token.expirationTimestamp().getTime();
+    return new CachedToken(
+        token,
+        expirationMillis - policy.refreshWindow(token).toMillis(),
+        expirationMillis - policy.staleWindow(token).toMillis());
+  }
+}
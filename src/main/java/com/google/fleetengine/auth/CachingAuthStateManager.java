@@ -0,0 +1,345 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.fleetengine.auth.metrics.AuthEvents;
+import com.google.fleetengine.auth.metrics.CacheOutcome;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Provides valid Fleet Engine tokens from a bounded cache of signed tokens.
+ *
+ * <p>Unlike {@link NaiveAuthStateManager}, tokens with non-wildcard claims (eg. a token for one
+ * specific vehicle or trip) are cached as well. Tokens are keyed by the signer, token type,
+ * audience and authorization claims that they were signed with. Signers are compared with {@link
+ * Object#equals(Object)}, which is object identity for the signers provided by this library.
+ *
+ * <p>The cache is bounded either by number of tokens or by combined JWT length, see {@link
+ * CachingAuthStateManagerSettings}. The least recently used tokens are evicted first. Tokens within
+ * the {@link TokenPolicy#refreshWindow(FleetEngineToken) refresh window} of their expiration are
+ * replaced on lookup, and can be purged in bulk with {@link #removeExpiredTokens()}. Tokens that
+ * are not looked up again are evicted once the longest {@link TokenPolicies#maximumLifetime()
+ * lifetime} has passed since they were cached. Tokens whose policy is not {@link
+ * TokenPolicy#cacheable()} are always signed.
+ *
+ * <p>Concurrent lookups that miss on the same key share one signature, while lookups on other keys
+ * are not blocked.
+ */
+public class CachingAuthStateManager implements FleetEngineAuthTokenStateManager {
+
+  /** Weighs cached tokens by the length of their JWT, which is ASCII. */
+  private static final Weigher<TokenCacheKey, CachedToken> JWT_WEIGHER =
+      (key, cachedToken) -> cachedToken.token.jwt() == null ? 0 : cachedToken.token.jwt().length();
+
+  /** Validates whether a token has expired. */
+  private final FleetEngineTokenExpiryValidator tokenExpiryValidator;
+
+  private final TokenPolicies tokenPolicies;
+
+  /** Signed tokens with their refresh deadline. */
+  private final Cache<TokenCacheKey, CachedToken> cachedTokens;
+
+  /**
+   * Tokens being signed, keyed like the cache. Synchronous and asynchronous misses on the same key
+   * share one entry, and so one signature.
+   */
+  private final ConcurrentHashMap<TokenCacheKey, CompletableFuture<FleetEngineToken>>
+      inFlightSignatures = new ConcurrentHashMap<>();
+
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+  private final LongAdder expirationCount = new LongAdder();
+
+  /** Constructor with {@link CachingAuthStateManagerSettings} defaults. */
+  public CachingAuthStateManager() {
+    this(CachingAuthStateManagerSettings.builder().build());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param settings bounds of the cache
+   */
+  public CachingAuthStateManager(CachingAuthStateManagerSettings settings) {
+    this(settings, FleetEngineTokenExpiryValidator.getInstance());
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  CachingAuthStateManager(
+      CachingAuthStateManagerSettings settings,
+      FleetEngineTokenExpiryValidator tokenExpiryValidator) {
+    this(settings, tokenExpiryValidator, Ticker.systemTicker());
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  CachingAuthStateManager(
+      CachingAuthStateManagerSettings settings,
+      FleetEngineTokenExpiryValidator tokenExpiryValidator,
+      Ticker ticker) {
+    this.tokenExpiryValidator = tokenExpiryValidator;
+    this.tokenPolicies = settings.tokenPolicies();
+
+    CacheBuilder<Object, Object> cacheBuilder =
+        CacheBuilder.newBuilder()
+            .ticker(ticker)
+            .expireAfterWrite(tokenPolicies.maximumLifetime().toNanos(), TimeUnit.NANOSECONDS);
+    if (settings.maximumJwtBytes() != null) {
+      cacheBuilder.maximumWeight(settings.maximumJwtBytes()).weigher(JWT_WEIGHER);
+    } else {
+      cacheBuilder.maximumSize(settings.maximumSize());
+    }
+    RemovalListener<TokenCacheKey, CachedToken> removalListener = this::onRemoval;
+    this.cachedTokens = cacheBuilder.removalListener(removalListener).build();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken signToken(Signer signer, FleetEngineToken token)
+      throws SigningTokenException {
+    return signToken(
+        signer,
+        token.tokenType(),
+        token.audience(),
+        token.authorizationClaims(),
+        () -> token);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Cached tokens are returned without calling {@code unsignedTokenSupplier}.
+   */
+  @Override
+  public FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!policy.cacheable()) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return signer.sign(unsignedTokenSupplier.get());
+    }
+
+    TokenCacheKey key = TokenCacheKey.create(signer, tokenType, audience, claims.toMap());
+
+    FleetEngineToken cachedToken = getNonExpiredCachedToken(key);
+    if (cachedToken != null) {
+      hitCount.increment();
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return cachedToken;
+    }
+
+    missCount.increment();
+    // Concurrent misses that end up waiting for another caller are also recorded as misses.
+    AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+    CompletableFuture<FleetEngineToken> signature = new CompletableFuture<>();
+    CompletableFuture<FleetEngineToken> inFlightSignature =
+        inFlightSignatures.putIfAbsent(key, signature);
+    if (inFlightSignature != null) {
+      // Joins the signature of another synchronous or asynchronous caller.
+      return NaiveAuthStateManager.awaitRefresh(inFlightSignature);
+    }
+
+    try {
+      FleetEngineToken signedToken = getNonExpiredCachedToken(key);
+      if (signedToken == null) {
+        signedToken = signer.sign(unsignedTokenSupplier.get());
+        cachedTokens.put(key, CachedToken.create(signedToken, policy));
+      }
+      signature.complete(signedToken);
+      return signedToken;
+    } catch (SigningTokenException | RuntimeException | Error e) {
+      signature.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlightSignatures.remove(key, signature);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Cached tokens are returned as completed futures. Otherwise the token is signed with {@link
+   * Signer#signAsync(FleetEngineToken, Executor)} and no thread waits for the signature. Concurrent
+   * misses on the same key share one signature.
+   */
+  @Override
+  public CompletableFuture<FleetEngineToken> signTokenAsync(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!policy.cacheable()) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return NaiveAuthStateManager.signAsync(signer, unsignedTokenSupplier, executor);
+    }
+
+    TokenCacheKey key = TokenCacheKey.create(signer, tokenType, audience, claims.toMap());
+
+    FleetEngineToken cachedToken = getNonExpiredCachedToken(key);
+    if (cachedToken != null) {
+      hitCount.increment();
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return CompletableFuture.completedFuture(cachedToken);
+    }
+
+    missCount.increment();
+    AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+    CompletableFuture<FleetEngineToken> signature = new CompletableFuture<>();
+    CompletableFuture<FleetEngineToken> inFlightSignature =
+        inFlightSignatures.putIfAbsent(key, signature);
+    if (inFlightSignature != null) {
+      // Another caller is already signing this token, callers must not complete it.
+      return inFlightSignature.thenApply(Function.identity());
+    }
+
+    // Signed by another caller between the lookup and the registration of this signature.
+    cachedToken = getNonExpiredCachedToken(key);
+    if (cachedToken != null) {
+      inFlightSignatures.remove(key, signature);
+      signature.complete(cachedToken);
+      return CompletableFuture.completedFuture(cachedToken);
+    }
+
+    NaiveAuthStateManager.signAsync(signer, unsignedTokenSupplier, executor)
+        .whenComplete(
+            (signedToken, error) -> {
+              if (error == null) {
+                cachedTokens.put(key, CachedToken.create(signedToken, policy));
+              }
+              inFlightSignatures.remove(key, signature);
+              if (error == null) {
+                signature.complete(signedToken);
+              } else {
+                signature.completeExceptionally(NaiveAuthStateManager.unwrap(error));
+              }
+            });
+    return signature.thenApply(Function.identity());
+  }
+
+  /**
+   * Removes every cached token that is within the {@link
+   * TokenPolicy#refreshWindow(FleetEngineToken) refresh window} of its expiration.
+   *
+   * <p>Expired tokens are otherwise only replaced when they are looked up, or evicted once the
+   * cache reaches its bounds.
+   */
+  public void removeExpiredTokens() {
+    Iterator<Map.Entry<TokenCacheKey, CachedToken>> iterator =
+        cachedTokens.asMap().entrySet().iterator();
+    while (iterator.hasNext()) {
+      if (isExpired(iterator.next().getValue())) {
+        iterator.remove();
+        expirationCount.increment();
+      }
+    }
+    cachedTokens.cleanUp();
+  }
+
+  /** Returns hit, miss and eviction statistics of the cache. */
+  public TokenCacheStats stats() {
+    return TokenCacheStats.create(
+        hitCount.sum(),
+        missCount.sum(),
+        evictionCount.sum(),
+        expirationCount.sum(),
+        cachedTokens.size());
+  }
+
+  /** Returns the cached token for {@code key}, removing it once it is due for refresh. */
+  @Nullable
+  private FleetEngineToken getNonExpiredCachedToken(TokenCacheKey key) {
+    CachedToken cachedToken = cachedTokens.getIfPresent(key);
+    if (cachedToken == null) {
+      return null;
+    }
+    if (!isExpired(cachedToken)) {
+      return cachedToken.token;
+    }
+    if (cachedTokens.asMap().remove(key, cachedToken)) {
+      expirationCount.increment();
+    }
+    return null;
+  }
+
+  private boolean isExpired(CachedToken cachedToken) {
+    return tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis);
+  }
+
+  private void onRemoval(RemovalNotification<TokenCacheKey, CachedToken> notification) {
+    if (notification.getCause() == RemovalCause.EXPIRED) {
+      expirationCount.increment();
+    } else if (notification.wasEvicted()) {
+      evictionCount.increment();
+    }
+  }
+
+  /** Identifies a signed token in the cache. */
+  @AutoValue
+  abstract static class TokenCacheKey {
+    abstract Signer signer();
+
+    abstract FleetEngineTokenType tokenType();
+
+    @Nullable
+    abstract String audience();
+
+    abstract ImmutableMap<String, String> claims();
+
+    static TokenCacheKey create(
+        Signer signer,
+        FleetEngineTokenType tokenType,
+        @Nullable String audience,
+        ImmutableMap<String, String> claims) {
+      return new AutoValue_CachingAuthStateManager_TokenCacheKey(
+          signer, tokenType, audience, claims);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.auto.value.AutoValue;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import javax.annotation.Nullable;
+
+/** Settings for {@link CachingAuthStateManager}. */
+@AutoValue
+public abstract class CachingAuthStateManagerSettings {
+  /** Default maximum number of signed tokens kept in the cache. */
+  public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+
+  /**
+   * Maximum number of signed tokens kept in the cache.
+   *
+   * <p>Ignored when {@link #maximumJwtBytes()} is set.
+   */
+  public abstract long maximumSize();
+
+  /**
+   * Maximum combined length, in bytes, of the JWTs kept in the cache.
+   *
+   * <p>When set, the cache is bounded by JWT bytes instead of by {@link #maximumSize()}.
+   */
+  @Nullable
+  public abstract Long maximumJwtBytes();
+
+  /** Policies that set when cached tokens are replaced, by token type and audience. */
+  public abstract TokenPolicies tokenPolicies();
+
+  /** Provides a builder for {@link CachingAuthStateManagerSettings}. */
+  public static Builder builder() {
+    return new AutoValue_CachingAuthStateManagerSettings.Builder()
+        .setMaximumSize(DEFAULT_MAXIMUM_SIZE)
+        .setTokenPolicies(TokenPolicies.defaults());
+  }
+
+  /** Builder class for CachingAuthStateManagerSettings. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the maximum number of signed tokens kept in the cache. */
+    public abstract Builder setMaximumSize(long maximumSize);
+
+    /** Bounds the cache by the combined length of the cached JWTs instead of by entry count. */
+    public abstract Builder setMaximumJwtBytes(Long maximumJwtBytes);
+
+    /** Sets the policies that set when cached tokens are replaced. */
+    public abstract Builder setTokenPolicies(TokenPolicies tokenPolicies);
+
+    /** Builds {@link CachingAuthStateManagerSettings}. */
+    public abstract CachingAuthStateManagerSettings build();
+  }
+}
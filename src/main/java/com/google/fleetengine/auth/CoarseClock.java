@@ -0,0 +1,144 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UTC clock that reads a time updated by a daemon ticker instead of the system clock.
+ *
+ * <p>{@link #millis()} is a single volatile read, and lags behind the system clock by at most
+ * {@link #TICK_INTERVAL}. This is precise enough to compare against token expirations, which are
+ * minutes apart, on every RPC.
+ */
+public final class CoarseClock extends Clock {
+
+  /** Time between two updates of the shared clock. */
+  public static final Duration TICK_INTERVAL = Duration.ofMillis(10);
+
+  /** Clock that the time is read from on every tick. */
+  private final Clock source;
+
+  private volatile long millis;
+
+  /** Returns the clock shared by the library, its ticker is started on first use. */
+  public static CoarseClock system() {
+    return SystemHolder.INSTANCE;
+  }
+
+  /** Constructor for testing, the time only changes on {@link #tick()}. */
+  @VisibleForTesting
+  CoarseClock(Clock source) {
+    this.source = source;
+    this.millis = source.millis();
+  }
+
+  /** Reads the time from the source clock. */
+  @VisibleForTesting
+  void tick() {
+    millis = source.millis();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long millis() {
+    return millis;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Instant instant() {
+    return Instant.ofEpochMilli(millis);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ZoneId getZone() {
+    return ZoneOffset.UTC;
+  }
+
+  /**
+   * Returns this clock for {@link ZoneOffset#UTC}, otherwise a view in {@code zone} that reads the
+   * time of this clock.
+   */
+  @Override
+  public Clock withZone(ZoneId zone) {
+    if (zone.equals(ZoneOffset.UTC)) {
+      return this;
+    }
+    return new ZonedClock(this, zone);
+  }
+
+  /** Coarse clock seen from another time zone. */
+  private static final class ZonedClock extends Clock {
+    private final CoarseClock clock;
+    private final ZoneId zone;
+
+    ZonedClock(CoarseClock clock, ZoneId zone) {
+      this.clock = clock;
+      this.zone = zone;
+    }
+
+    @Override
+    public long millis() {
+      return clock.millis();
+    }
+
+    @Override
+    public Instant instant() {
+      return clock.instant();
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return zone.equals(this.zone) ? this : clock.withZone(zone);
+    }
+  }
+
+  /** Holds the shared clock so that its ticker is only started when needed. */
+  private static final class SystemHolder {
+    static final CoarseClock INSTANCE = start();
+
+    private static CoarseClock start() {
+      CoarseClock clock = new CoarseClock(Clock.systemUTC());
+      ScheduledExecutorService ticker =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("fleetengine-auth-coarse-clock-%d")
+                  .build());
+      ticker.scheduleAtFixedRate(
+          clock::tick,
+          TICK_INTERVAL.toMillis(),
+          TICK_INTERVAL.toMillis(),
+          TimeUnit.MILLISECONDS);
+      return clock;
+    }
+  }
+}
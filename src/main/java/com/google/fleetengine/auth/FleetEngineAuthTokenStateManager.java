@@ -15,9 +15,17 @@
 package com.google.fleetengine.auth;
 
 import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
 import com.google.fleetengine.auth.token.factory.signer.Signer;
 import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * Provides non-expired Fleet Engine tokens.
@@ -32,6 +40,9 @@ public interface FleetEngineAuthTokenStateManager {
   /**
    * Tokens returned from any of the {@code findOrCreateToken} methods are guaranteed to be valid
    * for the given expiration window (currently 5 minutes.)
+   *
+   * <p>This is the default {@link TokenPolicy#refreshMargin()}, managers created with {@link
+   * TokenPolicies} use the refresh margin of each token type and audience instead.
    */
   Duration EXPIRATION_WINDOW_DURATION = Duration.ofMinutes(5);
 
@@ -44,4 +55,70 @@ public interface FleetEngineAuthTokenStateManager {
    *     FleetEngineAuthTokenStateManager#EXPIRATION_WINDOW_DURATION}
    */
   FleetEngineToken signToken(Signer signer, FleetEngineToken token) throws SigningTokenException;
+
+  /**
+   * Either reuses an existing non-expired token or signs the token created by {@code
+   * unsignedTokenSupplier}.
+   *
+   * <p>Unlike {@link #signToken(Signer, FleetEngineToken)}, the unsigned token is only created when
+   * a new signature is actually needed. Implementations that cache tokens should look up their
+   * cache with {@code tokenType}, {@code audience} and {@code claims} before calling the supplier.
+   *
+   * <p>The default implementation always creates the unsigned token and delegates to {@link
+   * #signToken(Signer, FleetEngineToken)}.
+   *
+   * @param signer signer used to sign the token
+   * @param tokenType type of the token created by {@code unsignedTokenSupplier}
+   * @param audience audience of the token created by {@code unsignedTokenSupplier}
+   * @param claims authorization claims of the token created by {@code unsignedTokenSupplier}
+   * @param unsignedTokenSupplier creates the unsigned token when it needs to be signed
+   * @return Signed Fleet Engine token that is guaranteed not to expire for the next {@link
+   *     FleetEngineAuthTokenStateManager#EXPIRATION_WINDOW_DURATION}
+   */
+  default FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    return signToken(signer, unsignedTokenSupplier.get());
+  }
+
+  /**
+   * Asynchronous variant of {@link #signToken(Signer, FleetEngineTokenType, String,
+   * FleetEngineTokenClaims, Supplier)} that does not block the calling thread.
+   *
+   * <p>The default implementation calls the blocking variant on {@code executor}. Implementations
+   * that cache tokens should return cached tokens as already completed futures and sign with
+   * {@link Signer#signAsync(FleetEngineToken, Executor)}.
+   *
+   * @param signer signer used to sign the token
+   * @param tokenType type of the token created by {@code unsignedTokenSupplier}
+   * @param audience audience of the token created by {@code unsignedTokenSupplier}
+   * @param claims authorization claims of the token created by {@code unsignedTokenSupplier}
+   * @param unsignedTokenSupplier creates the unsigned token when it needs to be signed
+   * @param executor runs blocking work needed to sign the token
+   * @return future of a signed Fleet Engine token that is guaranteed not to expire for the next
+   *     {@link FleetEngineAuthTokenStateManager#EXPIRATION_WINDOW_DURATION} once completed,
+   *     completed exceptionally with a {@link SigningTokenException} if the token could not be
+   *     signed
+   */
+  default CompletableFuture<FleetEngineToken> signTokenAsync(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return signToken(signer, tokenType, audience, claims, unsignedTokenSupplier);
+          } catch (SigningTokenException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
 }
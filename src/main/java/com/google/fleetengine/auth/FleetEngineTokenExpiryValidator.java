@@ -22,9 +22,9 @@ import java.time.Duration;
 /** Token expiration checker. Used for injection purposes. */
 public class FleetEngineTokenExpiryValidator {
 
-  /** Singleton for non-test cases. */
+  /** Singleton for non-test cases, reads the time from {@link CoarseClock#system()}. */
   private static final FleetEngineTokenExpiryValidator singleton =
-      new FleetEngineTokenExpiryValidator(Clock.systemUTC());
+      new FleetEngineTokenExpiryValidator(CoarseClock.system());
 
   /* Used to get the current time. */
   private final Clock clock;
@@ -58,4 +58,17 @@ public class FleetEngineTokenExpiryValidator {
         .minus(expirationWindow)
         .isBefore(clock.instant());
   }
+
+  /**
+   * Verifies if a deadline computed ahead of time, eg. the expiration timestamp of a token less
+   * its expiration window, has passed.
+   *
+   * <p>Unlike {@link #isTokenExpired(FleetEngineToken, Duration)}, this does not allocate and is
+   * meant for cache lookups.
+   *
+   * @param deadlineMillis deadline in milliseconds since the epoch
+   */
+  public boolean isPastDeadline(long deadlineMillis) {
+    return deadlineMillis < clock.millis();
+  }
 }
@@ -0,0 +1,348 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hashing;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * Memory-mapped file of signed tokens, laid out as a header followed by fixed-size slots.
+ *
+ * <p>Each slot holds one token: a checksum, the {@link TokenKeys#hash(FleetEngineTokenType, String,
+ * java.util.Map) key} of the token, the token type, its creation and expiration timestamps, a
+ * {@link #accountHash(String) hash} of the account that signed it, the {@link
+ * TokenKeys#digest(FleetEngineTokenType, String, java.util.Map) digest} of what it was signed for
+ * and the JWT. Slots whose checksum does not match, eg. because the process died while writing
+ * them, are ignored. The header records the layout of the slots, the file is reset when it
+ * changes.
+ *
+ * <p>The file is locked while open, it is not meant to be shared by processes running at the same
+ * time. Writes are serialized, reads are served from an in-memory index.
+ */
+final class MappedTokenFile implements AutoCloseable {
+
+  private static final Logger logger = Logger.getLogger(MappedTokenFile.class.getName());
+
+  private static final int MAGIC = 0x46454154;
+
+  /** Incremented whenever the layout of the file changes. */
+  private static final int FORMAT_VERSION = 3;
+
+  private static final int HEADER_BYTES = 64;
+
+  /** Length of the digest of the token type, audience and claims of a token. */
+  private static final int DIGEST_BYTES = 32;
+
+  /**
+   * Checksum, key, token type, creation and expiration timestamps, account hash, digest, JWT
+   * length.
+   */
+  private static final int SLOT_HEADER_BYTES = 4 + 8 + 4 + 8 + 8 + 8 + DIGEST_BYTES + 4;
+
+  private static final int ACCOUNT_HASH_OFFSET = 32;
+
+  private static final int DIGEST_OFFSET = 40;
+
+  private static final int JWT_LENGTH_OFFSET = DIGEST_OFFSET + DIGEST_BYTES;
+
+  private final FileChannel channel;
+  private final FileLock lock;
+  private final MappedByteBuffer buffer;
+  private final int slotCount;
+  private final int slotBytes;
+
+  /** Persisted tokens by key. */
+  private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+  /** Slots that do not hold a token. */
+  private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+
+  /**
+   * Opens {@code path}, creating it when it does not exist, and loads the tokens that do not expire
+   * before {@code minimumExpirationMillis}.
+   *
+   * @param path file that tokens are written to
+   * @param slotCount maximum number of tokens kept in the file
+   * @param maximumJwtLength maximum length of a persisted JWT
+   * @param minimumExpirationMillis tokens expiring before this epoch time are not loaded
+   * @throws IOException when the file cannot be opened or is already open
+   */
+  static MappedTokenFile open(
+      Path path,
+      int slotCount,
+      int maximumJwtLength,
+      long minimumExpirationMillis)
+      throws IOException {
+    FileChannel channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        throw new IOException(String.format("%s is already open.", path), e);
+      }
+      if (lock == null) {
+        throw new IOException(String.format("%s is locked by another process.", path));
+      }
+      MappedTokenFile file =
+          new MappedTokenFile(channel, lock, slotCount, SLOT_HEADER_BYTES + maximumJwtLength);
+      file.load(minimumExpirationMillis);
+      return file;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private MappedTokenFile(FileChannel channel, FileLock lock, int slotCount, int slotBytes)
+      throws IOException {
+    this.channel = channel;
+    this.lock = lock;
+    this.slotCount = slotCount;
+    this.slotBytes = slotBytes;
+    this.buffer =
+        channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) slotCount * slotBytes);
+  }
+
+  /** Returns the persisted token with {@code key}, null if there is none. */
+  @Nullable
+  Entry get(long key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Persists a signed token under {@code key}, replacing the token persisted under the same key.
+   *
+   * <p>When the file is full, the token that expires first is replaced.
+   *
+   * @param accountHash {@link #accountHash(String) hash} of the account that signed the token
+   * @param digest {@link TokenKeys#digest(FleetEngineTokenType, String, java.util.Map) digest} of
+   *     the token type, audience and claims of the token
+   * @return false when the JWT is too long to be persisted
+   */
+  synchronized boolean put(
+      long key,
+      long accountHash,
+      byte[] digest,
+      FleetEngineTokenType tokenType,
+      long creationMillis,
+      long expirationMillis,
+      String jwt) {
+    byte[] jwtBytes = jwt.getBytes(US_ASCII);
+    if (jwtBytes.length > slotBytes - SLOT_HEADER_BYTES) {
+      return false;
+    }
+
+    Entry previous = entries.get(key);
+    int slot;
+    if (previous != null) {
+      slot = previous.slot;
+    } else if (!freeSlots.isEmpty()) {
+      slot = freeSlots.poll();
+    } else {
+      Entry firstToExpire = null;
+      for (Entry entry : entries.values()) {
+        if (firstToExpire == null || entry.expirationMillis < firstToExpire.expirationMillis) {
+          firstToExpire = entry;
+        }
+      }
+      entries.remove(firstToExpire.key);
+      slot = firstToExpire.slot;
+    }
+
+    int offset = slotOffset(slot);
+    buffer.putLong(offset + 4, key);
+    buffer.putInt(offset + 12, tokenType.ordinal());
+    buffer.putLong(offset + 16, creationMillis);
+    buffer.putLong(offset + 24, expirationMillis);
+    buffer.putLong(offset + ACCOUNT_HASH_OFFSET, accountHash);
+    for (int i = 0; i < DIGEST_BYTES; i++) {
+      buffer.put(offset + DIGEST_OFFSET + i, digest[i]);
+    }
+    buffer.putInt(offset + JWT_LENGTH_OFFSET, jwtBytes.length);
+    for (int i = 0; i < jwtBytes.length; i++) {
+      buffer.put(offset + SLOT_HEADER_BYTES + i, jwtBytes[i]);
+    }
+    // The checksum is written last, a slot that was not completely written is ignored on load.
+    buffer.putInt(offset, checksum(offset, jwtBytes.length));
+
+    entries.put(
+        key,
+        new Entry(
+            key,
+            slot,
+            accountHash,
+            digest.clone(),
+            tokenType,
+            creationMillis,
+            expirationMillis,
+            jwt));
+    return true;
+  }
+
+  /** Number of persisted tokens. */
+  int size() {
+    return entries.size();
+  }
+
+  /** Flushes the persisted tokens to the storage device and closes the file. */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      buffer.force();
+      lock.release();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void load(long minimumExpirationMillis) {
+    if (buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != FORMAT_VERSION
+        || buffer.getInt(8) != slotCount
+        || buffer.getInt(12) != slotBytes) {
+      if (buffer.getInt(0) == MAGIC) {
+        logger.info("Discarding persisted tokens written with other settings.");
+      }
+      reset();
+      return;
+    }
+
+    for (int slot = 0; slot < slotCount; slot++) {
+      Entry entry = read(slot);
+      if (entry == null
+          || entry.expirationMillis < minimumExpirationMillis
+          || entries.containsKey(entry.key)) {
+        freeSlots.add(slot);
+      } else {
+        entries.put(entry.key, entry);
+      }
+    }
+  }
+
+  /** Clears every slot and writes the header. */
+  private void reset() {
+    byte[] zeros = new byte[slotBytes];
+    for (int slot = 0; slot < slotCount; slot++) {
+      buffer.position(slotOffset(slot));
+      buffer.put(zeros);
+      freeSlots.add(slot);
+    }
+    buffer.putInt(4, FORMAT_VERSION);
+    buffer.putInt(8, slotCount);
+    buffer.putInt(12, slotBytes);
+    buffer.putInt(0, MAGIC);
+  }
+
+  @Nullable
+  private Entry read(int slot) {
+    int offset = slotOffset(slot);
+    int jwtLength = buffer.getInt(offset + JWT_LENGTH_OFFSET);
+    int tokenTypeOrdinal = buffer.getInt(offset + 12);
+    if (jwtLength <= 0
+        || jwtLength > slotBytes - SLOT_HEADER_BYTES
+        || tokenTypeOrdinal < 0
+        || tokenTypeOrdinal >= FleetEngineTokenType.values().length
+        || buffer.getInt(offset) != checksum(offset, jwtLength)) {
+      return null;
+    }
+    byte[] digest = new byte[DIGEST_BYTES];
+    for (int i = 0; i < DIGEST_BYTES; i++) {
+      digest[i] = buffer.get(offset + DIGEST_OFFSET + i);
+    }
+    byte[] jwtBytes = new byte[jwtLength];
+    for (int i = 0; i < jwtLength; i++) {
+      jwtBytes[i] = buffer.get(offset + SLOT_HEADER_BYTES + i);
+    }
+    return new Entry(
+        buffer.getLong(offset + 4),
+        slot,
+        buffer.getLong(offset + ACCOUNT_HASH_OFFSET),
+        digest,
+        FleetEngineTokenType.values()[tokenTypeOrdinal],
+        buffer.getLong(offset + 16),
+        buffer.getLong(offset + 24),
+        new String(jwtBytes, US_ASCII));
+  }
+
+  /** Checksum of the slot at {@code offset}, excluding the checksum itself. */
+  private int checksum(int offset, int jwtLength) {
+    CRC32 crc = new CRC32();
+    for (int i = offset + 4; i < offset + SLOT_HEADER_BYTES + jwtLength; i++) {
+      crc.update(buffer.get(i));
+    }
+    return (int) crc.getValue();
+  }
+
+  private int slotOffset(int slot) {
+    return HEADER_BYTES + slot * slotBytes;
+  }
+
+  /** Hash of the email of the service account that signed a token. */
+  static long accountHash(String account) {
+    return Hashing.sha256().hashString(account, UTF_8).asLong();
+  }
+
+  /** Token persisted in a slot. */
+  static final class Entry {
+    final long key;
+    final int slot;
+    final long accountHash;
+    final byte[] digest;
+    final FleetEngineTokenType tokenType;
+    final long creationMillis;
+    final long expirationMillis;
+    final String jwt;
+
+    /** Token decoded from this entry by the first lookup, {@code null} until then. */
+    volatile CachedToken cachedToken;
+
+    Entry(
+        long key,
+        int slot,
+        long accountHash,
+        byte[] digest,
+        FleetEngineTokenType tokenType,
+        long creationMillis,
+        long expirationMillis,
+        String jwt) {
+      this.key = key;
+      this.slot = slot;
+      this.accountHash = accountHash;
+      this.digest = digest;
+      this.tokenType = tokenType;
+      this.creationMillis = creationMillis;
+      this.expirationMillis = expirationMillis;
+      this.jwt = jwt;
+    }
+  }
+}
@@ -15,11 +15,27 @@
 package com.google.fleetengine.auth;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.fleetengine.auth.metrics.AuthEvents;
+import com.google.fleetengine.auth.metrics.CacheOutcome;
 import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
 import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
 import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningDeadline;
+import com.google.fleetengine.auth.token.factory.signer.SigningDeadlineExceededException;
 import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Provides valid Fleet Engine tokens with a caching mechanism for tokens with wildcard claims.
@@ -36,61 +52,252 @@ import java.util.concurrent.ConcurrentHashMap;
  *       applications that can't sign tokens directly eg. a driver application running on a mobile
  *       device. In these cases, the non-trusted application can cache the token locally.
  * </ol>
+ *
+ * <p>Refreshes are single-flight per {@link FleetEngineTokenType}: concurrent callers that need the
+ * same type of token join the refresh that is already in flight, while callers that need a
+ * different type of token are never blocked by it.
+ *
+ * <p>Cached tokens are replaced within the {@link TokenPolicy#refreshWindow(FleetEngineToken)
+ * refresh window} of the {@link TokenPolicies} that the manager was created with. Wildcard tokens
+ * whose policy is not {@link TokenPolicy#cacheable()} are always signed.
  */
 public class NaiveAuthStateManager implements FleetEngineAuthTokenStateManager {
 
   /** Validates whether a token has expired. */
   private final FleetEngineTokenExpiryValidator tokenExpiryValidator;
 
-  private final ConcurrentHashMap<FleetEngineTokenType, FleetEngineToken> cachedWildcardTokens;
+  private final TokenPolicies tokenPolicies;
+
+  /** Cached wildcard token of each token type with its refresh deadline, indexed by ordinal. */
+  private final AtomicReferenceArray<CachedToken> cachedWildcardTokens;
+
+  /** Refreshes that are currently signing a wildcard token, at most one per token type. */
+  private final ConcurrentHashMap<FleetEngineTokenType, CompletableFuture<FleetEngineToken>>
+      inFlightRefreshes;
 
   /** Constructor. */
   public NaiveAuthStateManager() {
-    this(FleetEngineTokenExpiryValidator.getInstance());
+    this(TokenPolicies.defaults());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param tokenPolicies when cached tokens are replaced, by token type and audience
+   */
+  public NaiveAuthStateManager(TokenPolicies tokenPolicies) {
+    this(FleetEngineTokenExpiryValidator.getInstance(), tokenPolicies);
   }
 
   /** Constructor for testing. */
   @VisibleForTesting
   NaiveAuthStateManager(FleetEngineTokenExpiryValidator tokenExpiryValidator) {
+    this(tokenExpiryValidator, TokenPolicies.defaults());
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  NaiveAuthStateManager(
+      FleetEngineTokenExpiryValidator tokenExpiryValidator, TokenPolicies tokenPolicies) {
     this.tokenExpiryValidator = tokenExpiryValidator;
-    this.cachedWildcardTokens = new ConcurrentHashMap<>(3);
+    this.tokenPolicies = tokenPolicies;
+    this.cachedWildcardTokens = new AtomicReferenceArray<>(FleetEngineTokenType.values().length);
+    this.inFlightRefreshes = new ConcurrentHashMap<>(3);
   }
 
   /** {@inheritDoc} */
   @Override
   public FleetEngineToken signToken(Signer signer, FleetEngineToken token)
       throws SigningTokenException {
+    return signToken(
+        signer,
+        token.tokenType(),
+        token.audience(),
+        token.authorizationClaims(),
+        () -> token);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Cached wildcard tokens are returned without calling {@code unsignedTokenSupplier}.
+   */
+  @Override
+  public FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
 
-    if (!token.authorizationClaims().isWildcard()) {
-      // Always sign tokens with claims that are not a wildcard.
-      return signer.sign(token);
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!claims.isWildcard() || !policy.cacheable()) {
+      // Always sign tokens with claims that are not a wildcard, or that may not be reused.
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return signer.sign(unsignedTokenSupplier.get());
     }
 
-    FleetEngineToken cachedToken = getNonExpiredCachedToken(token);
+    FleetEngineToken cachedToken = getNonExpiredCachedToken(tokenType);
     if (cachedToken != null) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
       return cachedToken;
     }
 
-    synchronized (cachedWildcardTokens) {
+    CompletableFuture<FleetEngineToken> refresh = new CompletableFuture<>();
+    CompletableFuture<FleetEngineToken> inFlightRefresh =
+        inFlightRefreshes.putIfAbsent(tokenType, refresh);
+    if (inFlightRefresh != null) {
+      // Another thread is already signing this type of token.
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.JOINED);
+      return awaitRefresh(inFlightRefresh);
+    }
+
+    try {
       // The token may have been refreshed by another thread.
-      cachedToken = getNonExpiredCachedToken(token);
-      if (cachedToken != null) {
-        return cachedToken;
+      cachedToken = getNonExpiredCachedToken(tokenType);
+      if (cachedToken == null) {
+        // The cached token is either null or expired, in either case, sign the token and cache it.
+        AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+        cachedToken = signer.sign(unsignedTokenSupplier.get());
+        cachedWildcardTokens.set(tokenType.ordinal(), CachedToken.create(cachedToken, policy));
+      } else {
+        AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
       }
+      refresh.complete(cachedToken);
+      return cachedToken;
+    } catch (SigningTokenException | RuntimeException | Error e) {
+      refresh.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlightRefreshes.remove(tokenType, refresh);
+    }
+  }
 
-      // The cached token is either null or expired, in either case, sign the token and cache it.
-      FleetEngineToken signedToken = signer.sign(token);
-      cachedWildcardTokens.put(signedToken.tokenType(), signedToken);
-      return signedToken;
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Cached wildcard tokens are returned as completed futures. Otherwise the token is signed with
+   * {@link Signer#signAsync(FleetEngineToken, Executor)} and no thread waits for the signature.
+   * Refreshes are shared with {@link #signToken(Signer, FleetEngineTokenType, String,
+   * FleetEngineTokenClaims, Supplier)}.
+   */
+  @Override
+  public CompletableFuture<FleetEngineToken> signTokenAsync(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!claims.isWildcard() || !policy.cacheable()) {
+      // Always sign tokens with claims that are not a wildcard, or that may not be reused.
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return signAsync(signer, unsignedTokenSupplier, executor);
+    }
+
+    FleetEngineToken cachedToken = getNonExpiredCachedToken(tokenType);
+    if (cachedToken != null) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return CompletableFuture.completedFuture(cachedToken);
+    }
+
+    CompletableFuture<FleetEngineToken> refresh = new CompletableFuture<>();
+    CompletableFuture<FleetEngineToken> inFlightRefresh =
+        inFlightRefreshes.putIfAbsent(tokenType, refresh);
+    if (inFlightRefresh != null) {
+      // Another caller is already signing this type of token, callers must not complete it.
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.JOINED);
+      return inFlightRefresh.thenApply(Function.identity());
+    }
+
+    // The token may have been refreshed by another caller.
+    cachedToken = getNonExpiredCachedToken(tokenType);
+    if (cachedToken != null) {
+      inFlightRefreshes.remove(tokenType, refresh);
+      refresh.complete(cachedToken);
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return CompletableFuture.completedFuture(cachedToken);
+    }
+
+    AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+    signAsync(signer, unsignedTokenSupplier, executor)
+        .whenComplete(
+            (signedToken, error) -> {
+              if (error == null) {
+                cachedWildcardTokens.set(
+                    tokenType.ordinal(), CachedToken.create(signedToken, policy));
+              }
+              inFlightRefreshes.remove(tokenType, refresh);
+              if (error == null) {
+                refresh.complete(signedToken);
+              } else {
+                refresh.completeExceptionally(unwrap(error));
+              }
+            });
+    return refresh.thenApply(Function.identity());
+  }
+
+  /** Signs the token created by {@code unsignedTokenSupplier} without throwing. */
+  static CompletableFuture<FleetEngineToken> signAsync(
+      Signer signer, Supplier<FleetEngineToken> unsignedTokenSupplier, Executor executor) {
+    try {
+      return signer.signAsync(unsignedTokenSupplier.get(), executor);
+    } catch (RuntimeException e) {
+      CompletableFuture<FleetEngineToken> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
     }
   }
 
-  private FleetEngineToken getNonExpiredCachedToken(FleetEngineToken token) {
-    FleetEngineToken cachedToken = cachedWildcardTokens.get(token.tokenType());
+  static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null
+        ? error.getCause()
+        : error;
+  }
+
+  /**
+   * Waits for a refresh started by another thread and surfaces its outcome to this caller.
+   *
+   * <p>Gives up once the {@link SigningDeadline} of this caller passes, the refresh goes on for
+   * other callers.
+   */
+  static FleetEngineToken awaitRefresh(CompletableFuture<FleetEngineToken> refresh)
+      throws SigningTokenException {
+    try {
+      long remainingNanos = SigningDeadline.remainingNanos();
+      return remainingNanos == Long.MAX_VALUE
+          ? refresh.get()
+          : refresh.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      throw new SigningDeadlineExceededException(
+          "Deadline exceeded while waiting for token refresh.");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SigningTokenException("Interrupted while waiting for token refresh.", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SigningTokenException) {
+        throw (SigningTokenException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new SigningTokenException("Error while refreshing token.", cause);
+    }
+  }
+
+  private FleetEngineToken getNonExpiredCachedToken(FleetEngineTokenType tokenType) {
+    CachedToken cachedToken = cachedWildcardTokens.get(tokenType.ordinal());
     if (cachedToken != null
-        && !tokenExpiryValidator.isTokenExpired(cachedToken, EXPIRATION_WINDOW_DURATION)) {
+        && !tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis)) {
       // Cached token exists and is not expired.
-      return cachedToken;
+      return cachedToken.token;
     }
     return null;
   }
@@ -0,0 +1,439 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.fleetengine.auth.metrics.AuthEvents;
+import com.google.fleetengine.auth.metrics.CacheOutcome;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Provides valid Fleet Engine tokens from a delegate state manager and keeps the signed tokens in a
+ * file, so that a restarted process serves them without signing them again.
+ *
+ * <p>Without it, every process of a deployment starts with an empty cache after a rolling restart
+ * and signs every type of token at the same moment. Tokens persisted by the previous process are
+ * served until they enter the {@link TokenPolicy#refreshWindow(FleetEngineToken) refresh window}
+ * of their {@link TokenPolicies policy}, from then on tokens are provided, and persisted, by the
+ * delegate. Tokens whose policy is not {@link TokenPolicy#cacheable()} are never persisted.
+ *
+ * <p>Only wildcard tokens are persisted unless {@link
+ * PersistentAuthStateManagerSettings#persistNonWildcardTokens()} is set. Each token is persisted
+ * with the {@link Signer#account() account} of the signer it was signed with, and is only served
+ * to callers signing with the same account, so that a process that switched one of its roles to
+ * another service account never serves tokens signed by the previous one. Tokens of signers whose
+ * account is unknown are never persisted.
+ *
+ * <p>The latest token of each token type is also kept in memory, lookups of that token are served
+ * without hashing its claims.
+ *
+ * <p>The file is memory-mapped and locked by the manager, each process needs its own file. The
+ * manager should be {@link #close() closed} once it is no longer used in order to release the
+ * file.
+ */
+public class PersistentAuthStateManager
+    implements FleetEngineAuthTokenStateManager, AutoCloseable {
+
+  private static final Logger logger =
+      Logger.getLogger(PersistentAuthStateManager.class.getName());
+
+  private final PersistentAuthStateManagerSettings settings;
+
+  /** Provides tokens that are not persisted yet, or that are about to expire. */
+  private final FleetEngineAuthTokenStateManager delegate;
+
+  private final MappedTokenFile file;
+
+  /** Validates whether a token has expired. */
+  private final FleetEngineTokenExpiryValidator tokenExpiryValidator;
+
+  private final TokenPolicies tokenPolicies;
+
+  /**
+   * Latest token looked up or persisted for each token type, indexed by ordinal. Lets repeated
+   * lookups of the same token skip hashing its claims.
+   */
+  private final AtomicReferenceArray<LocalToken> localTokens =
+      new AtomicReferenceArray<>(FleetEngineTokenType.values().length);
+
+  /**
+   * Creates a manager that persists the tokens provided by a {@link NaiveAuthStateManager}.
+   *
+   * @param settings file that tokens are persisted to
+   * @throws IOException when the file cannot be opened
+   */
+  public PersistentAuthStateManager(PersistentAuthStateManagerSettings settings)
+      throws IOException {
+    this(settings, TokenPolicies.defaults());
+  }
+
+  /**
+   * Creates a manager that persists the tokens provided by a {@link NaiveAuthStateManager}.
+   *
+   * @param settings file that tokens are persisted to
+   * @param tokenPolicies when persisted tokens are replaced, by token type and audience
+   * @throws IOException when the file cannot be opened
+   */
+  public PersistentAuthStateManager(
+      PersistentAuthStateManagerSettings settings, TokenPolicies tokenPolicies)
+      throws IOException {
+    this(settings, new NaiveAuthStateManager(tokenPolicies), tokenPolicies);
+  }
+
+  /**
+   * Creates a manager that persists the tokens provided by {@code delegate}.
+   *
+   * @param settings file that tokens are persisted to
+   * @param delegate provides tokens that are not persisted yet
+   * @throws IOException when the file cannot be opened
+   */
+  public PersistentAuthStateManager(
+      PersistentAuthStateManagerSettings settings, FleetEngineAuthTokenStateManager delegate)
+      throws IOException {
+    this(settings, delegate, TokenPolicies.defaults());
+  }
+
+  /**
+   * Creates a manager that persists the tokens provided by {@code delegate}.
+   *
+   * @param settings file that tokens are persisted to
+   * @param delegate provides tokens that are not persisted yet
+   * @param tokenPolicies when persisted tokens are replaced, by token type and audience
+   * @throws IOException when the file cannot be opened
+   */
+  public PersistentAuthStateManager(
+      PersistentAuthStateManagerSettings settings,
+      FleetEngineAuthTokenStateManager delegate,
+      TokenPolicies tokenPolicies)
+      throws IOException {
+    this(
+        settings,
+        delegate,
+        FleetEngineTokenExpiryValidator.getInstance(),
+        Clock.systemUTC(),
+        tokenPolicies);
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  PersistentAuthStateManager(
+      PersistentAuthStateManagerSettings settings,
+      FleetEngineAuthTokenStateManager delegate,
+      FleetEngineTokenExpiryValidator tokenExpiryValidator,
+      Clock clock,
+      TokenPolicies tokenPolicies)
+      throws IOException {
+    this.settings = settings;
+    this.delegate = delegate;
+    this.tokenExpiryValidator = tokenExpiryValidator;
+    this.tokenPolicies = tokenPolicies;
+    // Tokens closer to their expiration than any refresh margin would be replaced on lookup.
+    this.file =
+        MappedTokenFile.open(
+            settings.path(),
+            settings.maximumTokens(),
+            settings.maximumJwtLength(),
+            clock.instant().plus(tokenPolicies.minimumRefreshMargin()).toEpochMilli());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken signToken(Signer signer, FleetEngineToken token)
+      throws SigningTokenException {
+    return signToken(
+        signer,
+        token.tokenType(),
+        token.audience(),
+        token.authorizationClaims(),
+        () -> token);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Persisted tokens are returned without calling {@code unsignedTokenSupplier}.
+   */
+  @Override
+  public FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    String account = signer.account();
+    if (!isPersisted(account, claims, policy)) {
+      return delegate.signToken(signer, tokenType, audience, claims, unsignedTokenSupplier);
+    }
+
+    LocalToken localToken = getLocalToken(tokenType, account, audience, claims);
+    if (localToken != null && !isExpired(localToken.cachedToken)) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return localToken.cachedToken.token;
+    }
+
+    PersistedKey persistedKey =
+        localToken != null
+            ? localToken.persistedKey
+            : new PersistedKey(account, tokenType, audience, claims);
+    FleetEngineToken persistedToken =
+        getNonExpiredPersistedToken(persistedKey, tokenType, account, audience, claims, policy);
+    if (persistedToken != null) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return persistedToken;
+    }
+
+    FleetEngineToken signedToken =
+        delegate.signToken(signer, tokenType, audience, claims, unsignedTokenSupplier);
+    persist(persistedKey, account, audience, claims, policy, signedToken);
+    return signedToken;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Persisted tokens are returned as completed futures.
+   */
+  @Override
+  public CompletableFuture<FleetEngineToken> signTokenAsync(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    String account = signer.account();
+    if (!isPersisted(account, claims, policy)) {
+      return delegate.signTokenAsync(
+          signer, tokenType, audience, claims, unsignedTokenSupplier, executor);
+    }
+
+    LocalToken localToken = getLocalToken(tokenType, account, audience, claims);
+    if (localToken != null && !isExpired(localToken.cachedToken)) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return CompletableFuture.completedFuture(localToken.cachedToken.token);
+    }
+
+    PersistedKey persistedKey =
+        localToken != null
+            ? localToken.persistedKey
+            : new PersistedKey(account, tokenType, audience, claims);
+    FleetEngineToken persistedToken =
+        getNonExpiredPersistedToken(persistedKey, tokenType, account, audience, claims, policy);
+    if (persistedToken != null) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return CompletableFuture.completedFuture(persistedToken);
+    }
+
+    return delegate
+        .signTokenAsync(signer, tokenType, audience, claims, unsignedTokenSupplier, executor)
+        .thenApply(
+            signedToken -> {
+              persist(persistedKey, account, audience, claims, policy, signedToken);
+              return signedToken;
+            });
+  }
+
+  /** Number of tokens currently persisted, including tokens that expired since they were. */
+  public int persistedTokenCount() {
+    return file.size();
+  }
+
+  /** Flushes the persisted tokens and releases the file. The delegate is not closed. */
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  private boolean isPersisted(
+      @Nullable String account, FleetEngineTokenClaims claims, TokenPolicy policy) {
+    return account != null
+        && policy.cacheable()
+        && (claims.isWildcard() || settings.persistNonWildcardTokens());
+  }
+
+  /**
+   * Returns the token last looked up or persisted for {@code tokenType} when it was signed by
+   * {@code account} for {@code audience} and {@code claims}, null otherwise.
+   */
+  @Nullable
+  private LocalToken getLocalToken(
+      FleetEngineTokenType tokenType,
+      String account,
+      @Nullable String audience,
+      FleetEngineTokenClaims claims) {
+    LocalToken localToken = localTokens.get(tokenType.ordinal());
+    return localToken != null && localToken.matches(account, audience, claims)
+        ? localToken
+        : null;
+  }
+
+  /**
+   * Returns the token persisted under the key of {@code persistedKey} unless it is within the
+   * refresh window of {@code policy}. The token must have been signed by the same account, and for
+   * the same token type, audience and claims, ie. have the same digest, since different tokens may
+   * share a key.
+   *
+   * <p>The token is decoded once per entry and kept with its deadlines, so that later lookups only
+   * compare the refresh deadline.
+   */
+  @Nullable
+  private FleetEngineToken getNonExpiredPersistedToken(
+      PersistedKey persistedKey,
+      FleetEngineTokenType tokenType,
+      String account,
+      @Nullable String audience,
+      FleetEngineTokenClaims claims,
+      TokenPolicy policy) {
+    MappedTokenFile.Entry entry = file.get(persistedKey.key);
+    if (entry == null
+        || entry.accountHash != persistedKey.accountHash
+        || entry.tokenType != tokenType
+        || !Arrays.equals(entry.digest, persistedKey.digest)) {
+      return null;
+    }
+    CachedToken cachedToken = entry.cachedToken;
+    if (cachedToken == null) {
+      FleetEngineToken.Builder builder =
+          FleetEngineToken.builder()
+              .setCreationTimestamp(new Date(entry.creationMillis))
+              .setExpirationTimestamp(new Date(entry.expirationMillis))
+              .setTokenType(tokenType)
+              .setAuthorizationClaims(claims)
+              .setJwt(entry.jwt);
+      if (audience != null) {
+        builder.setAudience(audience);
+      }
+      cachedToken = CachedToken.create(builder.build(), policy);
+      entry.cachedToken = cachedToken;
+    }
+    if (isExpired(cachedToken)) {
+      return null;
+    }
+    localTokens.set(
+        tokenType.ordinal(), new LocalToken(persistedKey, account, audience, claims, cachedToken));
+    return cachedToken.token;
+  }
+
+  private void persist(
+      PersistedKey persistedKey,
+      String account,
+      @Nullable String audience,
+      FleetEngineTokenClaims claims,
+      TokenPolicy policy,
+      FleetEngineToken signedToken) {
+    String jwt = signedToken.jwt();
+    if (jwt == null) {
+      return;
+    }
+    localTokens.set(
+        signedToken.tokenType().ordinal(),
+        new LocalToken(
+            persistedKey, account, audience, claims, CachedToken.create(signedToken, policy)));
+    MappedTokenFile.Entry entry = file.get(persistedKey.key);
+    if (entry != null
+        && entry.jwt.equals(jwt)
+        && entry.accountHash == persistedKey.accountHash
+        && Arrays.equals(entry.digest, persistedKey.digest)) {
+      // The delegate returned the token that is already persisted.
+      return;
+    }
+    if (!file.put(
+        persistedKey.key,
+        persistedKey.accountHash,
+        persistedKey.digest,
+        signedToken.tokenType(),
+        signedToken.creationTimestamp().getTime(),
+        signedToken.expirationTimestamp().getTime(),
+        jwt)) {
+      logger.log(
+          Level.FINE,
+          "JWT of {0} token is longer than maximumJwtLength, it is not persisted.",
+          signedToken.tokenType());
+    }
+  }
+
+  /** Returns whether {@code cachedToken} is within the refresh window of its policy. */
+  private boolean isExpired(CachedToken cachedToken) {
+    return tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis);
+  }
+
+  /** Key of a persisted token, along with the hashes that tell which token it is. */
+  private static final class PersistedKey {
+    final long key;
+    final long accountHash;
+    final byte[] digest;
+
+    PersistedKey(
+        String account,
+        FleetEngineTokenType tokenType,
+        @Nullable String audience,
+        FleetEngineTokenClaims claims) {
+      ImmutableMap<String, String> claimsMap = claims.toMap();
+      this.key = TokenKeys.hash(tokenType, audience, claimsMap);
+      this.accountHash = MappedTokenFile.accountHash(account);
+      this.digest = TokenKeys.digest(tokenType, audience, claimsMap);
+    }
+  }
+
+  /** Token of a type as last looked up or persisted by this manager. */
+  private static final class LocalToken {
+    final PersistedKey persistedKey;
+    final String account;
+    @Nullable final String audience;
+    final FleetEngineTokenClaims claims;
+    final CachedToken cachedToken;
+
+    LocalToken(
+        PersistedKey persistedKey,
+        String account,
+        @Nullable String audience,
+        FleetEngineTokenClaims claims,
+        CachedToken cachedToken) {
+      this.persistedKey = persistedKey;
+      this.account = account;
+      this.audience = audience;
+      this.claims = claims;
+      this.cachedToken = cachedToken;
+    }
+
+    boolean matches(String account, @Nullable String audience, FleetEngineTokenClaims claims) {
+      return this.account.equals(account)
+          && Objects.equals(this.audience, audience)
+          && (this.claims == claims || this.claims.toMap().equals(claims.toMap()));
+    }
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.auto.value.AutoValue;
+import java.nio.file.Path;
+
+/** Settings for {@link PersistentAuthStateManager}. */
+@AutoValue
+public abstract class PersistentAuthStateManagerSettings {
+  /** Default maximum number of signed tokens kept in the file. */
+  public static final int DEFAULT_MAXIMUM_TOKENS = 64;
+
+  /** Default maximum length of a persisted JWT, longer JWTs are only kept in memory. */
+  public static final int DEFAULT_MAXIMUM_JWT_LENGTH = 4_000;
+
+  /** File that signed tokens are written to. Created when it does not exist. */
+  public abstract Path path();
+
+  /**
+   * Maximum number of signed tokens kept in the file. Once full, the token that expires first is
+   * replaced.
+   */
+  public abstract int maximumTokens();
+
+  /** Maximum length of a persisted JWT. Each token takes this many bytes in the file. */
+  public abstract int maximumJwtLength();
+
+  /**
+   * Whether tokens with non-wildcard claims, eg. a token for one specific vehicle or trip, are
+   * persisted as well. Only wildcard tokens are persisted by default.
+   */
+  public abstract boolean persistNonWildcardTokens();
+
+  /** Provides a builder for {@link PersistentAuthStateManagerSettings}. */
+  public static Builder builder() {
+    return new AutoValue_PersistentAuthStateManagerSettings.Builder()
+        .setMaximumTokens(DEFAULT_MAXIMUM_TOKENS)
+        .setMaximumJwtLength(DEFAULT_MAXIMUM_JWT_LENGTH)
+        .setPersistNonWildcardTokens(false);
+  }
+
+  /** Builder class for PersistentAuthStateManagerSettings. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the file that signed tokens are written to. */
+    public abstract Builder setPath(Path path);
+
+    /** Sets the maximum number of signed tokens kept in the file. */
+    public abstract Builder setMaximumTokens(int maximumTokens);
+
+    /** Sets the maximum length of a persisted JWT. */
+    public abstract Builder setMaximumJwtLength(int maximumJwtLength);
+
+    /** Sets whether tokens with non-wildcard claims are persisted as well. */
+    public abstract Builder setPersistNonWildcardTokens(boolean persistNonWildcardTokens);
+
+    /** Builds {@link PersistentAuthStateManagerSettings}. */
+    public abstract PersistentAuthStateManagerSettings build();
+  }
+}
@@ -0,0 +1,523 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.fleetengine.auth.metrics.AuthEvents;
+import com.google.fleetengine.auth.metrics.CacheOutcome;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides valid Fleet Engine tokens and signs replacements for wildcard tokens in the background
+ * before they expire.
+ *
+ * <p>The first request for a given type of wildcard token is signed on the calling thread. From
+ * then on, a replacement is signed on a {@link ScheduledExecutorService} {@link
+ * RefreshAheadAuthStateManagerSettings#refreshAheadMargin()} before the cached token enters the
+ * {@link TokenPolicy#refreshWindow(FleetEngineToken) refresh window} of its {@link TokenPolicies
+ * policy}, so requests only read the cached token and never wait for a signature. Scheduled
+ * refreshes are jittered and failed refreshes are retried with exponential backoff. When the
+ * background refresh falls behind, eg. because the signer keeps failing, callers sign on the
+ * calling thread as a last resort. A refresh is never scheduled sooner than halfway to the refresh
+ * window of the token it replaces, so that a short-lived token is not re-signed in a loop. Only
+ * one caller signs each type of token at a time, concurrent callers wait for its result.
+ *
+ * <p>Tokens that do not have wildcard claims are passed through to a delegate state manager.
+ * Wildcard tokens whose policy is not {@link TokenPolicy#cacheable()} are always signed.
+ *
+ * <p>The manager should be {@link #close() closed} once it is no longer used in order to stop
+ * background refreshes.
+ */
+public class RefreshAheadAuthStateManager
+    implements FleetEngineAuthTokenStateManager, AutoCloseable {
+
+  private static final Logger logger =
+      Logger.getLogger(RefreshAheadAuthStateManager.class.getName());
+
+  private final RefreshAheadAuthStateManagerSettings settings;
+
+  /** Provides tokens that do not have wildcard claims. */
+  private final FleetEngineAuthTokenStateManager delegate;
+
+  private final ScheduledExecutorService executor;
+
+  /** Whether the executor was created by, and should be shut down with, this manager. */
+  private final boolean ownsExecutor;
+
+  /** Validates whether a token has expired. */
+  private final FleetEngineTokenExpiryValidator tokenExpiryValidator;
+
+  /* Used to get the current time. */
+  private final Clock clock;
+
+  private final TokenPolicies tokenPolicies;
+
+  /** Latest signed wildcard token per token type, indexed by ordinal. */
+  private final AtomicReferenceArray<CachedToken> cachedWildcardTokens;
+
+  /** Wildcard tokens being signed on a calling thread, keyed by token type. */
+  private final ConcurrentHashMap<FleetEngineTokenType, CompletableFuture<FleetEngineToken>>
+      inFlightRefreshes;
+
+  private final ConcurrentHashMap<FleetEngineTokenType, BackgroundRefresh> backgroundRefreshes;
+
+  private volatile boolean closed;
+
+  /**
+   * Creates a manager that refreshes wildcard tokens on its own daemon thread.
+   *
+   * @param settings refresh timing
+   */
+  public RefreshAheadAuthStateManager(RefreshAheadAuthStateManagerSettings settings) {
+    this(settings, TokenPolicies.defaults());
+  }
+
+  /**
+   * Creates a manager that refreshes wildcard tokens on its own daemon thread.
+   *
+   * @param settings refresh timing
+   * @param tokenPolicies when cached tokens are replaced, by token type and audience
+   * @throws IllegalArgumentException when the refresh-ahead margin and jitter leave no time between
+   *     the creation of a token and its scheduled refresh under one of {@code tokenPolicies}
+   */
+  public RefreshAheadAuthStateManager(
+      RefreshAheadAuthStateManagerSettings settings, TokenPolicies tokenPolicies) {
+    this(
+        settings,
+        new NaiveAuthStateManager(tokenPolicies),
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("fleetengine-auth-refresh-%d")
+                .build()),
+        true,
+        FleetEngineTokenExpiryValidator.getInstance(),
+        Clock.systemUTC(),
+        tokenPolicies);
+  }
+
+  /**
+   * Creates a manager that refreshes wildcard tokens on {@code executor}.
+   *
+   * <p>The executor is not shut down when the manager is closed.
+   *
+   * @param settings refresh timing
+   * @param delegate provides tokens that do not have wildcard claims
+   * @param executor runs background refreshes
+   */
+  public RefreshAheadAuthStateManager(
+      RefreshAheadAuthStateManagerSettings settings,
+      FleetEngineAuthTokenStateManager delegate,
+      ScheduledExecutorService executor) {
+    this(settings, delegate, executor, TokenPolicies.defaults());
+  }
+
+  /**
+   * Creates a manager that refreshes wildcard tokens on {@code executor}.
+   *
+   * <p>The executor is not shut down when the manager is closed.
+   *
+   * @param settings refresh timing
+   * @param delegate provides tokens that do not have wildcard claims
+   * @param executor runs background refreshes
+   * @param tokenPolicies when cached tokens are replaced, by token type and audience
+   * @throws IllegalArgumentException when the refresh-ahead margin and jitter leave no time between
+   *     the creation of a token and its scheduled refresh under one of {@code tokenPolicies}
+   */
+  public RefreshAheadAuthStateManager(
+      RefreshAheadAuthStateManagerSettings settings,
+      FleetEngineAuthTokenStateManager delegate,
+      ScheduledExecutorService executor,
+      TokenPolicies tokenPolicies) {
+    this(
+        settings,
+        delegate,
+        executor,
+        false,
+        FleetEngineTokenExpiryValidator.getInstance(),
+        Clock.systemUTC(),
+        tokenPolicies);
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  RefreshAheadAuthStateManager(
+      RefreshAheadAuthStateManagerSettings settings,
+      FleetEngineAuthTokenStateManager delegate,
+      ScheduledExecutorService executor,
+      boolean ownsExecutor,
+      FleetEngineTokenExpiryValidator tokenExpiryValidator,
+      Clock clock,
+      TokenPolicies tokenPolicies) {
+    checkRefreshAheadMargin(settings, tokenPolicies);
+    this.settings = settings;
+    this.delegate = delegate;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+    this.tokenExpiryValidator = tokenExpiryValidator;
+    this.clock = clock;
+    this.tokenPolicies = tokenPolicies;
+    this.cachedWildcardTokens = new AtomicReferenceArray<>(FleetEngineTokenType.values().length);
+    this.inFlightRefreshes = new ConcurrentHashMap<>(3);
+    this.backgroundRefreshes = new ConcurrentHashMap<>(3);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken signToken(Signer signer, FleetEngineToken token)
+      throws SigningTokenException {
+    // Background refreshes re-issue the token so that they do not sign stale timestamps.
+    return signToken(
+        signer,
+        token.tokenType(),
+        token.audience(),
+        token.authorizationClaims(),
+        () -> reissue(token));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    if (!claims.isWildcard()) {
+      return delegate.signToken(signer, tokenType, audience, claims, unsignedTokenSupplier);
+    }
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!policy.cacheable()) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return signer.sign(unsignedTokenSupplier.get());
+    }
+
+    CachedToken cachedToken = cachedWildcardTokens.get(tokenType.ordinal());
+    if (cachedToken != null
+        && !tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis)) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return cachedToken.token;
+    }
+
+    // First request for this type of token, or the background refresh has fallen behind.
+    CompletableFuture<FleetEngineToken> refresh = new CompletableFuture<>();
+    CompletableFuture<FleetEngineToken> inFlightRefresh =
+        inFlightRefreshes.putIfAbsent(tokenType, refresh);
+    if (inFlightRefresh != null) {
+      // Another thread is already signing this type of token.
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.JOINED);
+      return NaiveAuthStateManager.awaitRefresh(inFlightRefresh);
+    }
+
+    try {
+      // The token may have been refreshed by another thread or in the background.
+      cachedToken = cachedWildcardTokens.get(tokenType.ordinal());
+      FleetEngineToken signedToken;
+      if (cachedToken != null
+          && !tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis)) {
+        AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+        signedToken = cachedToken.token;
+      } else {
+        AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+        signedToken = signer.sign(unsignedTokenSupplier.get());
+        backgroundRefreshes
+            .computeIfAbsent(tokenType, BackgroundRefresh::new)
+            .update(signer, unsignedTokenSupplier, signedToken, policy);
+      }
+      refresh.complete(signedToken);
+      return signedToken;
+    } catch (SigningTokenException | RuntimeException | Error e) {
+      refresh.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlightRefreshes.remove(tokenType, refresh);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Cached wildcard tokens are returned as completed futures. Otherwise the token is signed with
+   * {@link Signer#signAsync(FleetEngineToken, Executor)} and no thread waits for the signature.
+   * Signatures are shared with {@link #signToken(Signer, FleetEngineTokenType, String,
+   * FleetEngineTokenClaims, Supplier)}.
+   */
+  @Override
+  public CompletableFuture<FleetEngineToken> signTokenAsync(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+    if (!claims.isWildcard()) {
+      return delegate.signTokenAsync(
+          signer, tokenType, audience, claims, unsignedTokenSupplier, executor);
+    }
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!policy.cacheable()) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return NaiveAuthStateManager.signAsync(signer, unsignedTokenSupplier, executor);
+    }
+
+    CachedToken cachedToken = cachedWildcardTokens.get(tokenType.ordinal());
+    if (cachedToken != null
+        && !tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis)) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return CompletableFuture.completedFuture(cachedToken.token);
+    }
+
+    CompletableFuture<FleetEngineToken> refresh = new CompletableFuture<>();
+    CompletableFuture<FleetEngineToken> inFlightRefresh =
+        inFlightRefreshes.putIfAbsent(tokenType, refresh);
+    if (inFlightRefresh != null) {
+      // Another caller is already signing this type of token, callers must not complete it.
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.JOINED);
+      return inFlightRefresh.thenApply(Function.identity());
+    }
+
+    // The token may have been refreshed by another caller or in the background.
+    cachedToken = cachedWildcardTokens.get(tokenType.ordinal());
+    if (cachedToken != null
+        && !tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis)) {
+      inFlightRefreshes.remove(tokenType, refresh);
+      refresh.complete(cachedToken.token);
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return CompletableFuture.completedFuture(cachedToken.token);
+    }
+
+    AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+    NaiveAuthStateManager.signAsync(signer, unsignedTokenSupplier, executor)
+        .whenComplete(
+            (signedToken, error) -> {
+              if (error == null) {
+                backgroundRefreshes
+                    .computeIfAbsent(tokenType, BackgroundRefresh::new)
+                    .update(signer, unsignedTokenSupplier, signedToken, policy);
+              }
+              inFlightRefreshes.remove(tokenType, refresh);
+              if (error == null) {
+                refresh.complete(signedToken);
+              } else {
+                refresh.completeExceptionally(NaiveAuthStateManager.unwrap(error));
+              }
+            });
+    return refresh.thenApply(Function.identity());
+  }
+
+  /** Stops all background refreshes. Cached tokens are still served until they expire. */
+  @Override
+  public void close() {
+    closed = true;
+    for (BackgroundRefresh backgroundRefresh : backgroundRefreshes.values()) {
+      backgroundRefresh.cancel();
+    }
+    if (ownsExecutor) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Time to wait before signing the replacement of {@code token}, cached under {@code policy}.
+   *
+   * <p>Never shorter than half the time left until the refresh window, nor than the initial
+   * backoff, so that a token that is due as soon as it is signed is not replaced in a tight loop.
+   */
+  @VisibleForTesting
+  Duration refreshDelay(FleetEngineToken token, TokenPolicy policy) {
+    long nowMillis = clock.millis();
+    long refreshWindowMillis =
+        token.expirationTimestamp().getTime() - policy.refreshWindow(token).toMillis();
+    long refreshAtMillis =
+        refreshWindowMillis
+            - settings.refreshAheadMargin().toMillis()
+            - randomMillis(settings.maximumJitter().toMillis());
+    long minimumDelayMillis =
+        Math.max(settings.initialBackoff().toMillis(), (refreshWindowMillis - nowMillis) / 2);
+    return Duration.ofMillis(Math.max(minimumDelayMillis, refreshAtMillis - nowMillis));
+  }
+
+  /**
+   * Throws when a token signed under one of {@code tokenPolicies} would be due for a background
+   * refresh as soon as it is signed.
+   */
+  private static void checkRefreshAheadMargin(
+      RefreshAheadAuthStateManagerSettings settings, TokenPolicies tokenPolicies) {
+    for (TokenPolicy policy :
+        Iterables.concat(
+            ImmutableList.of(tokenPolicies.defaultPolicy()),
+            tokenPolicies.typePolicies().values(),
+            tokenPolicies.audiencePolicies().values())) {
+      Duration refreshAhead =
+          settings
+              .refreshAheadMargin()
+              .plus(settings.maximumJitter())
+              .plus(policy.refreshMargin())
+              .plus(policy.jitter());
+      if (policy.cacheable() && refreshAhead.compareTo(policy.lifetime()) >= 0) {
+        throw new IllegalArgumentException(
+            String.format(
+                "refreshAheadMargin (%s) plus maximumJitter (%s) must be shorter than the time"
+                    + " before the refresh window of tokens with a lifetime of %s",
+                settings.refreshAheadMargin(), settings.maximumJitter(), policy.lifetime()));
+      }
+    }
+  }
+
+  /** Time to wait before retrying after {@code consecutiveFailures} failed refreshes. */
+  @VisibleForTesting
+  Duration backoffDelay(int consecutiveFailures) {
+    long backoffMillis = settings.initialBackoff().toMillis();
+    for (int i = 1; i < consecutiveFailures && backoffMillis < settings.maximumBackoff().toMillis();
+        i++) {
+      backoffMillis *= 2;
+    }
+    backoffMillis = Math.min(backoffMillis, settings.maximumBackoff().toMillis());
+    // Wait between half and all of the backoff so that retries of different types spread out.
+    return Duration.ofMillis(backoffMillis - randomMillis(backoffMillis / 2));
+  }
+
+  /** Returns {@code token} with its timestamps moved to now, keeping the same lifetime. */
+  private FleetEngineToken reissue(FleetEngineToken token) {
+    long lifetimeMillis =
+        token.expirationTimestamp().getTime() - token.creationTimestamp().getTime();
+    long nowMillis = clock.millis();
+    return token.toBuilder()
+        .setCreationTimestamp(new Date(nowMillis))
+        .setExpirationTimestamp(new Date(nowMillis + lifetimeMillis))
+        .build();
+  }
+
+  private static long randomMillis(long boundMillis) {
+    return boundMillis <= 0 ? 0 : ThreadLocalRandom.current().nextLong(boundMillis + 1);
+  }
+
+  /** Keeps one type of wildcard token fresh. */
+  private final class BackgroundRefresh implements Runnable {
+    private final FleetEngineTokenType tokenType;
+
+    // Guarded by this.
+    private Signer signer;
+    private Supplier<FleetEngineToken> unsignedTokenSupplier;
+    private TokenPolicy policy;
+    private ScheduledFuture<?> scheduledRefresh;
+    private int consecutiveFailures;
+
+    BackgroundRefresh(FleetEngineTokenType tokenType) {
+      this.tokenType = tokenType;
+    }
+
+    /** Publishes a token signed by a caller and schedules its replacement. */
+    synchronized void update(
+        Signer signer,
+        Supplier<FleetEngineToken> unsignedTokenSupplier,
+        FleetEngineToken token,
+        TokenPolicy policy) {
+      this.signer = signer;
+      this.unsignedTokenSupplier = unsignedTokenSupplier;
+      this.policy = policy;
+      this.consecutiveFailures = 0;
+      cachedWildcardTokens.set(tokenType.ordinal(), CachedToken.create(token, policy));
+      schedule(refreshDelay(token, policy));
+    }
+
+    @Override
+    public void run() {
+      Signer currentSigner;
+      Supplier<FleetEngineToken> currentSupplier;
+      TokenPolicy currentPolicy;
+      synchronized (this) {
+        currentSigner = signer;
+        currentSupplier = unsignedTokenSupplier;
+        currentPolicy = policy;
+      }
+
+      try {
+        FleetEngineToken signedToken = currentSigner.sign(currentSupplier.get());
+        synchronized (this) {
+          consecutiveFailures = 0;
+          cachedWildcardTokens.set(
+              tokenType.ordinal(), CachedToken.create(signedToken, currentPolicy));
+          schedule(refreshDelay(signedToken, currentPolicy));
+        }
+      } catch (SigningTokenException | RuntimeException e) {
+        synchronized (this) {
+          consecutiveFailures++;
+          logger.log(
+              Level.WARNING,
+              String.format(
+                  "Background refresh of %s token failed %d time(s) in a row.",
+                  tokenType, consecutiveFailures),
+              e);
+          schedule(backoffDelay(consecutiveFailures));
+        }
+      }
+    }
+
+    synchronized void cancel() {
+      if (scheduledRefresh != null) {
+        scheduledRefresh.cancel(false);
+        scheduledRefresh = null;
+      }
+    }
+
+    // Must be called while holding this.
+    private void schedule(Duration delay) {
+      if (closed) {
+        return;
+      }
+      if (scheduledRefresh != null) {
+        scheduledRefresh.cancel(false);
+      }
+      try {
+        scheduledRefresh = executor.schedule(this, delay.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // Callers fall back to signing on the calling thread once the cached token expires.
+        scheduledRefresh = null;
+        logger.log(
+            Level.WARNING,
+            String.format("Unable to schedule background refresh of %s token.", tokenType),
+            e);
+      }
+    }
+  }
+}
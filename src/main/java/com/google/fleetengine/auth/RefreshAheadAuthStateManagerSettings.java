@@ -0,0 +1,70 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.auto.value.AutoValue;
+import java.time.Duration;
+
+/** Settings for {@link RefreshAheadAuthStateManager}. */
+@AutoValue
+public abstract class RefreshAheadAuthStateManagerSettings {
+
+  /**
+   * How long before a cached token enters the {@link
+   * com.google.fleetengine.auth.token.TokenPolicy#refreshWindow refresh window} of its policy the
+   * replacement is signed.
+   */
+  public abstract Duration refreshAheadMargin();
+
+  /**
+   * Upper bound of the random delay subtracted from each scheduled refresh so that refreshes of
+   * different token types, or of different processes, do not line up.
+   */
+  public abstract Duration maximumJitter();
+
+  /** Delay before retrying a background refresh that failed. Doubles on every failure. */
+  public abstract Duration initialBackoff();
+
+  /** Upper bound of the delay between retries of a failing background refresh. */
+  public abstract Duration maximumBackoff();
+
+  /** Provides a builder for {@link RefreshAheadAuthStateManagerSettings}. */
+  public static Builder builder() {
+    return new AutoValue_RefreshAheadAuthStateManagerSettings.Builder()
+        .setRefreshAheadMargin(Duration.ofMinutes(5))
+        .setMaximumJitter(Duration.ofSeconds(30))
+        .setInitialBackoff(Duration.ofSeconds(1))
+        .setMaximumBackoff(Duration.ofMinutes(1));
+  }
+
+  /** Builder class for RefreshAheadAuthStateManagerSettings. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets how long before the expiration window the replacement token is signed. */
+    public abstract Builder setRefreshAheadMargin(Duration refreshAheadMargin);
+
+    /** Sets the upper bound of the random delay subtracted from each scheduled refresh. */
+    public abstract Builder setMaximumJitter(Duration maximumJitter);
+
+    /** Sets the delay before retrying a failed background refresh. */
+    public abstract Builder setInitialBackoff(Duration initialBackoff);
+
+    /** Sets the upper bound of the delay between retries of a failing background refresh. */
+    public abstract Builder setMaximumBackoff(Duration maximumBackoff);
+
+    /** Builds {@link RefreshAheadAuthStateManagerSettings}. */
+    public abstract RefreshAheadAuthStateManagerSettings build();
+  }
+}
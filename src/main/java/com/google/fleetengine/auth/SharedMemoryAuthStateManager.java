@@ -0,0 +1,479 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.fleetengine.auth.metrics.AuthEvents;
+import com.google.fleetengine.auth.metrics.CacheOutcome;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningDeadline;
+import com.google.fleetengine.auth.token.factory.signer.SigningDeadlineExceededException;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Provides valid Fleet Engine tokens shared by the processes of a host through a memory-mapped
+ * file, so that each type of wildcard token is signed by one process of the host instead of by
+ * all of them.
+ *
+ * <p>The file holds one slot per {@link FleetEngineTokenType}. Reading a token that did not change
+ * since the last call costs a single read of the slot sequence, no lock is taken. When a slot is
+ * empty or about to expire, the processes that need it elect a writer with a file lock: the
+ * writer signs the token and writes it to the slot, the other processes poll the slot until it is
+ * written. When no token is written within {@link
+ * SharedMemoryAuthStateManagerSettings#maximumWait()}, the token is signed locally.
+ *
+ * <p>Each slot holds the token of a single audience and set of claims, tokens with non-wildcard
+ * claims are passed through to a delegate state manager. Shared tokens are replaced once they
+ * enter the {@link TokenPolicy#refreshWindow(FleetEngineToken) refresh window} of their {@link
+ * TokenPolicies policy}, wildcard tokens whose policy is not {@link TokenPolicy#cacheable()} are
+ * always signed.
+ *
+ * <p>The manager should be {@link #close() closed} once it is no longer used in order to close the
+ * file.
+ */
+public class SharedMemoryAuthStateManager
+    implements FleetEngineAuthTokenStateManager, AutoCloseable {
+
+  private static final Logger logger =
+      Logger.getLogger(SharedMemoryAuthStateManager.class.getName());
+
+  private final SharedMemoryAuthStateManagerSettings settings;
+
+  /** Provides tokens that do not have wildcard claims. */
+  private final FleetEngineAuthTokenStateManager delegate;
+
+  private final SharedTokenSegment segment;
+
+  /** Hash of the signer identity, mixed into the key of every shared token. */
+  private final long signerIdentityHash;
+
+  /** Validates whether a token has expired. */
+  private final FleetEngineTokenExpiryValidator tokenExpiryValidator;
+
+  private final TokenPolicies tokenPolicies;
+
+  /** Latest token read from, or written to, each slot by this process, indexed by ordinal. */
+  private final AtomicReferenceArray<LocalToken> localTokens;
+
+  /** Serializes the refreshes of each slot within this process, indexed by ordinal. */
+  private final ReentrantLock[] refreshLocks;
+
+  /**
+   * Creates a manager that passes tokens with non-wildcard claims to a {@link
+   * NaiveAuthStateManager}.
+   *
+   * @param settings file and identity that tokens are shared with
+   * @throws IOException when the file cannot be opened, or is shared with another maximum JWT
+   *     length
+   */
+  public SharedMemoryAuthStateManager(SharedMemoryAuthStateManagerSettings settings)
+      throws IOException {
+    this(settings, TokenPolicies.defaults());
+  }
+
+  /**
+   * Creates a manager that passes tokens with non-wildcard claims to a {@link
+   * NaiveAuthStateManager}.
+   *
+   * @param settings file and identity that tokens are shared with
+   * @param tokenPolicies when shared tokens are replaced, by token type and audience
+   * @throws IOException when the file cannot be opened, or is shared with another maximum JWT
+   *     length
+   */
+  public SharedMemoryAuthStateManager(
+      SharedMemoryAuthStateManagerSettings settings, TokenPolicies tokenPolicies)
+      throws IOException {
+    this(settings, new NaiveAuthStateManager(tokenPolicies), tokenPolicies);
+  }
+
+  /**
+   * Creates a manager that passes tokens with non-wildcard claims to {@code delegate}.
+   *
+   * @param settings file and identity that tokens are shared with
+   * @param delegate provides tokens that do not have wildcard claims
+   * @throws IOException when the file cannot be opened, or is shared with another maximum JWT
+   *     length
+   */
+  public SharedMemoryAuthStateManager(
+      SharedMemoryAuthStateManagerSettings settings, FleetEngineAuthTokenStateManager delegate)
+      throws IOException {
+    this(settings, delegate, TokenPolicies.defaults());
+  }
+
+  /**
+   * Creates a manager that passes tokens with non-wildcard claims to {@code delegate}.
+   *
+   * @param settings file and identity that tokens are shared with
+   * @param delegate provides tokens that do not have wildcard claims
+   * @param tokenPolicies when shared tokens are replaced, by token type and audience
+   * @throws IOException when the file cannot be opened, or is shared with another maximum JWT
+   *     length
+   */
+  public SharedMemoryAuthStateManager(
+      SharedMemoryAuthStateManagerSettings settings,
+      FleetEngineAuthTokenStateManager delegate,
+      TokenPolicies tokenPolicies)
+      throws IOException {
+    this(settings, delegate, FleetEngineTokenExpiryValidator.getInstance(), tokenPolicies);
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  SharedMemoryAuthStateManager(
+      SharedMemoryAuthStateManagerSettings settings,
+      FleetEngineAuthTokenStateManager delegate,
+      FleetEngineTokenExpiryValidator tokenExpiryValidator,
+      TokenPolicies tokenPolicies)
+      throws IOException {
+    this.settings = settings;
+    this.delegate = delegate;
+    this.tokenExpiryValidator = tokenExpiryValidator;
+    this.tokenPolicies = tokenPolicies;
+    this.signerIdentityHash =
+        Hashing.sha256().hashString(settings.signerIdentity(), UTF_8).asLong();
+    this.localTokens = new AtomicReferenceArray<>(FleetEngineTokenType.values().length);
+    this.refreshLocks = new ReentrantLock[FleetEngineTokenType.values().length];
+    for (int i = 0; i < refreshLocks.length; i++) {
+      refreshLocks[i] = new ReentrantLock();
+    }
+    this.segment = SharedTokenSegment.open(settings.path(), settings.maximumJwtLength());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken signToken(Signer signer, FleetEngineToken token)
+      throws SigningTokenException {
+    return signToken(
+        signer,
+        token.tokenType(),
+        token.audience(),
+        token.authorizationClaims(),
+        () -> token);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Shared wildcard tokens are returned without calling {@code unsignedTokenSupplier}.
+   */
+  @Override
+  public FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    if (!claims.isWildcard()) {
+      return delegate.signToken(signer, tokenType, audience, claims, unsignedTokenSupplier);
+    }
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!policy.cacheable()) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return signer.sign(unsignedTokenSupplier.get());
+    }
+
+    FleetEngineToken token = getNonExpiredSharedToken(tokenType, audience, claims, policy);
+    if (token != null) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return token;
+    }
+
+    AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+    ReentrantLock refreshLock = refreshLocks[tokenType.ordinal()];
+    lock(refreshLock);
+    try {
+      // The token may have been written by another thread or process.
+      token = getNonExpiredSharedToken(tokenType, audience, claims, policy);
+      if (token != null) {
+        return token;
+      }
+      return refresh(signer, tokenType, audience, claims, policy, unsignedTokenSupplier);
+    } finally {
+      refreshLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Shared wildcard tokens are returned as completed futures. Otherwise the token is signed, or
+   * waited for, on {@code executor}.
+   */
+  @Override
+  public CompletableFuture<FleetEngineToken> signTokenAsync(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+    if (!claims.isWildcard()) {
+      return delegate.signTokenAsync(
+          signer, tokenType, audience, claims, unsignedTokenSupplier, executor);
+    }
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!policy.cacheable()) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return NaiveAuthStateManager.signAsync(signer, unsignedTokenSupplier, executor);
+    }
+
+    FleetEngineToken token = getNonExpiredSharedToken(tokenType, audience, claims, policy);
+    if (token != null) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return CompletableFuture.completedFuture(token);
+    }
+    return FleetEngineAuthTokenStateManager.super.signTokenAsync(
+        signer, tokenType, audience, claims, unsignedTokenSupplier, executor);
+  }
+
+  /** Closes the shared file. The delegate is not closed. */
+  @Override
+  public void close() throws IOException {
+    segment.close();
+  }
+
+  /**
+   * Signs the token when this process is elected writer of its slot, otherwise waits for the
+   * elected writer. Must be called with the refresh lock of the slot held.
+   */
+  private FleetEngineToken refresh(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      TokenPolicy policy,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    long key = key(tokenType, audience, claims);
+    long waitNanos = Math.min(settings.maximumWait().toNanos(), SigningDeadline.remainingNanos());
+    long deadlineNanos = System.nanoTime() + waitNanos;
+    while (true) {
+      FileLock slotLock;
+      try {
+        slotLock = segment.tryLock(tokenType);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Error while locking shared token slot, signing locally.", e);
+        break;
+      }
+
+      if (slotLock != null) {
+        try {
+          FleetEngineToken token = getNonExpiredSharedToken(tokenType, audience, claims, policy);
+          if (token != null) {
+            return token;
+          }
+          return signAndWrite(
+              key, signer, tokenType, audience, claims, policy, unsignedTokenSupplier);
+        } finally {
+          release(slotLock);
+        }
+      }
+
+      // Another process is signing the token.
+      long remainingNanos = deadlineNanos - System.nanoTime();
+      if (remainingNanos <= 0) {
+        logger.log(Level.FINE, "Timed out waiting for shared {0} token.", tokenType);
+        break;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(Math.min(settings.pollInterval().toNanos(), remainingNanos));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SigningTokenException("Interrupted while waiting for shared token.", e);
+      }
+      FleetEngineToken token = getNonExpiredSharedToken(tokenType, audience, claims, policy);
+      if (token != null) {
+        return token;
+      }
+    }
+
+    FleetEngineToken signedToken = signer.sign(unsignedTokenSupplier.get());
+    localTokens.set(
+        tokenType.ordinal(),
+        new LocalToken(
+            segment.sequence(tokenType),
+            key,
+            audience,
+            claims,
+            CachedToken.create(signedToken, policy)));
+    return signedToken;
+  }
+
+  private FleetEngineToken signAndWrite(
+      long key,
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      TokenPolicy policy,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    FleetEngineToken signedToken = signer.sign(unsignedTokenSupplier.get());
+    if (signedToken.jwt() != null
+        && !segment.write(
+            tokenType,
+            key,
+            signedToken.creationTimestamp().getTime(),
+            signedToken.expirationTimestamp().getTime(),
+            signedToken.jwt())) {
+      logger.log(
+          Level.FINE,
+          "JWT of {0} token is longer than maximumJwtLength, it is not shared.",
+          tokenType);
+    }
+    localTokens.set(
+        tokenType.ordinal(),
+        new LocalToken(
+            segment.sequence(tokenType),
+            key,
+            audience,
+            claims,
+            CachedToken.create(signedToken, policy)));
+    return signedToken;
+  }
+
+  /**
+   * Returns the token of this process when its slot did not change, otherwise reads the slot.
+   *
+   * @return a valid token, null when neither this process nor the slot has one
+   */
+  @Nullable
+  private FleetEngineToken getNonExpiredSharedToken(
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      TokenPolicy policy) {
+    LocalToken localToken = localTokens.get(tokenType.ordinal());
+    boolean localTokenMatches = localToken != null && localToken.matches(audience, claims);
+    if (localTokenMatches
+        && localToken.sequence == segment.sequence(tokenType)
+        && !isExpired(localToken.cachedToken)) {
+      return localToken.cachedToken.token;
+    }
+
+    long key = localTokenMatches ? localToken.key : key(tokenType, audience, claims);
+    SharedTokenSegment.Slot slot = segment.read(tokenType);
+    if (slot != null && slot.key == key) {
+      FleetEngineToken.Builder builder =
+          FleetEngineToken.builder()
+              .setCreationTimestamp(new Date(slot.creationMillis))
+              .setExpirationTimestamp(new Date(slot.expirationMillis))
+              .setTokenType(tokenType)
+              .setAuthorizationClaims(claims)
+              .setJwt(slot.jwt);
+      if (audience != null) {
+        builder.setAudience(audience);
+      }
+      CachedToken cachedToken = CachedToken.create(builder.build(), policy);
+      if (!isExpired(cachedToken)) {
+        localTokens.set(
+            tokenType.ordinal(), new LocalToken(slot.sequence, key, audience, claims, cachedToken));
+        return cachedToken.token;
+      }
+    }
+
+    // The slot holds a token of another audience or claims, or was not written yet.
+    return localTokenMatches && !isExpired(localToken.cachedToken)
+        ? localToken.cachedToken.token
+        : null;
+  }
+
+  private long key(FleetEngineTokenType tokenType, String audience, FleetEngineTokenClaims claims) {
+    return Hashing.murmur3_128()
+        .newHasher()
+        .putLong(signerIdentityHash)
+        .putLong(TokenKeys.hash(tokenType, audience, claims.toMap()))
+        .hash()
+        .asLong();
+  }
+
+  /** Returns whether {@code cachedToken} is within the refresh window of its policy. */
+  private boolean isExpired(CachedToken cachedToken) {
+    return tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis);
+  }
+
+  /** Acquires {@code refreshLock}, waiting at most until the {@link SigningDeadline}. */
+  private static void lock(ReentrantLock refreshLock) throws SigningTokenException {
+    try {
+      long remainingNanos = SigningDeadline.remainingNanos();
+      if (remainingNanos == Long.MAX_VALUE) {
+        refreshLock.lockInterruptibly();
+      } else if (!refreshLock.tryLock(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS)) {
+        throw new SigningDeadlineExceededException(
+            "Deadline exceeded while waiting for token refresh.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SigningTokenException("Interrupted while waiting for token refresh.", e);
+    }
+  }
+
+  private static void release(FileLock slotLock) {
+    try {
+      slotLock.release();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Error while releasing shared token slot lock.", e);
+    }
+  }
+
+  /** Token of a slot as last seen by this process. */
+  private static final class LocalToken {
+    final long sequence;
+    final long key;
+    @Nullable final String audience;
+    final FleetEngineTokenClaims claims;
+    final CachedToken cachedToken;
+
+    LocalToken(
+        long sequence,
+        long key,
+        @Nullable String audience,
+        FleetEngineTokenClaims claims,
+        CachedToken cachedToken) {
+      this.sequence = sequence;
+      this.key = key;
+      this.audience = audience;
+      this.claims = claims;
+      this.cachedToken = cachedToken;
+    }
+
+    boolean matches(@Nullable String audience, FleetEngineTokenClaims claims) {
+      return Objects.equals(this.audience, audience)
+          && (this.claims == claims || this.claims.toMap().equals(claims.toMap()));
+    }
+  }
+}
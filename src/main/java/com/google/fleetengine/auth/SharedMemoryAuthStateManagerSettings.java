@@ -0,0 +1,87 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.auto.value.AutoValue;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/** Settings for {@link SharedMemoryAuthStateManager}. */
+@AutoValue
+public abstract class SharedMemoryAuthStateManagerSettings {
+  /** Default maximum length of a shared JWT, longer JWTs are only kept in memory. */
+  public static final int DEFAULT_MAXIMUM_JWT_LENGTH = 4_000;
+
+  /**
+   * File shared by the processes of the host, eg. on a {@code tmpfs} file system. Created when it
+   * does not exist.
+   */
+  public abstract Path path();
+
+  /**
+   * Identifies what signs the tokens, eg. the email of the service account that signs them.
+   *
+   * <p>Processes only share tokens with processes that use the same identity.
+   */
+  public abstract String signerIdentity();
+
+  /**
+   * Maximum length of a shared JWT. Each token type takes this many bytes in the file.
+   *
+   * <p>All the processes sharing a file must use the same maximum length.
+   */
+  public abstract int maximumJwtLength();
+
+  /** Delay between reads of the file while waiting for another process to sign a token. */
+  public abstract Duration pollInterval();
+
+  /**
+   * How long to wait for another process to sign a token before signing it locally.
+   *
+   * <p>Callers never wait past their own {@link
+   * com.google.fleetengine.auth.token.factory.signer.SigningDeadline}.
+   */
+  public abstract Duration maximumWait();
+
+  /** Provides a builder for {@link SharedMemoryAuthStateManagerSettings}. */
+  public static Builder builder() {
+    return new AutoValue_SharedMemoryAuthStateManagerSettings.Builder()
+        .setMaximumJwtLength(DEFAULT_MAXIMUM_JWT_LENGTH)
+        .setPollInterval(Duration.ofMillis(10))
+        .setMaximumWait(Duration.ofSeconds(5));
+  }
+
+  /** Builder class for SharedMemoryAuthStateManagerSettings. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the file shared by the processes of the host. */
+    public abstract Builder setPath(Path path);
+
+    /** Sets the identity of what signs the tokens, eg. a service account email. */
+    public abstract Builder setSignerIdentity(String signerIdentity);
+
+    /** Sets the maximum length of a shared JWT. */
+    public abstract Builder setMaximumJwtLength(int maximumJwtLength);
+
+    /** Sets the delay between reads of the file while waiting for another process. */
+    public abstract Builder setPollInterval(Duration pollInterval);
+
+    /** Sets how long to wait for another process to sign a token before signing it locally. */
+    public abstract Builder setMaximumWait(Duration maximumWait);
+
+    /** Builds {@link SharedMemoryAuthStateManagerSettings}. */
+    public abstract SharedMemoryAuthStateManagerSettings build();
+  }
+}
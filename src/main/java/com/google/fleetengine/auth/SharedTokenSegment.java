@@ -0,0 +1,297 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * Memory-mapped file shared by the processes of a host, with one slot per {@link
+ * FleetEngineTokenType} holding the latest signed wildcard token of that type.
+ *
+ * <p>Each slot is guarded by a sequence lock: the writer makes the sequence odd, writes the token
+ * and makes the sequence even again. Readers never lock, they read the token between two reads of
+ * the sequence and retry when the sequence changed. Since plain reads of a mapped buffer are not
+ * ordered, the token also carries a checksum that readers verify, so that a torn read is never
+ * returned. Readers that only need to know whether a slot changed compare its {@link
+ * #sequence(FleetEngineTokenType) sequence}, a single read.
+ *
+ * <p>Writers are elected per slot with a file lock on a byte past the end of the slots, which the
+ * operating system releases when the writer dies. Only the process holding the lock of a slot
+ * writes to it.
+ */
+final class SharedTokenSegment implements AutoCloseable {
+
+  private static final int MAGIC = 0x46455348;
+
+  /** Incremented whenever the layout of the file changes. */
+  private static final int FORMAT_VERSION = 1;
+
+  private static final int HEADER_BYTES = 64;
+
+  /** Sequence, checksum, key, creation and expiration timestamps, JWT length. */
+  private static final int SLOT_HEADER_BYTES = 8 + 4 + 8 + 8 + 8 + 4;
+
+  /** Number of times a read is retried while the slot is being written. */
+  private static final int MAXIMUM_READ_ATTEMPTS = 16;
+
+  private static final int SLOT_COUNT = FleetEngineTokenType.values().length;
+
+  /**
+   * Byte locked while the file is initialized. Fixed, unlike the slot locks, since it is locked
+   * before the layout of the file is known.
+   */
+  private static final long INITIALIZATION_LOCK_OFFSET = Long.MAX_VALUE - 1;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int slotBytes;
+
+  /** Start of the bytes that are locked to elect writers, past the end of the slots. */
+  private final long lockRegionOffset;
+
+  /**
+   * Opens {@code path}, creating it when it does not exist.
+   *
+   * <p>A file that was already initialized is never reset, since other processes may be using it:
+   * its layout is read from its header and must match the one of this process.
+   *
+   * @param path file shared by the processes of the host
+   * @param maximumJwtLength maximum length of a shared JWT
+   * @throws IOException when the file cannot be opened, or was initialized with another format
+   *     version or maximum JWT length
+   */
+  static SharedTokenSegment open(Path path, int maximumJwtLength) throws IOException {
+    FileChannel channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      int slotBytes = SLOT_HEADER_BYTES + maximumJwtLength;
+      // Serializes the initialization of processes that open the file at the same time.
+      try (FileLock unused = channel.lock(INITIALIZATION_LOCK_OFFSET, 1, false)) {
+        ByteBuffer header = readHeader(channel);
+        if (header.getInt(0) == MAGIC) {
+          checkHeader(path, header, slotBytes);
+          return new SharedTokenSegment(channel, slotBytes);
+        }
+        SharedTokenSegment segment = new SharedTokenSegment(channel, slotBytes);
+        segment.initialize();
+        return segment;
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private SharedTokenSegment(FileChannel channel, int slotBytes) throws IOException {
+    this.channel = channel;
+    this.slotBytes = slotBytes;
+    this.lockRegionOffset = HEADER_BYTES + (long) SLOT_COUNT * slotBytes;
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, lockRegionOffset);
+  }
+
+  /**
+   * Returns the sequence of the slot of {@code tokenType}, which changes whenever a token is
+   * written to it.
+   */
+  long sequence(FleetEngineTokenType tokenType) {
+    return buffer.getLong(slotOffset(tokenType));
+  }
+
+  /**
+   * Returns the token in the slot of {@code tokenType}, null when the slot is empty or is being
+   * written.
+   */
+  @Nullable
+  Slot read(FleetEngineTokenType tokenType) {
+    int offset = slotOffset(tokenType);
+    for (int attempt = 0; attempt < MAXIMUM_READ_ATTEMPTS; attempt++) {
+      long sequence = buffer.getLong(offset);
+      if ((sequence & 1) != 0) {
+        Thread.yield();
+        continue;
+      }
+      int checksum = buffer.getInt(offset + 8);
+      long key = buffer.getLong(offset + 12);
+      long creationMillis = buffer.getLong(offset + 20);
+      long expirationMillis = buffer.getLong(offset + 28);
+      int jwtLength = buffer.getInt(offset + 36);
+      if (jwtLength <= 0 || jwtLength > slotBytes - SLOT_HEADER_BYTES) {
+        if (buffer.getLong(offset) == sequence) {
+          // Empty slot.
+          return null;
+        }
+        continue;
+      }
+      byte[] jwtBytes = new byte[jwtLength];
+      for (int i = 0; i < jwtLength; i++) {
+        jwtBytes[i] = buffer.get(offset + SLOT_HEADER_BYTES + i);
+      }
+      if (buffer.getLong(offset) == sequence
+          && checksum == checksum(key, creationMillis, expirationMillis, jwtBytes)) {
+        return new Slot(
+            sequence, key, creationMillis, expirationMillis, new String(jwtBytes, US_ASCII));
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Writes a token to the slot of {@code tokenType}. The caller must hold the lock returned by
+   * {@link #tryLock(FleetEngineTokenType)}.
+   *
+   * @return false when the JWT is too long to be shared
+   */
+  boolean write(
+      FleetEngineTokenType tokenType,
+      long key,
+      long creationMillis,
+      long expirationMillis,
+      String jwt) {
+    byte[] jwtBytes = jwt.getBytes(US_ASCII);
+    if (jwtBytes.length > slotBytes - SLOT_HEADER_BYTES) {
+      return false;
+    }
+    int offset = slotOffset(tokenType);
+    long sequence = buffer.getLong(offset);
+    // An odd sequence is left behind by a writer that died while writing.
+    long writingSequence = (sequence & 1) == 0 ? sequence + 1 : sequence + 2;
+    buffer.putLong(offset, writingSequence);
+    buffer.putInt(offset + 8, checksum(key, creationMillis, expirationMillis, jwtBytes));
+    buffer.putLong(offset + 12, key);
+    buffer.putLong(offset + 20, creationMillis);
+    buffer.putLong(offset + 28, expirationMillis);
+    buffer.putInt(offset + 36, jwtBytes.length);
+    for (int i = 0; i < jwtBytes.length; i++) {
+      buffer.put(offset + SLOT_HEADER_BYTES + i, jwtBytes[i]);
+    }
+    buffer.putLong(offset, writingSequence + 1);
+    return true;
+  }
+
+  /**
+   * Tries to become the writer of the slot of {@code tokenType}.
+   *
+   * <p>The lock is held by at most one process at a time. Within a process, callers must not try to
+   * lock a slot that they already locked.
+   *
+   * @return lock to release once the slot is written, null when another process holds it
+   */
+  @Nullable
+  FileLock tryLock(FleetEngineTokenType tokenType) throws IOException {
+    try {
+      return channel.tryLock(lockRegionOffset + tokenType.ordinal(), 1, false);
+    } catch (OverlappingFileLockException e) {
+      // Held by another segment of this process opened on the same file.
+      return null;
+    }
+  }
+
+  /** Closes the file. The mapping itself is released once the segment is unreachable. */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Clears the slots and writes the header of a file that was not initialized. The magic number is
+   * written last, so that a process dying while initializing leaves a file that is initialized
+   * again.
+   */
+  private void initialize() {
+    byte[] zeros = new byte[slotBytes];
+    for (FleetEngineTokenType tokenType : FleetEngineTokenType.values()) {
+      buffer.position(slotOffset(tokenType));
+      buffer.put(zeros);
+    }
+    buffer.putInt(4, FORMAT_VERSION);
+    buffer.putInt(8, SLOT_COUNT);
+    buffer.putInt(12, slotBytes);
+    buffer.putInt(0, MAGIC);
+  }
+
+  /** Reads the start of the header, zeros past the end of a shorter file. */
+  private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(16);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) {
+        break;
+      }
+    }
+    return header;
+  }
+
+  /** Checks that an initialized file has the layout of this process. */
+  private static void checkHeader(Path path, ByteBuffer header, int slotBytes)
+      throws IOException {
+    if (header.getInt(4) != FORMAT_VERSION || header.getInt(8) != SLOT_COUNT) {
+      throw new IOException(
+          String.format(
+              "%s has format version %d with %d slots, expected version %d with %d slots.",
+              path, header.getInt(4), header.getInt(8), FORMAT_VERSION, SLOT_COUNT));
+    }
+    if (header.getInt(12) != slotBytes) {
+      throw new IOException(
+          String.format(
+              "%s is shared with a maximum JWT length of %d, expected %d.",
+              path, header.getInt(12) - SLOT_HEADER_BYTES, slotBytes - SLOT_HEADER_BYTES));
+    }
+  }
+
+  private int slotOffset(FleetEngineTokenType tokenType) {
+    return HEADER_BYTES + tokenType.ordinal() * slotBytes;
+  }
+
+  private static int checksum(
+      long key, long creationMillis, long expirationMillis, byte[] jwtBytes) {
+    CRC32 crc = new CRC32();
+    for (long value : new long[] {key, creationMillis, expirationMillis}) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        crc.update((int) (value >>> shift));
+      }
+    }
+    crc.update(jwtBytes);
+    return (int) crc.getValue();
+  }
+
+  /** Token read from a slot. */
+  static final class Slot {
+    final long sequence;
+    final long key;
+    final long creationMillis;
+    final long expirationMillis;
+    final String jwt;
+
+    Slot(long sequence, long key, long creationMillis, long expirationMillis, String jwt) {
+      this.sequence = sequence;
+      this.key = key;
+      this.creationMillis = creationMillis;
+      this.expirationMillis = expirationMillis;
+      this.jwt = jwt;
+    }
+  }
+}
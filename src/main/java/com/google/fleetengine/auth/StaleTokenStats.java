@@ -0,0 +1,42 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.auto.value.AutoValue;
+
+/** Point in time statistics of tokens served from within the expiration window. */
+@AutoValue
+public abstract class StaleTokenStats {
+  /** Number of lookups that returned a stale token while a refresh was started or in flight. */
+  public abstract long staleWhileRevalidateCount();
+
+  /** Number of lookups that returned a stale token because the latest refresh failed. */
+  public abstract long staleIfErrorCount();
+
+  /** Number of background refreshes that signed a new token. */
+  public abstract long refreshSuccessCount();
+
+  /** Number of background refreshes that failed to sign a new token. */
+  public abstract long refreshFailureCount();
+
+  static StaleTokenStats create(
+      long staleWhileRevalidateCount,
+      long staleIfErrorCount,
+      long refreshSuccessCount,
+      long refreshFailureCount) {
+    return new AutoValue_StaleTokenStats(
+        staleWhileRevalidateCount, staleIfErrorCount, refreshSuccessCount, refreshFailureCount);
+  }
+}
@@ -0,0 +1,420 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.fleetengine.auth.metrics.AuthEvents;
+import com.google.fleetengine.auth.metrics.CacheOutcome;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Provides valid Fleet Engine tokens and keeps serving cached wildcard tokens while they are
+ * refreshed.
+ *
+ * <p>A cached wildcard token that has entered {@link
+ * FleetEngineAuthTokenStateManager#EXPIRATION_WINDOW_DURATION} is still accepted by Fleet Engine
+ * until its expiration timestamp. Instead of blocking on a new signature like {@link
+ * NaiveAuthStateManager}, this manager:
+ *
+ * <ul>
+ *   <li><b>stale-while-revalidate</b>: returns the cached token right away and signs its
+ *       replacement on an {@link Executor}, with at most one refresh in flight per token type.
+ *   <li><b>stale-if-error</b>: keeps returning the cached token if the refresh fails, retrying at
+ *       most once per {@link #RETRY_INTERVAL}, until the token actually expires.
+ * </ul>
+ *
+ * <p>Callers only sign on the calling thread when there is no cached token or the cached token has
+ * actually expired. How often stale tokens were served is reported by {@link #stats()}.
+ *
+ * <p>When and for how long tokens are served stale is set per token type and audience by {@link
+ * TokenPolicies}: a token is due for refresh within its {@link
+ * TokenPolicy#refreshWindow(FleetEngineToken) refresh window}, and is served stale for at most
+ * {@link TokenPolicy#maximumStaleness()} after that. Wildcard tokens whose policy is not {@link
+ * TokenPolicy#cacheable()} are always signed.
+ *
+ * <p>Tokens that do not have wildcard claims are always signed, see {@link NaiveAuthStateManager}.
+ */
+public class StaleWhileRevalidateAuthStateManager implements FleetEngineAuthTokenStateManager {
+
+  /** Minimum time between a failed background refresh and the next attempt. */
+  public static final Duration RETRY_INTERVAL = Duration.ofSeconds(1);
+
+  private static final Logger logger =
+      Logger.getLogger(StaleWhileRevalidateAuthStateManager.class.getName());
+
+  private final Executor executor;
+
+  /** Validates whether a token has expired. */
+  private final FleetEngineTokenExpiryValidator tokenExpiryValidator;
+
+  private final TokenPolicies tokenPolicies;
+
+  /* Used to get the current time. */
+  private final Clock clock;
+
+  /** Cached wildcard token state per token type, indexed by ordinal. */
+  private final TokenSlot[] slots;
+
+  private final LongAdder staleWhileRevalidateCount = new LongAdder();
+  private final LongAdder staleIfErrorCount = new LongAdder();
+  private final LongAdder refreshSuccessCount = new LongAdder();
+  private final LongAdder refreshFailureCount = new LongAdder();
+
+  /**
+   * Creates a manager that refreshes tokens on daemon threads. At most one thread per token type is
+   * busy at any time and idle threads are released.
+   */
+  public StaleWhileRevalidateAuthStateManager() {
+    this(
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("fleetengine-auth-revalidate-%d")
+                .build()));
+  }
+
+  /**
+   * Creates a manager that refreshes tokens on {@code executor}.
+   *
+   * @param executor runs background refreshes, signing may block on network calls
+   */
+  public StaleWhileRevalidateAuthStateManager(Executor executor) {
+    this(executor, TokenPolicies.defaults());
+  }
+
+  /**
+   * Creates a manager that refreshes tokens on {@code executor}.
+   *
+   * @param executor runs background refreshes, signing may block on network calls
+   * @param tokenPolicies when tokens are refreshed and how long they are served stale
+   */
+  public StaleWhileRevalidateAuthStateManager(Executor executor, TokenPolicies tokenPolicies) {
+    this(executor, FleetEngineTokenExpiryValidator.getInstance(), Clock.systemUTC(), tokenPolicies);
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  StaleWhileRevalidateAuthStateManager(
+      Executor executor, FleetEngineTokenExpiryValidator tokenExpiryValidator, Clock clock) {
+    this(executor, tokenExpiryValidator, clock, TokenPolicies.defaults());
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  StaleWhileRevalidateAuthStateManager(
+      Executor executor,
+      FleetEngineTokenExpiryValidator tokenExpiryValidator,
+      Clock clock,
+      TokenPolicies tokenPolicies) {
+    this.executor = executor;
+    this.tokenExpiryValidator = tokenExpiryValidator;
+    this.tokenPolicies = tokenPolicies;
+    this.clock = clock;
+    this.slots = new TokenSlot[FleetEngineTokenType.values().length];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new TokenSlot();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken signToken(Signer signer, FleetEngineToken token)
+      throws SigningTokenException {
+    return signToken(
+        signer,
+        token.tokenType(),
+        token.audience(),
+        token.authorizationClaims(),
+        () -> token);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Cached wildcard tokens that have not expired are returned without waiting for {@code
+   * unsignedTokenSupplier} or {@code signer}.
+   */
+  @Override
+  public FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!claims.isWildcard() || !policy.cacheable()) {
+      // Always sign tokens with claims that are not a wildcard, or that may not be reused.
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return signer.sign(unsignedTokenSupplier.get());
+    }
+
+    TokenSlot slot = slots[tokenType.ordinal()];
+    FleetEngineToken usableToken =
+        getUsableCachedToken(slot, tokenType, claims, policy, signer, unsignedTokenSupplier);
+    if (usableToken != null) {
+      return usableToken;
+    }
+
+    // There is no usable token, sign it on the calling thread. Only callers waiting for the same
+    // type of token are blocked.
+    CompletableFuture<FleetEngineToken> signature = new CompletableFuture<>();
+    CompletableFuture<FleetEngineToken> inFlightSignature = claimSignature(slot, signature);
+    if (inFlightSignature != signature) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.JOINED);
+      return NaiveAuthStateManager.awaitRefresh(inFlightSignature);
+    }
+
+    try {
+      CachedToken cachedToken = slot.token;
+      if (cachedToken != null
+          && !tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis)) {
+        // Signed by another caller while this one waited.
+        AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.JOINED);
+      } else {
+        AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+        cachedToken = CachedToken.create(signer.sign(unsignedTokenSupplier.get()), policy);
+        publish(slot, cachedToken);
+      }
+      slot.signature.set(null);
+      signature.complete(cachedToken.token);
+      return cachedToken.token;
+    } catch (SigningTokenException | RuntimeException | Error e) {
+      slot.signature.set(null);
+      signature.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Cached wildcard tokens that have not expired, including stale ones, are returned as
+   * completed futures. Otherwise the token is signed with {@link Signer#signAsync(FleetEngineToken,
+   * Executor)} and no thread waits for the signature. Signatures are shared with {@link
+   * #signToken(Signer, FleetEngineTokenType, String, FleetEngineTokenClaims, Supplier)}.
+   */
+  @Override
+  public CompletableFuture<FleetEngineToken> signTokenAsync(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!claims.isWildcard() || !policy.cacheable()) {
+      // Always sign tokens with claims that are not a wildcard, or that may not be reused.
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return NaiveAuthStateManager.signAsync(signer, unsignedTokenSupplier, executor);
+    }
+
+    TokenSlot slot = slots[tokenType.ordinal()];
+    FleetEngineToken usableToken =
+        getUsableCachedToken(slot, tokenType, claims, policy, signer, unsignedTokenSupplier);
+    if (usableToken != null) {
+      return CompletableFuture.completedFuture(usableToken);
+    }
+
+    CompletableFuture<FleetEngineToken> signature = new CompletableFuture<>();
+    CompletableFuture<FleetEngineToken> inFlightSignature = claimSignature(slot, signature);
+    if (inFlightSignature != signature) {
+      // Another caller is already signing this type of token, callers must not complete it.
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.JOINED);
+      return inFlightSignature.thenApply(Function.identity());
+    }
+
+    // The token may have been signed by another caller.
+    CachedToken cachedToken = slot.token;
+    if (cachedToken != null
+        && !tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis)) {
+      slot.signature.set(null);
+      signature.complete(cachedToken.token);
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.JOINED);
+      return CompletableFuture.completedFuture(cachedToken.token);
+    }
+
+    AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+    NaiveAuthStateManager.signAsync(signer, unsignedTokenSupplier, executor)
+        .whenComplete(
+            (signedToken, error) -> {
+              if (error == null) {
+                publish(slot, CachedToken.create(signedToken, policy));
+              }
+              slot.signature.set(null);
+              if (error == null) {
+                signature.complete(signedToken);
+              } else {
+                signature.completeExceptionally(NaiveAuthStateManager.unwrap(error));
+              }
+            });
+    return signature.thenApply(Function.identity());
+  }
+
+  /** Returns statistics about stale tokens served so far. */
+  public StaleTokenStats stats() {
+    return StaleTokenStats.create(
+        staleWhileRevalidateCount.sum(),
+        staleIfErrorCount.sum(),
+        refreshSuccessCount.sum(),
+        refreshFailureCount.sum());
+  }
+
+  /**
+   * Returns the cached token of {@code slot} unless it is missing or has expired. Stale tokens are
+   * returned as well, and a background refresh is started for them.
+   */
+  @Nullable
+  private FleetEngineToken getUsableCachedToken(
+      TokenSlot slot,
+      FleetEngineTokenType tokenType,
+      FleetEngineTokenClaims claims,
+      TokenPolicy policy,
+      Signer signer,
+      Supplier<FleetEngineToken> unsignedTokenSupplier) {
+    CachedToken cachedToken = slot.token;
+    if (cachedToken == null) {
+      return null;
+    }
+    if (!tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis)) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return cachedToken.token;
+    }
+    if (!tokenExpiryValidator.isPastDeadline(cachedToken.staleDeadlineMillis)) {
+      // Still accepted by Fleet Engine, serve it and refresh in the background.
+      if (slot.lastRefreshFailed) {
+        staleIfErrorCount.increment();
+      } else {
+        staleWhileRevalidateCount.increment();
+      }
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.STALE);
+      startRefresh(slot, tokenType, policy, signer, unsignedTokenSupplier);
+      return cachedToken.token;
+    }
+    return null;
+  }
+
+  /**
+   * Registers {@code signature} as the signature in flight for {@code slot}, or returns the one
+   * that another caller registered first.
+   */
+  private static CompletableFuture<FleetEngineToken> claimSignature(
+      TokenSlot slot, CompletableFuture<FleetEngineToken> signature) {
+    while (true) {
+      if (slot.signature.compareAndSet(null, signature)) {
+        return signature;
+      }
+      CompletableFuture<FleetEngineToken> inFlightSignature = slot.signature.get();
+      if (inFlightSignature != null) {
+        return inFlightSignature;
+      }
+    }
+  }
+
+  /** Replaces the cached token of {@code slot} with a freshly signed one. */
+  private static void publish(TokenSlot slot, CachedToken cachedToken) {
+    synchronized (slot) {
+      slot.token = cachedToken;
+      slot.lastRefreshFailed = false;
+    }
+  }
+
+  private void startRefresh(
+      TokenSlot slot,
+      FleetEngineTokenType tokenType,
+      TokenPolicy policy,
+      Signer signer,
+      Supplier<FleetEngineToken> unsignedTokenSupplier) {
+    if (slot.lastRefreshFailed && clock.millis() < slot.nextRetryMillis) {
+      return;
+    }
+    if (!slot.refreshing.compareAndSet(false, true)) {
+      // A refresh of this type of token is already in flight.
+      return;
+    }
+    try {
+      executor.execute(() -> refresh(slot, tokenType, policy, signer, unsignedTokenSupplier));
+    } catch (RejectedExecutionException e) {
+      slot.refreshing.set(false);
+      logger.log(
+          Level.WARNING,
+          String.format("Unable to start background refresh of %s token.", tokenType),
+          e);
+    }
+  }
+
+  private void refresh(
+      TokenSlot slot,
+      FleetEngineTokenType tokenType,
+      TokenPolicy policy,
+      Signer signer,
+      Supplier<FleetEngineToken> unsignedTokenSupplier) {
+    try {
+      FleetEngineToken signedToken = signer.sign(unsignedTokenSupplier.get());
+      publish(slot, CachedToken.create(signedToken, policy));
+      refreshSuccessCount.increment();
+    } catch (SigningTokenException | RuntimeException e) {
+      slot.nextRetryMillis = clock.millis() + RETRY_INTERVAL.toMillis();
+      slot.lastRefreshFailed = true;
+      refreshFailureCount.increment();
+      logger.log(
+          Level.WARNING,
+          String.format(
+              "Background refresh of %s token failed, serving the cached token until it expires.",
+              tokenType),
+          e);
+    } finally {
+      slot.refreshing.set(false);
+    }
+  }
+
+  /** Cached token and refresh state of one token type. */
+  private static final class TokenSlot {
+    volatile CachedToken token;
+
+    /** Whether the most recent background refresh failed. */
+    volatile boolean lastRefreshFailed;
+
+    /** Earliest time, in epoch millis, of the next refresh after a failure. */
+    volatile long nextRetryMillis;
+
+    final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /** Token being signed because there was no usable token, shared by concurrent callers. */
+    final AtomicReference<CompletableFuture<FleetEngineToken>> signature =
+        new AtomicReference<>();
+  }
+}
@@ -0,0 +1,42 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.auto.value.AutoValue;
+
+/** Point in time statistics of a token cache. */
+@AutoValue
+public abstract class TokenCacheStats {
+  /** Number of lookups that returned a cached, non-expired token. */
+  public abstract long hitCount();
+
+  /** Number of lookups that had to sign a new token. */
+  public abstract long missCount();
+
+  /** Number of tokens removed to keep the cache within its size bounds. */
+  public abstract long evictionCount();
+
+  /** Number of tokens removed because they were within the expiration window. */
+  public abstract long expirationCount();
+
+  /** Number of tokens currently held by the cache. */
+  public abstract long size();
+
+  static TokenCacheStats create(
+      long hitCount, long missCount, long evictionCount, long expirationCount, long size) {
+    return new AutoValue_TokenCacheStats(
+        hitCount, missCount, evictionCount, expirationCount, size);
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/** Hashes the token type, audience and claims that identify a signed token outside of memory. */
+final class TokenKeys {
+
+  /**
+   * Returns the hash of {@code tokenType}, {@code audience} and {@code claims}, which does not
+   * depend on the order of the claims.
+   */
+  static long hash(
+      FleetEngineTokenType tokenType, @Nullable String audience, Map<String, String> claims) {
+    return putIdentity(Hashing.murmur3_128().newHasher(), tokenType, audience, claims)
+        .hash()
+        .asLong();
+  }
+
+  /**
+   * Returns the SHA-256 digest of {@code tokenType}, {@code audience} and {@code claims}, which
+   * does not depend on the order of the claims.
+   *
+   * <p>Unlike {@link #hash}, it is long enough to tell apart the tokens sharing a key.
+   */
+  static byte[] digest(
+      FleetEngineTokenType tokenType, @Nullable String audience, Map<String, String> claims) {
+    return putIdentity(Hashing.sha256().newHasher(), tokenType, audience, claims)
+        .hash()
+        .asBytes();
+  }
+
+  private static Hasher putIdentity(
+      Hasher hasher,
+      FleetEngineTokenType tokenType,
+      @Nullable String audience,
+      Map<String, String> claims) {
+    hasher
+        .putString(tokenType.name(), UTF_8)
+        .putByte((byte) 0)
+        .putString(audience == null ? "" : audience, UTF_8)
+        .putByte((byte) 0);
+    for (Map.Entry<String, String> claim : new TreeMap<>(claims).entrySet()) {
+      hasher
+          .putString(claim.getKey(), UTF_8)
+          .putByte((byte) 0)
+          .putString(claim.getValue(), UTF_8)
+          .putByte((byte) 0);
+    }
+    return hasher;
+  }
+
+  private TokenKeys() {}
+}
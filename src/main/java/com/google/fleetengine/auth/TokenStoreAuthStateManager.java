@@ -0,0 +1,398 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.BaseEncoding;
+import com.google.fleetengine.auth.metrics.AuthEvents;
+import com.google.fleetengine.auth.metrics.CacheOutcome;
+import com.google.fleetengine.auth.store.StoredToken;
+import com.google.fleetengine.auth.store.TokenStore;
+import com.google.fleetengine.auth.store.TokenStoreException;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningDeadline;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Provides valid Fleet Engine tokens shared by every process of a deployment through a {@link
+ * TokenStore}, so that each token is signed by one process instead of by all of them.
+ *
+ * <p>Tokens are looked up in memory first, then in the store. When the store does not hold a valid
+ * token, the process that acquires the lease on its key signs the token and stores it, while the
+ * other processes poll the store until the token shows up. Within a process, only one thread per
+ * key goes to the store, the others wait for its result. Tokens with non-wildcard claims, eg. a
+ * token for one specific vehicle, are shared as well. Tokens are keyed by a SHA-256 digest of their
+ * token type, audience and claims, tokens for different claims never share a key.
+ *
+ * <p>Tokens are replaced once they enter the {@link TokenPolicy#refreshWindow(FleetEngineToken)
+ * refresh window} of their {@link TokenPolicies policy}. Tokens whose policy is not {@link
+ * TokenPolicy#cacheable()} are always signed, and never stored.
+ *
+ * <p>The store only saves signatures: when it fails, or when the token does not show up within
+ * {@link TokenStoreAuthStateManagerSettings#maximumWait()}, the token is signed locally.
+ */
+public class TokenStoreAuthStateManager implements FleetEngineAuthTokenStateManager {
+
+  private static final Logger logger =
+      Logger.getLogger(TokenStoreAuthStateManager.class.getName());
+
+  private final TokenStoreAuthStateManagerSettings settings;
+
+  private final TokenStore store;
+
+  /** Identifies this process in the leases it holds. */
+  private final String owner;
+
+  /** Validates whether a token has expired. */
+  private final FleetEngineTokenExpiryValidator tokenExpiryValidator;
+
+  private final TokenPolicies tokenPolicies;
+
+  /** Tokens read from, or written to, the store by this process. */
+  private final Cache<String, CachedToken> localTokens;
+
+  /** Store lookups in flight in this process, keyed like the store. */
+  private final ConcurrentHashMap<String, CompletableFuture<FleetEngineToken>> inFlightLookups =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param settings keys, leases and waits of the manager
+   * @param store store shared with the other processes
+   */
+  public TokenStoreAuthStateManager(TokenStoreAuthStateManagerSettings settings, TokenStore store) {
+    this(settings, store, TokenPolicies.defaults());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param settings keys, leases and waits of the manager
+   * @param store store shared with the other processes
+   * @param tokenPolicies when shared tokens are replaced, by token type and audience
+   */
+  public TokenStoreAuthStateManager(
+      TokenStoreAuthStateManagerSettings settings, TokenStore store, TokenPolicies tokenPolicies) {
+    this(settings, store, FleetEngineTokenExpiryValidator.getInstance(), tokenPolicies);
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  TokenStoreAuthStateManager(
+      TokenStoreAuthStateManagerSettings settings,
+      TokenStore store,
+      FleetEngineTokenExpiryValidator tokenExpiryValidator,
+      TokenPolicies tokenPolicies) {
+    this.settings = settings;
+    this.store = store;
+    this.owner = UUID.randomUUID().toString();
+    this.tokenExpiryValidator = tokenExpiryValidator;
+    this.tokenPolicies = tokenPolicies;
+    this.localTokens = CacheBuilder.newBuilder().maximumSize(settings.maximumLocalTokens()).build();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken signToken(Signer signer, FleetEngineToken token)
+      throws SigningTokenException {
+    return signToken(
+        signer,
+        token.tokenType(),
+        token.audience(),
+        token.authorizationClaims(),
+        () -> token);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Tokens found in memory or in the store are returned without calling {@code
+   * unsignedTokenSupplier}.
+   */
+  @Override
+  public FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!policy.cacheable()) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return signer.sign(unsignedTokenSupplier.get());
+    }
+
+    String key = key(tokenType, audience, claims);
+    FleetEngineToken localToken = getNonExpiredLocalToken(key);
+    if (localToken != null) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return localToken;
+    }
+
+    // Every thread of this process holds leases as the same owner, so only one of them goes to the
+    // store for a given key.
+    CompletableFuture<FleetEngineToken> lookup = new CompletableFuture<>();
+    CompletableFuture<FleetEngineToken> inFlightLookup = inFlightLookups.putIfAbsent(key, lookup);
+    if (inFlightLookup != null) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.JOINED);
+      return NaiveAuthStateManager.awaitRefresh(inFlightLookup);
+    }
+
+    try {
+      FleetEngineToken token = getNonExpiredLocalToken(key);
+      if (token != null) {
+        // Provided by another thread while this one looked up the local token.
+        AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      } else {
+        token =
+            getStoredOrSignToken(
+                key, signer, tokenType, audience, claims, policy, unsignedTokenSupplier);
+      }
+      lookup.complete(token);
+      return token;
+    } catch (SigningTokenException | RuntimeException | Error e) {
+      lookup.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlightLookups.remove(key, lookup);
+    }
+  }
+
+  /**
+   * Returns the token held by the store, or signs and stores it when this process acquires the
+   * lease on {@code key}.
+   */
+  private FleetEngineToken getStoredOrSignToken(
+      String key,
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      TokenPolicy policy,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    StoredToken storedToken;
+    try {
+      storedToken = store.get(key);
+      CachedToken token = toNonExpiredToken(storedToken, tokenType, audience, claims, policy);
+      if (token != null) {
+        AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+        localTokens.put(key, token);
+        return token.token;
+      }
+
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.MISS);
+      if (!store.tryAcquireLease(key, owner, settings.leaseDuration())) {
+        // Another process is refreshing the token.
+        token = awaitStoredToken(key, tokenType, audience, claims, policy);
+        if (token != null) {
+          localTokens.put(key, token);
+          return token.token;
+        }
+        logger.log(Level.FINE, "Timed out waiting for {0} token from store.", tokenType);
+        return signAndStore(key, storedToken, signer, policy, unsignedTokenSupplier);
+      }
+    } catch (TokenStoreException e) {
+      logger.log(Level.WARNING, "Token store failed, signing token locally.", e);
+      return signAndStore(key, null, signer, policy, unsignedTokenSupplier);
+    }
+
+    try {
+      // The token may have been stored by another process before the lease was acquired.
+      StoredToken latestToken = store.get(key);
+      CachedToken token = toNonExpiredToken(latestToken, tokenType, audience, claims, policy);
+      if (token != null) {
+        localTokens.put(key, token);
+        return token.token;
+      }
+      return signAndStore(key, latestToken, signer, policy, unsignedTokenSupplier);
+    } catch (TokenStoreException e) {
+      logger.log(Level.WARNING, "Token store failed, signing token locally.", e);
+      return signAndStore(key, storedToken, signer, policy, unsignedTokenSupplier);
+    } finally {
+      releaseLease(key);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Tokens found in memory are returned as completed futures. Otherwise the store is read, and
+   * the token signed, on {@code executor}.
+   */
+  @Override
+  public CompletableFuture<FleetEngineToken> signTokenAsync(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+    TokenPolicy policy = tokenPolicies.policyFor(tokenType, audience);
+    if (!policy.cacheable()) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.NOT_CACHED);
+      return NaiveAuthStateManager.signAsync(signer, unsignedTokenSupplier, executor);
+    }
+    FleetEngineToken localToken = getNonExpiredLocalToken(key(tokenType, audience, claims));
+    if (localToken != null) {
+      AuthEvents.commitCacheLookup(tokenType, claims, CacheOutcome.HIT);
+      return CompletableFuture.completedFuture(localToken);
+    }
+    return FleetEngineAuthTokenStateManager.super.signTokenAsync(
+        signer, tokenType, audience, claims, unsignedTokenSupplier, executor);
+  }
+
+  /**
+   * Returns the key of the token in memory and in the store. It holds the full {@link
+   * TokenKeys#digest digest} of the token type, audience and claims, so that a token read under a
+   * key was always signed for the requested token.
+   */
+  private String key(
+      FleetEngineTokenType tokenType, String audience, FleetEngineTokenClaims claims) {
+    return settings.keyPrefix()
+        + ":"
+        + BaseEncoding.base16()
+            .lowerCase()
+            .encode(TokenKeys.digest(tokenType, audience, claims.toMap()));
+  }
+
+  /**
+   * Signs the token, keeps it in memory and stores it unless the store already holds another token
+   * than {@code replacedToken}.
+   */
+  private FleetEngineToken signAndStore(
+      String key,
+      @Nullable StoredToken replacedToken,
+      Signer signer,
+      TokenPolicy policy,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    FleetEngineToken signedToken = signer.sign(unsignedTokenSupplier.get());
+    localTokens.put(key, CachedToken.create(signedToken, policy));
+    if (signedToken.jwt() != null) {
+      try {
+        store.compareAndSet(
+            key,
+            replacedToken == null ? null : replacedToken.jwt(),
+            StoredToken.create(
+                signedToken.jwt(),
+                signedToken.creationTimestamp().toInstant(),
+                signedToken.expirationTimestamp().toInstant()));
+      } catch (TokenStoreException e) {
+        logger.log(Level.WARNING, "Error while storing signed token.", e);
+      }
+    }
+    return signedToken;
+  }
+
+  /**
+   * Polls the store until it holds a valid token, for at most {@link
+   * TokenStoreAuthStateManagerSettings#maximumWait()} and until the {@link SigningDeadline} of the
+   * caller.
+   *
+   * @return the stored token, null when none was stored in time
+   */
+  @Nullable
+  private CachedToken awaitStoredToken(
+      String key,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      TokenPolicy policy)
+      throws TokenStoreException, SigningTokenException {
+    long waitNanos = Math.min(settings.maximumWait().toNanos(), SigningDeadline.remainingNanos());
+    long deadlineNanos = System.nanoTime() + waitNanos;
+    long pollIntervalNanos = settings.pollInterval().toNanos();
+    while (true) {
+      long remainingNanos = deadlineNanos - System.nanoTime();
+      if (remainingNanos <= 0) {
+        return null;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(Math.min(pollIntervalNanos, remainingNanos));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SigningTokenException("Interrupted while waiting for stored token.", e);
+      }
+      CachedToken token = toNonExpiredToken(store.get(key), tokenType, audience, claims, policy);
+      if (token != null) {
+        return token;
+      }
+    }
+  }
+
+  private void releaseLease(String key) {
+    try {
+      store.releaseLease(key, owner);
+    } catch (TokenStoreException e) {
+      logger.log(Level.WARNING, "Error while releasing token lease, it will expire instead.", e);
+    }
+  }
+
+  @Nullable
+  private FleetEngineToken getNonExpiredLocalToken(String key) {
+    CachedToken cachedToken = localTokens.getIfPresent(key);
+    return cachedToken == null || isExpired(cachedToken) ? null : cachedToken.token;
+  }
+
+  /** Returns {@code storedToken} with its deadlines under {@code policy}, unless it expired. */
+  @Nullable
+  private CachedToken toNonExpiredToken(
+      @Nullable StoredToken storedToken,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      TokenPolicy policy) {
+    if (storedToken == null) {
+      return null;
+    }
+    FleetEngineToken.Builder builder =
+        FleetEngineToken.builder()
+            .setCreationTimestamp(Date.from(storedToken.creationTimestamp()))
+            .setExpirationTimestamp(Date.from(storedToken.expirationTimestamp()))
+            .setTokenType(tokenType)
+            .setAuthorizationClaims(claims)
+            .setJwt(storedToken.jwt());
+    if (audience != null) {
+      builder.setAudience(audience);
+    }
+    CachedToken cachedToken = CachedToken.create(builder.build(), policy);
+    return isExpired(cachedToken) ? null : cachedToken;
+  }
+
+  /** Returns whether {@code cachedToken} is within the refresh window of its policy. */
+  private boolean isExpired(CachedToken cachedToken) {
+    return tokenExpiryValidator.isPastDeadline(cachedToken.refreshDeadlineMillis);
+  }
+}
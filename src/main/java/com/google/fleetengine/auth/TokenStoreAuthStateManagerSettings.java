@@ -0,0 +1,85 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import com.google.auto.value.AutoValue;
+import java.time.Duration;
+
+/** Settings for {@link TokenStoreAuthStateManager}. */
+@AutoValue
+public abstract class TokenStoreAuthStateManagerSettings {
+  /** Default prefix of the keys that tokens are stored under. */
+  public static final String DEFAULT_KEY_PREFIX = "fleetengine-auth";
+
+  /**
+   * Prefix of the keys that tokens are stored under.
+   *
+   * <p>Processes share tokens only when they use the same prefix, so processes that sign with
+   * different service accounts, or for different projects, must use different prefixes.
+   */
+  public abstract String keyPrefix();
+
+  /**
+   * How long the lease to refresh a token is held by a process. Bounds how long other processes
+   * wait when the process that holds it dies before storing the token.
+   */
+  public abstract Duration leaseDuration();
+
+  /** Delay between reads of the store while waiting for another process to store a token. */
+  public abstract Duration pollInterval();
+
+  /**
+   * How long to wait for another process to store a token before signing it locally.
+   *
+   * <p>Callers never wait past their own {@link
+   * com.google.fleetengine.auth.token.factory.signer.SigningDeadline}.
+   */
+  public abstract Duration maximumWait();
+
+  /** Maximum number of tokens read from the store that are kept in memory by each process. */
+  public abstract long maximumLocalTokens();
+
+  /** Provides a builder for {@link TokenStoreAuthStateManagerSettings}. */
+  public static Builder builder() {
+    return new AutoValue_TokenStoreAuthStateManagerSettings.Builder()
+        .setKeyPrefix(DEFAULT_KEY_PREFIX)
+        .setLeaseDuration(Duration.ofSeconds(30))
+        .setPollInterval(Duration.ofMillis(50))
+        .setMaximumWait(Duration.ofSeconds(5))
+        .setMaximumLocalTokens(CachingAuthStateManagerSettings.DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /** Builder class for TokenStoreAuthStateManagerSettings. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the prefix of the keys that tokens are stored under. */
+    public abstract Builder setKeyPrefix(String keyPrefix);
+
+    /** Sets how long the lease to refresh a token is held by a process. */
+    public abstract Builder setLeaseDuration(Duration leaseDuration);
+
+    /** Sets the delay between reads of the store while waiting for another process. */
+    public abstract Builder setPollInterval(Duration pollInterval);
+
+    /** Sets how long to wait for another process to store a token before signing it locally. */
+    public abstract Builder setMaximumWait(Duration maximumWait);
+
+    /** Sets the maximum number of tokens kept in memory by each process. */
+    public abstract Builder setMaximumLocalTokens(long maximumLocalTokens);
+
+    /** Builds {@link TokenStoreAuthStateManagerSettings}. */
+    public abstract TokenStoreAuthStateManagerSettings build();
+  }
+}
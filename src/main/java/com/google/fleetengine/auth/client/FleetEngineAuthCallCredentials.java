@@ -14,44 +14,235 @@
 
 package com.google.fleetengine.auth.client;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.factory.signer.SignerOverloadedException;
+import com.google.fleetengine.auth.token.factory.signer.SigningDeadline;
+import com.google.fleetengine.auth.token.factory.signer.SigningDeadlineExceededException;
 import io.grpc.CallCredentials;
+import io.grpc.Context;
+import io.grpc.Deadline;
 import io.grpc.Metadata;
 import io.grpc.Status;
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
-/** Adds an athorization header containing a Fleet Engine JWT to the request metadata. */
+/**
+ * Adds an athorization header containing a Fleet Engine JWT to the request metadata.
+ *
+ * <p>The header built for the latest token is cached. Until that token enters the {@link
+ * TokenPolicy#refreshWindow(FleetEngineToken) refresh window} of its {@link TokenPolicy}, the
+ * cached header is applied on the calling thread. Otherwise the token is requested through {@link
+ * FleetEngineTokenProvider#getSignedTokenAsync(Executor)}, with any blocking work running on the
+ * {@code appExecutor} given by gRPC, so the thread issuing the RPC never blocks on signing. Tokens
+ * whose policy is not {@link TokenPolicy#cacheable()} are provided for every call.
+ *
+ * <p>The deadline of the call, or of the current {@link Context}, is passed on to signing as a
+ * {@link SigningDeadline}. Calls whose deadline passes while a token is being signed fail with
+ * {@link Status#DEADLINE_EXCEEDED}.
+ */
 public class FleetEngineAuthCallCredentials extends CallCredentials {
 
   /** Authorization header name. */
   private static final Metadata.Key<String> AUTHORIZATION_HEADER =
       Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
 
+  private static final String BEARER_PREFIX = "Bearer ";
+
   private final FleetEngineTokenProvider tokenProvider;
 
+  private final TokenPolicies tokenPolicies;
+
+  /* Used to get the current time. */
+  private final Clock clock;
+
+  /** Headers of the latest token, {@code null} until the first token is provided. */
+  private volatile CachedHeaders cachedHeaders;
+
+  /**
+   * Creates call credentials that replace the cached header according to the {@link
+   * FleetEngineTokenProvider#tokenPolicies() policies} of {@code tokenProvider}.
+   */
   public static FleetEngineAuthCallCredentials create(FleetEngineTokenProvider tokenProvider) {
-    return new FleetEngineAuthCallCredentials(tokenProvider);
+    return create(tokenProvider, tokenProvider.tokenPolicies());
+  }
+
+  /**
+   * Creates call credentials that replace the cached header according to {@code tokenPolicies},
+   * which should be the policies that the tokens of {@code tokenProvider} are signed with.
+   */
+  public static FleetEngineAuthCallCredentials create(
+      FleetEngineTokenProvider tokenProvider, TokenPolicies tokenPolicies) {
+    return new FleetEngineAuthCallCredentials(tokenProvider, tokenPolicies, Clock.systemUTC());
+  }
+
+  /** Creates call credentials that check the cached token against {@code clock}. */
+  @VisibleForTesting
+  static FleetEngineAuthCallCredentials create(
+      FleetEngineTokenProvider tokenProvider, Clock clock) {
+    return create(tokenProvider, tokenProvider.tokenPolicies(), clock);
+  }
+
+  /** Creates call credentials that check the cached token against {@code clock}. */
+  @VisibleForTesting
+  static FleetEngineAuthCallCredentials create(
+      FleetEngineTokenProvider tokenProvider, TokenPolicies tokenPolicies, Clock clock) {
+    return new FleetEngineAuthCallCredentials(tokenProvider, tokenPolicies, clock);
   }
 
-  private FleetEngineAuthCallCredentials(FleetEngineTokenProvider tokenProvider) {
+  private FleetEngineAuthCallCredentials(
+      FleetEngineTokenProvider tokenProvider, TokenPolicies tokenPolicies, Clock clock) {
     this.tokenProvider = tokenProvider;
+    this.tokenPolicies = tokenPolicies;
+    this.clock = clock;
   }
 
   @Override
   public void applyRequestMetadata(
       RequestInfo requestInfo, Executor appExecutor, CallCredentials.MetadataApplier applier) {
-    Metadata headers = new Metadata();
+    applyRequestMetadata(appExecutor, applier, Context.current().getDeadline());
+  }
+
+  /**
+   * Returns call credentials that stop waiting for a new token once {@code deadline} passes, eg.
+   * the deadline of the call they are applied to.
+   */
+  CallCredentials withDeadline(Deadline deadline) {
+    return new CallCredentials() {
+      @Override
+      public void applyRequestMetadata(
+          RequestInfo requestInfo, Executor appExecutor, CallCredentials.MetadataApplier applier) {
+        FleetEngineAuthCallCredentials.this.applyRequestMetadata(appExecutor, applier, deadline);
+      }
+
+      @Override
+      public void thisUsesUnstableApi() {}
+    };
+  }
+
+  /**
+   * Returns whether the cached headers are applied without getting a new token, in which case the
+   * deadline of the call does not matter.
+   */
+  boolean hasFreshHeaders() {
+    CachedHeaders headers = cachedHeaders;
+    return headers != null && clock.millis() < headers.refreshAtMillis;
+  }
+
+  private void applyRequestMetadata(
+      Executor appExecutor, CallCredentials.MetadataApplier applier, @Nullable Deadline deadline) {
+    CachedHeaders headers = cachedHeaders;
+    if (headers != null && clock.millis() < headers.refreshAtMillis) {
+      applier.apply(headers.metadata);
+      return;
+    }
+    if (deadline != null && deadline.isExpired()) {
+      applier.fail(Status.DEADLINE_EXCEEDED.withDescription("Deadline exceeded before signing"));
+      return;
+    }
+
+    CompletableFuture<FleetEngineToken> token;
     try {
-      FleetEngineToken token = tokenProvider.getSignedToken();
-      headers.put(AUTHORIZATION_HEADER, String.format("Bearer %s", token.jwt()));
-    } catch (Exception e) {
-      applier.fail(Status.UNAUTHENTICATED.withDescription("Unable to create token").withCause(e));
+      token = tokenProvider.getSignedTokenAsync(signingExecutor(appExecutor, deadline));
+    } catch (RuntimeException e) {
+      applier.fail(statusOf(e));
       return;
     }
+    token.whenComplete(
+        (signedToken, error) -> {
+          if (error != null) {
+            applier.fail(statusOf(unwrap(error)));
+          } else {
+            applyNewHeaders(applier, signedToken);
+          }
+        });
+  }
+
+  /**
+   * Returns the executor that blocking work of the token provider runs on.
+   *
+   * <p>Each task is bound to {@code deadline} through {@link SigningDeadline}, so that a token
+   * refresh is not waited for longer than the call that needs it.
+   */
+  private static Executor signingExecutor(
+      @Nullable Executor appExecutor, @Nullable Deadline deadline) {
+    Executor executor = appExecutor == null ? Runnable::run : appExecutor;
+    if (deadline == null) {
+      return executor;
+    }
+    return task ->
+        executor.execute(
+            () -> {
+              try (SigningDeadline.Scope ignored =
+                  SigningDeadline.withTimeout(
+                      deadline.timeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)) {
+                task.run();
+              }
+            });
+  }
+
+  /** Caches the headers of {@code token} when its policy is cacheable and applies them. */
+  private void applyNewHeaders(CallCredentials.MetadataApplier applier, FleetEngineToken token) {
+    TokenPolicy policy = tokenPolicies.policyFor(token);
+    CachedHeaders headers = new CachedHeaders(token, policy);
+    if (policy.cacheable()) {
+      cachedHeaders = headers;
+    }
+    applier.apply(headers.metadata);
+  }
 
-    applier.apply(headers);
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null
+        ? error.getCause()
+        : error;
+  }
+
+  /**
+   * Returns {@link Status#UNAVAILABLE} when the signer shed the request or the token creation could
+   * not be scheduled, so that it can be retried like any other overloaded backend, {@link
+   * Status#DEADLINE_EXCEEDED} when the call deadline passed while signing, and {@link
+   * Status#UNAUTHENTICATED} otherwise.
+   */
+  private static Status statusOf(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof RejectedExecutionException) {
+        return Status.UNAVAILABLE.withDescription("Unable to schedule token creation").withCause(e);
+      }
+      if (cause instanceof SignerOverloadedException) {
+        return Status.UNAVAILABLE.withDescription("Token signing is overloaded").withCause(e);
+      }
+      if (cause instanceof SigningDeadlineExceededException) {
+        return Status.DEADLINE_EXCEEDED
+            .withDescription("Deadline exceeded while signing")
+            .withCause(e);
+      }
+    }
+    return Status.UNAUTHENTICATED.withDescription("Unable to create token").withCause(e);
   }
 
   @Override
   public void thisUsesUnstableApi() {}
+
+  /** Authorization headers of a token, built once and applied to every call. */
+  private static final class CachedHeaders {
+    /** Never modified once built, gRPC merges it into the headers of each call. */
+    final Metadata metadata;
+
+    /** Time, in epoch millis, at which the token enters the refresh window of its policy. */
+    final long refreshAtMillis;
+
+    CachedHeaders(FleetEngineToken token, TokenPolicy policy) {
+      this.metadata = new Metadata();
+      this.metadata.put(AUTHORIZATION_HEADER, BEARER_PREFIX + token.jwt());
+      this.refreshAtMillis =
+          token.expirationTimestamp().getTime() - policy.refreshWindow(token).toMillis();
+    }
+  }
 }
@@ -14,10 +14,14 @@
 
 package com.google.fleetengine.auth.client;
 
+import com.google.fleetengine.auth.token.TokenPolicies;
+import io.grpc.CallCredentials;
 import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
 import io.grpc.ClientInterceptor;
+import io.grpc.Context;
+import io.grpc.Deadline;
 import io.grpc.MethodDescriptor;
 
 /**
@@ -37,13 +41,27 @@ public class FleetEngineAuthClientInterceptor implements ClientInterceptor {
 
   /**
    * Creates a gRPC client interceptor that attaches tokens from {@code tokenProvider} to outgoing
-   * gRPC requests.
+   * gRPC requests, replaced according to the {@link FleetEngineTokenProvider#tokenPolicies()
+   * policies} of {@code tokenProvider}.
    *
    * @param tokenProvider provides valid Fleet Engine JWTs for an outgoing gRPC request.
    */
   public static FleetEngineAuthClientInterceptor create(FleetEngineTokenProvider tokenProvider) {
+    return create(tokenProvider, tokenProvider.tokenPolicies());
+  }
+
+  /**
+   * Creates a gRPC client interceptor that attaches tokens from {@code tokenProvider} to outgoing
+   * gRPC requests.
+   *
+   * @param tokenProvider provides valid Fleet Engine JWTs for an outgoing gRPC request.
+   * @param tokenPolicies policies that the tokens of {@code tokenProvider} are signed with, they
+   *     set when the attached token is replaced.
+   */
+  public static FleetEngineAuthClientInterceptor create(
+      FleetEngineTokenProvider tokenProvider, TokenPolicies tokenPolicies) {
     return new FleetEngineAuthClientInterceptor(
-        FleetEngineAuthCallCredentials.create(tokenProvider));
+        FleetEngineAuthCallCredentials.create(tokenProvider, tokenPolicies));
   }
 
   /** Constructor. */
@@ -54,10 +72,23 @@ public class FleetEngineAuthClientInterceptor implements ClientInterceptor {
   /**
    * Returns a new call with the {@link FleetEngineAuthCallCredentials} added to the {@code
    * callOptions}.
+   *
+   * <p>When the call has a deadline, signing a new token for it stops at that deadline. Calls that
+   * are served the cached headers share the same call credentials.
    */
   @Override
   public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
       MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
-    return next.newCall(method, callOptions.withCallCredentials(this.callCredentials));
+    if (callCredentials.hasFreshHeaders()) {
+      return next.newCall(method, callOptions.withCallCredentials(callCredentials));
+    }
+    Deadline deadline = callOptions.getDeadline();
+    Deadline contextDeadline = Context.current().getDeadline();
+    if (deadline == null || (contextDeadline != null && contextDeadline.isBefore(deadline))) {
+      deadline = contextDeadline;
+    }
+    CallCredentials credentials =
+        deadline == null ? this.callCredentials : this.callCredentials.withDeadline(deadline);
+    return next.newCall(method, callOptions.withCallCredentials(credentials));
   }
 }
@@ -18,10 +18,12 @@ import com.google.api.gax.core.FixedCredentialsProvider;
 import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
 import com.google.api.gax.rpc.ClientSettings;
 import com.google.api.gax.rpc.FixedHeaderProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import java.util.HashMap;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Updates a fleet engine {@link ClientSettings.Builder} so that a valid Fleet Engine JWT is
@@ -39,12 +41,19 @@ import java.util.Map;
  * VehicleServiceSettings settings = modifier.updateBuilder(builder).build();
  * VehicleServiceClient client = VehicleServiceClient.create(settings);
  * }</pre>
+ *
+ * <p>Clients that are modified with the same {@link SharedFleetEngineChannel} send their requests
+ * over a single channel instead of opening one channel each.
  */
 public class FleetEngineClientSettingsModifier<
     SettingsT extends ClientSettings<SettingsT>, B extends ClientSettings.Builder<SettingsT, B>> {
 
+  private static final String LIBRARY_USER_AGENT_PREFIX = "java-fleetengine-auth/";
+
   private final FleetEngineTokenProvider tokenProvider;
 
+  @Nullable private final SharedFleetEngineChannel sharedChannel;
+
   /**
    * Constructor.
    *
@@ -52,10 +61,27 @@ public class FleetEngineClientSettingsModifier<
    */
   public FleetEngineClientSettingsModifier(FleetEngineTokenProvider tokenProvider) {
     this.tokenProvider = tokenProvider;
+    this.sharedChannel = null;
+  }
+
+  /**
+   * Constructor for clients that send their requests over a channel shared with other clients.
+   *
+   * <p>The transport channel provider and endpoint of the modified builder are replaced by the
+   * shared channel.
+   *
+   * @param tokenProvider provides valid Fleet Engine JWTs for an outgoing request.
+   * @param sharedChannel channel shared with the other Fleet Engine clients.
+   */
+  public FleetEngineClientSettingsModifier(
+      FleetEngineTokenProvider tokenProvider, SharedFleetEngineChannel sharedChannel) {
+    this.tokenProvider = tokenProvider;
+    this.sharedChannel = sharedChannel;
   }
 
   public B updateBuilder(B builder) {
-    if (!(builder.getTransportChannelProvider() instanceof InstantiatingGrpcChannelProvider)) {
+    if (sharedChannel == null
+        && !(builder.getTransportChannelProvider() instanceof InstantiatingGrpcChannelProvider)) {
       throw new IllegalArgumentException(
           "Transport channel provider must be of type InstantiatingGrpcChannelProvider");
     }
@@ -64,10 +90,7 @@ public class FleetEngineClientSettingsModifier<
     if (builder.getHeaderProvider() != null && builder.getHeaderProvider().getHeaders() != null) {
       headers.putAll(builder.getHeaderProvider().getHeaders());
     }
-    String libraryUserAgent = "java-fleetengine-auth/";
-    if (this.getClass().getPackage().getImplementationVersion() != null) {
-      libraryUserAgent = libraryUserAgent + this.getClass().getPackage().getImplementationVersion();
-    }
+    String libraryUserAgent = libraryUserAgent();
     String userAgent = headers.get("user-agent");
     if (Strings.isNullOrEmpty(userAgent)) {
       userAgent = libraryUserAgent;
@@ -76,18 +99,33 @@ public class FleetEngineClientSettingsModifier<
     }
     headers.put("user-agent", userAgent);
 
-    // Reuse existing channel provider
-    InstantiatingGrpcChannelProvider provider =
-        (InstantiatingGrpcChannelProvider) builder.getTransportChannelProvider();
+    TransportChannelProvider transportChannelProvider;
+    if (sharedChannel != null) {
+      transportChannelProvider =
+          sharedChannel.transportChannelProvider(
+              FleetEngineAuthClientInterceptor.create(this.tokenProvider));
+    } else {
+      // Reuse existing channel provider
+      InstantiatingGrpcChannelProvider provider =
+          (InstantiatingGrpcChannelProvider) builder.getTransportChannelProvider();
+      transportChannelProvider =
+          provider.toBuilder()
+              .setInterceptorProvider(
+                  () ->
+                      Lists.newArrayList(
+                          FleetEngineAuthClientInterceptor.create(this.tokenProvider)))
+              .build();
+    }
     return builder
         .setCredentialsProvider(FixedCredentialsProvider.create(null))
         .setHeaderProvider(FixedHeaderProvider.create(headers))
-        .setTransportChannelProvider(
-            provider.toBuilder()
-                .setInterceptorProvider(
-                    () ->
-                        Lists.newArrayList(
-                            FleetEngineAuthClientInterceptor.create(this.tokenProvider)))
-                .build());
+        .setTransportChannelProvider(transportChannelProvider);
+  }
+
+  /** User agent of this library, eg. {@code java-fleetengine-auth/1.0.0}. */
+  static String libraryUserAgent() {
+    String version =
+        FleetEngineClientSettingsModifier.class.getPackage().getImplementationVersion();
+    return version == null ? LIBRARY_USER_AGENT_PREFIX : LIBRARY_USER_AGENT_PREFIX + version;
   }
 }
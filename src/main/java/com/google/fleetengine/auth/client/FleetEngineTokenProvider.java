@@ -15,11 +15,47 @@
 package com.google.fleetengine.auth.client;
 
 import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.TokenPolicies;
 import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /** Provides non-expired, signed JWTs. */
 public interface FleetEngineTokenProvider {
 
   /** Returns a non-expired {@link FleetEngineToken} with a base64 signed JWT. */
   FleetEngineToken getSignedToken() throws SigningTokenException;
+
+  /**
+   * Asynchronous variant of {@link #getSignedToken()} that does not block the calling thread.
+   *
+   * <p>The default implementation calls {@link #getSignedToken()} on {@code executor}. Providers
+   * that can sign without blocking, or already hold a valid token, should override it.
+   *
+   * @param executor runs any work that blocks while the token is signed
+   * @return future of a non-expired token, completed exceptionally with a {@link
+   *     SigningTokenException} if there is an issue while signing the token
+   */
+  default CompletableFuture<FleetEngineToken> getSignedTokenAsync(Executor executor) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return getSignedToken();
+          } catch (SigningTokenException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
+  /**
+   * Returns the lifetime and refresh policies that the provided tokens are signed with.
+   *
+   * <p>Used by {@link FleetEngineAuthCallCredentials} to decide when to replace a token. The
+   * default implementation returns {@link TokenPolicies#defaults()}.
+   */
+  default TokenPolicies tokenPolicies() {
+    return TokenPolicies.defaults();
+  }
 }
@@ -0,0 +1,351 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.client;
+
+import com.google.api.gax.core.InstantiatingExecutorProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.api.gax.rpc.TransportChannel;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.common.collect.ImmutableMap;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * gRPC channel to Fleet Engine shared by several service clients, eg. a {@code
+ * VehicleServiceClient}, a {@code TripServiceClient} and a {@code DeliveryServiceClient}, even when
+ * they authenticate with different token providers.
+ *
+ * <p>Clients built with the same shared channel send their requests over the same connections,
+ * which saves a TLS handshake and an HTTP/2 connection per client. Each client still attaches the
+ * tokens of its own provider, they are selected per call through the call options. Usage:
+ *
+ * <pre>{@code
+ * SharedFleetEngineChannel channel = SharedFleetEngineChannel.create(fleetEngineEndpoint);
+ *
+ * FleetEngineClientSettingsModifier<VehicleServiceSettings, VehicleServiceSettings.Builder>
+ *     vehicleModifier = new FleetEngineClientSettingsModifier<>(serverTokenProvider, channel);
+ * FleetEngineClientSettingsModifier<TripServiceSettings, TripServiceSettings.Builder>
+ *     tripModifier = new FleetEngineClientSettingsModifier<>(consumerTokenProvider, channel);
+ *
+ * VehicleServiceClient vehicleClient =
+ *     VehicleServiceClient.create(
+ *         vehicleModifier.updateBuilder(VehicleServiceSettings.newBuilder()).build());
+ * TripServiceClient tripClient =
+ *     TripServiceClient.create(
+ *         tripModifier.updateBuilder(TripServiceSettings.newBuilder()).build());
+ * }</pre>
+ *
+ * <p>Closing a client does not close the shared channel. The shared channel is closed with {@link
+ * #close()} once all of its clients are closed.
+ */
+public final class SharedFleetEngineChannel implements AutoCloseable {
+  private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+  /** Owns the underlying channel. */
+  private final GrpcTransportChannel transportChannel;
+
+  /** Executor created for the underlying channel, null when the application built the channel. */
+  @Nullable private final ScheduledExecutorService executor;
+
+  /**
+   * Creates a shared channel with a single connection to {@code endpoint}.
+   *
+   * @param endpoint Fleet Engine endpoint, eg. {@code fleetengine.googleapis.com:443}
+   */
+  public static SharedFleetEngineChannel create(String endpoint) throws IOException {
+    return create(endpoint, 1);
+  }
+
+  /**
+   * Creates a shared channel that spreads calls over {@code poolSize} connections to {@code
+   * endpoint}.
+   *
+   * <p>A single connection is enough unless the clients make more concurrent calls than the server
+   * allows on one HTTP/2 connection.
+   *
+   * @param endpoint Fleet Engine endpoint, eg. {@code fleetengine.googleapis.com:443}
+   * @param poolSize number of connections opened to Fleet Engine
+   */
+  public static SharedFleetEngineChannel create(String endpoint, int poolSize)
+      throws IOException {
+    ScheduledExecutorService executor =
+        InstantiatingExecutorProvider.newBuilder().build().getExecutor();
+    try {
+      TransportChannelProvider provider =
+          InstantiatingGrpcChannelProvider.newBuilder()
+              .setEndpoint(endpoint)
+              .setPoolSize(poolSize)
+              .build();
+      if (provider.needsExecutor()) {
+        provider = provider.withExecutor(executor);
+      }
+      if (provider.needsHeaders()) {
+        provider =
+            provider.withHeaders(
+                ImmutableMap.of(
+                    "user-agent", FleetEngineClientSettingsModifier.libraryUserAgent()));
+      }
+      TransportChannel transportChannel = provider.getTransportChannel();
+      return new SharedFleetEngineChannel((GrpcTransportChannel) transportChannel, executor);
+    } catch (IOException | RuntimeException e) {
+      executor.shutdownNow();
+      throw e;
+    }
+  }
+
+  /**
+   * Creates a shared channel over a channel built by the application, eg. with custom TLS
+   * settings. The channel is shut down by {@link #close()}.
+   */
+  public static SharedFleetEngineChannel create(ManagedChannel channel) {
+    return new SharedFleetEngineChannel(GrpcTransportChannel.create(channel), null);
+  }
+
+  private SharedFleetEngineChannel(
+      GrpcTransportChannel transportChannel, @Nullable ScheduledExecutorService executor) {
+    this.transportChannel = transportChannel;
+    this.executor = executor;
+  }
+
+  /**
+   * Returns a transport channel provider for a single client that sends its calls over the shared
+   * channel through {@code interceptor}.
+   *
+   * <p>The transport channel of the client is a view of the shared channel, closing the client does
+   * not shut the shared channel down.
+   */
+  TransportChannelProvider transportChannelProvider(ClientInterceptor interceptor) {
+    Channel channel = transportChannel.getChannel();
+    return FixedTransportChannelProvider.create(
+        GrpcTransportChannel.create(
+            new ClientChannel(ClientInterceptors.intercept(channel, interceptor), channel)));
+  }
+
+  /** Shuts down the shared channel, giving calls in flight a few seconds to complete. */
+  @Override
+  public void close() {
+    transportChannel.shutdown();
+    try {
+      if (!transportChannel.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        transportChannel.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      transportChannel.shutdownNow();
+      Thread.currentThread().interrupt();
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * View of the shared channel given to a single client. Shutting it down only marks the view as
+   * shut down, the shared channel stays open for the other clients.
+   *
+   * <p>Calls started after the view is shut down fail with {@link Status#UNAVAILABLE}. The view
+   * reports itself terminated once the calls started before it was shut down have closed.
+   */
+  private static final class ClientChannel extends ManagedChannel {
+    private static final Status SHUTDOWN_STATUS =
+        Status.UNAVAILABLE.withDescription("Channel shutdown invoked");
+    private static final String SHUTDOWN_NOW_MESSAGE = "Channel shutdownNow invoked";
+
+    private final Channel interceptedChannel;
+    private final Channel sharedChannel;
+    private final Object lock = new Object();
+
+    /** Calls started on this view that have not closed yet. Guarded by {@link #lock}. */
+    private final Set<ClientCall<?, ?>> outstandingCalls = new HashSet<>();
+
+    /** Guarded by {@link #lock}. */
+    private boolean shutdown;
+
+    ClientChannel(Channel interceptedChannel, Channel sharedChannel) {
+      this.interceptedChannel = interceptedChannel;
+      this.sharedChannel = sharedChannel;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+        MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions) {
+      if (isShutdown()) {
+        return new FailingClientCall<>(SHUTDOWN_STATUS);
+      }
+      return new TrackedClientCall<>(interceptedChannel.newCall(methodDescriptor, callOptions));
+    }
+
+    @Override
+    public String authority() {
+      return sharedChannel.authority();
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+      synchronized (lock) {
+        shutdown = true;
+        lock.notifyAll();
+      }
+      return this;
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+      List<ClientCall<?, ?>> callsToCancel;
+      synchronized (lock) {
+        shutdown();
+        callsToCancel = new ArrayList<>(outstandingCalls);
+      }
+      for (ClientCall<?, ?> call : callsToCancel) {
+        call.cancel(SHUTDOWN_NOW_MESSAGE, null);
+      }
+      return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+      synchronized (lock) {
+        return shutdown;
+      }
+    }
+
+    @Override
+    public boolean isTerminated() {
+      synchronized (lock) {
+        return shutdown && outstandingCalls.isEmpty();
+      }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+      synchronized (lock) {
+        while (!(shutdown && outstandingCalls.isEmpty())) {
+          long remainingNanos = deadlineNanos - System.nanoTime();
+          if (remainingNanos <= 0) {
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(lock, remainingNanos);
+        }
+        return true;
+      }
+    }
+
+    /**
+     * Registers a call that is starting, returns false when the view is already shut down and the
+     * call must fail instead.
+     */
+    private boolean callStarted(ClientCall<?, ?> call) {
+      synchronized (lock) {
+        if (shutdown) {
+          return false;
+        }
+        outstandingCalls.add(call);
+        return true;
+      }
+    }
+
+    private void callClosed(ClientCall<?, ?> call) {
+      synchronized (lock) {
+        if (outstandingCalls.remove(call) && outstandingCalls.isEmpty()) {
+          lock.notifyAll();
+        }
+      }
+    }
+
+    /** Call over the shared channel counted as outstanding from its start until it closes. */
+    private final class TrackedClientCall<ReqT, RespT>
+        extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+
+      TrackedClientCall(ClientCall<ReqT, RespT> delegate) {
+        super(delegate);
+      }
+
+      @Override
+      public void start(ClientCall.Listener<RespT> responseListener, Metadata headers) {
+        if (!callStarted(this)) {
+          responseListener.onClose(SHUTDOWN_STATUS, new Metadata());
+          return;
+        }
+        try {
+          delegate().start(new TrackedListener(responseListener), headers);
+        } catch (RuntimeException | Error e) {
+          callClosed(this);
+          throw e;
+        }
+      }
+
+      /** Listener that stops counting the call as outstanding once it closes. */
+      private final class TrackedListener
+          extends ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT> {
+
+        TrackedListener(ClientCall.Listener<RespT> delegate) {
+          super(delegate);
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+          callClosed(TrackedClientCall.this);
+          super.onClose(status, trailers);
+        }
+      }
+    }
+  }
+
+  /** Call that fails as soon as it starts, without reaching the shared channel. */
+  private static final class FailingClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+    private final Status status;
+
+    FailingClientCall(Status status) {
+      this.status = status;
+    }
+
+    @Override
+    public void start(ClientCall.Listener<RespT> responseListener, Metadata headers) {
+      responseListener.onClose(status, new Metadata());
+    }
+
+    @Override
+    public void request(int numMessages) {}
+
+    @Override
+    public void cancel(@Nullable String message, @Nullable Throwable cause) {}
+
+    @Override
+    public void halfClose() {}
+
+    @Override
+    public void sendMessage(ReqT message) {}
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+/**
+ * Java Flight Recorder event in progress, started with {@link AuthEvents}.
+ *
+ * <p>Events are ended with {@link #close()} exactly once, on any thread.
+ */
+public interface AuthEventScope extends AutoCloseable {
+  /** Scope of an event that is not recorded. */
+  AuthEventScope NOOP =
+      new AuthEventScope() {
+        @Override
+        public void fail(Throwable error) {}
+
+        @Override
+        public void close() {}
+      };
+
+  /** Records that the work covered by the event failed with {@code error}. */
+  void fail(Throwable error);
+
+  /** Ends the event and commits it to the flight recorder. */
+  @Override
+  void close();
+}
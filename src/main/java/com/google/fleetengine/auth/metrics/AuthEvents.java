@@ -0,0 +1,94 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Emits Java Flight Recorder events for token minting, cache lookups and signer calls, so that
+ * signing time in recordings can be attributed to a token type and a cache outcome.
+ *
+ * <p>Events are listed under the {@code Fleet Engine / Auth} category, and named:
+ *
+ * <ul>
+ *   <li>{@code com.google.fleetengine.auth.TokenMint}: a token requested from {@code
+ *       AuthTokenMinter}, with its type, claim count and signer class.
+ *   <li>{@code com.google.fleetengine.auth.CacheLookup}: how a state manager provided a token, see
+ *       {@link CacheOutcome}.
+ *   <li>{@code com.google.fleetengine.auth.SignerCall}: a signature made by a signer, with its
+ *       type, claim count, signer class and error if any.
+ * </ul>
+ *
+ * <p>Event classes need {@code jdk.jfr} and are loaded reflectively. On JVMs without it, eg. Java
+ * 8, every method returns without recording anything. Methods are meant to be called by this
+ * library.
+ */
+public final class AuthEvents {
+  private static final Logger logger = Logger.getLogger(AuthEvents.class.getName());
+
+  private static final String JFR_EVENT_FACTORY_CLASS =
+      "com.google.fleetengine.auth.metrics.JfrEventFactory";
+
+  private static final EventFactory factory = loadFactory();
+
+  private AuthEvents() {}
+
+  /**
+   * Starts the event of a token requested from {@code AuthTokenMinter}.
+   *
+   * @param signer signer of the token, {@code null} when not configured
+   */
+  public static AuthEventScope beginTokenMint(
+      FleetEngineTokenType tokenType, FleetEngineTokenClaims claims, @Nullable Signer signer) {
+    return factory.beginTokenMint(tokenType, claims, signer);
+  }
+
+  /** Records how a state manager provided a token. */
+  public static void commitCacheLookup(
+      FleetEngineTokenType tokenType, FleetEngineTokenClaims claims, CacheOutcome cacheOutcome) {
+    factory.commitCacheLookup(tokenType, claims, cacheOutcome);
+  }
+
+  /** Starts the event of a signature made by {@code signer}. */
+  public static AuthEventScope beginSignerCall(FleetEngineToken token, Signer signer) {
+    return factory.beginSignerCall(token, signer);
+  }
+
+  /** Whether events are recorded by the flight recorder of this JVM. */
+  @VisibleForTesting
+  static boolean isFlightRecorderAvailable() {
+    return factory != EventFactory.NOOP;
+  }
+
+  private static EventFactory loadFactory() {
+    try {
+      return Class.forName(JFR_EVENT_FACTORY_CLASS)
+          .asSubclass(EventFactory.class)
+          .getDeclaredConstructor()
+          .newInstance();
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+      // Expected on JVMs without jdk.jfr.
+      logger.log(Level.FINE, "Java Flight Recorder events are not available.", e);
+      return EventFactory.NOOP;
+    }
+  }
+}
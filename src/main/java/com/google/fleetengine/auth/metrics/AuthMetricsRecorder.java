@@ -0,0 +1,72 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+
+/**
+ * Receives measurements of token signing and caching from {@link InstrumentedSigner} and {@link
+ * InstrumentedAuthStateManager}.
+ *
+ * <p>Implementations forward measurements to a metrics library, or aggregate them like {@link
+ * InMemoryAuthMetricsRecorder}. Methods are called on the signing path from many threads, so they
+ * must be thread-safe and must not block. Every method does nothing by default.
+ */
+public interface AuthMetricsRecorder {
+  /**
+   * Recorder that ignores every measurement.
+   *
+   * <p>Signers and state managers instrumented with it are returned undecorated, so that metrics
+   * cost nothing unless enabled.
+   */
+  AuthMetricsRecorder NOOP = new AuthMetricsRecorder() {};
+
+  /** Called when a signer starts signing a token of {@code tokenType}. */
+  default void recordSignStarted(FleetEngineTokenType tokenType) {}
+
+  /**
+   * Called when a signer signed a token of {@code tokenType}.
+   *
+   * @param tokenType type of the signed token
+   * @param latencyNanos time spent signing, in nanoseconds
+   */
+  default void recordSignSucceeded(FleetEngineTokenType tokenType, long latencyNanos) {}
+
+  /**
+   * Called when a signer failed to sign a token of {@code tokenType}.
+   *
+   * @param tokenType type of the token
+   * @param latencyNanos time spent until the failure, in nanoseconds
+   * @param errorClass class of the error thrown by the signer
+   */
+  default void recordSignFailed(
+      FleetEngineTokenType tokenType, long latencyNanos, Class<? extends Throwable> errorClass) {}
+
+  /**
+   * Called when a state manager returned a token of {@code tokenType} without signing it, including
+   * when the token was signed by a refresh already in flight.
+   */
+  default void recordCacheHit(FleetEngineTokenType tokenType) {}
+
+  /** Called when a state manager had to sign a token of {@code tokenType}. */
+  default void recordCacheMiss(FleetEngineTokenType tokenType) {}
+
+  /**
+   * Called when a state manager signed a token of {@code tokenType} with wildcard claims, ie. a
+   * token that replaces a cached token. Refreshes are also counted as misses, except refreshes
+   * made in the background.
+   */
+  default void recordCacheRefresh(FleetEngineTokenType tokenType) {}
+}
@@ -0,0 +1,29 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+/** How a state manager provided a token. */
+public enum CacheOutcome {
+  /** A cached token was returned. */
+  HIT,
+  /** The token was signed by the caller, and cached when the state manager caches it. */
+  MISS,
+  /** The caller waited for a signature started by another caller. */
+  JOINED,
+  /** An expiring cached token was returned while it is refreshed in the background. */
+  STALE,
+  /** The token is never cached, eg. because its claims are not a wildcard, and was signed. */
+  NOT_CACHED
+}
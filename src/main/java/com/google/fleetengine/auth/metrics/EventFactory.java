@@ -0,0 +1,55 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import javax.annotation.Nullable;
+
+/** Creates Java Flight Recorder events, implemented by {@code JfrEventFactory} when available. */
+interface EventFactory {
+  /** Factory of events that are never recorded. */
+  EventFactory NOOP =
+      new EventFactory() {
+        @Override
+        public AuthEventScope beginTokenMint(
+            FleetEngineTokenType tokenType,
+            FleetEngineTokenClaims claims,
+            @Nullable Signer signer) {
+          return AuthEventScope.NOOP;
+        }
+
+        @Override
+        public void commitCacheLookup(
+            FleetEngineTokenType tokenType,
+            FleetEngineTokenClaims claims,
+            CacheOutcome cacheOutcome) {}
+
+        @Override
+        public AuthEventScope beginSignerCall(FleetEngineToken token, Signer signer) {
+          return AuthEventScope.NOOP;
+        }
+      };
+
+  AuthEventScope beginTokenMint(
+      FleetEngineTokenType tokenType, FleetEngineTokenClaims claims, @Nullable Signer signer);
+
+  void commitCacheLookup(
+      FleetEngineTokenType tokenType, FleetEngineTokenClaims claims, CacheOutcome cacheOutcome);
+
+  AuthEventScope beginSignerCall(FleetEngineToken token, Signer signer);
+}
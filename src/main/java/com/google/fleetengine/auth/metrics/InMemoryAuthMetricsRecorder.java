@@ -0,0 +1,166 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates measurements in memory, per {@link FleetEngineTokenType}, for applications that do not
+ * use a metrics library.
+ *
+ * <p>Signing latencies are kept in a histogram with power of two buckets, so percentiles are
+ * accurate within a factor of two.
+ */
+public final class InMemoryAuthMetricsRecorder implements AuthMetricsRecorder {
+  /** Number of latency buckets, the last one holds latencies of 2^38 microseconds and above. */
+  private static final int LATENCY_BUCKETS = 40;
+
+  private final EnumMap<FleetEngineTokenType, Stats> stats;
+
+  /** Creates a recorder with all counts at zero. */
+  public InMemoryAuthMetricsRecorder() {
+    stats = new EnumMap<>(FleetEngineTokenType.class);
+    for (FleetEngineTokenType tokenType : FleetEngineTokenType.values()) {
+      stats.put(tokenType, new Stats());
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void recordSignStarted(FleetEngineTokenType tokenType) {
+    stats.get(tokenType).inFlight.increment();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void recordSignSucceeded(FleetEngineTokenType tokenType, long latencyNanos) {
+    Stats tokenStats = stats.get(tokenType);
+    tokenStats.inFlight.decrement();
+    tokenStats.signatures.increment();
+    tokenStats.latencies.incrementAndGet(latencyBucket(latencyNanos));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void recordSignFailed(
+      FleetEngineTokenType tokenType, long latencyNanos, Class<? extends Throwable> errorClass) {
+    Stats tokenStats = stats.get(tokenType);
+    tokenStats.inFlight.decrement();
+    tokenStats.errors.computeIfAbsent(errorClass, unused -> new LongAdder()).increment();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void recordCacheHit(FleetEngineTokenType tokenType) {
+    stats.get(tokenType).cacheHits.increment();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void recordCacheMiss(FleetEngineTokenType tokenType) {
+    stats.get(tokenType).cacheMisses.increment();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void recordCacheRefresh(FleetEngineTokenType tokenType) {
+    stats.get(tokenType).cacheRefreshes.increment();
+  }
+
+  /** Number of tokens of {@code tokenType} signed successfully. */
+  public long signatures(FleetEngineTokenType tokenType) {
+    return stats.get(tokenType).signatures.sum();
+  }
+
+  /** Number of tokens of {@code tokenType} being signed. */
+  public long inFlightSignings(FleetEngineTokenType tokenType) {
+    return stats.get(tokenType).inFlight.sum();
+  }
+
+  /** Number of failed signatures of tokens of {@code tokenType}, by class of error. */
+  public ImmutableMap<Class<? extends Throwable>, Long> signErrors(FleetEngineTokenType tokenType) {
+    return ImmutableMap.copyOf(Maps.transformValues(stats.get(tokenType).errors, LongAdder::sum));
+  }
+
+  /**
+   * Returns an upper bound of the given percentile of the latencies of successful signatures of
+   * tokens of {@code tokenType}, {@link Duration#ZERO} when none were recorded.
+   *
+   * @param percentile between 0 and 1, eg. 0.99 for the 99th percentile
+   */
+  public Duration signLatencyPercentile(FleetEngineTokenType tokenType, double percentile) {
+    AtomicLongArray latencies = stats.get(tokenType).latencies;
+    long[] counts = new long[LATENCY_BUCKETS];
+    long total = 0;
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      counts[i] = latencies.get(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return Duration.ZERO;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile * total));
+    long seen = 0;
+    int bucket = 0;
+    for (; bucket < LATENCY_BUCKETS - 1; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        break;
+      }
+    }
+    // Bucket i holds latencies below 2^i microseconds.
+    return Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(1L << bucket));
+  }
+
+  /** Number of tokens of {@code tokenType} provided without signing. */
+  public long cacheHits(FleetEngineTokenType tokenType) {
+    return stats.get(tokenType).cacheHits.sum();
+  }
+
+  /** Number of tokens of {@code tokenType} that had to be signed. */
+  public long cacheMisses(FleetEngineTokenType tokenType) {
+    return stats.get(tokenType).cacheMisses.sum();
+  }
+
+  /** Number of cached tokens of {@code tokenType} that were signed again. */
+  public long cacheRefreshes(FleetEngineTokenType tokenType) {
+    return stats.get(tokenType).cacheRefreshes.sum();
+  }
+
+  private static int latencyBucket(long latencyNanos) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, latencyNanos));
+    return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+  }
+
+  /** Measurements of a single token type. */
+  private static final class Stats {
+    final LongAdder inFlight = new LongAdder();
+    final LongAdder signatures = new LongAdder();
+    final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+    final ConcurrentHashMap<Class<? extends Throwable>, LongAdder> errors =
+        new ConcurrentHashMap<>();
+    final LongAdder cacheHits = new LongAdder();
+    final LongAdder cacheMisses = new LongAdder();
+    final LongAdder cacheRefreshes = new LongAdder();
+  }
+}
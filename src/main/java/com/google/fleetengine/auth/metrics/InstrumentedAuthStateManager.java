@@ -0,0 +1,203 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.fleetengine.auth.FleetEngineAuthTokenStateManager;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Records how often another state manager serves tokens from its cache versus signs them, along
+ * with the latency, concurrency and errors of the signatures, with an {@link AuthMetricsRecorder}.
+ *
+ * <p>Tokens that the state manager signs after the call that asked for them has returned, eg. the
+ * background refreshes of {@link com.google.fleetengine.auth.RefreshAheadAuthStateManager}, are
+ * recorded as refreshes but not as misses.
+ *
+ * <pre>{@code
+ * AuthTokenMinter minter =
+ *     AuthTokenMinter.builder()
+ *         .setTokenStateManager(
+ *             InstrumentedAuthStateManager.create(new NaiveAuthStateManager(), recorder))
+ *         ...
+ *         .build();
+ * }</pre>
+ */
+public final class InstrumentedAuthStateManager implements FleetEngineAuthTokenStateManager {
+  private final FleetEngineAuthTokenStateManager stateManager;
+  private final AuthMetricsRecorder recorder;
+  private final Ticker ticker;
+
+  /**
+   * Creates a state manager that records the tokens provided by {@code stateManager}.
+   *
+   * @param stateManager state manager providing the tokens
+   * @param recorder receives the measurements
+   * @return {@code stateManager} itself when {@code recorder} is {@link AuthMetricsRecorder#NOOP}
+   */
+  public static FleetEngineAuthTokenStateManager create(
+      FleetEngineAuthTokenStateManager stateManager, AuthMetricsRecorder recorder) {
+    if (recorder == AuthMetricsRecorder.NOOP) {
+      return stateManager;
+    }
+    return new InstrumentedAuthStateManager(stateManager, recorder, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  InstrumentedAuthStateManager(
+      FleetEngineAuthTokenStateManager stateManager, AuthMetricsRecorder recorder, Ticker ticker) {
+    this.stateManager = stateManager;
+    this.recorder = recorder;
+    this.ticker = ticker;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken signToken(Signer signer, FleetEngineToken token)
+      throws SigningTokenException {
+    TrackingSigner trackingSigner = new TrackingSigner(signer, token.tokenType());
+    boolean succeeded = false;
+    try {
+      FleetEngineToken signedToken = stateManager.signToken(trackingSigner, token);
+      succeeded = true;
+      return signedToken;
+    } finally {
+      recordCacheOutcome(trackingSigner, token.authorizationClaims(), succeeded);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken signToken(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier)
+      throws SigningTokenException {
+    TrackingSigner trackingSigner = new TrackingSigner(signer, tokenType);
+    boolean succeeded = false;
+    try {
+      FleetEngineToken signedToken =
+          stateManager.signToken(
+              trackingSigner, tokenType, audience, claims, unsignedTokenSupplier);
+      succeeded = true;
+      return signedToken;
+    } finally {
+      recordCacheOutcome(trackingSigner, claims, succeeded);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<FleetEngineToken> signTokenAsync(
+      Signer signer,
+      FleetEngineTokenType tokenType,
+      String audience,
+      FleetEngineTokenClaims claims,
+      Supplier<FleetEngineToken> unsignedTokenSupplier,
+      Executor executor) {
+    TrackingSigner trackingSigner = new TrackingSigner(signer, tokenType);
+    return stateManager
+        .signTokenAsync(
+            trackingSigner, tokenType, audience, claims, unsignedTokenSupplier, executor)
+        .whenComplete(
+            (signedToken, error) -> recordCacheOutcome(trackingSigner, claims, error == null));
+  }
+
+  /**
+   * Records a miss when the token had to be signed, whether or not signing succeeded, and a hit
+   * when a token was provided without signing.
+   */
+  private void recordCacheOutcome(
+      TrackingSigner trackingSigner, FleetEngineTokenClaims claims, boolean succeeded) {
+    FleetEngineTokenType tokenType = trackingSigner.tokenType;
+    boolean signed = trackingSigner.signed;
+    trackingSigner.callCompleted = true;
+    if (signed) {
+      recorder.recordCacheMiss(tokenType);
+      if (claims.isWildcard()) {
+        recorder.recordCacheRefresh(tokenType);
+      }
+    } else if (succeeded) {
+      recorder.recordCacheHit(tokenType);
+    }
+  }
+
+  /**
+   * Instruments the signer of a single call and remembers whether it was asked to sign. Signatures
+   * requested once the call has completed are background refreshes.
+   *
+   * <p>Equal to the tracking signers of other calls with the same signer, since state managers may
+   * key their caches by signer, eg. {@link com.google.fleetengine.auth.CachingAuthStateManager}.
+   */
+  private final class TrackingSigner implements Signer {
+    private final Signer originalSigner;
+    private final Signer signer;
+    private final FleetEngineTokenType tokenType;
+
+    volatile boolean signed;
+
+    /** Whether the outcome of the call has been recorded. */
+    volatile boolean callCompleted;
+
+    TrackingSigner(Signer signer, FleetEngineTokenType tokenType) {
+      this.originalSigner = signer;
+      this.signer = new InstrumentedSigner(signer, recorder, ticker);
+      this.tokenType = tokenType;
+    }
+
+    @Override
+    public FleetEngineToken sign(FleetEngineToken token) throws SigningTokenException {
+      track();
+      return signer.sign(token);
+    }
+
+    @Override
+    public CompletableFuture<FleetEngineToken> signAsync(
+        FleetEngineToken token, Executor executor) {
+      track();
+      return signer.signAsync(token, executor);
+    }
+
+    private void track() {
+      if (callCompleted) {
+        // Signed in the background by a state manager that kept this signer.
+        recorder.recordCacheRefresh(tokenType);
+      } else {
+        signed = true;
+      }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof TrackingSigner
+          && ((TrackingSigner) other).originalSigner.equals(originalSigner);
+    }
+
+    @Override
+    public int hashCode() {
+      return originalSigner.hashCode();
+    }
+  }
+}
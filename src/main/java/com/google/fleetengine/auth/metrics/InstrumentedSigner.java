@@ -0,0 +1,115 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Records the latency, concurrency and errors of another signer with an {@link
+ * AuthMetricsRecorder}.
+ *
+ * <pre>{@code
+ * Signer driverSigner =
+ *     InstrumentedSigner.create(
+ *         ImpersonatedSigner.create("driver@gcp-project.iam.gserviceaccount.com"), recorder);
+ * }</pre>
+ *
+ * <p>Signers passed to an {@link InstrumentedAuthStateManager} are already instrumented and should
+ * not be wrapped again with the same recorder.
+ */
+public final class InstrumentedSigner implements Signer {
+  private final Signer signer;
+  private final AuthMetricsRecorder recorder;
+  private final Ticker ticker;
+
+  /**
+   * Creates a signer that records the signatures of {@code signer}.
+   *
+   * @param signer signer doing the actual signing
+   * @param recorder receives the measurements
+   * @return {@code signer} itself when {@code recorder} is {@link AuthMetricsRecorder#NOOP}
+   */
+  public static Signer create(Signer signer, AuthMetricsRecorder recorder) {
+    if (recorder == AuthMetricsRecorder.NOOP) {
+      return signer;
+    }
+    return new InstrumentedSigner(signer, recorder, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  InstrumentedSigner(Signer signer, AuthMetricsRecorder recorder, Ticker ticker) {
+    this.signer = signer;
+    this.recorder = recorder;
+    this.ticker = ticker;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FleetEngineToken sign(FleetEngineToken token) throws SigningTokenException {
+    FleetEngineTokenType tokenType = token.tokenType();
+    recorder.recordSignStarted(tokenType);
+    long startNanos = ticker.read();
+    try {
+      FleetEngineToken signedToken = signer.sign(token);
+      recorder.recordSignSucceeded(tokenType, ticker.read() - startNanos);
+      return signedToken;
+    } catch (SigningTokenException | RuntimeException | Error e) {
+      recorder.recordSignFailed(tokenType, ticker.read() - startNanos, e.getClass());
+      throw e;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The recorded latency includes the time spent waiting for {@code executor}.
+   */
+  @Override
+  public CompletableFuture<FleetEngineToken> signAsync(FleetEngineToken token, Executor executor) {
+    FleetEngineTokenType tokenType = token.tokenType();
+    recorder.recordSignStarted(tokenType);
+    long startNanos = ticker.read();
+    CompletableFuture<FleetEngineToken> signature;
+    try {
+      signature = signer.signAsync(token, executor);
+    } catch (RuntimeException | Error e) {
+      recorder.recordSignFailed(tokenType, ticker.read() - startNanos, e.getClass());
+      throw e;
+    }
+    return signature.whenComplete(
+        (signedToken, error) -> {
+          long latencyNanos = ticker.read() - startNanos;
+          if (error == null) {
+            recorder.recordSignSucceeded(tokenType, latencyNanos);
+          } else {
+            recorder.recordSignFailed(tokenType, latencyNanos, unwrap(error).getClass());
+          }
+        });
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null
+        ? error.getCause()
+        : error;
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.store;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * {@link TokenStore} that keeps tokens in memory.
+ *
+ * <p>Shares tokens between the state managers of a single process. Expired tokens are kept until
+ * they are replaced.
+ */
+public final class InMemoryTokenStore implements TokenStore {
+
+  /* Used to get the current time. */
+  private final Clock clock;
+
+  private final ConcurrentHashMap<String, StoredToken> tokens = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+
+  /** Constructor. */
+  public InMemoryTokenStore() {
+    this(Clock.systemUTC());
+  }
+
+  /** Constructor for testing. */
+  @VisibleForTesting
+  InMemoryTokenStore(Clock clock) {
+    this.clock = clock;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public StoredToken get(String key) {
+    return tokens.get(key);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean compareAndSet(String key, @Nullable String expectedJwt, StoredToken token) {
+    if (expectedJwt == null) {
+      return tokens.putIfAbsent(key, token) == null;
+    }
+    boolean[] stored = new boolean[1];
+    tokens.computeIfPresent(
+        key,
+        (unused, current) -> {
+          stored[0] = current.jwt().equals(expectedJwt);
+          return stored[0] ? token : current;
+        });
+    return stored[0];
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean tryAcquireLease(String key, String owner, Duration leaseDuration) {
+    Instant now = clock.instant();
+    Lease lease = new Lease(owner, now.plus(leaseDuration));
+    Lease current =
+        leases.compute(
+            key,
+            (unused, held) ->
+                held == null || held.owner.equals(owner) || !held.expiration.isAfter(now)
+                    ? lease
+                    : held);
+    return current == lease;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void releaseLease(String key, String owner) {
+    leases.computeIfPresent(key, (unused, held) -> held.owner.equals(owner) ? null : held);
+  }
+
+  /** Lease on a key held by an owner until an expiration. */
+  private static final class Lease {
+    final String owner;
+    final Instant expiration;
+
+    Lease(String owner, Instant expiration) {
+      this.owner = owner;
+      this.expiration = expiration;
+    }
+  }
+}
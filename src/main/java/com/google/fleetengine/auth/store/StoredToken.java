@@ -0,0 +1,37 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.store;
+
+import com.google.auto.value.AutoValue;
+import java.time.Instant;
+
+/** Signed JWT kept in a {@link TokenStore}, with the validity period it was signed with. */
+@AutoValue
+public abstract class StoredToken {
+  /** Signed and base64 encoded JWT. */
+  public abstract String jwt();
+
+  /** Token creation timestamp. */
+  public abstract Instant creationTimestamp();
+
+  /** Token expiration timestamp. */
+  public abstract Instant expirationTimestamp();
+
+  /** Creates a stored token. */
+  public static StoredToken create(
+      String jwt, Instant creationTimestamp, Instant expirationTimestamp) {
+    return new AutoValue_StoredToken(jwt, creationTimestamp, expirationTimestamp);
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.store;
+
+import java.time.Duration;
+import javax.annotation.Nullable;
+
+/**
+ * Shares signed tokens between the processes of a deployment, so that each token is signed by a
+ * single process instead of by every process.
+ *
+ * <p>Tokens are stored under string keys built by the state manager from the token type, audience
+ * and claims. Refreshes are coordinated with leases: the process that acquires the lease on a key
+ * signs the token and stores it, the other processes wait for the stored token.
+ *
+ * <p>Implementations must be thread-safe. {@link InMemoryTokenStore} shares tokens within a single
+ * process. A production store, eg. backed by Redis, implements the same operations: {@code
+ * compareAndSet} maps to a transaction or a script, leases to a key set only if absent with an
+ * expiration.
+ */
+public interface TokenStore {
+
+  /**
+   * Returns the token stored under {@code key}, null if there is none.
+   *
+   * <p>Stores may return tokens that already expired.
+   */
+  @Nullable
+  StoredToken get(String key) throws TokenStoreException;
+
+  /**
+   * Stores {@code token} under {@code key} if the JWT currently stored under {@code key} is {@code
+   * expectedJwt}.
+   *
+   * @param key key of the token
+   * @param expectedJwt JWT currently stored under the key, null if no token is expected
+   * @param token token to store
+   * @return whether the token was stored
+   */
+  boolean compareAndSet(String key, @Nullable String expectedJwt, StoredToken token)
+      throws TokenStoreException;
+
+  /**
+   * Acquires the lease to refresh the token stored under {@code key}, unless another owner holds
+   * it.
+   *
+   * <p>The lease expires after {@code leaseDuration}, so that a process that died while refreshing
+   * does not block the other processes. Acquiring a lease already held by {@code owner} extends it.
+   *
+   * @param key key of the token
+   * @param owner identifies the process that refreshes the token
+   * @param leaseDuration how long the lease is held unless released
+   * @return whether {@code owner} holds the lease
+   */
+  boolean tryAcquireLease(String key, String owner, Duration leaseDuration)
+      throws TokenStoreException;
+
+  /**
+   * Releases the lease on {@code key} if it is held by {@code owner}.
+   *
+   * @param key key of the token
+   * @param owner identifies the process that refreshed the token
+   */
+  void releaseLease(String key, String owner) throws TokenStoreException;
+}
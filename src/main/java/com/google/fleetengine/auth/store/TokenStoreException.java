@@ -0,0 +1,44 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.store;
+
+/**
+ * Signals that a {@link TokenStore} could not be reached or failed to complete a request.
+ *
+ * @see TokenStore
+ */
+public class TokenStoreException extends Exception {
+  /**
+   * Constructs a {@code TokenStoreException} with the specified detail message.
+   *
+   * @param message The detail message (which is saved for later retrieval by the {@link
+   *     #getMessage()} method)
+   */
+  public TokenStoreException(String message) {
+    this(message, null);
+  }
+
+  /**
+   * Constructs a {@code TokenStoreException} with the specified detail message.
+   *
+   * @param message The detail message (which is saved for later retrieval by the {@link
+   *     #getMessage()} method)
+   * @param cause The cause (which is saved for later retrieval by the {@link #getCause()} method).
+   *     (A null value is permitted, and indicates that the cause is nonexistent or unknown.)
+   */
+  public TokenStoreException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
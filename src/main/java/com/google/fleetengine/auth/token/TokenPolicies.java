@@ -0,0 +1,132 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Iterables;
+import java.time.Duration;
+import javax.annotation.Nullable;
+
+/**
+ * {@link TokenPolicy} of each {@link FleetEngineTokenType} and audience.
+ *
+ * <pre>{@code
+ * TokenPolicies policies = TokenPolicies.builder()
+ *     .setPolicy(FleetEngineTokenType.SERVER,
+ *         TokenPolicy.builder().setJitter(Duration.ofMinutes(2)).build())
+ *     .setPolicy(FleetEngineTokenType.CONSUMER,
+ *         TokenPolicy.builder().setLifetime(Duration.ofMinutes(15)).build())
+ *     .build();
+ * }</pre>
+ *
+ * <p>The same policies should be given to the token factory and to the state manager, so that
+ * tokens are replaced relative to the lifetime that they were signed with.
+ */
+@AutoValue
+public abstract class TokenPolicies {
+  private static final TokenPolicies DEFAULT = builder().build();
+
+  /** Policy of tokens whose type and audience have no policy of their own. */
+  public abstract TokenPolicy defaultPolicy();
+
+  /** Policies of token types, whatever their audience. */
+  public abstract ImmutableMap<FleetEngineTokenType, TokenPolicy> typePolicies();
+
+  /** Policies of token types for one audience, these take precedence over type policies. */
+  public abstract ImmutableTable<FleetEngineTokenType, String, TokenPolicy> audiencePolicies();
+
+  /**
+   * Returns the policy of tokens of {@code tokenType} for {@code audience}, falling back to the
+   * policy of {@code tokenType} and then to {@link #defaultPolicy()}.
+   */
+  public TokenPolicy policyFor(FleetEngineTokenType tokenType, @Nullable String audience) {
+    if (audience != null && !audiencePolicies().isEmpty()) {
+      TokenPolicy policy = audiencePolicies().get(tokenType, audience);
+      if (policy != null) {
+        return policy;
+      }
+    }
+    TokenPolicy policy = typePolicies().get(tokenType);
+    return policy != null ? policy : defaultPolicy();
+  }
+
+  /** Returns the longest {@link TokenPolicy#lifetime()} of all policies. */
+  public Duration maximumLifetime() {
+    Duration maximumLifetime = defaultPolicy().lifetime();
+    for (TokenPolicy policy :
+        Iterables.concat(typePolicies().values(), audiencePolicies().values())) {
+      if (policy.lifetime().compareTo(maximumLifetime) > 0) {
+        maximumLifetime = policy.lifetime();
+      }
+    }
+    return maximumLifetime;
+  }
+
+  /** Returns the shortest {@link TokenPolicy#refreshMargin()} of all policies. */
+  public Duration minimumRefreshMargin() {
+    Duration minimumRefreshMargin = defaultPolicy().refreshMargin();
+    for (TokenPolicy policy :
+        Iterables.concat(typePolicies().values(), audiencePolicies().values())) {
+      if (policy.refreshMargin().compareTo(minimumRefreshMargin) < 0) {
+        minimumRefreshMargin = policy.refreshMargin();
+      }
+    }
+    return minimumRefreshMargin;
+  }
+
+  /** Returns the policy of {@code token}. */
+  public TokenPolicy policyFor(FleetEngineToken token) {
+    return policyFor(token.tokenType(), token.audience());
+  }
+
+  /** Policies that apply {@link TokenPolicy#DEFAULT} to every token. */
+  public static TokenPolicies defaults() {
+    return DEFAULT;
+  }
+
+  /** Provides a builder for {@link TokenPolicies}. */
+  public static Builder builder() {
+    return new AutoValue_TokenPolicies.Builder().setDefaultPolicy(TokenPolicy.DEFAULT);
+  }
+
+  /** Builder class for TokenPolicies. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the policy of tokens whose type and audience have no policy of their own. */
+    public abstract Builder setDefaultPolicy(TokenPolicy defaultPolicy);
+
+    abstract ImmutableMap.Builder<FleetEngineTokenType, TokenPolicy> typePoliciesBuilder();
+
+    abstract ImmutableTable.Builder<FleetEngineTokenType, String, TokenPolicy>
+        audiencePoliciesBuilder();
+
+    /** Sets the policy of tokens of {@code tokenType}. */
+    public Builder setPolicy(FleetEngineTokenType tokenType, TokenPolicy policy) {
+      typePoliciesBuilder().put(tokenType, policy);
+      return this;
+    }
+
+    /** Sets the policy of tokens of {@code tokenType} for {@code audience}. */
+    public Builder setPolicy(FleetEngineTokenType tokenType, String audience, TokenPolicy policy) {
+      audiencePoliciesBuilder().put(tokenType, audience, policy);
+      return this;
+    }
+
+    /** Builds {@link TokenPolicies}. */
+    public abstract TokenPolicies build();
+  }
+}
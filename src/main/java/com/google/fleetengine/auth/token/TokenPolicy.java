@@ -0,0 +1,138 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token;
+
+import com.google.auto.value.AutoValue;
+import java.time.Duration;
+
+/**
+ * Lifetime and refresh policy of Fleet Engine tokens.
+ *
+ * <p>The policy of a token is looked up by its type and audience in {@link TokenPolicies}. Token
+ * factories sign tokens for {@link #lifetime()}, state managers reuse a token until it is within
+ * {@link #refreshWindow(FleetEngineToken)} of its expiration.
+ */
+@AutoValue
+public abstract class TokenPolicy {
+  /** Default duration of a Fleet Engine token until expiration. */
+  public static final Duration DEFAULT_LIFETIME = Duration.ofMinutes(60);
+
+  /** Default duration before its expiration that a token is replaced. */
+  public static final Duration DEFAULT_REFRESH_MARGIN = Duration.ofMinutes(5);
+
+  /** Policy of tokens that have no other policy configured. */
+  public static final TokenPolicy DEFAULT = builder().build();
+
+  /** Duration between the creation and the expiration of new tokens. */
+  public abstract Duration lifetime();
+
+  /** Duration before its expiration that a cached token is replaced. */
+  public abstract Duration refreshMargin();
+
+  /**
+   * Upper bound of a random duration added to {@link #refreshMargin()}, so that tokens signed
+   * together are not all replaced together.
+   *
+   * <p>The random duration is derived from the token, a token is always replaced at the same time.
+   */
+  public abstract Duration jitter();
+
+  /**
+   * Duration after a token is due for replacement that it may still be served while its
+   * replacement is signed, by state managers that serve stale tokens.
+   *
+   * <p>Tokens are never served once they expire.
+   */
+  public abstract Duration maximumStaleness();
+
+  /** Whether signed tokens may be reused, when false every token is signed. */
+  public abstract boolean cacheable();
+
+  /**
+   * Duration before the expiration of {@code token} that it has to be replaced, {@link
+   * #refreshMargin()} plus a part of {@link #jitter()} derived from {@code token}.
+   */
+  public Duration refreshWindow(FleetEngineToken token) {
+    long jitterMillis = jitter().toMillis();
+    if (jitterMillis <= 0) {
+      return refreshMargin();
+    }
+    long seed =
+        token.jwt() != null ? token.jwt().hashCode() : token.creationTimestamp().getTime();
+    // Spreads seeds that are close to each other, eg. creation times, over the whole jitter.
+    long spread = Math.floorMod(seed * 0x9E3779B97F4A7C15L, jitterMillis + 1);
+    return refreshMargin().plusMillis(spread);
+  }
+
+  /**
+   * Duration before the expiration of {@code token} that it may no longer be served, even stale.
+   * Never negative.
+   */
+  public Duration staleWindow(FleetEngineToken token) {
+    Duration staleWindow = refreshWindow(token).minus(maximumStaleness());
+    return staleWindow.isNegative() ? Duration.ZERO : staleWindow;
+  }
+
+  /** Provides a builder initialized with this policy. */
+  public abstract Builder toBuilder();
+
+  /** Provides a builder for {@link TokenPolicy}. */
+  public static Builder builder() {
+    return new AutoValue_TokenPolicy.Builder()
+        .setLifetime(DEFAULT_LIFETIME)
+        .setRefreshMargin(DEFAULT_REFRESH_MARGIN)
+        .setJitter(Duration.ZERO)
+        .setMaximumStaleness(DEFAULT_REFRESH_MARGIN)
+        .setCacheable(true);
+  }
+
+  /** Builder class for TokenPolicy. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the duration between the creation and the expiration of new tokens. */
+    public abstract Builder setLifetime(Duration lifetime);
+
+    /** Sets the duration before its expiration that a cached token is replaced. */
+    public abstract Builder setRefreshMargin(Duration refreshMargin);
+
+    /** Sets the upper bound of the random duration added to the refresh margin. */
+    public abstract Builder setJitter(Duration jitter);
+
+    /** Sets how long a token that is due for replacement may still be served. */
+    public abstract Builder setMaximumStaleness(Duration maximumStaleness);
+
+    /** Sets whether signed tokens may be reused. */
+    public abstract Builder setCacheable(boolean cacheable);
+
+    abstract TokenPolicy autoBuild();
+
+    /**
+     * Builds {@link TokenPolicy}.
+     *
+     * @throws IllegalArgumentException when the refresh margin plus the jitter is not shorter than
+     *     the lifetime, tokens would then be replaced as soon as they are signed
+     */
+    public TokenPolicy build() {
+      TokenPolicy policy = autoBuild();
+      if (policy.refreshMargin().plus(policy.jitter()).compareTo(policy.lifetime()) >= 0) {
+        throw new IllegalArgumentException(
+            String.format(
+                "refreshMargin (%s) plus jitter (%s) must be shorter than lifetime (%s)",
+                policy.refreshMargin(), policy.jitter(), policy.lifetime()));
+      }
+      return policy;
+    }
+  }
+}
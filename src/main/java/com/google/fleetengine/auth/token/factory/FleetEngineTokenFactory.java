@@ -25,6 +25,7 @@ import com.google.fleetengine.auth.token.FleetEngineTokenType;
 import com.google.fleetengine.auth.token.FleetReaderClaims;
 import com.google.fleetengine.auth.token.ServerTokenClaims;
 import com.google.fleetengine.auth.token.TaskClaims;
+import com.google.fleetengine.auth.token.TokenPolicy;
 import com.google.fleetengine.auth.token.TrackingClaims;
 import com.google.fleetengine.auth.token.TripClaims;
 import com.google.fleetengine.auth.token.VehicleClaims;
@@ -34,14 +35,18 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.Objects;
 
-/** Provides unsigned Fleet Engine JWTs with an expiration time 60 minutes in the future. */
+/**
+ * Provides unsigned Fleet Engine JWTs that expire after the {@link TokenPolicy#lifetime()} of their
+ * type and audience, 60 minutes unless configured otherwise in {@link
+ * FleetEngineTokenFactorySettings#tokenPolicies()}.
+ */
 public final class FleetEngineTokenFactory implements TokenFactory {
 
   private final Clock clock;
   private final FleetEngineTokenFactorySettings settings;
 
-  /** Duration of a Fleet Engine token until expiration. */
-  @VisibleForTesting static final Duration TOKEN_EXPIRATION = Duration.ofMinutes(60);
+  /** Default duration of a Fleet Engine token until expiration. */
+  @VisibleForTesting static final Duration TOKEN_EXPIRATION = TokenPolicy.DEFAULT_LIFETIME;
 
   /** Get settings that the factory was created with. */
   public FleetEngineTokenFactorySettings getSettings() {
@@ -64,6 +69,12 @@ public final class FleetEngineTokenFactory implements TokenFactory {
     this.settings = settings;
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public String audience() {
+    return settings.audience();
+  }
+
   /** {@inheritDoc} */
   @Override
   public FleetEngineToken createServerToken() {
@@ -150,7 +161,9 @@ public final class FleetEngineTokenFactory implements TokenFactory {
   private FleetEngineToken createToken(
       FleetEngineTokenType tokenType, FleetEngineTokenClaims... claims) {
     Instant creationInstant = Instant.now(clock);
-    Instant expirationInstant = creationInstant.plus(TOKEN_EXPIRATION);
+    Instant expirationInstant =
+        creationInstant.plus(
+            settings.tokenPolicies().policyFor(tokenType, settings.audience()).lifetime());
 
     return FleetEngineToken.builder()
         .setTokenType(tokenType)
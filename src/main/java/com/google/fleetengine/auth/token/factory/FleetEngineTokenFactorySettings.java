@@ -15,6 +15,7 @@
 package com.google.fleetengine.auth.token.factory;
 
 import com.google.auto.value.AutoValue;
+import com.google.fleetengine.auth.token.TokenPolicies;
 import com.google.fleetengine.auth.token.factory.signer.util.CommonConstants;
 import javax.annotation.Nullable;
 
@@ -25,9 +26,13 @@ public abstract class FleetEngineTokenFactorySettings {
   @Nullable
   public abstract String audience();
 
+  /** Policies that set the lifetime of new tokens by token type and audience. */
+  public abstract TokenPolicies tokenPolicies();
+
   public static Builder builder() {
     return new AutoValue_FleetEngineTokenFactorySettings.Builder()
-        .setAudience(CommonConstants.DEFAULT_JWT_AUDIENCE);
+        .setAudience(CommonConstants.DEFAULT_JWT_AUDIENCE)
+        .setTokenPolicies(TokenPolicies.defaults());
   }
 
   /** Builder class for FleetEngineTokenFactorySettings. */
@@ -36,6 +41,9 @@ public abstract class FleetEngineTokenFactorySettings {
     /** Sets the audience (aud claim) of new tokens. */
     public abstract Builder setAudience(String audience);
 
+    /** Sets the policies that set the lifetime of new tokens. */
+    public abstract Builder setTokenPolicies(TokenPolicies tokenPolicies);
+
     /** Builds {@link FleetEngineTokenFactorySettings}. */
     public abstract FleetEngineTokenFactorySettings build();
   }
@@ -21,6 +21,7 @@ import com.google.fleetengine.auth.token.TaskClaims;
 import com.google.fleetengine.auth.token.TrackingClaims;
 import com.google.fleetengine.auth.token.TripClaims;
 import com.google.fleetengine.auth.token.VehicleClaims;
+import com.google.fleetengine.auth.token.factory.signer.util.CommonConstants;
 
 /**
  * An interface for a factory providing valid JWT (JSON Web Tokens) to be used on communications
@@ -28,6 +29,15 @@ import com.google.fleetengine.auth.token.VehicleClaims;
  */
 public interface TokenFactory {
 
+  /**
+   * Audience (aud claim) of the tokens created by the factory.
+   *
+   * <p>By default, {@link CommonConstants#DEFAULT_JWT_AUDIENCE}.
+   */
+  default String audience() {
+    return CommonConstants.DEFAULT_JWT_AUDIENCE;
+  }
+
   /**
    * Creates tokens for the {@link com.google.fleetengine.auth.token.FleetEngineTokenType#SERVER}
    * role.
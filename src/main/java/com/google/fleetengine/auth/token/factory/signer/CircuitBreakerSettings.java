@@ -0,0 +1,60 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import com.google.auto.value.AutoValue;
+import java.time.Duration;
+
+/** Settings of the circuit breakers of {@link FailoverSigner}. */
+@AutoValue
+public abstract class CircuitBreakerSettings {
+  /** Default number of consecutive failures that open a circuit. */
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+  /** Default time a circuit stays open before a signature is attempted again. */
+  public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+
+  /**
+   * Number of consecutive quota or server errors after which a signer is skipped. Only errors that
+   * are likely to go away count, eg. permission errors never open a circuit.
+   */
+  public abstract int failureThreshold();
+
+  /**
+   * Time a signer is skipped for once its circuit opened. Afterwards, a single signature is
+   * attempted with it and closes the circuit on success or opens it again on failure.
+   */
+  public abstract Duration openDuration();
+
+  /** Provides a builder for {@link CircuitBreakerSettings}. */
+  public static Builder builder() {
+    return new AutoValue_CircuitBreakerSettings.Builder()
+        .setFailureThreshold(DEFAULT_FAILURE_THRESHOLD)
+        .setOpenDuration(DEFAULT_OPEN_DURATION);
+  }
+
+  /** Builder class for CircuitBreakerSettings. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the number of consecutive failures that open a circuit. */
+    public abstract Builder setFailureThreshold(int failureThreshold);
+
+    /** Sets the time a circuit stays open. */
+    public abstract Builder setOpenDuration(Duration openDuration);
+
+    /** Builds {@link CircuitBreakerSettings}. */
+    public abstract CircuitBreakerSettings build();
+  }
+}
@@ -14,16 +14,13 @@
 
 package com.google.fleetengine.auth.token.factory.signer;
 
-
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.auth0.jwt.exceptions.SignatureVerificationException;
-import com.auth0.jwt.interfaces.DecodedJWT;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.ServiceAccountCredentials;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.fleetengine.auth.metrics.AuthEventScope;
+import com.google.fleetengine.auth.metrics.AuthEvents;
 import com.google.fleetengine.auth.token.FleetEngineToken;
-import com.google.fleetengine.auth.token.factory.signer.util.CommonConstants;
+import com.google.fleetengine.auth.token.factory.signer.JwtWriter.SigningInput;
 import java.io.IOException;
 
 /**
@@ -37,10 +34,11 @@ import java.io.IOException;
  * com.google.fleetengine.auth.token.FleetEngineTokenType} of the token being signed.
  */
 public class DefaultServiceAccountSigner implements Signer {
-  private static final String ALGORITHM_NAME = "RS256";
-  private static final String ALGORITHM_DESCRIPTION = "SHA256withRSA";
   private final ServiceAccountSignerCredentials serviceAccountCredentials;
 
+  /** Writes JWTs issued by the service account. */
+  private final JwtWriter jwtWriter;
+
   /**
    * Creates signer that uses the currently running service account.
    *
@@ -74,6 +72,7 @@ public class DefaultServiceAccountSigner implements Signer {
   @VisibleForTesting
   DefaultServiceAccountSigner(ServiceAccountSignerCredentials serviceAccountCredentials) {
     this.serviceAccountCredentials = serviceAccountCredentials;
+    this.jwtWriter = JwtWriter.create(serviceAccountCredentials.getClientEmail(), null);
   }
 
   /**
@@ -92,48 +91,24 @@ public class DefaultServiceAccountSigner implements Signer {
    */
   @Override
   public FleetEngineToken sign(FleetEngineToken token) {
-    String signedToken =
-        JWT.create()
-            .withIssuer(serviceAccountCredentials.getClientEmail())
-            .withSubject(serviceAccountCredentials.getClientEmail())
-            .withAudience(token.audience())
-            .withExpiresAt(token.expirationTimestamp())
-            .withIssuedAt(token.creationTimestamp())
-            .withClaim(
-                CommonConstants.JWT_CLAIM_AUTHORIZATION_PROPERTY,
-                token.authorizationClaims().toMap())
-            .sign(new ServiceAccountSignerAlgorithm(serviceAccountCredentials));
-    return token.toBuilder().setJwt(signedToken).build();
-  }
-
-  /** Signs with the service account from the default credentials. */
-  static class ServiceAccountSignerAlgorithm extends Algorithm {
-    private final ServiceAccountSignerCredentials serviceAccountCredentials;
-
-    public ServiceAccountSignerAlgorithm(
-        ServiceAccountSignerCredentials serviceAccountCredentials) {
-      super(ALGORITHM_NAME, ALGORITHM_DESCRIPTION);
-      this.serviceAccountCredentials = serviceAccountCredentials;
-    }
-
-    @Override
-    public void verify(DecodedJWT jwt) {
-      // Since this is a private inner class, this will never be called.
-      throw new SignatureVerificationException(
-          this, new RuntimeException("Verify not implemented"));
-    }
-
-    @Override
-    public byte[] sign(byte[] contentBytes) {
-      throw new SignatureVerificationException(
-          this, new RuntimeException("sign(byte[]) is deprecated and not implemented"));
-    }
-
-    @Override
-    public byte[] sign(byte[] headerBytes, byte[] payloadBytes) {
-      return serviceAccountCredentials.sign(headerBytes, payloadBytes);
+    AuthEventScope event = AuthEvents.beginSignerCall(token, this);
+    try {
+      SigningInput signingInput = jwtWriter.writeSigningInput(token);
+      byte[] signature = serviceAccountCredentials.sign(signingInput.toByteArray());
+      return token.toBuilder().setJwt(signingInput.toJwt(signature)).build();
+    } catch (RuntimeException e) {
+      event.fail(e);
+      throw e;
+    } finally {
+      event.close();
     }
   }
+  /** Email of the service account that signs the tokens. */
+  @Override
+  public String account() {
+    return jwtWriter.issuer();
+  }
+
 
   /** Wraps {@link ServiceAccountCredentials} in order to mock final methods. */
   static class ServiceAccountSignerCredentials {
@@ -152,15 +127,10 @@ public class DefaultServiceAccountSigner implements Signer {
     /**
      * Signs JWT with underlying service account credentials.
      *
-     * @param headerBytes JWT header
-     * @param payloadBytes JWT payload
+     * @param contentBytes JWT header and payload, separated by a {@code '.'}
      * @return signed bytes
      */
-    byte[] sign(byte[] headerBytes, byte[] payloadBytes) {
-      byte[] contentBytes = new byte[headerBytes.length + 1 + payloadBytes.length];
-      System.arraycopy(headerBytes, 0, contentBytes, 0, headerBytes.length);
-      contentBytes[headerBytes.length] = (byte) '.';
-      System.arraycopy(payloadBytes, 0, contentBytes, headerBytes.length + 1, payloadBytes.length);
+    byte[] sign(byte[] contentBytes) {
       return credentials.sign(contentBytes);
     }
   }
@@ -0,0 +1,259 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Signs tokens with the first of an ordered list of signers that is healthy, eg. an {@link
+ * ImpersonatedSigner} backed by a {@link LocalSigner} holding a break-glass key of the same service
+ * account.
+ *
+ * <p>Each signer is guarded by a circuit breaker. After {@link
+ * CircuitBreakerSettings#failureThreshold()} consecutive quota or server errors, its circuit opens
+ * and the signer is skipped for {@link CircuitBreakerSettings#openDuration()}, so that callers do
+ * not wait for a degraded backend on every signature. The circuit then becomes half-open: a single
+ * signature is attempted with the signer and closes the circuit on success, while other signatures
+ * keep skipping it.
+ *
+ * <pre>{@code
+ * Signer driverSigner =
+ *     FailoverSigner.create(
+ *         ImmutableList.of(
+ *             ImpersonatedSigner.create("driver@gcp-project.iam.gserviceaccount.com"),
+ *             LocalSigner.create(
+ *                 "driver@gcp-project.iam.gserviceaccount.com", privateKeyId, privateKey)));
+ * }</pre>
+ */
+public final class FailoverSigner implements Signer {
+  private static final Logger logger = Logger.getLogger(FailoverSigner.class.getName());
+
+  /** State of the circuit breaker guarding a signer. */
+  public enum CircuitState {
+    /** The signer is used. */
+    CLOSED,
+    /** The signer failed repeatedly and is skipped. */
+    OPEN,
+    /** A single signature is being attempted to find out whether the signer recovered. */
+    HALF_OPEN
+  }
+
+  private final ImmutableList<Delegate> delegates;
+
+  /** Account of every signer, {@code null} when they differ or are unknown. */
+  @Nullable private final String account;
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final Ticker ticker;
+
+  /** Number of times circuits entered each state, indexed by {@link CircuitState#ordinal()}. */
+  private final AtomicLongArray transitions = new AtomicLongArray(CircuitState.values().length);
+
+  private final LongAdder failovers = new LongAdder();
+
+  /**
+   * Creates a signer that fails over along {@code signers} with default {@link
+   * CircuitBreakerSettings}.
+   *
+   * @param signers signers of the same Fleet Engine role, in order of preference
+   * @throws IllegalArgumentException when {@code signers} is empty
+   */
+  public static FailoverSigner create(List<? extends Signer> signers) {
+    return create(signers, CircuitBreakerSettings.builder().build());
+  }
+
+  /**
+   * Creates a signer that fails over along {@code signers}.
+   *
+   * @param signers signers of the same Fleet Engine role, in order of preference
+   * @param settings settings of the circuit breaker of each signer
+   * @throws IllegalArgumentException when {@code signers} is empty
+   */
+  public static FailoverSigner create(
+      List<? extends Signer> signers, CircuitBreakerSettings settings) {
+    return new FailoverSigner(signers, settings, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  FailoverSigner(List<? extends Signer> signers, CircuitBreakerSettings settings, Ticker ticker) {
+    if (signers.isEmpty()) {
+      throw new IllegalArgumentException("signers must not be empty");
+    }
+    ImmutableList.Builder<Delegate> delegates = ImmutableList.builder();
+    for (Signer signer : signers) {
+      delegates.add(new Delegate(signer));
+    }
+    this.delegates = delegates.build();
+    String account = signers.get(0).account();
+    for (Signer signer : signers) {
+      if (!Objects.equals(account, signer.account())) {
+        account = null;
+      }
+    }
+    this.account = account;
+    this.failureThreshold = Math.max(1, settings.failureThreshold());
+    this.openNanos = settings.openDuration().toNanos();
+    this.ticker = ticker;
+  }
+
+  /**
+   * Signs the token with the first signer whose circuit is not open.
+   *
+   * <p>When that signer fails with a quota or server error, the token is signed with the next one.
+   * Other errors are thrown right away.
+   *
+   * @throws SignerOverloadedException when the circuit of every signer is open
+   */
+  @Override
+  public FleetEngineToken sign(FleetEngineToken token) throws SigningTokenException {
+    Exception lastError = null;
+    for (int i = 0; i < delegates.size(); i++) {
+      Delegate delegate = delegates.get(i);
+      if (!delegate.tryAcquire(ticker.read())) {
+        continue;
+      }
+      try {
+        FleetEngineToken signedToken = delegate.signer.sign(token);
+        delegate.recordSuccess();
+        if (i > 0) {
+          failovers.increment();
+        }
+        return signedToken;
+      } catch (SigningTokenException | RuntimeException e) {
+        if (!SigningErrors.isTransient(e)) {
+          // The signer answered, it is healthy even though the token could not be signed.
+          delegate.recordSuccess();
+          throw e;
+        }
+        delegate.recordFailure(ticker.read());
+        logger.log(Level.FINE, "Signer failed with a quota or server error.", e);
+        lastError = e;
+      } catch (Error e) {
+        // Otherwise a half-open circuit would never be closed or opened again.
+        delegate.recordFailure(ticker.read());
+        throw e;
+      }
+    }
+    if (lastError instanceof RuntimeException) {
+      throw (RuntimeException) lastError;
+    }
+    if (lastError != null) {
+      throw (SigningTokenException) lastError;
+    }
+    throw new SignerOverloadedException("Circuits of every signer are open.");
+  }
+
+  /** Current circuit state of each signer, in the order the signers were given. */
+  public ImmutableList<CircuitState> circuitStates() {
+    ImmutableList.Builder<CircuitState> states = ImmutableList.builder();
+    for (Delegate delegate : delegates) {
+      states.add(delegate.state);
+    }
+    return states.build();
+  }
+
+  /** Number of times a circuit entered {@code state} since this signer was created. */
+  public long transitions(CircuitState state) {
+    return transitions.get(state.ordinal());
+  }
+
+  /** Number of tokens signed by a signer other than the first one. */
+  public long failovers() {
+    return failovers.sum();
+  }
+
+  /** Account shared by every signer, {@code null} when they do not sign with the same account. */
+  @Override
+  @Nullable
+  public String account() {
+    return account;
+  }
+
+  /** Signer guarded by a circuit breaker. */
+  private final class Delegate {
+    final Signer signer;
+
+    volatile CircuitState state = CircuitState.CLOSED;
+
+    /** Consecutive quota or server errors, only updated while holding the lock of this. */
+    volatile int consecutiveFailures;
+
+    /** Ticker time at which an open circuit becomes half-open, guarded by this. */
+    long openUntilNanos;
+
+    Delegate(Signer signer) {
+      this.signer = signer;
+    }
+
+    /** Returns whether a signature can be attempted with the signer. */
+    boolean tryAcquire(long nowNanos) {
+      if (state == CircuitState.CLOSED) {
+        return true;
+      }
+      synchronized (this) {
+        if (state == CircuitState.CLOSED) {
+          return true;
+        }
+        if (state == CircuitState.OPEN && nowNanos - openUntilNanos >= 0) {
+          // This caller attempts the single half-open signature.
+          transition(CircuitState.HALF_OPEN);
+          return true;
+        }
+        return false;
+      }
+    }
+
+    void recordSuccess() {
+      if (state == CircuitState.CLOSED && consecutiveFailures == 0) {
+        return;
+      }
+      synchronized (this) {
+        consecutiveFailures = 0;
+        if (state != CircuitState.CLOSED) {
+          transition(CircuitState.CLOSED);
+          logger.info("Closed circuit of signer after a successful signature.");
+        }
+      }
+    }
+
+    synchronized void recordFailure(long nowNanos) {
+      consecutiveFailures++;
+      if (state == CircuitState.HALF_OPEN
+          || (state == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+        openUntilNanos = nowNanos + openNanos;
+        transition(CircuitState.OPEN);
+        logger.warning(
+            String.format(
+                "Opened circuit of signer after %d consecutive failures.", consecutiveFailures));
+      }
+    }
+
+    private void transition(CircuitState newState) {
+      state = newState;
+      transitions.incrementAndGet(newState.ordinal());
+    }
+  }
+}
@@ -0,0 +1,257 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Cuts the tail latency of a remote signer, eg. {@link ImpersonatedSigner}, by sending a second,
+ * hedged request when the first one is slow, and using whichever signature arrives first.
+ *
+ * <p>The hedged request is sent once the first one has been pending for longer than the configured
+ * percentile of recently observed latencies, so only the slowest requests are hedged. The request
+ * that loses the race is cancelled.
+ *
+ * <p>Signing also honors the {@link SigningDeadline} of the calling thread: no hedge is sent past
+ * it, and outstanding requests are cancelled once it passes.
+ */
+public final class HedgedSigner implements Signer {
+  /** Number of recent latencies the hedge delay is computed from. */
+  private static final int LATENCY_SAMPLES = 128;
+
+  /** Number of latencies observed before the hedge delay is computed from them. */
+  private static final int MIN_LATENCY_SAMPLES = 20;
+
+  private final Signer signer;
+  private final HedgedSignerSettings settings;
+  private final Executor executor;
+
+  /** Ring buffer of the latest signature latencies, in nanoseconds. */
+  private final AtomicLongArray latencySamples = new AtomicLongArray(LATENCY_SAMPLES);
+
+  private final AtomicInteger latencySampleCount = new AtomicInteger();
+  private final LongAdder hedgedRequests = new LongAdder();
+
+  /**
+   * Creates a signer that hedges slow requests made to {@code signer}, on a shared pool of daemon
+   * threads.
+   *
+   * @param signer remote signer, must be safe to call concurrently
+   * @param settings when hedged requests are sent
+   */
+  public static HedgedSigner create(Signer signer, HedgedSignerSettings settings) {
+    return new HedgedSigner(signer, settings, DefaultExecutor.INSTANCE);
+  }
+
+  /**
+   * Creates a signer that hedges slow requests made to {@code signer}.
+   *
+   * @param signer remote signer, must be safe to call concurrently
+   * @param settings when hedged requests are sent
+   * @param executor runs the requests, needs up to two threads per token being signed
+   */
+  public static HedgedSigner create(
+      Signer signer, HedgedSignerSettings settings, Executor executor) {
+    return new HedgedSigner(signer, settings, executor);
+  }
+
+  private HedgedSigner(Signer signer, HedgedSignerSettings settings, Executor executor) {
+    this.signer = signer;
+    this.settings = settings;
+    this.executor = executor;
+  }
+
+  /**
+   * Signs the token, sending a hedged request if the first one is slow.
+   *
+   * @throws SigningDeadlineExceededException if the {@link SigningDeadline} passed before a
+   *     signature arrived
+   * @throws SigningTokenException if every request sent failed, with the error of the first one
+   */
+  @Override
+  public FleetEngineToken sign(FleetEngineToken token) throws SigningTokenException {
+    long startNanos = System.nanoTime();
+    long remainingNanos = SigningDeadline.remainingNanos();
+    if (remainingNanos <= 0) {
+      throw new SigningDeadlineExceededException("Deadline exceeded before signing token.");
+    }
+
+    Race race = new Race(remainingNanos);
+    FutureTask<Void> first = race.send(token);
+    FutureTask<Void> hedge = null;
+    try {
+      long hedgeDelayNanos = hedgeDelayNanos();
+      if (hedgeDelayNanos < remainingNanos) {
+        try {
+          return race.result.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+          hedgedRequests.increment();
+          hedge = race.send(token);
+        }
+      }
+      if (remainingNanos == Long.MAX_VALUE) {
+        return race.result.get();
+      }
+      long waitNanos = remainingNanos - (System.nanoTime() - startNanos);
+      return race.result.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      throw new SigningDeadlineExceededException("Deadline exceeded while signing token.");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SigningTokenException("Interrupted while signing token.", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SigningTokenException) {
+        throw (SigningTokenException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new SigningTokenException("Error while signing token.", cause);
+    } finally {
+      // Stop the request that lost the race, or every request once the deadline passed.
+      first.cancel(true);
+      if (hedge != null) {
+        hedge.cancel(true);
+      }
+    }
+  }
+  /** Account of the wrapped signer. */
+  @Override
+  @Nullable
+  public String account() {
+    return signer.account();
+  }
+
+
+  /** Number of hedged requests sent so far. */
+  public long hedgedRequests() {
+    return hedgedRequests.sum();
+  }
+
+  /** Returns the current delay before a hedged request is sent. */
+  @VisibleForTesting
+  long hedgeDelayNanos() {
+    double percentile = settings.hedgeDelayPercentile();
+    int sampleCount = Math.min(latencySampleCount.get(), LATENCY_SAMPLES);
+    if (percentile <= 0 || sampleCount < MIN_LATENCY_SAMPLES) {
+      return settings.hedgeDelay().toNanos();
+    }
+    long[] samples = new long[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      samples[i] = latencySamples.get(i);
+    }
+    Arrays.sort(samples);
+    int index = (int) Math.ceil(percentile * sampleCount) - 1;
+    return samples[Math.max(0, Math.min(sampleCount - 1, index))];
+  }
+
+  private void recordLatency(long nanos) {
+    int sample = latencySampleCount.getAndIncrement();
+    latencySamples.set(Math.floorMod(sample, LATENCY_SAMPLES), nanos);
+  }
+
+  /** Requests sent for the same token, the first signature completes the result. */
+  private final class Race {
+    final CompletableFuture<FleetEngineToken> result = new CompletableFuture<>();
+
+    /** Signing deadline of the caller in {@link System#nanoTime()} units, if it has one. */
+    private final boolean hasDeadline;
+
+    private final long deadlineNanos;
+
+    private int pending;
+    private Throwable firstError;
+
+    Race(long remainingNanos) {
+      this.hasDeadline = remainingNanos != Long.MAX_VALUE;
+      this.deadlineNanos = hasDeadline ? System.nanoTime() + remainingNanos : 0;
+    }
+
+    /**
+     * Sends a signing request for {@code token} on the executor, with the {@link SigningDeadline}
+     * of the caller set on the executor thread.
+     */
+    FutureTask<Void> send(FleetEngineToken token) {
+      synchronized (this) {
+        pending++;
+      }
+      FutureTask<Void> request =
+          new FutureTask<>(
+              () -> {
+                long startNanos = System.nanoTime();
+                try (SigningDeadline.Scope ignored =
+                    hasDeadline
+                        ? SigningDeadline.withTimeout(
+                            deadlineNanos - startNanos, TimeUnit.NANOSECONDS)
+                        : null) {
+                  FleetEngineToken signedToken = signer.sign(token);
+                  recordLatency(System.nanoTime() - startNanos);
+                  result.complete(signedToken);
+                } catch (Throwable e) {
+                  failed(e);
+                }
+              },
+              null);
+      try {
+        executor.execute(request);
+      } catch (RuntimeException e) {
+        failed(e);
+      }
+      return request;
+    }
+
+    private void failed(Throwable error) {
+      synchronized (this) {
+        if (firstError == null) {
+          firstError = error;
+        }
+        if (--pending > 0) {
+          return;
+        }
+      }
+      result.completeExceptionally(firstError);
+    }
+  }
+
+  /** Default executor of signing requests. */
+  private static final class DefaultExecutor {
+    static final Executor INSTANCE =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("fleetengine-auth-hedge-%d")
+                .build());
+
+    private DefaultExecutor() {}
+  }
+}
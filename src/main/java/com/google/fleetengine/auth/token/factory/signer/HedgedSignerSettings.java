@@ -0,0 +1,61 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import com.google.auto.value.AutoValue;
+import java.time.Duration;
+
+/** Settings for {@link HedgedSigner}. */
+@AutoValue
+public abstract class HedgedSignerSettings {
+  /** Default delay before a hedged request is sent. */
+  public static final Duration DEFAULT_HEDGE_DELAY = Duration.ofMillis(200);
+
+  /** Default latency percentile used as hedge delay. */
+  public static final double DEFAULT_HEDGE_DELAY_PERCENTILE = 0.95;
+
+  /**
+   * Delay after which a hedged request is sent when the first one has not completed yet.
+   *
+   * <p>Only used until enough latencies were observed when {@link #hedgeDelayPercentile()} is set.
+   */
+  public abstract Duration hedgeDelay();
+
+  /**
+   * Percentile, between 0 and 1 exclusive of 0, of recently observed latencies used as hedge delay.
+   * Zero to always wait for {@link #hedgeDelay()}.
+   */
+  public abstract double hedgeDelayPercentile();
+
+  /** Provides a builder for {@link HedgedSignerSettings}. */
+  public static Builder builder() {
+    return new AutoValue_HedgedSignerSettings.Builder()
+        .setHedgeDelay(DEFAULT_HEDGE_DELAY)
+        .setHedgeDelayPercentile(DEFAULT_HEDGE_DELAY_PERCENTILE);
+  }
+
+  /** Builder class for HedgedSignerSettings. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the delay after which a hedged request is sent. */
+    public abstract Builder setHedgeDelay(Duration hedgeDelay);
+
+    /** Sets the percentile of observed latencies used as hedge delay, zero for a fixed delay. */
+    public abstract Builder setHedgeDelayPercentile(double hedgeDelayPercentile);
+
+    /** Builds {@link HedgedSignerSettings}. */
+    public abstract HedgedSignerSettings build();
+  }
+}
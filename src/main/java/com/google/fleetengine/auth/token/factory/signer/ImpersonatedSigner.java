@@ -14,19 +14,16 @@
 
 package com.google.fleetengine.auth.token.factory.signer;
 
-
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.auth0.jwt.exceptions.SignatureVerificationException;
-import com.auth0.jwt.interfaces.DecodedJWT;
+import com.google.auth.http.HttpTransportFactory;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.ImpersonatedCredentials;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.fleetengine.auth.metrics.AuthEventScope;
+import com.google.fleetengine.auth.metrics.AuthEvents;
 import com.google.fleetengine.auth.token.FleetEngineToken;
-import com.google.fleetengine.auth.token.factory.signer.util.CommonConstants;
+import com.google.fleetengine.auth.token.factory.signer.JwtWriter.SigningInput;
 import java.io.IOException;
-import java.util.Arrays;
 
 /**
  * Signs a Fleet Engine Token by impersonating a GCP service account.
@@ -39,13 +36,14 @@ import java.util.Arrays;
  * com.google.fleetengine.auth.token.FleetEngineTokenType} of the token being signed.
  */
 public class ImpersonatedSigner implements Signer {
-  private static final String ALGORITHM_NAME = "RS256";
-  private static final String ALGORITHM_DESCRIPTION = "SHA256withRSA";
   static final ImmutableList<String> IAM_SCOPE =
       ImmutableList.of("https://www.googleapis.com/auth/iam");
 
   @VisibleForTesting final ImpersonatedAccountSignerCredentials impersonatedCredentials;
 
+  /** Writes JWTs issued by the impersonated service account. */
+  private final JwtWriter jwtWriter;
+
   /**
    * Creates signer that impersonates a given service account.
    *
@@ -63,6 +61,30 @@ public class ImpersonatedSigner implements Signer {
     return create(serviceAccount, defaultCredentials);
   }
 
+  /**
+   * Creates signer that impersonates a given service account and sends signing requests through
+   * HTTP transports created by {@code transportFactory}.
+   *
+   * <p>Allows routing the IAM Credentials API requests, eg. through a proxy or to a local stand-in
+   * of the API when testing.
+   *
+   * @param serviceAccount service account to impersonate that will sign Fleet Engine tokens
+   * @param sourceCredentials credentials with the iam.serviceAccounts.signBlob permission on {@code
+   *     serviceAccount}
+   * @param transportFactory creates the HTTP transports signing requests are sent through
+   */
+  public static ImpersonatedSigner create(
+      String serviceAccount,
+      GoogleCredentials sourceCredentials,
+      HttpTransportFactory transportFactory) {
+    ImpersonatedCredentials impersonatedCredentials =
+        createImpersonatedCredentials(serviceAccount, sourceCredentials)
+            .setHttpTransportFactory(transportFactory)
+            .build();
+    return new ImpersonatedSigner(
+        new ImpersonatedAccountSignerCredentials(impersonatedCredentials));
+  }
+
   @VisibleForTesting
   static ImpersonatedSigner create(String serviceAccount, GoogleCredentials defaultCredentials) {
     ImpersonatedCredentials impersonatedCredentials =
@@ -74,6 +96,7 @@ public class ImpersonatedSigner implements Signer {
   @VisibleForTesting
   ImpersonatedSigner(ImpersonatedAccountSignerCredentials credentials) {
     this.impersonatedCredentials = credentials;
+    this.jwtWriter = JwtWriter.create(credentials.getAccount(), null);
   }
 
   /**
@@ -103,50 +126,26 @@ public class ImpersonatedSigner implements Signer {
    */
   @Override
   public FleetEngineToken sign(FleetEngineToken token) {
-    String signedToken =
-        JWT.create()
-            .withIssuer(impersonatedCredentials.getAccount())
-            .withSubject(impersonatedCredentials.getAccount())
-            .withAudience(token.audience())
-            .withExpiresAt(token.expirationTimestamp())
-            .withIssuedAt(token.creationTimestamp())
-            .withClaim(
-                CommonConstants.JWT_CLAIM_AUTHORIZATION_PROPERTY,
-                token.authorizationClaims().toMap())
-            .sign(new ImpersonatedSignerAlgorithm(impersonatedCredentials));
-    return token.toBuilder().setJwt(signedToken).build();
-  }
-
-  /** Signs the JWT with impersonated credentials */
-  static class ImpersonatedSignerAlgorithm extends Algorithm {
-
-    private final ImpersonatedAccountSignerCredentials impersonatedCredentials;
-
-    public ImpersonatedSignerAlgorithm(
-        ImpersonatedAccountSignerCredentials impersonatedCredentials) {
-      super(ALGORITHM_NAME, ALGORITHM_DESCRIPTION);
-      this.impersonatedCredentials = impersonatedCredentials;
-    }
-
-    @Override
-    public void verify(DecodedJWT jwt) {
-      // Since this is a private inner class, this will never be called.
-      throw new SignatureVerificationException(
-          this, new RuntimeException("Verify not implemented"));
-    }
-
-    @Override
-    public byte[] sign(byte[] contentBytes) {
-      throw new SignatureVerificationException(
-          this, new RuntimeException("sign(byte[]) is deprecated and not implemented"));
-    }
-
-    @Override
-    public byte[] sign(byte[] headerBytes, byte[] payloadBytes) {
+    AuthEventScope event = AuthEvents.beginSignerCall(token, this);
+    try {
+      SigningInput signingInput = jwtWriter.writeSigningInput(token);
       // Equivalent of calling signBlob through gcloud
-      return impersonatedCredentials.sign(headerBytes, payloadBytes);
+      byte[] signature = impersonatedCredentials.sign(signingInput.toByteArray());
+      return token.toBuilder().setJwt(signingInput.toJwt(signature)).build();
+    } catch (RuntimeException e) {
+      event.fail(e);
+      throw e;
+    } finally {
+      event.close();
     }
   }
+  /** Email of the service account that signs the tokens. */
+  @Override
+  public String account() {
+    return jwtWriter.issuer();
+  }
+
+
   /** Exists for unit testing purposes. */
   static class ImpersonatedAccountSignerCredentials {
 
@@ -167,15 +166,10 @@ public class ImpersonatedSigner implements Signer {
     /**
      * Signs JWT with underlying service account credentials.
      *
-     * @param headerBytes JWT header
-     * @param payloadBytes JWT payload
+     * @param contentBytes JWT header and payload, separated by a {@code '.'}
      * @return signed bytes
      */
-    byte[] sign(byte[] headerBytes, byte[] payloadBytes) {
-      byte[] contentBytes =
-          Arrays.copyOf(headerBytes, headerBytes.length + 1 + payloadBytes.length);
-      contentBytes[headerBytes.length] = (byte) '.';
-      System.arraycopy(payloadBytes, 0, contentBytes, headerBytes.length + 1, payloadBytes.length);
+    byte[] sign(byte[] contentBytes) {
       return credentials.sign(contentBytes);
     }
   }
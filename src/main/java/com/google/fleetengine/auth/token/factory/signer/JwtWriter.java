@@ -0,0 +1,327 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.factory.signer.util.CommonConstants;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Writes RS256 JWTs for Fleet Engine tokens.
+ *
+ * <p>The header segment is encoded once per writer and the constant start of the payload, which
+ * holds the {@code iss}, {@code sub} and {@code aud} claims, once per audience. Each token only
+ * writes its timestamps and authorization claims into a buffer that is reused by the calling
+ * thread, and base64url-encodes it straight into the signing input without intermediate strings.
+ * Encoded audiences and claim names are kept in bounded caches.
+ */
+final class JwtWriter {
+  private static final String ALGORITHM_NAME = "RS256";
+  private static final String TOKEN_TYPE = "JWT";
+
+  private static final byte[] BASE64_URL_ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(US_ASCII);
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(US_ASCII);
+
+  private static final byte[] EXPIRES_AT_PREFIX = ascii(",\"exp\":");
+  private static final byte[] AUTHORIZATION_PREFIX =
+      ascii(",\"" + CommonConstants.JWT_CLAIM_AUTHORIZATION_PROPERTY + "\":{");
+  private static final byte[] PAYLOAD_SUFFIX = ascii("}}");
+
+  /** Most claim names and audiences to keep encoded, others are encoded again when evicted. */
+  private static final int MAXIMUM_CLAIM_NAMES = 64;
+
+  private static final int MAXIMUM_AUDIENCES = 16;
+
+  /** JSON encoded {@code "name":} of authorization claims, eg. {@code "tripid":}. */
+  private static final LoadingCache<String, byte[]> claimNames =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAXIMUM_CLAIM_NAMES)
+          .build(CacheLoader.from(JwtWriter::claimName));
+
+  private static final ThreadLocal<SigningInput> signingInputs =
+      ThreadLocal.withInitial(SigningInput::new);
+
+  /** Base64url encoded header followed by the {@code '.'} separator. */
+  private final byte[] encodedHeader;
+
+  /** Issuer and subject of every token written. */
+  @Nullable private final String issuer;
+
+  /** JSON encoded payload up to the {@code iat} value, per audience. */
+  private final LoadingCache<String, byte[]> payloadPrefixes;
+
+  /**
+   * Creates a writer of tokens issued by {@code issuer}.
+   *
+   * @param issuer value of the {@code iss} and {@code sub} claims
+   * @param keyId value of the {@code kid} header, omitted when {@code null}
+   */
+  static JwtWriter create(@Nullable String issuer, @Nullable String keyId) {
+    return new JwtWriter(issuer, keyId);
+  }
+
+  private JwtWriter(@Nullable String issuer, @Nullable String keyId) {
+    this.issuer = issuer;
+    this.payloadPrefixes =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_AUDIENCES)
+            .build(CacheLoader.from(this::payloadPrefix));
+
+    ByteArrayBuilder header = new ByteArrayBuilder(64);
+    header.write(ascii("{\"alg\":\"" + ALGORITHM_NAME + "\",\"typ\":\"" + TOKEN_TYPE + "\""));
+    if (keyId != null) {
+      header.write(ascii(",\"kid\":"));
+      header.writeJsonString(keyId);
+    }
+    header.write((byte) '}');
+    ByteArrayBuilder encoded = new ByteArrayBuilder(base64UrlLength(header.length) + 1);
+    encoded.writeBase64Url(header.bytes, header.length);
+    encoded.write((byte) '.');
+    this.encodedHeader = encoded.toByteArray();
+  }
+
+  /** Issuer and subject of every token written. */
+  @Nullable
+  String issuer() {
+    return issuer;
+  }
+
+  /**
+   * Writes the {@code header.payload} signing input of {@code token}.
+   *
+   * <p>The returned input is owned by the calling thread and is overwritten by the next call on
+   * that thread, so it must be used before writing another token.
+   */
+  SigningInput writeSigningInput(FleetEngineToken token) {
+    SigningInput signingInput = signingInputs.get();
+    ByteArrayBuilder payload = signingInput.payload;
+    payload.reset();
+    payload.write(payloadPrefixes.getUnchecked(token.audience()));
+    payload.writeLong(TimeUnit.MILLISECONDS.toSeconds(token.creationTimestamp().getTime()));
+    payload.write(EXPIRES_AT_PREFIX);
+    payload.writeLong(TimeUnit.MILLISECONDS.toSeconds(token.expirationTimestamp().getTime()));
+    payload.write(AUTHORIZATION_PREFIX);
+    boolean first = true;
+    for (Map.Entry<String, String> claim : token.authorizationClaims().toMap().entrySet()) {
+      if (!first) {
+        payload.write((byte) ',');
+      }
+      first = false;
+      payload.write(claimNames.getUnchecked(claim.getKey()));
+      payload.writeJsonString(claim.getValue());
+    }
+    payload.write(PAYLOAD_SUFFIX);
+
+    ByteArrayBuilder content = signingInput.content;
+    content.reset();
+    content.ensureCapacity(
+        encodedHeader.length + base64UrlLength(payload.length) + 1 + base64UrlLength(512));
+    content.write(encodedHeader);
+    content.writeBase64Url(payload.bytes, payload.length);
+    return signingInput;
+  }
+
+  private byte[] payloadPrefix(String audience) {
+    ByteArrayBuilder prefix = new ByteArrayBuilder(128);
+    prefix.write(ascii("{\"iss\":"));
+    prefix.writeJsonString(issuer);
+    prefix.write(ascii(",\"sub\":"));
+    prefix.writeJsonString(issuer);
+    prefix.write(ascii(",\"aud\":"));
+    prefix.writeJsonString(audience);
+    prefix.write(ascii(",\"iat\":"));
+    return prefix.toByteArray();
+  }
+
+  private static byte[] claimName(String name) {
+    ByteArrayBuilder claimName = new ByteArrayBuilder(name.length() + 3);
+    claimName.writeJsonString(name);
+    claimName.write((byte) ':');
+    return claimName.toByteArray();
+  }
+
+  private static int base64UrlLength(int length) {
+    return (length / 3) * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(US_ASCII);
+  }
+
+  /** Signing input of a token, reused by the thread that wrote it. */
+  static final class SigningInput {
+    private final ByteArrayBuilder payload = new ByteArrayBuilder(512);
+    private final ByteArrayBuilder content = new ByteArrayBuilder(1024);
+
+    private SigningInput() {}
+
+    /** Adds the signing input to {@code signature}. */
+    void update(Signature signature) throws SignatureException {
+      signature.update(content.bytes, 0, content.length);
+    }
+
+    /** Copy of the signing input. */
+    byte[] toByteArray() {
+      return content.toByteArray();
+    }
+
+    /** Returns the compact serialization of the JWT with the given {@code signature}. */
+    String toJwt(byte[] signature) {
+      int signingInputLength = content.length;
+      content.write((byte) '.');
+      content.writeBase64Url(signature, signature.length);
+      String jwt = new String(content.bytes, 0, content.length, US_ASCII);
+      content.length = signingInputLength;
+      return jwt;
+    }
+  }
+
+  /** Growable byte array with JSON and base64url writers. */
+  private static final class ByteArrayBuilder {
+    private byte[] bytes;
+    private int length;
+
+    ByteArrayBuilder(int initialCapacity) {
+      this.bytes = new byte[initialCapacity];
+    }
+
+    void reset() {
+      length = 0;
+    }
+
+    void ensureCapacity(int capacity) {
+      if (capacity > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+      }
+    }
+
+    void write(byte value) {
+      ensureCapacity(length + 1);
+      bytes[length++] = value;
+    }
+
+    void write(byte[] values) {
+      ensureCapacity(length + values.length);
+      System.arraycopy(values, 0, bytes, length, values.length);
+      length += values.length;
+    }
+
+    void writeLong(long value) {
+      if (value < 0) {
+        write((byte) '-');
+        if (value == Long.MIN_VALUE) {
+          write(ascii("9223372036854775808"));
+          return;
+        }
+        value = -value;
+      }
+      int digits = 1;
+      for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+        digits++;
+      }
+      ensureCapacity(length + digits);
+      for (int i = length + digits - 1; i >= length; i--) {
+        bytes[i] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+      length += digits;
+    }
+
+    /** Writes {@code value} as a quoted and escaped JSON string, or {@code null}. */
+    void writeJsonString(@Nullable String value) {
+      if (value == null) {
+        write(ascii("null"));
+        return;
+      }
+      write((byte) '"');
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '"' || c == '\\') {
+          write((byte) '\\');
+          write((byte) c);
+        } else if (c < 0x20) {
+          writeUnicodeEscape(c);
+        } else if (c < 0x80) {
+          write((byte) c);
+        } else if (c < 0x800) {
+          write((byte) (0xc0 | (c >> 6)));
+          write((byte) (0x80 | (c & 0x3f)));
+        } else if (Character.isHighSurrogate(c)
+            && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          write((byte) (0xf0 | (codePoint >> 18)));
+          write((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+          write((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+          write((byte) (0x80 | (codePoint & 0x3f)));
+        } else if (Character.isSurrogate(c)) {
+          // Unpaired surrogates cannot be encoded as UTF-8.
+          writeUnicodeEscape(c);
+        } else {
+          write((byte) (0xe0 | (c >> 12)));
+          write((byte) (0x80 | ((c >> 6) & 0x3f)));
+          write((byte) (0x80 | (c & 0x3f)));
+        }
+      }
+      write((byte) '"');
+    }
+
+    private void writeUnicodeEscape(char c) {
+      write((byte) '\\');
+      write((byte) 'u');
+      write(HEX_DIGITS[(c >> 12) & 0xf]);
+      write(HEX_DIGITS[(c >> 8) & 0xf]);
+      write(HEX_DIGITS[(c >> 4) & 0xf]);
+      write(HEX_DIGITS[c & 0xf]);
+    }
+
+    /** Writes the first {@code count} bytes of {@code source} base64url encoded, unpadded. */
+    void writeBase64Url(byte[] source, int count) {
+      ensureCapacity(length + base64UrlLength(count));
+      int i = 0;
+      for (; i + 2 < count; i += 3) {
+        int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+        bytes[length++] = BASE64_URL_ALPHABET[(bits >>> 18) & 0x3f];
+        bytes[length++] = BASE64_URL_ALPHABET[(bits >>> 12) & 0x3f];
+        bytes[length++] = BASE64_URL_ALPHABET[(bits >>> 6) & 0x3f];
+        bytes[length++] = BASE64_URL_ALPHABET[bits & 0x3f];
+      }
+      int remaining = count - i;
+      if (remaining > 0) {
+        int bits = (source[i] & 0xff) << 16 | (remaining == 2 ? (source[i + 1] & 0xff) << 8 : 0);
+        bytes[length++] = BASE64_URL_ALPHABET[(bits >>> 18) & 0x3f];
+        bytes[length++] = BASE64_URL_ALPHABET[(bits >>> 12) & 0x3f];
+        if (remaining == 2) {
+          bytes[length++] = BASE64_URL_ALPHABET[(bits >>> 6) & 0x3f];
+        }
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, length);
+    }
+  }
+}
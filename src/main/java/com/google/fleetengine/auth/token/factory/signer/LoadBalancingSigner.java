@@ -0,0 +1,246 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Spreads signing across several signers that sign for the same Fleet Engine role, eg. {@link
+ * ImpersonatedSigner}s of equivalent service accounts.
+ *
+ * <p>IAM rate limits {@code signBlob} calls per service account, so pooling signers of several
+ * accounts raises the number of tokens that can be minted per second accordingly.
+ *
+ * <p>Each token is signed by the member with the lowest expected wait, ie. its observed latency
+ * multiplied by the number of signatures it has in flight. A member that fails with a quota or
+ * server error is ejected from the pool for a while and the token is signed by another member.
+ * When every member is ejected, the one whose ejection ends first is still used.
+ *
+ * <pre>{@code
+ * Signer consumerSigner =
+ *     LoadBalancingSigner.create(
+ *         ImmutableList.of(
+ *             ImpersonatedSigner.create("consumer-1@gcp-project.iam.gserviceaccount.com"),
+ *             ImpersonatedSigner.create("consumer-2@gcp-project.iam.gserviceaccount.com")));
+ * }</pre>
+ */
+public final class LoadBalancingSigner implements Signer {
+  private static final Logger logger = Logger.getLogger(LoadBalancingSigner.class.getName());
+
+  /** Duration members are ejected for by default after a quota or server error. */
+  public static final Duration DEFAULT_EJECTION_DURATION = Duration.ofSeconds(10);
+
+  /** Weight of the latest signature in the observed latency of a member. */
+  private static final double LATENCY_DECAY = 0.2;
+
+  private final ImmutableList<Member> members;
+
+  /** Account of every member, {@code null} when they differ or are unknown. */
+  @Nullable private final String account;
+
+  private final long ejectionNanos;
+  private final Ticker ticker;
+
+  /** Rotates the member considered first, so that members with equal costs share the load. */
+  private final AtomicInteger nextStart = new AtomicInteger();
+
+  /**
+   * Creates a signer that balances signing across {@code signers}, ejecting failing members for
+   * {@link #DEFAULT_EJECTION_DURATION}.
+   *
+   * @param signers signers of the same Fleet Engine role
+   * @throws IllegalArgumentException when {@code signers} is empty
+   */
+  public static LoadBalancingSigner create(List<? extends Signer> signers) {
+    return create(signers, DEFAULT_EJECTION_DURATION);
+  }
+
+  /**
+   * Creates a signer that balances signing across {@code signers}.
+   *
+   * @param signers signers of the same Fleet Engine role
+   * @param ejectionDuration how long a member that failed with a quota or server error is avoided
+   * @throws IllegalArgumentException when {@code signers} is empty
+   */
+  public static LoadBalancingSigner create(
+      List<? extends Signer> signers, Duration ejectionDuration) {
+    return new LoadBalancingSigner(signers, ejectionDuration, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  LoadBalancingSigner(List<? extends Signer> signers, Duration ejectionDuration, Ticker ticker) {
+    if (signers.isEmpty()) {
+      throw new IllegalArgumentException("signers must not be empty");
+    }
+    ImmutableList.Builder<Member> members = ImmutableList.builder();
+    for (Signer signer : signers) {
+      members.add(new Member(signer));
+    }
+    this.members = members.build();
+    String account = signers.get(0).account();
+    for (Signer signer : signers) {
+      if (!Objects.equals(account, signer.account())) {
+        account = null;
+      }
+    }
+    this.account = account;
+    this.ejectionNanos = ejectionDuration.toNanos();
+    this.ticker = ticker;
+  }
+
+  /**
+   * Signs the token with the member expected to answer first.
+   *
+   * <p>When the member fails with a quota or server error, it is ejected and the next best member
+   * signs the token, until every member has been tried once. Other errors are thrown right away.
+   */
+  @Override
+  public FleetEngineToken sign(FleetEngineToken token) throws SigningTokenException {
+    Member tried = null;
+    for (int attempt = 0; ; attempt++) {
+      Member member = pick(tried);
+      long startNanos = ticker.read();
+      member.outstanding.incrementAndGet();
+      try {
+        FleetEngineToken signedToken = member.signer.sign(token);
+        member.recordLatency(ticker.read() - startNanos);
+        return signedToken;
+      } catch (SigningTokenException | RuntimeException e) {
+        if (!SigningErrors.isTransient(e)) {
+          throw e;
+        }
+        member.ejectedUntilNanos = ticker.read() + ejectionNanos;
+        member.ejected = true;
+        logger.log(Level.WARNING, "Ejected signer after a quota or server error.", e);
+        if (attempt + 1 >= members.size()) {
+          throw e;
+        }
+        tried = member;
+      } finally {
+        member.outstanding.decrementAndGet();
+      }
+    }
+  }
+
+  /** Account shared by every member, {@code null} when they do not sign with the same account. */
+  @Override
+  @Nullable
+  public String account() {
+    return account;
+  }
+
+  /** Number of members that are not ejected. */
+  public int availableSigners() {
+    long nowNanos = ticker.read();
+    int available = 0;
+    for (Member member : members) {
+      if (!member.isEjected(nowNanos)) {
+        available++;
+      }
+    }
+    return available;
+  }
+
+  /**
+   * Returns the member with the lowest cost that is not ejected, or the one whose ejection ends
+   * first when every member is ejected.
+   *
+   * @param excluded member that just failed, only picked when it is the sole member
+   */
+  private Member pick(Member excluded) {
+    long nowNanos = ticker.read();
+    // Members without latency samples are expected to be as fast as the fastest known member.
+    double unknownLatencyNanos = Double.MAX_VALUE;
+    for (Member member : members) {
+      double latencyNanos = member.latencyNanos;
+      if (latencyNanos > 0 && latencyNanos < unknownLatencyNanos) {
+        unknownLatencyNanos = latencyNanos;
+      }
+    }
+    if (unknownLatencyNanos == Double.MAX_VALUE) {
+      unknownLatencyNanos = 1;
+    }
+
+    int start = Math.floorMod(nextStart.getAndIncrement(), members.size());
+    Member best = null;
+    double bestCost = Double.MAX_VALUE;
+    Member leastEjected = null;
+    for (int i = 0; i < members.size(); i++) {
+      Member member = members.get((start + i) % members.size());
+      if (member == excluded && members.size() > 1) {
+        continue;
+      }
+      if (member.isEjected(nowNanos)) {
+        if (leastEjected == null || member.ejectedUntilNanos < leastEjected.ejectedUntilNanos) {
+          leastEjected = member;
+        }
+        continue;
+      }
+      double cost = member.cost(unknownLatencyNanos);
+      if (cost < bestCost) {
+        best = member;
+        bestCost = cost;
+      }
+    }
+    return best != null ? best : leastEjected;
+  }
+
+  /** Signer of the pool and what is known about its load. */
+  private static final class Member {
+    final Signer signer;
+
+    /** Signatures in flight. */
+    final AtomicInteger outstanding = new AtomicInteger();
+
+    /** Exponentially weighted moving average of signature latencies, 0 until measured. */
+    volatile double latencyNanos;
+
+    /** Whether the member was ever ejected, {@link #ejectedUntilNanos} is meaningless otherwise. */
+    volatile boolean ejected;
+
+    /** Ticker time until which the member is ejected. */
+    volatile long ejectedUntilNanos;
+
+    Member(Signer signer) {
+      this.signer = signer;
+    }
+
+    boolean isEjected(long nowNanos) {
+      return ejected && nowNanos - ejectedUntilNanos < 0;
+    }
+
+    /** Expected wait for a new signature. */
+    double cost(double unknownLatencyNanos) {
+      double expectedLatencyNanos = latencyNanos > 0 ? latencyNanos : unknownLatencyNanos;
+      return expectedLatencyNanos * (outstanding.get() + 1);
+    }
+
+    void recordLatency(long nanos) {
+      double previous = latencyNanos;
+      // Racy updates only lose samples, which is fine for a moving average.
+      latencyNanos = previous == 0 ? nanos : previous + LATENCY_DECAY * (nanos - previous);
+    }
+  }
+}
@@ -16,11 +16,10 @@ package com.google.fleetengine.auth.token.factory.signer;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.google.common.collect.ImmutableMap;
+import com.google.fleetengine.auth.metrics.AuthEventScope;
+import com.google.fleetengine.auth.metrics.AuthEvents;
 import com.google.fleetengine.auth.token.FleetEngineToken;
-import com.google.fleetengine.auth.token.factory.signer.util.CommonConstants;
+import com.google.fleetengine.auth.token.factory.signer.JwtWriter.SigningInput;
 import com.google.fleetengine.auth.token.factory.signer.util.RSAPrivateKeyUtils;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -28,6 +27,8 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.util.logging.Logger;
@@ -35,27 +36,33 @@ import java.util.logging.Logger;
 /**
  * Signs Fleet Engine tokens directly with a provided private key. Private key can either be
  * provided directly or through the GCP generated key file.
+ *
+ * <p>The private key is parsed and the JWT header is encoded once, when the signer is created.
+ * Each thread reuses its own {@link Signature} instance, so signing a token only encodes the
+ * payload and computes the RSA signature.
  */
 public final class LocalSigner implements Signer {
 
   private static final Logger logger = Logger.getLogger(LocalSigner.class.getName());
 
-  // JWT claim name of the private key id provided in the header.
-  private static final String JWT_CLAIM_HEADER_KID_PROPERTY = "kid";
+  private static final String ALGORITHM_DESCRIPTION = "SHA256withRSA";
 
   // Json property names on service account key files.
   private static final String CLIENT_EMAIL_PROPERTY = "client_email";
   private static final String PRIVATE_KEY_ID_PROPERTY = "private_key_id";
   private static final String PRIVATE_KEY_PROPERTY = "private_key";
 
-  /** Client email. */
-  private final String clientEmail;
+  /** Writes JWTs issued by the client email, with the private key id in the header. */
+  private final JwtWriter jwtWriter;
 
-  /** Id of private key used when signing tokens. */
-  private final String privateKeyId;
+  /** Private key used for signing tokens, {@code null} when it could not be parsed. */
+  private final RSAPrivateKey privateKey;
 
-  /** Private key used for signing tokens. */
-  private final String privateKey;
+  /** Reason the private key could not be parsed, reported on each call to {@link #sign}. */
+  private final InvalidKeySpecException privateKeyException;
+
+  /** Signature instances initialized with {@link #privateKey}, one per thread. */
+  private final ThreadLocal<Signature> signatures;
 
   /**
    * Creates a local signer based on the given parameters.
@@ -82,31 +89,73 @@ public final class LocalSigner implements Signer {
   }
 
   private LocalSigner(String clientEmail, String privateKeyId, String privateKey) {
-    this.clientEmail = clientEmail;
-    this.privateKeyId = privateKeyId;
-    this.privateKey = privateKey;
+    this.jwtWriter = JwtWriter.create(clientEmail, privateKeyId);
+
+    RSAPrivateKey parsedKey = null;
+    InvalidKeySpecException keyException = null;
+    try {
+      parsedKey = RSAPrivateKeyUtils.getPrivateKey(privateKey);
+    } catch (InvalidKeySpecException | IllegalArgumentException e) {
+      // Invalid keys are reported when signing so that creating the signer never throws.
+      keyException =
+          e instanceof InvalidKeySpecException
+              ? (InvalidKeySpecException) e
+              : new InvalidKeySpecException("Private key is not valid base64.", e);
+    }
+    this.privateKey = parsedKey;
+    this.privateKeyException = keyException;
+    this.signatures = ThreadLocal.withInitial(this::createSignature);
   }
 
   /** {@inheritDoc} */
   @Override
   public FleetEngineToken sign(FleetEngineToken token) throws SigningTokenException {
+    AuthEventScope event = AuthEvents.beginSignerCall(token, this);
+    try {
+      return signWithPrivateKey(token);
+    } catch (SigningTokenException | RuntimeException e) {
+      event.fail(e);
+      throw e;
+    } finally {
+      event.close();
+    }
+  }
+  /** Email of the service account that signs the tokens. */
+  @Override
+  public String account() {
+    return jwtWriter.issuer();
+  }
+
+
+  private FleetEngineToken signWithPrivateKey(FleetEngineToken token)
+      throws SigningTokenException {
+    if (privateKey == null) {
+      throw new SigningTokenException("Error while signing JWT.", privateKeyException);
+    }
+
+    SigningInput signingInput = jwtWriter.writeSigningInput(token);
+    byte[] signatureBytes;
     try {
-      String signedToken =
-          JWT.create()
-              .withHeader(getHeader(this.privateKeyId))
-              .withExpiresAt(token.expirationTimestamp())
-              .withIssuer(this.clientEmail)
-              .withSubject(this.clientEmail)
-              .withAudience(token.audience())
-              .withIssuedAt(token.creationTimestamp())
-              .withClaim(
-                  CommonConstants.JWT_CLAIM_AUTHORIZATION_PROPERTY,
-                  token.authorizationClaims().toMap())
-              .sign(getAlgorithm(this.privateKey));
-      return token.toBuilder().setJwt(signedToken).build();
-    } catch (InvalidKeySpecException e) {
+      Signature signature = signatures.get();
+      signingInput.update(signature);
+      signatureBytes = signature.sign();
+    } catch (GeneralSecurityException | RuntimeException e) {
+      // Do not reuse a signature instance that may be left in an unknown state.
+      signatures.remove();
       throw new SigningTokenException("Error while signing JWT.", e);
     }
+    return token.toBuilder().setJwt(signingInput.toJwt(signatureBytes)).build();
+  }
+
+  private Signature createSignature() {
+    try {
+      Signature signature = Signature.getInstance(ALGORITHM_DESCRIPTION);
+      signature.initSign(privateKey);
+      return signature;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(
+          String.format("Unable to initialize [%s] signature.", ALGORITHM_DESCRIPTION), e);
+    }
   }
 
   private static JsonObject readGCPKeyFile(InputStream keyStream) {
@@ -118,24 +167,4 @@ public final class LocalSigner implements Signer {
       throw new IllegalStateException(exception);
     }
   }
-
-  /**
-   * Generates a map with JWT headers containing private key ID information.
-   *
-   * @param keyId private key id.
-   */
-  private static ImmutableMap<String, Object> getHeader(String keyId) {
-    return ImmutableMap.of(JWT_CLAIM_HEADER_KID_PROPERTY, keyId);
-  }
-
-  /**
-   * Generates the algorithm being used to sign the JWT based on the provided private key string.
-   *
-   * @param key private key.
-   * @throws InvalidKeySpecException if the provided private key is invalid.
-   */
-  private static Algorithm getAlgorithm(String key) throws InvalidKeySpecException {
-    RSAPrivateKey privateKey = RSAPrivateKeyUtils.getPrivateKey(key);
-    return Algorithm.RSA256(null, privateKey);
-  }
 }
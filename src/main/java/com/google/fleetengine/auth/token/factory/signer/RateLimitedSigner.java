@@ -0,0 +1,152 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Limits the rate and concurrency of signatures made by another signer, eg. an {@link
+ * ImpersonatedSigner} whose IAM quota is shared.
+ *
+ * <p>Requests that cannot be signed right away wait in a bounded queue for at most {@link
+ * RateLimitedSignerSettings#maxWait()}. Requests arriving when the queue is full, or that waited
+ * for too long, fail with a {@link SignerOverloadedException} instead of adding to the load of the
+ * signer. This keeps signing latency bounded during bursts of cache misses.
+ *
+ * <p>Signers of different token types can be limited separately. Giving lower priority token types
+ * tighter settings sheds their requests first and leaves the shared quota to the others.
+ */
+public final class RateLimitedSigner implements Signer {
+  private final Signer signer;
+  private final RateLimitedSignerSettings settings;
+
+  /** Limits the rate of signatures, {@code null} when not limited. */
+  @Nullable private final RateLimiter rateLimiter;
+
+  private final Semaphore concurrencyPermits;
+  private final AtomicInteger queuedRequests = new AtomicInteger();
+  private final Ticker ticker;
+
+  /**
+   * Creates a signer that signs with {@code signer} within the limits of {@code settings}.
+   *
+   * @param signer signer doing the actual signing
+   * @param settings limits on the requests made to {@code signer}
+   */
+  public static RateLimitedSigner create(Signer signer, RateLimitedSignerSettings settings) {
+    RateLimiter rateLimiter =
+        Double.isInfinite(settings.permitsPerSecond())
+            ? null
+            : RateLimiter.create(settings.permitsPerSecond());
+    return new RateLimitedSigner(signer, settings, rateLimiter, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  RateLimitedSigner(
+      Signer signer,
+      RateLimitedSignerSettings settings,
+      @Nullable RateLimiter rateLimiter,
+      Ticker ticker) {
+    this.signer = signer;
+    this.settings = settings;
+    this.rateLimiter = rateLimiter;
+    this.concurrencyPermits = new Semaphore(settings.maxConcurrentRequests(), true);
+    this.ticker = ticker;
+  }
+
+  /**
+   * Signs the token once a concurrency and a rate permit are available.
+   *
+   * @throws SignerOverloadedException if the queue of waiting requests is full or no permit became
+   *     available within {@link RateLimitedSignerSettings#maxWait()}
+   */
+  @Override
+  public FleetEngineToken sign(FleetEngineToken token) throws SigningTokenException {
+    acquirePermits();
+    try {
+      return signer.sign(token);
+    } finally {
+      concurrencyPermits.release();
+    }
+  }
+  /** Account of the wrapped signer. */
+  @Override
+  @Nullable
+  public String account() {
+    return signer.account();
+  }
+
+
+  /** Number of requests currently waiting for a permit. */
+  public int queuedRequests() {
+    return queuedRequests.get();
+  }
+
+  /**
+   * Acquires a concurrency permit and then a rate permit, when rate limited.
+   *
+   * <p>The rate permit is only taken once the request has been admitted, so that rejected requests
+   * do not use up the rate of the requests that are signed.
+   */
+  private void acquirePermits() throws SigningTokenException {
+    boolean concurrencyAcquired = concurrencyPermits.tryAcquire();
+    if (concurrencyAcquired && (rateLimiter == null || rateLimiter.tryAcquire())) {
+      return;
+    }
+
+    if (queuedRequests.incrementAndGet() > settings.maxQueuedRequests()) {
+      queuedRequests.decrementAndGet();
+      if (concurrencyAcquired) {
+        concurrencyPermits.release();
+      }
+      throw new SignerOverloadedException("Too many requests are waiting to be signed.");
+    }
+    boolean admitted = false;
+    try {
+      long deadlineNanos = ticker.read() + settings.maxWait().toNanos();
+      if (!concurrencyAcquired) {
+        if (!concurrencyPermits.tryAcquire(remainingNanos(deadlineNanos), TimeUnit.NANOSECONDS)) {
+          throw new SignerOverloadedException("Timed out waiting for in flight signatures.");
+        }
+        concurrencyAcquired = true;
+      }
+      if (rateLimiter != null
+          && !rateLimiter.tryAcquire(1, remainingNanos(deadlineNanos), TimeUnit.NANOSECONDS)) {
+        throw new SignerOverloadedException(
+            "Timed out waiting for the signing rate limit, or it would have been exceeded.");
+      }
+      admitted = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SigningTokenException("Interrupted while waiting to sign token.", e);
+    } finally {
+      queuedRequests.decrementAndGet();
+      if (!admitted && concurrencyAcquired) {
+        concurrencyPermits.release();
+      }
+    }
+  }
+
+  private long remainingNanos(long deadlineNanos) {
+    return Math.max(0, deadlineNanos - ticker.read());
+  }
+}
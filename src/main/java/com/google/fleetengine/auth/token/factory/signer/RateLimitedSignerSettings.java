@@ -0,0 +1,76 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import com.google.auto.value.AutoValue;
+import java.time.Duration;
+
+/** Settings for {@link RateLimitedSigner}. */
+@AutoValue
+public abstract class RateLimitedSignerSettings {
+  /** Default maximum number of requests waiting for a permit. */
+  public static final int DEFAULT_MAX_QUEUED_REQUESTS = 64;
+
+  /** Default maximum time a request waits for a permit. */
+  public static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(1);
+
+  /**
+   * Maximum number of signatures started per second, {@link Double#POSITIVE_INFINITY} when not
+   * limited.
+   *
+   * <p>Up to one second worth of unused permits are saved for bursts.
+   */
+  public abstract double permitsPerSecond();
+
+  /** Maximum number of signatures in flight, {@link Integer#MAX_VALUE} when not limited. */
+  public abstract int maxConcurrentRequests();
+
+  /**
+   * Maximum number of requests waiting for a permit. Requests arriving once the queue is full are
+   * rejected right away.
+   */
+  public abstract int maxQueuedRequests();
+
+  /** Maximum time a request waits for a permit before being rejected. */
+  public abstract Duration maxWait();
+
+  /** Provides a builder for {@link RateLimitedSignerSettings}. */
+  public static Builder builder() {
+    return new AutoValue_RateLimitedSignerSettings.Builder()
+        .setPermitsPerSecond(Double.POSITIVE_INFINITY)
+        .setMaxConcurrentRequests(Integer.MAX_VALUE)
+        .setMaxQueuedRequests(DEFAULT_MAX_QUEUED_REQUESTS)
+        .setMaxWait(DEFAULT_MAX_WAIT);
+  }
+
+  /** Builder class for RateLimitedSignerSettings. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the maximum number of signatures started per second. */
+    public abstract Builder setPermitsPerSecond(double permitsPerSecond);
+
+    /** Sets the maximum number of signatures in flight. */
+    public abstract Builder setMaxConcurrentRequests(int maxConcurrentRequests);
+
+    /** Sets the maximum number of requests waiting for a permit, 0 to never wait. */
+    public abstract Builder setMaxQueuedRequests(int maxQueuedRequests);
+
+    /** Sets the maximum time a request waits for a permit. */
+    public abstract Builder setMaxWait(Duration maxWait);
+
+    /** Builds {@link RateLimitedSignerSettings}. */
+    public abstract RateLimitedSignerSettings build();
+  }
+}
@@ -15,6 +15,10 @@
 package com.google.fleetengine.auth.token.factory.signer;
 
 import com.google.fleetengine.auth.token.FleetEngineToken;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
 
 /** Signs Fleet Engine tokens with an RSA algorithm. */
 public interface Signer {
@@ -27,4 +31,42 @@ public interface Signer {
    *     JWT
    */
   FleetEngineToken sign(FleetEngineToken token) throws SigningTokenException;
+
+  /**
+   * Signs a provided Fleet Engine token without blocking the calling thread.
+   *
+   * <p>The default implementation calls {@link #sign(FleetEngineToken)} on {@code executor}.
+   * Signers that can sign without blocking a thread should override it.
+   *
+   * @param token Fleet Engine token to sign
+   * @param executor runs blocking work needed to sign the token
+   * @return future of the same value as the {@code token} parameter except with the JWT property
+   *     set to a valid JWT, completed exceptionally with a {@link SigningTokenException} if the
+   *     token could not be signed
+   */
+  default CompletableFuture<FleetEngineToken> signAsync(
+      FleetEngineToken token, Executor executor) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return sign(token);
+          } catch (SigningTokenException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
+  /**
+   * Service account that signs the tokens, ie. the issuer of the JWTs.
+   *
+   * <p>Lets state managers that keep tokens beyond the lifetime of the signer tell which account a
+   * token was signed by. The default implementation returns {@code null}.
+   *
+   * @return email of the service account, {@code null} when unknown
+   */
+  @Nullable
+  default String account() {
+    return null;
+  }
 }
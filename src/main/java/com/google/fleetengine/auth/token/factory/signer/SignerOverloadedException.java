@@ -0,0 +1,37 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+/**
+ * Signals that a token was not signed because its signer was already handling as many requests as
+ * it is allowed to, or was known to be failing.
+ *
+ * <p>Unlike other signing errors, the request was rejected before reaching the signer, so retrying
+ * after a short delay is expected to succeed.
+ *
+ * @see RateLimitedSigner
+ * @see FailoverSigner
+ */
+public class SignerOverloadedException extends SigningTokenException {
+  /**
+   * Constructs a {@code SignerOverloadedException} with the specified detail message.
+   *
+   * @param message The detail message (which is saved for later retrieval by the {@link
+   *     #getMessage()} method)
+   */
+  public SignerOverloadedException(String message) {
+    super(message);
+  }
+}
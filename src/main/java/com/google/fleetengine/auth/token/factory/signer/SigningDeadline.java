@@ -0,0 +1,80 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline of the request a token is being signed for, bound to the signing thread.
+ *
+ * <p>Lets signers and state managers stop waiting for a signature once the request that needs the
+ * token has given up, eg. when the deadline of a gRPC call passes. Signers that honor it, like
+ * {@link HedgedSigner}, fail with a {@link SigningDeadlineExceededException}.
+ *
+ * <pre>{@code
+ * try (SigningDeadline.Scope ignored = SigningDeadline.withTimeout(200, TimeUnit.MILLISECONDS)) {
+ *   token = minter.getServerToken();
+ * }
+ * }</pre>
+ */
+public final class SigningDeadline {
+  /** Deadline in {@link System#nanoTime()} units, {@code null} when not set. */
+  private static final ThreadLocal<Long> deadlineNanos = new ThreadLocal<>();
+
+  private SigningDeadline() {}
+
+  /**
+   * Sets the deadline of the calling thread until the returned scope is closed. An earlier deadline
+   * that is already set is kept.
+   *
+   * @param timeout time left until the deadline
+   * @param unit unit of {@code timeout}
+   */
+  public static Scope withTimeout(long timeout, TimeUnit unit) {
+    Long previous = deadlineNanos.get();
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    if (previous == null || deadline - previous < 0) {
+      deadlineNanos.set(deadline);
+    }
+    return new Scope(previous);
+  }
+
+  /**
+   * Returns the time left until the deadline of the calling thread, in nanoseconds, or {@link
+   * Long#MAX_VALUE} when no deadline is set. Returns zero or less once the deadline has passed.
+   */
+  public static long remainingNanos() {
+    Long deadline = deadlineNanos.get();
+    return deadline == null ? Long.MAX_VALUE : deadline - System.nanoTime();
+  }
+
+  /** Restores the deadline that was set before the scope was entered once closed. */
+  public static final class Scope implements AutoCloseable {
+    private final Long previous;
+
+    private Scope(Long previous) {
+      this.previous = previous;
+    }
+
+    @Override
+    public void close() {
+      if (previous == null) {
+        deadlineNanos.remove();
+      } else {
+        deadlineNanos.set(previous);
+      }
+    }
+  }
+}
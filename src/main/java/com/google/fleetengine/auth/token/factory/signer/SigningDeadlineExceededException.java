@@ -0,0 +1,32 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+/**
+ * Signals that a token was not signed before the deadline of the request it was signed for.
+ *
+ * @see SigningDeadline
+ */
+public class SigningDeadlineExceededException extends SigningTokenException {
+  /**
+   * Constructs a {@code SigningDeadlineExceededException} with the specified detail message.
+   *
+   * @param message The detail message (which is saved for later retrieval by the {@link
+   *     #getMessage()} method)
+   */
+  public SigningDeadlineExceededException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,56 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.regex.Pattern;
+
+/** Classifies errors raised by signers. */
+final class SigningErrors {
+  /**
+   * Matches the messages of errors raised by the auth library when the IAM Credentials API answers
+   * with a quota or server error, eg. "Error code 429 trying to sign provided bytes: ...".
+   */
+  private static final Pattern QUOTA_OR_SERVER_ERROR_CODE =
+      Pattern.compile("\\b[Cc]ode (429|5\\d\\d)\\b");
+
+  private SigningErrors() {}
+
+  /**
+   * Returns whether signing failed for a reason that is likely to go away, ie. the signer ran out
+   * of quota, its backend returned a server error, or could not be reached in time.
+   *
+   * <p>Other errors, eg. missing permissions, fail again on retry.
+   */
+  static boolean isTransient(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof InterruptedIOException
+          || cause instanceof ConnectException
+          || cause instanceof UnknownHostException) {
+        return true;
+      }
+      String message = cause.getMessage();
+      if (message != null && QUOTA_OR_SERVER_ERROR_CODE.matcher(message).find()) {
+        return true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+}
@@ -14,23 +14,44 @@
 
 package com.google.fleetengine.auth;
 
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.fleetengine.auth.token.DeliveryVehicleClaims;
 import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
 import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
 import com.google.fleetengine.auth.token.TaskClaims;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
 import com.google.fleetengine.auth.token.TripClaims;
 import com.google.fleetengine.auth.token.VehicleClaims;
 import com.google.fleetengine.auth.token.factory.TokenFactory;
 import com.google.fleetengine.auth.token.factory.signer.Signer;
 import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -73,7 +94,8 @@ public class AuthTokenMinterTest {
     this.deliveryFleetReaderSigner = mock(Signer.class);
     this.fleetReaderSigner = mock(Signer.class);
     this.customSigner = mock(Signer.class);
-    this.authStateManager = mock(FleetEngineAuthTokenStateManager.class);
+    // Calls through the default supplier based signToken so that unsigned tokens are verifiable.
+    this.authStateManager = mock(FleetEngineAuthTokenStateManager.class, CALLS_REAL_METHODS);
     this.tokenFactory = mock(TokenFactory.class);
 
     this.defaultFleetEngineAuthBuilder =
@@ -105,6 +127,27 @@ public class AuthTokenMinterTest {
     verify(authStateManager, times(1)).signToken(eq(serverSigner), eq(fleetEngineToken));
   }
 
+  @Test
+  public void getServerToken_whenStateManagerReturnsCachedToken_doesNotCreateUnsignedToken()
+      throws SigningTokenException {
+    FleetEngineAuthTokenStateManager cachingStateManager =
+        mock(FleetEngineAuthTokenStateManager.class);
+    when(cachingStateManager.signToken(
+            eq(serverSigner),
+            eq(FleetEngineTokenType.SERVER),
+            any(),
+            eq(ServerTokenClaims.create()),
+            any()))
+        .thenReturn(fleetEngineToken);
+    AuthTokenMinter baseFleetEngineAuth =
+        defaultFleetEngineAuthBuilder.setTokenStateManager(cachingStateManager).build();
+
+    FleetEngineToken returnedToken = baseFleetEngineAuth.getServerToken();
+
+    assertThat(returnedToken).isEqualTo(fleetEngineToken);
+    verify(tokenFactory, never()).createServerToken();
+  }
+
   @Test
   public void getSignedToken_whenDeliveryBuilder_signsWithSetDeliveryServerSigner()
       throws SigningTokenException {
@@ -136,6 +179,60 @@ public class AuthTokenMinterTest {
     verify(authStateManager, times(1)).signToken(eq(serverSigner), eq(fleetEngineToken));
   }
 
+  @Test
+  public void build_whenTokenPoliciesNotSet_usesDefaultPolicies() {
+    AuthTokenMinter minter = AuthTokenMinter.builder().setServerSigner(serverSigner).build();
+
+    assertThat(minter.tokenPolicies()).isSameInstanceAs(TokenPolicies.defaults());
+  }
+
+  @Test
+  public void getServerToken_whenTokenPoliciesSet_createsTokenWithPolicyLifetime()
+      throws SigningTokenException {
+    TokenPolicies tokenPolicies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.SERVER,
+                TokenPolicy.builder().setLifetime(Duration.ofMinutes(30)).build())
+            .build();
+    doAnswer(invocation -> signedTokenFor(invocation.getArgument(0)))
+        .when(serverSigner)
+        .sign(any());
+    AuthTokenMinter minter =
+        AuthTokenMinter.builder()
+            .setServerSigner(serverSigner)
+            .setTokenPolicies(tokenPolicies)
+            .build();
+
+    FleetEngineToken token = minter.getServerToken();
+
+    assertThat(minter.tokenPolicies()).isSameInstanceAs(tokenPolicies);
+    assertThat(token.expirationTimestamp().getTime() - token.creationTimestamp().getTime())
+        .isEqualTo(Duration.ofMinutes(30).toMillis());
+  }
+
+  @Test
+  public void getServerToken_whenTokenPolicyNotCacheable_signsEveryToken()
+      throws SigningTokenException {
+    TokenPolicies tokenPolicies =
+        TokenPolicies.builder()
+            .setDefaultPolicy(TokenPolicy.builder().setCacheable(false).build())
+            .build();
+    doAnswer(invocation -> signedTokenFor(invocation.getArgument(0)))
+        .when(serverSigner)
+        .sign(any());
+    AuthTokenMinter minter =
+        AuthTokenMinter.builder()
+            .setServerSigner(serverSigner)
+            .setTokenPolicies(tokenPolicies)
+            .build();
+
+    minter.getServerToken();
+    minter.getServerToken();
+
+    verify(serverSigner, times(2)).sign(any());
+  }
+
   @Test
   public void getDriverToken_whenDriverSignerSet_signsWithSetDriverSigner()
       throws SigningTokenException {
@@ -277,6 +374,64 @@ public class AuthTokenMinterTest {
     verify(authStateManager, times(1)).signToken(customSigner, fleetEngineToken);
   }
 
+  @Test
+  public void getDriverTokenAsync_whenDriverSignerSet_signsWithSetDriverSigner()
+      throws Exception {
+    FleetEngineToken signedToken = fleetEngineToken.toBuilder().setJwt("signed").build();
+    when(authStateManager.signToken(driverSigner, fleetEngineToken)).thenReturn(signedToken);
+    AuthTokenMinter baseFleetEngineAuth =
+        defaultFleetEngineAuthBuilder
+            .setDriverSigner(driverSigner)
+            .setSigningExecutor(Runnable::run)
+            .build();
+    when(tokenFactory.createDriverToken(eq(FAKE_VEHICLE))).thenReturn(fleetEngineToken);
+
+    FleetEngineToken returnedToken = baseFleetEngineAuth.getDriverTokenAsync(FAKE_VEHICLE).get();
+
+    assertThat(returnedToken).isEqualTo(signedToken);
+    verify(tokenFactory, times(1)).createDriverToken(eq(FAKE_VEHICLE));
+  }
+
+  @Test
+  public void getServerTokenAsync_usesSigningExecutor() {
+    Executor signingExecutor = mock(Executor.class);
+    AuthTokenMinter baseFleetEngineAuth =
+        defaultFleetEngineAuthBuilder.setSigningExecutor(signingExecutor).build();
+
+    CompletableFuture<FleetEngineToken> returnedToken = baseFleetEngineAuth.getServerTokenAsync();
+
+    assertThat(returnedToken.isDone()).isFalse();
+    verify(signingExecutor, times(1)).execute(any());
+    verify(tokenFactory, never()).createServerToken();
+  }
+
+  @Test
+  public void getSignedTokenAsync_signsOnGivenExecutor() {
+    Executor signingExecutor = mock(Executor.class);
+    Executor executor = mock(Executor.class);
+    AuthTokenMinter baseFleetEngineAuth =
+        defaultFleetEngineAuthBuilder.setSigningExecutor(signingExecutor).build();
+
+    CompletableFuture<FleetEngineToken> returnedToken =
+        baseFleetEngineAuth.getSignedTokenAsync(executor);
+
+    assertThat(returnedToken.isDone()).isFalse();
+    verify(executor, times(1)).execute(any());
+    verifyNoInteractions(signingExecutor);
+  }
+
+  @Test
+  public void getDriverTokenAsync_whenDriverSignerNull_completesExceptionally() {
+    AuthTokenMinter baseFleetEngineAuth =
+        defaultFleetEngineAuthBuilder.setDriverSigner(null).build();
+
+    CompletableFuture<FleetEngineToken> returnedToken =
+        baseFleetEngineAuth.getDriverTokenAsync(FAKE_VEHICLE);
+
+    ExecutionException thrown = Assert.assertThrows(ExecutionException.class, returnedToken::get);
+    assertThat(thrown).hasCauseThat().isInstanceOf(SigningTokenException.class);
+  }
+
   @Test
   public void getDriverToken_whenDriverSignerNull_throwsSigningTokenException() {
     AuthTokenMinter baseFleetEngineAuth =
@@ -324,4 +479,157 @@ public class AuthTokenMinterTest {
         SigningTokenException.class,
         () -> baseFleetEngineAuth.getUntrustedDeliveryVehicleToken(null));
   }
+
+  @Test
+  public void getDriverTokens_signsEachDistinctClaimInRequestOrder() throws Exception {
+    VehicleClaims otherVehicle = VehicleClaims.create("otherVehicleId");
+    when(tokenFactory.createDriverToken(any()))
+        .thenAnswer(invocation -> unsignedTokenFor(invocation.getArgument(0)));
+    Signer driverSigner = bulkSigner();
+    doAnswer(invocation -> signedTokenFor(invocation.getArgument(0)))
+        .when(driverSigner)
+        .sign(any());
+    AuthTokenMinter baseFleetEngineAuth =
+        defaultFleetEngineAuthBuilder
+            .setTokenStateManager(new NaiveAuthStateManager())
+            .setDriverSigner(driverSigner)
+            .setSigningExecutor(Runnable::run)
+            .build();
+
+    BulkTokenResult<VehicleClaims> result =
+        baseFleetEngineAuth.getDriverTokens(
+            Arrays.asList(otherVehicle, FAKE_VEHICLE, otherVehicle));
+
+    assertThat(result.hasFailures()).isFalse();
+    assertThat(result.tokens().keySet()).containsExactly(otherVehicle, FAKE_VEHICLE).inOrder();
+    assertThat(result.tokens().get(FAKE_VEHICLE).authorizationClaims()).isEqualTo(FAKE_VEHICLE);
+    verify(driverSigner, times(2)).sign(any());
+  }
+
+  @Test
+  public void getDriverTokens_withEqualClaimInstances_signsOnceKeyedByFirstInstance()
+      throws Exception {
+    VehicleClaims firstInstance = VehicleClaims.create("otherVehicleId");
+    VehicleClaims secondInstance = VehicleClaims.create("otherVehicleId");
+    when(tokenFactory.createDriverToken(any()))
+        .thenAnswer(invocation -> unsignedTokenFor(invocation.getArgument(0)));
+    Signer driverSigner = bulkSigner();
+    doAnswer(invocation -> signedTokenFor(invocation.getArgument(0)))
+        .when(driverSigner)
+        .sign(any());
+    AuthTokenMinter baseFleetEngineAuth =
+        defaultFleetEngineAuthBuilder
+            .setTokenStateManager(new NaiveAuthStateManager())
+            .setDriverSigner(driverSigner)
+            .setSigningExecutor(Runnable::run)
+            .build();
+
+    BulkTokenResult<VehicleClaims> result =
+        baseFleetEngineAuth.getDriverTokens(Arrays.asList(firstInstance, secondInstance));
+
+    assertThat(result.tokens()).hasSize(1);
+    assertThat(result.tokens().keySet().iterator().next()).isSameInstanceAs(firstInstance);
+    verify(driverSigner, times(1)).sign(any());
+  }
+
+  @Test
+  public void getDriverTokens_whenOneTokenFailsToSign_signsRemainingTokens() throws Exception {
+    VehicleClaims failingVehicle = VehicleClaims.create("failingVehicleId");
+    SigningTokenException signingError = new SigningTokenException("fake error");
+    when(tokenFactory.createDriverToken(any()))
+        .thenAnswer(invocation -> unsignedTokenFor(invocation.getArgument(0)));
+    Signer driverSigner = bulkSigner();
+    doAnswer(
+            invocation -> {
+              FleetEngineToken token = invocation.getArgument(0);
+              if (token.authorizationClaims().equals(failingVehicle)) {
+                throw signingError;
+              }
+              return signedTokenFor(token);
+            })
+        .when(driverSigner)
+        .sign(any());
+    AuthTokenMinter baseFleetEngineAuth =
+        defaultFleetEngineAuthBuilder
+            .setTokenStateManager(new NaiveAuthStateManager())
+            .setDriverSigner(driverSigner)
+            .setSigningExecutor(Runnable::run)
+            .build();
+
+    BulkTokenResult<VehicleClaims> result =
+        baseFleetEngineAuth.getDriverTokens(Arrays.asList(failingVehicle, FAKE_VEHICLE));
+
+    assertThat(result.hasFailures()).isTrue();
+    assertThat(result.tokens().keySet()).containsExactly(FAKE_VEHICLE);
+    assertThat(result.failures()).containsExactly(failingVehicle, signingError);
+  }
+
+  @Test
+  public void getDriverTokens_whenDriverSignerNull_reportsEveryClaimAsFailed() throws Exception {
+    AuthTokenMinter baseFleetEngineAuth =
+        defaultFleetEngineAuthBuilder.setDriverSigner(null).build();
+
+    BulkTokenResult<VehicleClaims> result =
+        baseFleetEngineAuth.getDriverTokens(Collections.singletonList(FAKE_VEHICLE));
+
+    assertThat(result.tokens()).isEmpty();
+    assertThat(result.failures().keySet()).containsExactly(FAKE_VEHICLE);
+  }
+
+  @Test
+  public void getDriverTokens_signsAtMostBulkSigningParallelismTokensAtOnce() throws Exception {
+    AtomicInteger signing = new AtomicInteger();
+    AtomicInteger maxSigning = new AtomicInteger();
+    when(tokenFactory.createDriverToken(any()))
+        .thenAnswer(invocation -> unsignedTokenFor(invocation.getArgument(0)));
+    Signer driverSigner = bulkSigner();
+    doAnswer(
+            invocation -> {
+              maxSigning.accumulateAndGet(signing.incrementAndGet(), Math::max);
+              Thread.sleep(5);
+              signing.decrementAndGet();
+              return signedTokenFor(invocation.getArgument(0));
+            })
+        .when(driverSigner)
+        .sign(any());
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<VehicleClaims> claims = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      claims.add(VehicleClaims.create("vehicle-" + i));
+    }
+    try {
+      AuthTokenMinter baseFleetEngineAuth =
+          defaultFleetEngineAuthBuilder
+              .setTokenStateManager(new NaiveAuthStateManager())
+              .setDriverSigner(driverSigner)
+              .setSigningExecutor(executor)
+              .setBulkSigningParallelism(2)
+              .build();
+
+      BulkTokenResult<VehicleClaims> result = baseFleetEngineAuth.getDriverTokens(claims);
+
+      assertThat(result.tokens().keySet()).containsExactlyElementsIn(claims).inOrder();
+      assertThat(maxSigning.get()).isAtMost(2);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Signer signing asynchronously through its default {@link Signer#signAsync}. */
+  private static Signer bulkSigner() {
+    return mock(Signer.class, CALLS_REAL_METHODS);
+  }
+
+  private static FleetEngineToken unsignedTokenFor(FleetEngineTokenClaims claims) {
+    return FleetEngineToken.builder()
+        .setCreationTimestamp(Date.from(Instant.EPOCH))
+        .setExpirationTimestamp(Date.from(Instant.EPOCH))
+        .setAuthorizationClaims(claims)
+        .setTokenType(FleetEngineTokenType.DRIVER)
+        .build();
+  }
+
+  private static FleetEngineToken signedTokenFor(FleetEngineToken token) {
+    return token.toBuilder().setJwt("signed").build();
+  }
 }
@@ -0,0 +1,71 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CachedTokenTest {
+  private static final Instant EXPIRATION = Instant.parse("2021-06-01T01:00:00.00Z");
+
+  @Test
+  public void create_withDefaultPolicy_refreshesWithinExpirationWindow() {
+    CachedToken cachedToken = CachedToken.create(createToken(), TokenPolicy.DEFAULT);
+
+    assertThat(cachedToken.refreshDeadlineMillis)
+        .isEqualTo(
+            EXPIRATION
+                .minus(FleetEngineAuthTokenStateManager.EXPIRATION_WINDOW_DURATION)
+                .toEpochMilli());
+    assertThat(cachedToken.staleDeadlineMillis).isEqualTo(EXPIRATION.toEpochMilli());
+  }
+
+  @Test
+  public void create_withPolicy_usesPolicyWindows() {
+    TokenPolicy policy =
+        TokenPolicy.builder()
+            .setRefreshMargin(Duration.ofMinutes(10))
+            .setMaximumStaleness(Duration.ofMinutes(4))
+            .build();
+
+    CachedToken cachedToken = CachedToken.create(createToken(), policy);
+
+    assertThat(cachedToken.refreshDeadlineMillis)
+        .isEqualTo(EXPIRATION.minus(Duration.ofMinutes(10)).toEpochMilli());
+    assertThat(cachedToken.staleDeadlineMillis)
+        .isEqualTo(EXPIRATION.minus(Duration.ofMinutes(6)).toEpochMilli());
+  }
+
+  private static FleetEngineToken createToken() {
+    return FleetEngineToken.builder()
+        .setCreationTimestamp(Date.from(EXPIRATION.minus(TokenPolicy.DEFAULT_LIFETIME)))
+        .setExpirationTimestamp(Date.from(EXPIRATION))
+        .setTokenType(FleetEngineTokenType.SERVER)
+        .setAuthorizationClaims(ServerTokenClaims.create())
+        .setJwt("jwt")
+        .build();
+  }
+}
@@ -0,0 +1,358 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.fleetengine.auth.FleetEngineAuthTokenStateManager.EXPIRATION_WINDOW_DURATION;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.TripClaims;
+import com.google.fleetengine.auth.token.VehicleClaims;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CachingAuthStateManagerTest {
+  private static final String TEST_JWT = "i_am_a.test_jwt.signed";
+
+  private Signer signer;
+  private FleetEngineTokenExpiryValidator expiryValidator;
+  private FleetEngineToken vehicleToken;
+  private FleetEngineToken otherVehicleToken;
+
+  @Before
+  public void setup() throws SigningTokenException {
+    signer = mock(Signer.class);
+    expiryValidator = mock(FleetEngineTokenExpiryValidator.class);
+    when(expiryValidator.isPastDeadline(anyLong())).thenReturn(false);
+    when(signer.sign(any()))
+        .thenAnswer(
+            invocation ->
+                invocation.getArgument(0, FleetEngineToken.class).toBuilder()
+                    .setJwt(TEST_JWT)
+                    .build());
+
+    vehicleToken =
+        FleetEngineToken.builder()
+            .setExpirationTimestamp(Date.from(Instant.EPOCH))
+            .setCreationTimestamp(Date.from(Instant.EPOCH))
+            .setTokenType(FleetEngineTokenType.DRIVER)
+            .setAuthorizationClaims(VehicleClaims.create("vehicle-1"))
+            .build();
+    otherVehicleToken =
+        vehicleToken.toBuilder().setAuthorizationClaims(VehicleClaims.create("vehicle-2")).build();
+  }
+
+  @Test
+  public void signNonWildcardToken_whenTokenNotExpired_returnsCachedToken()
+      throws SigningTokenException {
+    CachingAuthStateManager manager = createManager(100);
+
+    FleetEngineToken returnedToken = manager.signToken(signer, vehicleToken);
+    FleetEngineToken returnedToken2 =
+        manager.signToken(
+            signer,
+            vehicleToken.toBuilder()
+                .setCreationTimestamp(Date.from(Instant.EPOCH.plusSeconds(2)))
+                .build());
+
+    assertThat(returnedToken.jwt()).isEqualTo(TEST_JWT);
+    assertThat(returnedToken2).isSameInstanceAs(returnedToken);
+    verify(signer, times(1)).sign(any());
+    assertThat(manager.stats().hitCount()).isEqualTo(1);
+    assertThat(manager.stats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void signToken_whenCached_doesNotCallSupplier() throws SigningTokenException {
+    CachingAuthStateManager manager = createManager(100);
+    AtomicInteger supplierCalls = new AtomicInteger();
+    Supplier<FleetEngineToken> unsignedTokenSupplier =
+        () -> {
+          supplierCalls.incrementAndGet();
+          return vehicleToken;
+        };
+
+    for (int i = 0; i < 3; i++) {
+      manager.signToken(
+          signer,
+          FleetEngineTokenType.DRIVER,
+          vehicleToken.audience(),
+          vehicleToken.authorizationClaims(),
+          unsignedTokenSupplier);
+    }
+
+    assertThat(supplierCalls.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void signToken_whenClaimsDiffer_signsEachToken() throws SigningTokenException {
+    CachingAuthStateManager manager = createManager(100);
+
+    manager.signToken(signer, vehicleToken);
+    manager.signToken(signer, otherVehicleToken);
+
+    verify(signer, times(1)).sign(eq(vehicleToken));
+    verify(signer, times(1)).sign(eq(otherVehicleToken));
+    assertThat(manager.stats().size()).isEqualTo(2);
+  }
+
+  @Test
+  public void signToken_whenTypeDiffers_signsEachToken() throws SigningTokenException {
+    CachingAuthStateManager manager = createManager(100);
+    FleetEngineToken consumerToken =
+        vehicleToken.toBuilder()
+            .setTokenType(FleetEngineTokenType.CONSUMER)
+            .setAuthorizationClaims(TripClaims.create("vehicle-1"))
+            .build();
+
+    manager.signToken(signer, vehicleToken);
+    manager.signToken(signer, consumerToken);
+
+    verify(signer, times(1)).sign(eq(vehicleToken));
+    verify(signer, times(1)).sign(eq(consumerToken));
+  }
+
+  @Test
+  public void signToken_whenSignerDiffers_signsEachToken() throws SigningTokenException {
+    CachingAuthStateManager manager = createManager(100);
+    Signer otherSigner = mock(Signer.class);
+    when(otherSigner.sign(any())).thenReturn(vehicleToken.toBuilder().setJwt(TEST_JWT).build());
+
+    manager.signToken(signer, vehicleToken);
+    manager.signToken(otherSigner, vehicleToken);
+
+    verify(signer, times(1)).sign(eq(vehicleToken));
+    verify(otherSigner, times(1)).sign(eq(vehicleToken));
+  }
+
+  @Test
+  public void signToken_whenTokenExpired_returnsNewToken() throws SigningTokenException {
+    CachingAuthStateManager manager = createManager(100);
+    FleetEngineToken returnedToken = manager.signToken(signer, vehicleToken);
+    when(expiryValidator.isPastDeadline(refreshDeadline(returnedToken))).thenReturn(true);
+
+    manager.signToken(signer, vehicleToken);
+
+    verify(signer, times(2)).sign(eq(vehicleToken));
+    assertThat(manager.stats().expirationCount()).isEqualTo(1);
+    assertThat(manager.stats().missCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void signToken_whenMaximumSizeReached_evictsLeastRecentlyUsedToken()
+      throws SigningTokenException {
+    CachingAuthStateManager manager = createManager(1);
+
+    manager.signToken(signer, vehicleToken);
+    manager.signToken(signer, otherVehicleToken);
+    manager.signToken(signer, vehicleToken);
+
+    verify(signer, times(2)).sign(eq(vehicleToken));
+    assertThat(manager.stats().evictionCount()).isEqualTo(2);
+    assertThat(manager.stats().size()).isEqualTo(1);
+  }
+
+  @Test
+  public void signToken_whenMaximumJwtBytesReached_evictsToken() throws SigningTokenException {
+    String shortJwt = "a.b.c";
+    when(signer.sign(any()))
+        .thenAnswer(
+            invocation ->
+                invocation.getArgument(0, FleetEngineToken.class).toBuilder()
+                    .setJwt(shortJwt)
+                    .build());
+    // Room for one JWT but not for two.
+    CachingAuthStateManager manager =
+        new CachingAuthStateManager(
+            CachingAuthStateManagerSettings.builder()
+                .setMaximumJwtBytes((long) shortJwt.length() * 2 - 1)
+                .build(),
+            expiryValidator);
+
+    manager.signToken(signer, vehicleToken);
+    manager.signToken(signer, otherVehicleToken);
+
+    assertThat(manager.stats().evictionCount()).isEqualTo(1);
+    assertThat(manager.stats().size()).isEqualTo(1);
+  }
+
+  @Test
+  public void removeExpiredTokens_removesOnlyExpiredTokens() throws SigningTokenException {
+    CachingAuthStateManager manager = createManager(100);
+    FleetEngineToken signedVehicleToken = manager.signToken(signer, vehicleToken);
+    manager.signToken(
+        signer,
+        otherVehicleToken.toBuilder()
+            .setExpirationTimestamp(Date.from(Instant.EPOCH.plusSeconds(1)))
+            .build());
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedVehicleToken))).thenReturn(true);
+
+    manager.removeExpiredTokens();
+
+    assertThat(manager.stats().size()).isEqualTo(1);
+    assertThat(manager.stats().expirationCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void signToken_whenPolicyNotCacheable_alwaysSigns() throws SigningTokenException {
+    TokenPolicies policies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.DRIVER, TokenPolicy.builder().setCacheable(false).build())
+            .build();
+    CachingAuthStateManager manager =
+        new CachingAuthStateManager(
+            CachingAuthStateManagerSettings.builder().setTokenPolicies(policies).build(),
+            expiryValidator);
+
+    manager.signToken(signer, vehicleToken);
+    manager.signToken(signer, vehicleToken);
+
+    verify(signer, times(2)).sign(vehicleToken);
+    assertThat(manager.stats().size()).isEqualTo(0);
+  }
+
+  @Test
+  public void signToken_afterLongestLifetime_evictsTokenWithoutLookup()
+      throws SigningTokenException {
+    FakeTicker ticker = new FakeTicker();
+    CachingAuthStateManager manager =
+        new CachingAuthStateManager(
+            CachingAuthStateManagerSettings.builder().build(), expiryValidator, ticker);
+    manager.signToken(signer, vehicleToken);
+
+    ticker.nanos += TokenPolicy.DEFAULT_LIFETIME.toNanos();
+    manager.removeExpiredTokens();
+
+    assertThat(manager.stats().size()).isEqualTo(0);
+    assertThat(manager.stats().expirationCount()).isEqualTo(1);
+    assertThat(manager.stats().evictionCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void signTokenAsync_whenSignatureInFlight_sharesSignatureAndCachesToken()
+      throws Exception {
+    CachingAuthStateManager manager = createManager(100);
+    FleetEngineToken signedToken = vehicleToken.toBuilder().setJwt(TEST_JWT).build();
+    CompletableFuture<FleetEngineToken> signature = new CompletableFuture<>();
+    Executor executor = mock(Executor.class);
+    when(signer.signAsync(eq(vehicleToken), eq(executor))).thenReturn(signature);
+
+    CompletableFuture<FleetEngineToken> returnedToken = signVehicleTokenAsync(manager, executor);
+    CompletableFuture<FleetEngineToken> returnedToken2 = signVehicleTokenAsync(manager, executor);
+    signature.complete(signedToken);
+    CompletableFuture<FleetEngineToken> returnedToken3 = signVehicleTokenAsync(manager, executor);
+
+    assertThat(returnedToken.get()).isSameInstanceAs(signedToken);
+    assertThat(returnedToken2.get()).isSameInstanceAs(signedToken);
+    assertThat(returnedToken3.isDone()).isTrue();
+    assertThat(returnedToken3.get()).isSameInstanceAs(signedToken);
+    verify(signer, times(1)).signAsync(any(), any());
+    verify(signer, never()).sign(any());
+    verifyNoInteractions(executor);
+  }
+
+  @Test
+  public void signTokenAsync_whenSynchronousSignatureInFlight_joinsSignature() throws Exception {
+    CachingAuthStateManager manager = createManager(100);
+    CountDownLatch signing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(signer.sign(any()))
+        .thenAnswer(
+            invocation -> {
+              signing.countDown();
+              release.await();
+              return invocation.getArgument(0, FleetEngineToken.class).toBuilder()
+                  .setJwt(TEST_JWT)
+                  .build();
+            });
+    Executor executor = mock(Executor.class);
+    ExecutorService syncCaller = Executors.newSingleThreadExecutor();
+    try {
+      Future<FleetEngineToken> syncToken =
+          syncCaller.submit(() -> manager.signToken(signer, vehicleToken));
+      signing.await();
+
+      CompletableFuture<FleetEngineToken> asyncToken = signVehicleTokenAsync(manager, executor);
+      assertThat(asyncToken.isDone()).isFalse();
+      release.countDown();
+
+      assertThat(asyncToken.get()).isSameInstanceAs(syncToken.get());
+      verify(signer, times(1)).sign(any());
+      verify(signer, never()).signAsync(any(), any());
+    } finally {
+      syncCaller.shutdownNow();
+    }
+  }
+
+  private CompletableFuture<FleetEngineToken> signVehicleTokenAsync(
+      CachingAuthStateManager manager, Executor executor) {
+    return manager.signTokenAsync(
+        signer,
+        FleetEngineTokenType.DRIVER,
+        vehicleToken.audience(),
+        vehicleToken.authorizationClaims(),
+        () -> vehicleToken,
+        executor);
+  }
+
+  private CachingAuthStateManager createManager(long maximumSize) {
+    return new CachingAuthStateManager(
+        CachingAuthStateManagerSettings.builder().setMaximumSize(maximumSize).build(),
+        expiryValidator);
+  }
+
+  private static final class FakeTicker extends Ticker {
+    long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+
+  /** Deadline after which {@code token} is replaced under the default token policy. */
+  private static long refreshDeadline(FleetEngineToken token) {
+    return token.expirationTimestamp().getTime() - EXPIRATION_WINDOW_DURATION.toMillis();
+  }
+}
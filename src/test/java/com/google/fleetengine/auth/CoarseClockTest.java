@@ -0,0 +1,94 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CoarseClockTest {
+  private long sourceMillis;
+  private Clock source;
+
+  @Before
+  public void setup() {
+    sourceMillis = 1_000L;
+    source = mock(Clock.class);
+    when(source.millis()).thenAnswer(invocation -> sourceMillis);
+  }
+
+  @Test
+  public void millis_betweenTicks_returnsTimeOfLastTick() {
+    CoarseClock clock = new CoarseClock(source);
+
+    sourceMillis = 2_000L;
+
+    assertThat(clock.millis()).isEqualTo(1_000L);
+    assertThat(clock.instant()).isEqualTo(Instant.ofEpochMilli(1_000L));
+  }
+
+  @Test
+  public void millis_afterTick_returnsSourceTime() {
+    CoarseClock clock = new CoarseClock(source);
+
+    sourceMillis = 2_000L;
+    clock.tick();
+
+    assertThat(clock.millis()).isEqualTo(2_000L);
+  }
+
+  @Test
+  public void system_isCloseToSystemClock() {
+    long before = System.currentTimeMillis();
+
+    long millis = CoarseClock.system().millis();
+
+    assertThat(millis).isAtLeast(before - CoarseClock.TICK_INTERVAL.toMillis() * 10);
+    assertThat(millis).isAtMost(System.currentTimeMillis());
+    assertThat(CoarseClock.system().getZone()).isEqualTo(ZoneOffset.UTC);
+  }
+
+  @Test
+  public void withZone_whenUtc_returnsSameClock() {
+    CoarseClock clock = new CoarseClock(source);
+
+    assertThat(clock.withZone(ZoneOffset.UTC)).isSameInstanceAs(clock);
+  }
+
+  @Test
+  public void withZone_whenOtherZone_readsCoarseTime() {
+    CoarseClock clock = new CoarseClock(source);
+    ZoneId zone = ZoneId.of("America/Los_Angeles");
+
+    Clock zonedClock = clock.withZone(zone);
+    sourceMillis = 2_000L;
+
+    assertThat(zonedClock.getZone()).isEqualTo(zone);
+    assertThat(zonedClock.millis()).isEqualTo(1_000L);
+    clock.tick();
+    assertThat(zonedClock.instant()).isEqualTo(Instant.ofEpochMilli(2_000L));
+    assertThat(zonedClock.withZone(ZoneOffset.UTC)).isSameInstanceAs(clock);
+  }
+}
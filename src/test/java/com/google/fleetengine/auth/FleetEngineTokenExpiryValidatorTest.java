@@ -95,6 +95,24 @@ public class FleetEngineTokenExpiryValidatorTest {
     assertThat(isTokenExpired).isTrue();
   }
 
+  @Test
+  public void isPastDeadline_beforeDeadline_isFalse() {
+    when(fakeNowClock.millis()).thenReturn(1_000L);
+    FleetEngineTokenExpiryValidator expiryValidator =
+        new FleetEngineTokenExpiryValidator(fakeNowClock);
+
+    assertThat(expiryValidator.isPastDeadline(1_000L)).isFalse();
+  }
+
+  @Test
+  public void isPastDeadline_afterDeadline_isTrue() {
+    when(fakeNowClock.millis()).thenReturn(1_001L);
+    FleetEngineTokenExpiryValidator expiryValidator =
+        new FleetEngineTokenExpiryValidator(fakeNowClock);
+
+    assertThat(expiryValidator.isPastDeadline(1_000L)).isTrue();
+  }
+
   private static Date parseDate(String date) {
     return parseDateTime(date + "T00:00:00.00Z");
   }
@@ -0,0 +1,173 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MappedTokenFileTest {
+  private static final long ACCOUNT_HASH =
+      MappedTokenFile.accountHash("server@test-project.iam.gserviceaccount.com");
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path path;
+
+  @Before
+  public void setup() {
+    path = temporaryFolder.getRoot().toPath().resolve("tokens");
+  }
+
+  @Test
+  public void open_loadsTokensWrittenBeforeClose() throws IOException {
+    try (MappedTokenFile file = open(4, 0)) {
+      file.put(1, ACCOUNT_HASH, digest(1), FleetEngineTokenType.SERVER, 100, 2000, "jwt-1");
+      file.put(2, ACCOUNT_HASH, digest(2), FleetEngineTokenType.DRIVER, 100, 3000, "jwt-2");
+    }
+
+    try (MappedTokenFile file = open(4, 0)) {
+      assertThat(file.size()).isEqualTo(2);
+      MappedTokenFile.Entry entry = file.get(2);
+      assertThat(entry.tokenType).isEqualTo(FleetEngineTokenType.DRIVER);
+      assertThat(entry.creationMillis).isEqualTo(100);
+      assertThat(entry.expirationMillis).isEqualTo(3000);
+      assertThat(entry.jwt).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void open_skipsTokensExpiringBeforeMinimum() throws IOException {
+    try (MappedTokenFile file = open(4, 0)) {
+      file.put(1, ACCOUNT_HASH, digest(1), FleetEngineTokenType.SERVER, 100, 2000, "jwt-1");
+      file.put(2, ACCOUNT_HASH, digest(2), FleetEngineTokenType.DRIVER, 100, 3000, "jwt-2");
+    }
+
+    try (MappedTokenFile file = open(4, 2500)) {
+      assertThat(file.get(1)).isNull();
+      assertThat(file.get(2).jwt).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void open_withOtherSlotCount_discardsTokens() throws IOException {
+    try (MappedTokenFile file = open(4, 0)) {
+      file.put(1, ACCOUNT_HASH, digest(1), FleetEngineTokenType.SERVER, 100, 2000, "jwt-1");
+    }
+
+    try (MappedTokenFile file = open(8, 0)) {
+      assertThat(file.size()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void open_skipsPartiallyWrittenSlot() throws IOException {
+    try (MappedTokenFile file = open(4, 0)) {
+      file.put(1, ACCOUNT_HASH, digest(1), FleetEngineTokenType.SERVER, 100, 2000, "jwt-1");
+      file.put(2, ACCOUNT_HASH, digest(2), FleetEngineTokenType.DRIVER, 100, 3000, "jwt-2");
+    }
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(path.toFile(), "rw")) {
+      // Last byte of the JWT in the first slot.
+      long offset = 64 + 76 + 4;
+      randomAccessFile.seek(offset);
+      randomAccessFile.write('x');
+    }
+
+    try (MappedTokenFile file = open(4, 0)) {
+      assertThat(file.get(1)).isNull();
+      assertThat(file.get(2).jwt).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void put_whenFull_replacesTokenThatExpiresFirst() throws IOException {
+    try (MappedTokenFile file = open(2, 0)) {
+      file.put(1, ACCOUNT_HASH, digest(1), FleetEngineTokenType.SERVER, 100, 3000, "jwt-1");
+      file.put(2, ACCOUNT_HASH, digest(2), FleetEngineTokenType.DRIVER, 100, 2000, "jwt-2");
+
+      file.put(3, ACCOUNT_HASH, digest(3), FleetEngineTokenType.CONSUMER, 100, 4000, "jwt-3");
+
+      assertThat(file.size()).isEqualTo(2);
+      assertThat(file.get(2)).isNull();
+      assertThat(file.get(1).jwt).isEqualTo("jwt-1");
+      assertThat(file.get(3).jwt).isEqualTo("jwt-3");
+    }
+  }
+
+  @Test
+  public void put_withSameKey_replacesToken() throws IOException {
+    try (MappedTokenFile file = open(2, 0)) {
+      file.put(1, ACCOUNT_HASH, digest(1), FleetEngineTokenType.SERVER, 100, 2000, "jwt-1");
+      file.put(1, ACCOUNT_HASH, digest(1), FleetEngineTokenType.SERVER, 1000, 3000, "jwt-2");
+    }
+
+    try (MappedTokenFile file = open(2, 0)) {
+      assertThat(file.size()).isEqualTo(1);
+      assertThat(file.get(1).jwt).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void put_withJwtLongerThanMaximum_returnsFalse() throws IOException {
+    try (MappedTokenFile file = open(2, 0)) {
+      boolean persisted =
+          file.put(
+              1, ACCOUNT_HASH, digest(1), FleetEngineTokenType.SERVER, 100, 2000, "jwt-too-long");
+
+      assertThat(persisted).isFalse();
+      assertThat(file.size()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void open_whenAlreadyOpen_throwsIOException() throws IOException {
+    try (MappedTokenFile file = open(2, 0)) {
+      assertThrows(IOException.class, () -> open(2, 0));
+    }
+  }
+
+  @Test
+  public void open_loadsAccountHashAndDigestOfToken() throws IOException {
+    try (MappedTokenFile file = open(2, 0)) {
+      file.put(1, ACCOUNT_HASH, digest(7), FleetEngineTokenType.SERVER, 100, 2000, "jwt-1");
+    }
+
+    try (MappedTokenFile file = open(2, 0)) {
+      assertThat(file.get(1).accountHash).isEqualTo(ACCOUNT_HASH);
+      assertThat(file.get(1).digest).isEqualTo(digest(7));
+    }
+  }
+
+  private static byte[] digest(int value) {
+    return TokenKeys.digest(
+        FleetEngineTokenType.SERVER, "aud", ImmutableMap.of("vehicleid", "vehicle-" + value));
+  }
+
+  private MappedTokenFile open(int slotCount, long minimumExpirationMillis) throws IOException {
+    return MappedTokenFile.open(path, slotCount, 8, minimumExpirationMillis);
+  }
+}
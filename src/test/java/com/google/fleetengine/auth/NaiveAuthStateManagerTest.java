@@ -16,11 +16,13 @@ package com.google.fleetengine.auth;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.fleetengine.auth.FleetEngineAuthTokenStateManager.EXPIRATION_WINDOW_DURATION;
+import static org.junit.Assert.assertThrows;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.ignoreStubs;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
@@ -28,10 +30,25 @@ import com.google.common.collect.ImmutableMap;
 import com.google.fleetengine.auth.token.FleetEngineToken;
 import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
 import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
 import com.google.fleetengine.auth.token.factory.signer.Signer;
 import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -92,8 +109,7 @@ public class NaiveAuthStateManagerTest {
       throws SigningTokenException {
     FleetEngineToken signedToken = token.toBuilder().setJwt(TEST_JWT).build();
     when(signer.sign(eq(token))).thenReturn(signedToken);
-    when(expiryValidator.isTokenExpired(eq(signedToken), eq(EXPIRATION_WINDOW_DURATION)))
-        .thenReturn(false);
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedToken))).thenReturn(false);
     NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
 
     // Sets the new token
@@ -115,8 +131,7 @@ public class NaiveAuthStateManagerTest {
     token2 = token2.toBuilder().setTokenType(FleetEngineTokenType.CONSUMER).build();
     FleetEngineToken signedToken = token.toBuilder().setJwt(TEST_JWT).build();
     when(signer.sign(eq(token))).thenReturn(signedToken);
-    when(expiryValidator.isTokenExpired(eq(signedToken), eq(EXPIRATION_WINDOW_DURATION)))
-        .thenReturn(false);
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedToken))).thenReturn(false);
     NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
 
     // Sets the new token
@@ -139,8 +154,7 @@ public class NaiveAuthStateManagerTest {
     token2 = token.toBuilder().setTokenType(FleetEngineTokenType.CONSUMER).build();
     FleetEngineToken signedToken2 = token2.toBuilder().setJwt(TEST_JWT).build();
     when(signer.sign(eq(token2))).thenReturn(signedToken2);
-    when(expiryValidator.isTokenExpired(eq(signedToken), eq(EXPIRATION_WINDOW_DURATION)))
-        .thenReturn(false);
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedToken))).thenReturn(false);
     NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
 
     // Sets the new token
@@ -161,8 +175,7 @@ public class NaiveAuthStateManagerTest {
     when(signer.sign(eq(token))).thenReturn(signedToken);
     FleetEngineToken signedToken2 = token2.toBuilder().setJwt(TEST_JWT).build();
     when(signer.sign(eq(token2))).thenReturn(signedToken2);
-    when(expiryValidator.isTokenExpired(eq(signedToken), eq(EXPIRATION_WINDOW_DURATION)))
-        .thenReturn(true);
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedToken))).thenReturn(true);
     NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
 
     // Sets the new token
@@ -177,6 +190,41 @@ public class NaiveAuthStateManagerTest {
     verifyNoMoreInteractions(ignoreStubs(expiryValidator));
   }
 
+  @Test
+  public void signWildcardTokenFromSupplier_whenTokenNotExpired_doesNotCallSupplier()
+      throws SigningTokenException {
+    FleetEngineToken signedToken = token.toBuilder().setJwt(TEST_JWT).build();
+    when(signer.sign(eq(token))).thenReturn(signedToken);
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedToken))).thenReturn(false);
+    NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
+    AtomicInteger supplierCalls = new AtomicInteger();
+    Supplier<FleetEngineToken> unsignedTokenSupplier =
+        () -> {
+          supplierCalls.incrementAndGet();
+          return token;
+        };
+
+    FleetEngineToken returnedToken =
+        manager.signToken(
+            signer,
+            FleetEngineTokenType.SERVER,
+            token.audience(),
+            wildcardClaim,
+            unsignedTokenSupplier);
+    FleetEngineToken returnedToken2 =
+        manager.signToken(
+            signer,
+            FleetEngineTokenType.SERVER,
+            token.audience(),
+            wildcardClaim,
+            unsignedTokenSupplier);
+
+    assertThat(returnedToken).isEqualTo(signedToken);
+    assertThat(returnedToken2).isEqualTo(signedToken);
+    assertThat(supplierCalls.get()).isEqualTo(1);
+    verify(signer, times(1)).sign(eq(token));
+  }
+
   @Test
   public void signConsumerToken_returnsNewToken() throws SigningTokenException {
     token = token.toBuilder().setTokenType(FleetEngineTokenType.CONSUMER).build();
@@ -207,6 +255,143 @@ public class NaiveAuthStateManagerTest {
     verifyNoMoreInteractions(ignoreStubs(expiryValidator));
   }
 
+  @Test
+  public void signWildcardToken_whenSameTypeRefreshInFlight_joinsRefresh() throws Exception {
+    FleetEngineToken signedToken = token.toBuilder().setJwt(TEST_JWT).build();
+    CountDownLatch signingStarted = new CountDownLatch(1);
+    CountDownLatch releaseSigning = new CountDownLatch(1);
+    when(signer.sign(eq(token)))
+        .thenAnswer(
+            invocation -> {
+              signingStarted.countDown();
+              releaseSigning.await();
+              return signedToken;
+            });
+    NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<FleetEngineToken> leader = executor.submit(() -> manager.signToken(signer, token));
+      assertThat(signingStarted.await(5, TimeUnit.SECONDS)).isTrue();
+      AtomicReference<FleetEngineToken> followerToken = new AtomicReference<>();
+      Thread follower = new Thread(() -> followerToken.set(signQuietly(manager, token)));
+      follower.start();
+      awaitBlocked(follower);
+
+      releaseSigning.countDown();
+
+      assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo(signedToken);
+      follower.join(5000);
+      assertThat(followerToken.get()).isSameInstanceAs(signedToken);
+      verify(signer, times(1)).sign(eq(token));
+    } finally {
+      releaseSigning.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * While a server token refresh is stuck in the signer, fleet reader tokens must still be served
+   * from the cache without waiting on it.
+   */
+  @Test
+  public void signWildcardToken_whenOtherTypeRefreshInFlight_isNotBlocked() throws Exception {
+    FleetEngineToken fleetReaderToken =
+        token.toBuilder().setTokenType(FleetEngineTokenType.FLEET_READER).build();
+    FleetEngineToken signedFleetReaderToken = fleetReaderToken.toBuilder().setJwt(TEST_JWT).build();
+    when(signer.sign(eq(fleetReaderToken))).thenReturn(signedFleetReaderToken);
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedFleetReaderToken))).thenReturn(false);
+    CountDownLatch signingStarted = new CountDownLatch(1);
+    CountDownLatch releaseSigning = new CountDownLatch(1);
+    when(signer.sign(eq(token)))
+        .thenAnswer(
+            invocation -> {
+              signingStarted.countDown();
+              releaseSigning.await();
+              return token.toBuilder().setJwt(TEST_JWT).build();
+            });
+    NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
+    // Warm up the fleet reader cache.
+    manager.signToken(signer, fleetReaderToken);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<FleetEngineToken> serverRefresh =
+          executor.submit(() -> manager.signToken(signer, token));
+      assertThat(signingStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+      Future<long[]> fleetReaderLatencies =
+          executor.submit(
+              () -> {
+                long[] latencies = new long[1000];
+                for (int i = 0; i < latencies.length; i++) {
+                  long start = System.nanoTime();
+                  manager.signToken(signer, fleetReaderToken);
+                  latencies[i] = System.nanoTime() - start;
+                }
+                return latencies;
+              });
+
+      // The server refresh is still blocked while every fleet reader call completes.
+      long[] latencies = fleetReaderLatencies.get(5, TimeUnit.SECONDS);
+      assertThat(serverRefresh.isDone()).isFalse();
+      Arrays.sort(latencies);
+      long p99 = latencies[(int) (latencies.length * 0.99) - 1];
+      assertThat(p99).isLessThan(TimeUnit.SECONDS.toNanos(1));
+      verify(signer, times(1)).sign(eq(fleetReaderToken));
+
+      releaseSigning.countDown();
+      serverRefresh.get(5, TimeUnit.SECONDS);
+    } finally {
+      releaseSigning.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void signWildcardToken_whenJoinedRefreshFails_throwsSigningTokenException()
+      throws Exception {
+    SigningTokenException signingFailure = new SigningTokenException("signing failed");
+    CountDownLatch signingStarted = new CountDownLatch(1);
+    CountDownLatch releaseSigning = new CountDownLatch(1);
+    when(signer.sign(eq(token)))
+        .thenAnswer(
+            invocation -> {
+              signingStarted.countDown();
+              releaseSigning.await();
+              throw signingFailure;
+            });
+    NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<FleetEngineToken> leader = executor.submit(() -> manager.signToken(signer, token));
+      assertThat(signingStarted.await(5, TimeUnit.SECONDS)).isTrue();
+      AtomicReference<Throwable> followerFailure = new AtomicReference<>();
+      Thread follower =
+          new Thread(
+              () -> {
+                try {
+                  manager.signToken(signer, token);
+                } catch (SigningTokenException | RuntimeException e) {
+                  followerFailure.set(e);
+                }
+              });
+      follower.start();
+      // The follower must be waiting on the in-flight refresh before it fails.
+      awaitBlocked(follower);
+
+      releaseSigning.countDown();
+
+      ExecutionException leaderException =
+          assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+      assertThat(leaderException).hasCauseThat().isSameInstanceAs(signingFailure);
+      follower.join(5000);
+      assertThat(followerFailure.get()).isSameInstanceAs(signingFailure);
+      verify(signer, times(1)).sign(eq(token));
+    } finally {
+      releaseSigning.countDown();
+      executor.shutdownNow();
+    }
+  }
+
   /**
    * Thorough check that verifies that only server tokens are cached. No need go through every type
    * of token.
@@ -226,8 +411,7 @@ public class NaiveAuthStateManagerTest {
         token2.toBuilder().setTokenType(FleetEngineTokenType.CONSUMER).build();
     FleetEngineToken signedConsumerToken2 = consumerToken2.toBuilder().setJwt(TEST_JWT).build();
     when(signer.sign(eq(consumerToken2))).thenReturn(signedConsumerToken2);
-    when(expiryValidator.isTokenExpired(eq(signedNonWildcardToken), eq(EXPIRATION_WINDOW_DURATION)))
-        .thenReturn(false);
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedNonWildcardToken))).thenReturn(false);
     NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
 
     // Sets the server token
@@ -245,4 +429,133 @@ public class NaiveAuthStateManagerTest {
     assertThat(returnedConsumerToken2).isEqualTo(signedConsumerToken2);
     verifyNoMoreInteractions(ignoreStubs(expiryValidator));
   }
+
+  @Test
+  public void signWildcardTokenAsync_whenTokenNotExpired_returnsCompletedFuture()
+      throws Exception {
+    FleetEngineToken signedToken = token.toBuilder().setJwt(TEST_JWT).build();
+    when(signer.sign(eq(token))).thenReturn(signedToken);
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedToken))).thenReturn(false);
+    Executor executor = mock(Executor.class);
+    NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
+    manager.signToken(signer, token);
+
+    CompletableFuture<FleetEngineToken> returnedToken =
+        manager.signTokenAsync(
+            signer, FleetEngineTokenType.SERVER, null, wildcardClaim, () -> token2, executor);
+
+    assertThat(returnedToken.isDone()).isTrue();
+    assertThat(returnedToken.get()).isEqualTo(signedToken);
+    verifyNoInteractions(executor);
+  }
+
+  @Test
+  public void signWildcardTokenAsync_whenSignatureInFlight_sharesSignature() throws Exception {
+    FleetEngineToken signedToken = token.toBuilder().setJwt(TEST_JWT).build();
+    CompletableFuture<FleetEngineToken> signature = new CompletableFuture<>();
+    Executor executor = mock(Executor.class);
+    when(signer.signAsync(eq(token), eq(executor))).thenReturn(signature);
+    when(expiryValidator.isPastDeadline(refreshDeadline(signedToken))).thenReturn(false);
+    NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
+
+    CompletableFuture<FleetEngineToken> returnedToken =
+        manager.signTokenAsync(
+            signer, FleetEngineTokenType.SERVER, null, wildcardClaim, () -> token, executor);
+    CompletableFuture<FleetEngineToken> returnedToken2 =
+        manager.signTokenAsync(
+            signer, FleetEngineTokenType.SERVER, null, wildcardClaim, () -> token2, executor);
+
+    assertThat(returnedToken.isDone()).isFalse();
+    assertThat(returnedToken2.isDone()).isFalse();
+    signature.complete(signedToken);
+    assertThat(returnedToken.get()).isEqualTo(signedToken);
+    assertThat(returnedToken2.get()).isEqualTo(signedToken);
+    assertThat(manager.signToken(signer, token2)).isEqualTo(signedToken);
+    verify(signer, times(1)).signAsync(eq(token), eq(executor));
+    verify(signer, times(0)).sign(eq(token2));
+  }
+
+  @Test
+  public void signWildcardTokenAsync_whenSignatureFails_completesExceptionally() {
+    Executor executor = mock(Executor.class);
+    CompletableFuture<FleetEngineToken> failedSignature = new CompletableFuture<>();
+    failedSignature.completeExceptionally(new SigningTokenException("IAM unavailable"));
+    when(signer.signAsync(eq(token), eq(executor))).thenReturn(failedSignature);
+    NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator);
+
+    CompletableFuture<FleetEngineToken> returnedToken =
+        manager.signTokenAsync(
+            signer, FleetEngineTokenType.SERVER, null, wildcardClaim, () -> token, executor);
+    manager.signTokenAsync(
+        signer, FleetEngineTokenType.SERVER, null, wildcardClaim, () -> token, executor);
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, returnedToken::get);
+    assertThat(thrown).hasCauseThat().isInstanceOf(SigningTokenException.class);
+    // The failed signature is not cached nor shared with later requests.
+    verify(signer, times(2)).signAsync(eq(token), eq(executor));
+  }
+
+  @Test
+  public void signWildcardToken_whenPolicyNotCacheable_alwaysSigns() throws SigningTokenException {
+    FleetEngineToken signedToken = token.toBuilder().setJwt(TEST_JWT).build();
+    when(signer.sign(eq(token))).thenReturn(signedToken);
+    TokenPolicies policies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.SERVER, TokenPolicy.builder().setCacheable(false).build())
+            .build();
+    NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator, policies);
+
+    manager.signToken(signer, token);
+    manager.signToken(signer, token);
+
+    verify(signer, times(2)).sign(eq(token));
+    verifyNoInteractions(expiryValidator);
+  }
+
+  @Test
+  public void signWildcardToken_withPolicyRefreshMargin_checksExpiryWithRefreshMargin()
+      throws SigningTokenException {
+    Duration refreshMargin = Duration.ofMinutes(20);
+    FleetEngineToken signedToken = token.toBuilder().setJwt(TEST_JWT).build();
+    when(signer.sign(eq(token))).thenReturn(signedToken);
+    when(expiryValidator.isPastDeadline(
+            signedToken.expirationTimestamp().getTime() - refreshMargin.toMillis()))
+        .thenReturn(true);
+    TokenPolicies policies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.SERVER,
+                TokenPolicy.builder().setRefreshMargin(refreshMargin).build())
+            .build();
+    NaiveAuthStateManager manager = new NaiveAuthStateManager(expiryValidator, policies);
+
+    manager.signToken(signer, token);
+    manager.signToken(signer, token);
+
+    verify(signer, times(2)).sign(eq(token));
+  }
+
+  private FleetEngineToken signQuietly(
+      NaiveAuthStateManager manager, FleetEngineToken unsignedToken) {
+    try {
+      return manager.signToken(signer, unsignedToken);
+    } catch (SigningTokenException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Waits until {@code thread} is parked, eg. waiting on an in-flight refresh. */
+  private static void awaitBlocked(Thread thread) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertThat(thread.getState()).isEqualTo(Thread.State.WAITING);
+  }
+
+  /** Deadline after which {@code token} is replaced under the default token policy. */
+  private static long refreshDeadline(FleetEngineToken token) {
+    return token.expirationTimestamp().getTime() - EXPIRATION_WINDOW_DURATION.toMillis();
+  }
 }
@@ -0,0 +1,365 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.VehicleClaims;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PersistentAuthStateManagerTest {
+  private static final Duration TOKEN_LIFETIME = Duration.ofMinutes(60);
+  private static final String SERVER_ACCOUNT = "server@test-project.iam.gserviceaccount.com";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Instant now;
+  private Clock clock;
+  private FleetEngineTokenExpiryValidator tokenExpiryValidator;
+  private AtomicInteger signCount;
+  private Signer signer;
+  private Path path;
+
+  @Before
+  public void setup() throws IOException {
+    now = Instant.parse("2021-06-01T00:00:00.00Z");
+    clock = mock(Clock.class);
+    when(clock.instant()).thenAnswer(invocation -> now);
+    when(clock.millis()).thenAnswer(invocation -> now.toEpochMilli());
+    tokenExpiryValidator = new FleetEngineTokenExpiryValidator(clock);
+
+    signCount = new AtomicInteger();
+    signer = signer(SERVER_ACCOUNT);
+    path = temporaryFolder.getRoot().toPath().resolve("tokens");
+  }
+
+  @Test
+  public void signToken_afterRestart_returnsPersistedTokenWithoutSigning()
+      throws IOException, SigningTokenException {
+    FleetEngineToken signedToken;
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      signedToken = signServerToken(manager);
+    }
+
+    try (PersistentAuthStateManager restartedManager = createManager(settings().build())) {
+      FleetEngineToken persistedToken = signServerToken(restartedManager);
+
+      assertThat(signCount.get()).isEqualTo(1);
+      assertThat(persistedToken).isEqualTo(signedToken);
+    }
+  }
+
+  @Test
+  public void signToken_whenPersistedTokenLookedUpTwice_reusesDecodedToken()
+      throws IOException, SigningTokenException {
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      signServerToken(manager);
+    }
+
+    try (PersistentAuthStateManager restartedManager = createManager(settings().build())) {
+      FleetEngineToken firstToken = signServerToken(restartedManager);
+      FleetEngineToken secondToken = signServerToken(restartedManager);
+
+      assertThat(signCount.get()).isEqualTo(1);
+      assertThat(secondToken).isSameInstanceAs(firstToken);
+    }
+  }
+
+  @Test
+  public void signToken_whenTokenSignedBefore_returnsSameTokenWithoutSigning()
+      throws IOException, SigningTokenException {
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      FleetEngineToken signedToken = signServerToken(manager);
+
+      FleetEngineToken token = signServerToken(manager);
+
+      assertThat(signCount.get()).isEqualTo(1);
+      assertThat(token).isSameInstanceAs(signedToken);
+    }
+  }
+
+  @Test
+  public void signToken_whenTokenSignedBeforeByOtherAccount_signsToken()
+      throws IOException, SigningTokenException {
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      signServerToken(manager);
+      signer = signer("other@test-project.iam.gserviceaccount.com");
+
+      FleetEngineToken token = signServerToken(manager);
+
+      assertThat(signCount.get()).isEqualTo(2);
+      assertThat(token.jwt()).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void signToken_afterRestartWithSignerOfOtherAccount_signsToken()
+      throws IOException, SigningTokenException {
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      signServerToken(manager);
+    }
+    signer = signer("other@test-project.iam.gserviceaccount.com");
+
+    try (PersistentAuthStateManager restartedManager = createManager(settings().build())) {
+      FleetEngineToken token = signServerToken(restartedManager);
+
+      assertThat(signCount.get()).isEqualTo(2);
+      assertThat(token.jwt()).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void signToken_withSignerOfUnknownAccount_isNotPersisted()
+      throws IOException, SigningTokenException {
+    signer = token -> token.toBuilder().setJwt("jwt-" + signCount.incrementAndGet()).build();
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      signServerToken(manager);
+
+      assertThat(manager.persistedTokenCount()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void signToken_afterRestartOnceTokenExpired_signsToken()
+      throws IOException, SigningTokenException {
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      signServerToken(manager);
+    }
+    now = now.plus(TOKEN_LIFETIME).minus(Duration.ofMinutes(1));
+
+    try (PersistentAuthStateManager restartedManager = createManager(settings().build())) {
+      assertThat(restartedManager.persistedTokenCount()).isEqualTo(0);
+      FleetEngineToken token = signServerToken(restartedManager);
+
+      assertThat(token.jwt()).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void signToken_whenPersistedTokenExpires_persistsReplacement()
+      throws IOException, SigningTokenException {
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      signServerToken(manager);
+      now = now.plus(TOKEN_LIFETIME).minus(Duration.ofMinutes(1));
+      signServerToken(manager);
+    }
+
+    try (PersistentAuthStateManager restartedManager = createManager(settings().build())) {
+      FleetEngineToken token = signServerToken(restartedManager);
+
+      assertThat(signCount.get()).isEqualTo(2);
+      assertThat(token.jwt()).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void signToken_afterRestartOncePolicyRefreshWindowEntered_signsToken()
+      throws IOException, SigningTokenException {
+    TokenPolicies tokenPolicies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.SERVER,
+                TokenPolicy.builder().setRefreshMargin(Duration.ofMinutes(20)).build())
+            .build();
+    try (PersistentAuthStateManager manager =
+        createManager(settings().build(), tokenPolicies)) {
+      signServerToken(manager);
+    }
+    now = now.plus(TOKEN_LIFETIME).minus(Duration.ofMinutes(15));
+
+    try (PersistentAuthStateManager restartedManager =
+        createManager(settings().build(), tokenPolicies)) {
+      FleetEngineToken token = signServerToken(restartedManager);
+
+      assertThat(token.jwt()).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void signToken_whenPolicyNotCacheable_isNotPersisted()
+      throws IOException, SigningTokenException {
+    TokenPolicies tokenPolicies =
+        TokenPolicies.builder()
+            .setDefaultPolicy(TokenPolicy.builder().setCacheable(false).build())
+            .build();
+    try (PersistentAuthStateManager manager =
+        createManager(settings().build(), tokenPolicies)) {
+      signServerToken(manager);
+
+      assertThat(manager.persistedTokenCount()).isEqualTo(0);
+      assertThat(signServerToken(manager).jwt()).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void signToken_withNonWildcardClaims_isNotPersistedByDefault()
+      throws IOException, SigningTokenException {
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      signVehicleToken(manager, "vehicle-1");
+
+      assertThat(manager.persistedTokenCount()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void signToken_withNonWildcardClaims_persistsTokenPerEntity()
+      throws IOException, SigningTokenException {
+    PersistentAuthStateManagerSettings settings =
+        settings().setPersistNonWildcardTokens(true).build();
+    try (PersistentAuthStateManager manager = createManager(settings)) {
+      signVehicleToken(manager, "vehicle-1");
+      signVehicleToken(manager, "vehicle-2");
+    }
+
+    try (PersistentAuthStateManager restartedManager = createManager(settings)) {
+      assertThat(signVehicleToken(restartedManager, "vehicle-2").jwt()).isEqualTo("jwt-2");
+      assertThat(signVehicleToken(restartedManager, "vehicle-1").jwt()).isEqualTo("jwt-1");
+      assertThat(signCount.get()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void signTokenAsync_afterRestart_returnsPersistedTokenWithoutSigning() throws Exception {
+    try (PersistentAuthStateManager manager = createManager(settings().build())) {
+      manager
+          .signTokenAsync(
+              signer,
+              FleetEngineTokenType.SERVER,
+              null,
+              ServerTokenClaims.create(),
+              unsignedToken(FleetEngineTokenType.SERVER, ServerTokenClaims.create()),
+              Runnable::run)
+          .get();
+    }
+
+    try (PersistentAuthStateManager restartedManager = createManager(settings().build())) {
+      FleetEngineToken token =
+          restartedManager
+              .signTokenAsync(
+                  signer,
+                  FleetEngineTokenType.SERVER,
+                  null,
+                  ServerTokenClaims.create(),
+                  unsignedToken(FleetEngineTokenType.SERVER, ServerTokenClaims.create()),
+                  Runnable::run)
+              .get();
+
+      assertThat(token.jwt()).isEqualTo("jwt-1");
+      assertThat(signCount.get()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void signToken_withJwtLongerThanMaximum_isNotPersisted()
+      throws IOException, SigningTokenException {
+    try (PersistentAuthStateManager manager =
+        createManager(settings().setMaximumJwtLength(4).build())) {
+      FleetEngineToken token = signServerToken(manager);
+
+      assertThat(token.jwt()).isEqualTo("jwt-1");
+      assertThat(manager.persistedTokenCount()).isEqualTo(0);
+    }
+  }
+
+  private PersistentAuthStateManagerSettings.Builder settings() {
+    return PersistentAuthStateManagerSettings.builder().setPath(path);
+  }
+
+  private Signer signer(String account) {
+    return new Signer() {
+      @Override
+      public FleetEngineToken sign(FleetEngineToken token) {
+        return token.toBuilder().setJwt("jwt-" + signCount.incrementAndGet()).build();
+      }
+
+      @Override
+      public String account() {
+        return account;
+      }
+    };
+  }
+
+  private PersistentAuthStateManager createManager(PersistentAuthStateManagerSettings settings)
+      throws IOException {
+    return createManager(settings, TokenPolicies.defaults());
+  }
+
+  private PersistentAuthStateManager createManager(
+      PersistentAuthStateManagerSettings settings, TokenPolicies tokenPolicies)
+      throws IOException {
+    return new PersistentAuthStateManager(
+        settings,
+        new NaiveAuthStateManager(tokenExpiryValidator, tokenPolicies),
+        tokenExpiryValidator,
+        clock,
+        tokenPolicies);
+  }
+
+  private FleetEngineToken signServerToken(PersistentAuthStateManager manager)
+      throws SigningTokenException {
+    return manager.signToken(
+        signer,
+        FleetEngineTokenType.SERVER,
+        null,
+        ServerTokenClaims.create(),
+        unsignedToken(FleetEngineTokenType.SERVER, ServerTokenClaims.create()));
+  }
+
+  private FleetEngineToken signVehicleToken(PersistentAuthStateManager manager, String vehicleId)
+      throws SigningTokenException {
+    VehicleClaims claims = VehicleClaims.create(vehicleId);
+    return manager.signToken(
+        signer,
+        FleetEngineTokenType.DRIVER,
+        null,
+        claims,
+        unsignedToken(FleetEngineTokenType.DRIVER, claims));
+  }
+
+  private Supplier<FleetEngineToken> unsignedToken(
+      FleetEngineTokenType tokenType, FleetEngineTokenClaims claims) {
+    return () ->
+        FleetEngineToken.builder()
+            .setCreationTimestamp(Date.from(now))
+            .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+            .setTokenType(tokenType)
+            .setAuthorizationClaims(claims)
+            .build();
+  }
+}
@@ -0,0 +1,384 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.VehicleClaims;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+@RunWith(JUnit4.class)
+public class RefreshAheadAuthStateManagerTest {
+  private static final Duration TOKEN_LIFETIME = Duration.ofMinutes(60);
+  private static final Duration REFRESH_AHEAD_MARGIN = Duration.ofMinutes(5);
+
+  private Instant now;
+  private Clock clock;
+  private Signer signer;
+  private ScheduledExecutorService executor;
+  private ScheduledFuture<?> scheduledFuture;
+  private AtomicInteger signCount;
+  private Supplier<FleetEngineToken> serverTokenSupplier;
+  private RefreshAheadAuthStateManagerSettings settings;
+
+  @Before
+  public void setup() throws SigningTokenException {
+    now = Instant.parse("2021-06-01T00:00:00.00Z");
+    clock = mock(Clock.class);
+    when(clock.instant()).thenAnswer(invocation -> now);
+    when(clock.millis()).thenAnswer(invocation -> now.toEpochMilli());
+
+    executor = mock(ScheduledExecutorService.class);
+    scheduledFuture = mock(ScheduledFuture.class);
+    doReturn(scheduledFuture)
+        .when(executor)
+        .schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+    signCount = new AtomicInteger();
+    signer = mock(Signer.class);
+    when(signer.sign(any()))
+        .thenAnswer(
+            invocation ->
+                invocation.getArgument(0, FleetEngineToken.class).toBuilder()
+                    .setJwt("jwt-" + signCount.incrementAndGet())
+                    .build());
+
+    serverTokenSupplier =
+        () ->
+            FleetEngineToken.builder()
+                .setCreationTimestamp(Date.from(now))
+                .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+                .setTokenType(FleetEngineTokenType.SERVER)
+                .setAuthorizationClaims(ServerTokenClaims.create())
+                .build();
+
+    settings =
+        RefreshAheadAuthStateManagerSettings.builder()
+            .setRefreshAheadMargin(REFRESH_AHEAD_MARGIN)
+            .setMaximumJitter(Duration.ZERO)
+            .setInitialBackoff(Duration.ofSeconds(1))
+            .setMaximumBackoff(Duration.ofSeconds(4))
+            .build();
+  }
+
+  @Test
+  public void signWildcardToken_schedulesRefreshAheadOfExpirationWindow()
+      throws SigningTokenException {
+    RefreshAheadAuthStateManager manager = createManager();
+
+    FleetEngineToken token = signServerToken(manager);
+
+    assertThat(token.jwt()).isEqualTo("jwt-1");
+    long expectedDelay =
+        TOKEN_LIFETIME
+            .minus(FleetEngineAuthTokenStateManager.EXPIRATION_WINDOW_DURATION)
+            .minus(REFRESH_AHEAD_MARGIN)
+            .toMillis();
+    verify(executor).schedule(any(Runnable.class), eq(expectedDelay), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void backgroundRefresh_replacesCachedTokenWithoutSigningOnCaller()
+      throws SigningTokenException {
+    RefreshAheadAuthStateManager manager = createManager();
+    signServerToken(manager);
+    Runnable refresh = captureScheduledRefresh();
+
+    now = now.plus(Duration.ofMinutes(50));
+    refresh.run();
+    FleetEngineToken token = signServerToken(manager);
+    FleetEngineToken token2 = signServerToken(manager);
+
+    assertThat(token.jwt()).isEqualTo("jwt-2");
+    assertThat(token2).isSameInstanceAs(token);
+    assertThat(token.creationTimestamp().toInstant()).isEqualTo(now);
+    verify(signer, times(2)).sign(any());
+    verify(executor, times(2))
+        .schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void backgroundRefresh_whenSigningFails_keepsServingTokenAndBacksOff()
+      throws SigningTokenException {
+    RefreshAheadAuthStateManager manager = createManager();
+    FleetEngineToken firstToken = signServerToken(manager);
+    Runnable refresh = captureScheduledRefresh();
+    doThrow(new SigningTokenException("IAM unavailable")).when(signer).sign(any());
+
+    now = now.plus(Duration.ofMinutes(50));
+    refresh.run();
+
+    assertThat(signServerToken(manager)).isSameInstanceAs(firstToken);
+    ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
+    verify(executor, times(2))
+        .schedule(any(Runnable.class), delayCaptor.capture(), eq(TimeUnit.MILLISECONDS));
+    assertThat(delayCaptor.getValue()).isAtLeast(500L);
+    assertThat(delayCaptor.getValue()).isAtMost(1000L);
+  }
+
+  @Test
+  public void signWildcardToken_whenRefreshFellBehind_signsOnCaller() throws SigningTokenException {
+    RefreshAheadAuthStateManager manager = createManager();
+    signServerToken(manager);
+
+    // The scheduled refresh never ran and the token is now inside the expiration window.
+    now = now.plus(Duration.ofMinutes(57));
+    FleetEngineToken token = signServerToken(manager);
+
+    assertThat(token.jwt()).isEqualTo("jwt-2");
+    verify(executor, times(2))
+        .schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void signWildcardToken_signsWithoutDelegate() throws SigningTokenException {
+    FleetEngineAuthTokenStateManager delegate = mock(FleetEngineAuthTokenStateManager.class);
+    RefreshAheadAuthStateManager manager =
+        new RefreshAheadAuthStateManager(
+            settings,
+            delegate,
+            executor,
+            false,
+            new FleetEngineTokenExpiryValidator(clock),
+            clock,
+            TokenPolicies.defaults());
+
+    FleetEngineToken token = signServerToken(manager);
+    now = now.plus(Duration.ofMinutes(57));
+    FleetEngineToken token2 = signServerToken(manager);
+
+    assertThat(token.jwt()).isEqualTo("jwt-1");
+    assertThat(token2.jwt()).isEqualTo("jwt-2");
+    verify(delegate, never()).signToken(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  public void signWildcardToken_schedulesRefreshAheadOfPolicyRefreshWindow()
+      throws SigningTokenException {
+    Duration refreshMargin = Duration.ofMinutes(20);
+    RefreshAheadAuthStateManager manager =
+        createManager(
+            TokenPolicies.builder()
+                .setPolicy(
+                    FleetEngineTokenType.SERVER,
+                    TokenPolicy.builder().setRefreshMargin(refreshMargin).build())
+                .build());
+
+    signServerToken(manager);
+
+    long expectedDelay = TOKEN_LIFETIME.minus(refreshMargin).minus(REFRESH_AHEAD_MARGIN).toMillis();
+    verify(executor).schedule(any(Runnable.class), eq(expectedDelay), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void signWildcardToken_whenShortLifetime_waitsHalfwayToRefreshWindow()
+      throws SigningTokenException {
+    Duration lifetime = Duration.ofMinutes(10);
+    serverTokenSupplier =
+        () ->
+            FleetEngineToken.builder()
+                .setCreationTimestamp(Date.from(now))
+                .setExpirationTimestamp(Date.from(now.plus(lifetime)))
+                .setTokenType(FleetEngineTokenType.SERVER)
+                .setAuthorizationClaims(ServerTokenClaims.create())
+                .build();
+    settings =
+        RefreshAheadAuthStateManagerSettings.builder()
+            .setRefreshAheadMargin(Duration.ofMinutes(4))
+            .setMaximumJitter(Duration.ZERO)
+            .build();
+    RefreshAheadAuthStateManager manager =
+        createManager(
+            TokenPolicies.builder()
+                .setPolicy(
+                    FleetEngineTokenType.SERVER,
+                    TokenPolicy.builder().setLifetime(lifetime).build())
+                .build());
+
+    signServerToken(manager);
+    Runnable refresh = captureScheduledRefresh();
+    now = now.plus(Duration.ofMinutes(3));
+    refresh.run();
+
+    ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
+    verify(executor, times(2))
+        .schedule(any(Runnable.class), delayCaptor.capture(), eq(TimeUnit.MILLISECONDS));
+    // The refresh-ahead margin leaves one minute, half of the five minutes before the window wins.
+    assertThat(delayCaptor.getAllValues())
+        .containsExactly(Duration.ofSeconds(150).toMillis(), Duration.ofSeconds(150).toMillis());
+  }
+
+  @Test
+  public void create_whenRefreshAheadMarginCoversLifetime_throwsException() {
+    TokenPolicies tokenPolicies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.SERVER,
+                TokenPolicy.builder().setLifetime(Duration.ofMinutes(10)).build())
+            .build();
+
+    assertThrows(IllegalArgumentException.class, () -> createManager(tokenPolicies));
+  }
+
+  @Test
+  public void signWildcardToken_whenPolicyNotCacheable_signsEveryTokenWithoutRefresh()
+      throws SigningTokenException {
+    RefreshAheadAuthStateManager manager =
+        createManager(
+            TokenPolicies.builder()
+                .setDefaultPolicy(TokenPolicy.builder().setCacheable(false).build())
+                .build());
+
+    assertThat(signServerToken(manager).jwt()).isEqualTo("jwt-1");
+    assertThat(signServerToken(manager).jwt()).isEqualTo("jwt-2");
+    verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void signNonWildcardToken_isNotRefreshedInBackground() throws SigningTokenException {
+    RefreshAheadAuthStateManager manager = createManager();
+    FleetEngineToken driverToken =
+        serverTokenSupplier.get().toBuilder()
+            .setTokenType(FleetEngineTokenType.DRIVER)
+            .setAuthorizationClaims(VehicleClaims.create("vehicle-1"))
+            .build();
+
+    manager.signToken(signer, driverToken);
+    manager.signToken(signer, driverToken);
+
+    verify(signer, times(2)).sign(eq(driverToken));
+    verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void close_cancelsScheduledRefresh() throws SigningTokenException {
+    RefreshAheadAuthStateManager manager = createManager();
+    signServerToken(manager);
+
+    manager.close();
+
+    verify(scheduledFuture).cancel(false);
+  }
+
+  @Test
+  public void backoffDelay_doublesUpToMaximumBackoff() {
+    RefreshAheadAuthStateManager manager = createManager();
+
+    assertThat(manager.backoffDelay(1).toMillis()).isAtLeast(500L);
+    assertThat(manager.backoffDelay(1).toMillis()).isAtMost(1000L);
+    assertThat(manager.backoffDelay(2).toMillis()).isAtLeast(1000L);
+    assertThat(manager.backoffDelay(2).toMillis()).isAtMost(2000L);
+    assertThat(manager.backoffDelay(10).toMillis()).isAtLeast(2000L);
+    assertThat(manager.backoffDelay(10).toMillis()).isAtMost(4000L);
+  }
+
+  @Test
+  public void signWildcardTokenAsync_signsAsyncThenReturnsCachedToken() throws Exception {
+    RefreshAheadAuthStateManager manager = createManager();
+    Executor signingExecutor = mock(Executor.class);
+    CompletableFuture<FleetEngineToken> signature = new CompletableFuture<>();
+    when(signer.signAsync(any(), eq(signingExecutor))).thenReturn(signature);
+
+    CompletableFuture<FleetEngineToken> token = signServerTokenAsync(manager, signingExecutor);
+    CompletableFuture<FleetEngineToken> token2 = signServerTokenAsync(manager, signingExecutor);
+    FleetEngineToken signedToken = serverTokenSupplier.get().toBuilder().setJwt("jwt-1").build();
+    signature.complete(signedToken);
+    CompletableFuture<FleetEngineToken> token3 = signServerTokenAsync(manager, signingExecutor);
+
+    assertThat(token.get()).isSameInstanceAs(signedToken);
+    assertThat(token2.get()).isSameInstanceAs(signedToken);
+    assertThat(token3.isDone()).isTrue();
+    assertThat(token3.get()).isSameInstanceAs(signedToken);
+    verify(signer, times(1)).signAsync(any(), any());
+    verify(signer, never()).sign(any());
+    verify(executor).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+  }
+
+  private CompletableFuture<FleetEngineToken> signServerTokenAsync(
+      RefreshAheadAuthStateManager manager, Executor signingExecutor) {
+    return manager.signTokenAsync(
+        signer,
+        FleetEngineTokenType.SERVER,
+        null,
+        ServerTokenClaims.create(),
+        serverTokenSupplier,
+        signingExecutor);
+  }
+
+  private RefreshAheadAuthStateManager createManager() {
+    return createManager(TokenPolicies.defaults());
+  }
+
+  private RefreshAheadAuthStateManager createManager(TokenPolicies tokenPolicies) {
+    FleetEngineTokenExpiryValidator expiryValidator = new FleetEngineTokenExpiryValidator(clock);
+    return new RefreshAheadAuthStateManager(
+        settings,
+        new NaiveAuthStateManager(expiryValidator, tokenPolicies),
+        executor,
+        false,
+        expiryValidator,
+        clock,
+        tokenPolicies);
+  }
+
+  private FleetEngineToken signServerToken(RefreshAheadAuthStateManager manager)
+      throws SigningTokenException {
+    return manager.signToken(
+        signer,
+        FleetEngineTokenType.SERVER,
+        null,
+        ServerTokenClaims.create(),
+        serverTokenSupplier);
+  }
+
+  private Runnable captureScheduledRefresh() {
+    ArgumentCaptor<Runnable> refreshCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor).schedule(refreshCaptor.capture(), anyLong(), any(TimeUnit.class));
+    return refreshCaptor.getValue();
+  }
+}
@@ -0,0 +1,296 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.VehicleClaims;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Managers opened on the same file stand in for processes of a host: file locks held by one of
+ * them are seen as held by another process by the others.
+ */
+@RunWith(JUnit4.class)
+public class SharedMemoryAuthStateManagerTest {
+  private static final Duration TOKEN_LIFETIME = Duration.ofMinutes(60);
+  private static final String SIGNER_IDENTITY = "server@test-project.iam.gserviceaccount.com";
+  private static final String OTHER_SIGNER_IDENTITY =
+      "other@test-project.iam.gserviceaccount.com";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Instant now;
+  private FleetEngineTokenExpiryValidator tokenExpiryValidator;
+  private AtomicInteger signCount;
+  private Signer signer;
+  private Path path;
+  private FleetEngineToken serverToken;
+  private FleetEngineToken vehicleToken;
+
+  @Before
+  public void setup() {
+    now = Instant.parse("2021-06-01T00:00:00.00Z");
+    Clock clock = mock(Clock.class);
+    when(clock.instant()).thenAnswer(invocation -> now);
+    when(clock.millis()).thenAnswer(invocation -> now.toEpochMilli());
+    tokenExpiryValidator = new FleetEngineTokenExpiryValidator(clock);
+
+    signCount = new AtomicInteger();
+    signer = token -> token.toBuilder().setJwt("jwt-" + signCount.incrementAndGet()).build();
+    path = temporaryFolder.getRoot().toPath().resolve("tokens");
+
+    serverToken =
+        FleetEngineToken.builder()
+            .setCreationTimestamp(Date.from(now))
+            .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+            .setTokenType(FleetEngineTokenType.SERVER)
+            .setAuthorizationClaims(ServerTokenClaims.create())
+            .build();
+    vehicleToken =
+        serverToken.toBuilder()
+            .setTokenType(FleetEngineTokenType.DRIVER)
+            .setAuthorizationClaims(VehicleClaims.create("vehicle-1"))
+            .build();
+  }
+
+  @Test
+  public void signToken_onOtherProcess_returnsSharedTokenWithoutSigning()
+      throws IOException, SigningTokenException {
+    try (SharedMemoryAuthStateManager manager = createManager(settings().build());
+        SharedMemoryAuthStateManager otherManager = createManager(settings().build())) {
+      FleetEngineToken signedToken = manager.signToken(signer, serverToken);
+
+      FleetEngineToken sharedToken = otherManager.signToken(signer, serverToken);
+
+      assertThat(sharedToken).isEqualTo(signedToken);
+      assertThat(otherManager.signToken(signer, serverToken)).isEqualTo(signedToken);
+      assertThat(signCount.get()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void signToken_withOtherSignerIdentity_doesNotShareToken()
+      throws IOException, SigningTokenException {
+    try (SharedMemoryAuthStateManager manager = createManager(settings().build());
+        SharedMemoryAuthStateManager otherManager =
+            createManager(settings().setSignerIdentity(OTHER_SIGNER_IDENTITY).build())) {
+      manager.signToken(signer, serverToken);
+
+      FleetEngineToken token = otherManager.signToken(signer, serverToken);
+
+      assertThat(token.jwt()).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void signToken_whenSharedTokenExpires_sharesReplacement()
+      throws IOException, SigningTokenException {
+    try (SharedMemoryAuthStateManager manager = createManager(settings().build());
+        SharedMemoryAuthStateManager otherManager = createManager(settings().build())) {
+      manager.signToken(signer, serverToken);
+      otherManager.signToken(signer, serverToken);
+      now = now.plus(TOKEN_LIFETIME).minus(Duration.ofMinutes(1));
+      serverToken =
+          serverToken.toBuilder()
+              .setCreationTimestamp(Date.from(now))
+              .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+              .build();
+
+      FleetEngineToken replacement = otherManager.signToken(signer, serverToken);
+
+      assertThat(replacement.jwt()).isEqualTo("jwt-2");
+      assertThat(manager.signToken(signer, serverToken).jwt()).isEqualTo("jwt-2");
+      assertThat(signCount.get()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void signToken_whenSharedTokenInPolicyRefreshWindow_sharesReplacement()
+      throws IOException, SigningTokenException {
+    TokenPolicies tokenPolicies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.SERVER,
+                TokenPolicy.builder().setRefreshMargin(Duration.ofMinutes(20)).build())
+            .build();
+    try (SharedMemoryAuthStateManager manager = createManager(settings().build(), tokenPolicies);
+        SharedMemoryAuthStateManager otherManager =
+            createManager(settings().build(), tokenPolicies)) {
+      manager.signToken(signer, serverToken);
+      now = now.plus(TOKEN_LIFETIME).minus(Duration.ofMinutes(15));
+      serverToken =
+          serverToken.toBuilder()
+              .setCreationTimestamp(Date.from(now))
+              .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+              .build();
+
+      FleetEngineToken token = manager.signToken(signer, serverToken);
+
+      assertThat(token.jwt()).isEqualTo("jwt-2");
+      assertThat(otherManager.signToken(signer, serverToken).jwt()).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void signToken_whenPolicyNotCacheable_signsEveryToken()
+      throws IOException, SigningTokenException {
+    TokenPolicies tokenPolicies =
+        TokenPolicies.builder()
+            .setDefaultPolicy(TokenPolicy.builder().setCacheable(false).build())
+            .build();
+    try (SharedMemoryAuthStateManager manager = createManager(settings().build(), tokenPolicies)) {
+      assertThat(manager.signToken(signer, serverToken).jwt()).isEqualTo("jwt-1");
+      assertThat(manager.signToken(signer, serverToken).jwt()).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void signToken_whileOtherProcessSigns_waitsForSharedToken() throws Exception {
+    CountDownLatch signing = new CountDownLatch(1);
+    CountDownLatch finishSigning = new CountDownLatch(1);
+    Signer slowSigner =
+        token -> {
+          signing.countDown();
+          try {
+            finishSigning.await();
+          } catch (InterruptedException e) {
+            throw new SigningTokenException("interrupted", e);
+          }
+          return token.toBuilder().setJwt("jwt-slow").build();
+        };
+    SharedMemoryAuthStateManagerSettings settings =
+        settings().setPollInterval(Duration.ofMillis(1)).build();
+    try (SharedMemoryAuthStateManager manager = createManager(settings);
+        SharedMemoryAuthStateManager otherManager = createManager(settings)) {
+      CompletableFuture<FleetEngineToken> signedToken =
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  return manager.signToken(slowSigner, serverToken);
+                } catch (SigningTokenException e) {
+                  throw new RuntimeException(e);
+                }
+              });
+      assertThat(signing.await(5, TimeUnit.SECONDS)).isTrue();
+
+      CompletableFuture<FleetEngineToken> sharedToken =
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  return otherManager.signToken(signer, serverToken);
+                } catch (SigningTokenException e) {
+                  throw new RuntimeException(e);
+                }
+              });
+      Thread.sleep(20);
+      finishSigning.countDown();
+
+      assertThat(signedToken.get(5, TimeUnit.SECONDS).jwt()).isEqualTo("jwt-slow");
+      assertThat(sharedToken.get(5, TimeUnit.SECONDS).jwt()).isEqualTo("jwt-slow");
+      assertThat(signCount.get()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void signToken_whenOtherProcessDoesNotWriteToken_signsLocally()
+      throws IOException, SigningTokenException {
+    SharedMemoryAuthStateManagerSettings settings =
+        settings()
+            .setPollInterval(Duration.ofMillis(1))
+            .setMaximumWait(Duration.ofMillis(10))
+            .build();
+    try (SharedTokenSegment otherProcess =
+            SharedTokenSegment.open(path, settings.maximumJwtLength());
+        SharedMemoryAuthStateManager manager = createManager(settings)) {
+      FileLock lock = otherProcess.tryLock(FleetEngineTokenType.SERVER);
+
+      FleetEngineToken token = manager.signToken(signer, serverToken);
+
+      assertThat(token.jwt()).isEqualTo("jwt-1");
+      assertThat(manager.signToken(signer, serverToken).jwt()).isEqualTo("jwt-1");
+      assertThat(otherProcess.read(FleetEngineTokenType.SERVER)).isNull();
+      lock.release();
+    }
+  }
+
+  @Test
+  public void signToken_withNonWildcardClaims_usesDelegate()
+      throws IOException, SigningTokenException {
+    FleetEngineAuthTokenStateManager delegate = mock(FleetEngineAuthTokenStateManager.class);
+    try (SharedMemoryAuthStateManager manager =
+        new SharedMemoryAuthStateManager(
+            settings().build(), delegate, tokenExpiryValidator, TokenPolicies.defaults())) {
+      manager.signToken(signer, vehicleToken);
+
+      verify(delegate)
+          .signToken(
+              eq(signer),
+              eq(FleetEngineTokenType.DRIVER),
+              any(),
+              eq(vehicleToken.authorizationClaims()),
+              any());
+    }
+  }
+
+  private SharedMemoryAuthStateManagerSettings.Builder settings() {
+    return SharedMemoryAuthStateManagerSettings.builder()
+        .setPath(path)
+        .setSignerIdentity(SIGNER_IDENTITY);
+  }
+
+  private SharedMemoryAuthStateManager createManager(SharedMemoryAuthStateManagerSettings settings)
+      throws IOException {
+    return createManager(settings, TokenPolicies.defaults());
+  }
+
+  private SharedMemoryAuthStateManager createManager(
+      SharedMemoryAuthStateManagerSettings settings, TokenPolicies tokenPolicies)
+      throws IOException {
+    return new SharedMemoryAuthStateManager(
+        settings,
+        new NaiveAuthStateManager(tokenExpiryValidator, tokenPolicies),
+        tokenExpiryValidator,
+        tokenPolicies);
+  }
+}
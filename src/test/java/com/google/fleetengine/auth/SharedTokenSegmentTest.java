@@ -0,0 +1,203 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SharedTokenSegmentTest {
+  private static final int MAXIMUM_JWT_LENGTH = 16;
+  private static final int SLOT_BYTES = 40 + MAXIMUM_JWT_LENGTH;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path path;
+
+  @Before
+  public void setup() {
+    path = temporaryFolder.getRoot().toPath().resolve("tokens");
+  }
+
+  @Test
+  public void read_withEmptySlot_returnsNull() throws IOException {
+    try (SharedTokenSegment segment = open()) {
+      assertThat(segment.read(FleetEngineTokenType.SERVER)).isNull();
+      assertThat(segment.sequence(FleetEngineTokenType.SERVER)).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void read_fromOtherSegment_returnsWrittenToken() throws IOException {
+    try (SharedTokenSegment writer = open();
+        SharedTokenSegment reader = open()) {
+      writer.write(FleetEngineTokenType.SERVER, 7, 100, 2000, "jwt-1");
+
+      SharedTokenSegment.Slot slot = reader.read(FleetEngineTokenType.SERVER);
+      assertThat(slot.key).isEqualTo(7);
+      assertThat(slot.creationMillis).isEqualTo(100);
+      assertThat(slot.expirationMillis).isEqualTo(2000);
+      assertThat(slot.jwt).isEqualTo("jwt-1");
+      assertThat(slot.sequence).isEqualTo(reader.sequence(FleetEngineTokenType.SERVER));
+      assertThat(reader.read(FleetEngineTokenType.CONSUMER)).isNull();
+    }
+  }
+
+  @Test
+  public void write_changesSequence() throws IOException {
+    try (SharedTokenSegment segment = open()) {
+      segment.write(FleetEngineTokenType.SERVER, 7, 100, 2000, "jwt-1");
+      long sequence = segment.sequence(FleetEngineTokenType.SERVER);
+
+      segment.write(FleetEngineTokenType.SERVER, 7, 1000, 3000, "jwt-2");
+
+      assertThat(segment.sequence(FleetEngineTokenType.SERVER)).isGreaterThan(sequence);
+      assertThat(segment.read(FleetEngineTokenType.SERVER).jwt).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void write_withJwtLongerThanMaximum_returnsFalse() throws IOException {
+    try (SharedTokenSegment segment = open()) {
+      assertThat(
+              segment.write(FleetEngineTokenType.SERVER, 7, 100, 2000, "jwt-longer-than-maximum"))
+          .isFalse();
+      assertThat(segment.read(FleetEngineTokenType.SERVER)).isNull();
+    }
+  }
+
+  @Test
+  public void read_whileSlotIsBeingWritten_returnsNull() throws IOException {
+    try (SharedTokenSegment segment = open()) {
+      segment.write(FleetEngineTokenType.SERVER, 7, 100, 2000, "jwt-1");
+      // Leaves an odd sequence, as a writer that died while writing would.
+      writeLong(slotOffset(FleetEngineTokenType.SERVER), 5);
+
+      assertThat(segment.read(FleetEngineTokenType.SERVER)).isNull();
+
+      segment.write(FleetEngineTokenType.SERVER, 7, 1000, 3000, "jwt-2");
+      assertThat(segment.sequence(FleetEngineTokenType.SERVER) % 2).isEqualTo(0);
+      assertThat(segment.read(FleetEngineTokenType.SERVER).jwt).isEqualTo("jwt-2");
+    }
+  }
+
+  @Test
+  public void read_withTornToken_returnsNull() throws IOException {
+    try (SharedTokenSegment segment = open()) {
+      segment.write(FleetEngineTokenType.SERVER, 7, 100, 2000, "jwt-1");
+      // Changes the JWT without changing the sequence.
+      writeByte(slotOffset(FleetEngineTokenType.SERVER) + 40 + 4, 'x');
+
+      assertThat(segment.read(FleetEngineTokenType.SERVER)).isNull();
+    }
+  }
+
+  @Test
+  public void open_withOtherMaximumJwtLength_throwsAndKeepsTokens() throws IOException {
+    try (SharedTokenSegment segment = open()) {
+      segment.write(FleetEngineTokenType.SERVER, 7, 100, 2000, "jwt-1");
+    }
+
+    assertThrows(
+        IOException.class, () -> SharedTokenSegment.open(path, MAXIMUM_JWT_LENGTH * 2).close());
+
+    try (SharedTokenSegment segment = open()) {
+      assertThat(segment.read(FleetEngineTokenType.SERVER).jwt).isEqualTo("jwt-1");
+    }
+  }
+
+  @Test
+  public void open_withOtherFormatVersion_throws() throws IOException {
+    open().close();
+    writeInt(4, 99);
+
+    assertThrows(IOException.class, () -> open().close());
+  }
+
+  @Test
+  public void open_withoutMagic_initializesFile() throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      file.write(new byte[] {1, 2, 3});
+    }
+
+    try (SharedTokenSegment segment = open()) {
+      assertThat(segment.read(FleetEngineTokenType.SERVER)).isNull();
+      segment.write(FleetEngineTokenType.SERVER, 7, 100, 2000, "jwt-1");
+    }
+    try (SharedTokenSegment segment = open()) {
+      assertThat(segment.read(FleetEngineTokenType.SERVER).jwt).isEqualTo("jwt-1");
+    }
+  }
+
+  @Test
+  public void tryLock_whenHeldByOtherSegment_returnsNull() throws IOException {
+    try (SharedTokenSegment segment = open();
+        SharedTokenSegment otherSegment = open()) {
+      FileLock lock = segment.tryLock(FleetEngineTokenType.SERVER);
+      assertThat(lock).isNotNull();
+
+      assertThat(otherSegment.tryLock(FleetEngineTokenType.SERVER)).isNull();
+      FileLock consumerLock = otherSegment.tryLock(FleetEngineTokenType.CONSUMER);
+      assertThat(consumerLock).isNotNull();
+
+      lock.release();
+      consumerLock.release();
+      FileLock releasedLock = otherSegment.tryLock(FleetEngineTokenType.SERVER);
+      assertThat(releasedLock).isNotNull();
+      releasedLock.release();
+    }
+  }
+
+  private SharedTokenSegment open() throws IOException {
+    return SharedTokenSegment.open(path, MAXIMUM_JWT_LENGTH);
+  }
+
+  private static long slotOffset(FleetEngineTokenType tokenType) {
+    return 64 + (long) tokenType.ordinal() * SLOT_BYTES;
+  }
+
+  private void writeLong(long offset, long value) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      file.seek(offset);
+      file.writeLong(value);
+    }
+  }
+
+  private void writeInt(long offset, int value) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      file.seek(offset);
+      file.writeInt(value);
+    }
+  }
+
+  private void writeByte(long offset, int value) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      file.seek(offset);
+      file.write(value);
+    }
+  }
+}
@@ -0,0 +1,264 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.VehicleClaims;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StaleWhileRevalidateAuthStateManagerTest {
+  private static final Duration TOKEN_LIFETIME = Duration.ofMinutes(60);
+
+  private Instant now;
+  private Clock clock;
+  private Signer signer;
+  private AtomicInteger signCount;
+  private List<Runnable> pendingRefreshes;
+  private StaleWhileRevalidateAuthStateManager manager;
+
+  @Before
+  public void setup() throws SigningTokenException {
+    now = Instant.parse("2021-06-01T00:00:00.00Z");
+    clock = mock(Clock.class);
+    when(clock.instant()).thenAnswer(invocation -> now);
+    when(clock.millis()).thenAnswer(invocation -> now.toEpochMilli());
+
+    signCount = new AtomicInteger();
+    signer = mock(Signer.class);
+    when(signer.sign(any()))
+        .thenAnswer(
+            invocation ->
+                invocation.getArgument(0, FleetEngineToken.class).toBuilder()
+                    .setJwt("jwt-" + signCount.incrementAndGet())
+                    .build());
+
+    pendingRefreshes = new ArrayList<>();
+    manager =
+        new StaleWhileRevalidateAuthStateManager(
+            pendingRefreshes::add, new FleetEngineTokenExpiryValidator(clock), clock);
+  }
+
+  @Test
+  public void signWildcardToken_whenNothingCached_signsOnCaller() throws SigningTokenException {
+    FleetEngineToken token = signServerToken();
+
+    assertThat(token.jwt()).isEqualTo("jwt-1");
+    assertThat(pendingRefreshes).isEmpty();
+  }
+
+  @Test
+  public void signWildcardToken_beforeExpirationWindow_returnsCachedToken()
+      throws SigningTokenException {
+    FleetEngineToken firstToken = signServerToken();
+
+    now = now.plus(Duration.ofMinutes(50));
+
+    assertThat(signServerToken()).isSameInstanceAs(firstToken);
+    assertThat(pendingRefreshes).isEmpty();
+    verify(signer, times(1)).sign(any());
+  }
+
+  @Test
+  public void signWildcardToken_insideExpirationWindow_servesStaleTokenWhileRefreshing()
+      throws SigningTokenException {
+    FleetEngineToken firstToken = signServerToken();
+    now = now.plus(Duration.ofMinutes(57));
+
+    FleetEngineToken staleToken = signServerToken();
+    FleetEngineToken staleToken2 = signServerToken();
+
+    assertThat(staleToken).isSameInstanceAs(firstToken);
+    assertThat(staleToken2).isSameInstanceAs(firstToken);
+    // Only one refresh is started for concurrent stale lookups.
+    assertThat(pendingRefreshes).hasSize(1);
+
+    pendingRefreshes.remove(0).run();
+    FleetEngineToken refreshedToken = signServerToken();
+
+    assertThat(refreshedToken.jwt()).isEqualTo("jwt-2");
+    assertThat(refreshedToken.creationTimestamp().toInstant()).isEqualTo(now);
+    assertThat(manager.stats())
+        .isEqualTo(StaleTokenStats.create(/* staleWhileRevalidateCount= */ 2, 0, 1, 0));
+  }
+
+  @Test
+  public void signWildcardToken_whenRefreshFails_servesStaleTokenUntilExpiration()
+      throws SigningTokenException {
+    FleetEngineToken firstToken = signServerToken();
+    doThrow(new SigningTokenException("IAM unavailable")).when(signer).sign(any());
+    now = now.plus(Duration.ofMinutes(57));
+    signServerToken();
+    pendingRefreshes.remove(0).run();
+
+    FleetEngineToken staleToken = signServerToken();
+
+    assertThat(staleToken).isSameInstanceAs(firstToken);
+    // Retries wait for the retry interval.
+    assertThat(pendingRefreshes).isEmpty();
+
+    now = now.plus(StaleWhileRevalidateAuthStateManager.RETRY_INTERVAL);
+    assertThat(signServerToken()).isSameInstanceAs(firstToken);
+    assertThat(pendingRefreshes).hasSize(1);
+    assertThat(manager.stats())
+        .isEqualTo(StaleTokenStats.create(1, /* staleIfErrorCount= */ 2, 0, 1));
+
+    now = now.plus(Duration.ofMinutes(3));
+    assertThrows(SigningTokenException.class, this::signServerToken);
+  }
+
+  @Test
+  public void signNonWildcardToken_alwaysSigns() throws SigningTokenException {
+    FleetEngineToken driverToken =
+        FleetEngineToken.builder()
+            .setCreationTimestamp(Date.from(now))
+            .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+            .setTokenType(FleetEngineTokenType.DRIVER)
+            .setAuthorizationClaims(VehicleClaims.create("vehicle-1"))
+            .build();
+
+    manager.signToken(signer, driverToken);
+    manager.signToken(signer, driverToken);
+
+    verify(signer, times(2)).sign(driverToken);
+    assertThat(pendingRefreshes).isEmpty();
+  }
+
+  @Test
+  public void signWildcardToken_pastPolicyMaximumStaleness_signsOnCaller()
+      throws SigningTokenException {
+    TokenPolicy policy =
+        TokenPolicy.builder()
+            .setRefreshMargin(Duration.ofMinutes(10))
+            .setMaximumStaleness(Duration.ofMinutes(2))
+            .build();
+    manager =
+        new StaleWhileRevalidateAuthStateManager(
+            pendingRefreshes::add,
+            new FleetEngineTokenExpiryValidator(clock),
+            clock,
+            TokenPolicies.builder().setPolicy(FleetEngineTokenType.SERVER, policy).build());
+    FleetEngineToken firstToken = signServerToken();
+
+    now = now.plus(Duration.ofMinutes(51));
+    assertThat(signServerToken()).isSameInstanceAs(firstToken);
+    assertThat(pendingRefreshes).hasSize(1);
+
+    now = now.plus(Duration.ofMinutes(2));
+    assertThat(signServerToken().jwt()).isEqualTo("jwt-2");
+  }
+
+  @Test
+  public void signWildcardTokenAsync_insideExpirationWindow_returnsStaleTokenWhileRefreshing()
+      throws Exception {
+    FleetEngineToken firstToken = signServerToken();
+    Executor signingExecutor = mock(Executor.class);
+
+    now = now.plus(Duration.ofMinutes(57));
+    CompletableFuture<FleetEngineToken> token = signServerTokenAsync(signingExecutor);
+
+    assertThat(token.isDone()).isTrue();
+    assertThat(token.get()).isSameInstanceAs(firstToken);
+    assertThat(pendingRefreshes).hasSize(1);
+    verifyNoInteractions(signingExecutor);
+  }
+
+  @Test
+  public void signWildcardTokenAsync_whenNothingCached_sharesSignatureWithSignToken()
+      throws Exception {
+    Executor signingExecutor = mock(Executor.class);
+    CompletableFuture<FleetEngineToken> signature = new CompletableFuture<>();
+    when(signer.signAsync(any(), eq(signingExecutor))).thenReturn(signature);
+
+    CompletableFuture<FleetEngineToken> token = signServerTokenAsync(signingExecutor);
+    CompletableFuture<FleetEngineToken> token2 = signServerTokenAsync(signingExecutor);
+    FleetEngineToken signedToken =
+        FleetEngineToken.builder()
+            .setCreationTimestamp(Date.from(now))
+            .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+            .setTokenType(FleetEngineTokenType.SERVER)
+            .setAuthorizationClaims(ServerTokenClaims.create())
+            .setJwt("jwt-async")
+            .build();
+    signature.complete(signedToken);
+
+    assertThat(token.get()).isSameInstanceAs(signedToken);
+    assertThat(token2.get()).isSameInstanceAs(signedToken);
+    assertThat(signServerToken()).isSameInstanceAs(signedToken);
+    verify(signer, times(1)).signAsync(any(), any());
+    verify(signer, never()).sign(any());
+  }
+
+  private CompletableFuture<FleetEngineToken> signServerTokenAsync(Executor signingExecutor) {
+    return manager.signTokenAsync(
+        signer,
+        FleetEngineTokenType.SERVER,
+        null,
+        ServerTokenClaims.create(),
+        () ->
+            FleetEngineToken.builder()
+                .setCreationTimestamp(Date.from(now))
+                .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+                .setTokenType(FleetEngineTokenType.SERVER)
+                .setAuthorizationClaims(ServerTokenClaims.create())
+                .build(),
+        signingExecutor);
+  }
+
+  private FleetEngineToken signServerToken() throws SigningTokenException {
+    return manager.signToken(
+        signer,
+        FleetEngineTokenType.SERVER,
+        null,
+        ServerTokenClaims.create(),
+        () ->
+            FleetEngineToken.builder()
+                .setCreationTimestamp(Date.from(now))
+                .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+                .setTokenType(FleetEngineTokenType.SERVER)
+                .setAuthorizationClaims(ServerTokenClaims.create())
+                .build());
+  }
+}
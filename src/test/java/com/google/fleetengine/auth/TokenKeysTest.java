@@ -0,0 +1,67 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TokenKeysTest {
+
+  @Test
+  public void hash_doesNotDependOnClaimOrder() {
+    long key =
+        TokenKeys.hash(
+            FleetEngineTokenType.SERVER, "aud", ImmutableMap.of("tripid", "*", "vehicleid", "*"));
+    long reorderedKey =
+        TokenKeys.hash(
+            FleetEngineTokenType.SERVER, "aud", ImmutableMap.of("vehicleid", "*", "tripid", "*"));
+
+    assertThat(reorderedKey).isEqualTo(key);
+  }
+
+  @Test
+  public void hash_dependsOnTokenTypeAudienceAndClaims() {
+    ImmutableMap<String, String> claims = ImmutableMap.of("vehicleid", "vehicle-1");
+    long key = TokenKeys.hash(FleetEngineTokenType.DRIVER, "aud", claims);
+
+    assertThat(TokenKeys.hash(FleetEngineTokenType.CONSUMER, "aud", claims)).isNotEqualTo(key);
+    assertThat(TokenKeys.hash(FleetEngineTokenType.DRIVER, "other", claims)).isNotEqualTo(key);
+    assertThat(
+            TokenKeys.hash(
+                FleetEngineTokenType.DRIVER, "aud", ImmutableMap.of("vehicleid", "vehicle-2")))
+        .isNotEqualTo(key);
+  }
+
+  @Test
+  public void digest_isSha256IndependentOfClaimOrder() {
+    byte[] digest =
+        TokenKeys.digest(
+            FleetEngineTokenType.SERVER, "aud", ImmutableMap.of("tripid", "*", "vehicleid", "*"));
+    byte[] reorderedDigest =
+        TokenKeys.digest(
+            FleetEngineTokenType.SERVER, "aud", ImmutableMap.of("vehicleid", "*", "tripid", "*"));
+
+    assertThat(digest).hasLength(32);
+    assertThat(reorderedDigest).isEqualTo(digest);
+    assertThat(TokenKeys.digest(FleetEngineTokenType.SERVER, "other", ImmutableMap.of()))
+        .isNotEqualTo(digest);
+  }
+}
@@ -0,0 +1,305 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.io.BaseEncoding;
+import com.google.fleetengine.auth.store.InMemoryTokenStore;
+import com.google.fleetengine.auth.store.StoredToken;
+import com.google.fleetengine.auth.store.TokenStore;
+import com.google.fleetengine.auth.store.TokenStoreException;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.ServerTokenClaims;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.VehicleClaims;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TokenStoreAuthStateManagerTest {
+  private static final Duration TOKEN_LIFETIME = Duration.ofMinutes(60);
+
+  private Instant now;
+  private FleetEngineTokenExpiryValidator tokenExpiryValidator;
+  private AtomicInteger signCount;
+  private Signer signer;
+  private TokenStore store;
+  private TokenStoreAuthStateManagerSettings settings;
+  private TokenPolicies tokenPolicies;
+  private FleetEngineToken serverToken;
+  private FleetEngineToken vehicleToken;
+  private FleetEngineToken otherVehicleToken;
+
+  @Before
+  public void setup() {
+    now = Instant.parse("2021-06-01T00:00:00.00Z");
+    Clock clock = mock(Clock.class);
+    when(clock.instant()).thenAnswer(invocation -> now);
+    when(clock.millis()).thenAnswer(invocation -> now.toEpochMilli());
+    tokenExpiryValidator = new FleetEngineTokenExpiryValidator(clock);
+
+    signCount = new AtomicInteger();
+    signer = token -> token.toBuilder().setJwt("jwt-" + signCount.incrementAndGet()).build();
+    store = spy(new InMemoryTokenStore());
+    settings =
+        TokenStoreAuthStateManagerSettings.builder()
+            .setPollInterval(Duration.ofMillis(1))
+            .setMaximumWait(Duration.ofSeconds(5))
+            .build();
+    tokenPolicies = TokenPolicies.defaults();
+
+    serverToken =
+        FleetEngineToken.builder()
+            .setCreationTimestamp(Date.from(now))
+            .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+            .setTokenType(FleetEngineTokenType.SERVER)
+            .setAuthorizationClaims(ServerTokenClaims.create())
+            .build();
+    vehicleToken =
+        serverToken.toBuilder()
+            .setTokenType(FleetEngineTokenType.DRIVER)
+            .setAuthorizationClaims(VehicleClaims.create("vehicle-1"))
+            .build();
+    otherVehicleToken =
+        vehicleToken.toBuilder().setAuthorizationClaims(VehicleClaims.create("vehicle-2")).build();
+  }
+
+  @Test
+  public void signToken_onOtherProcess_returnsStoredTokenWithoutSigning()
+      throws SigningTokenException {
+    FleetEngineToken signedToken = createManager().signToken(signer, serverToken);
+
+    FleetEngineToken sharedToken = createManager().signToken(signer, serverToken);
+
+    assertThat(signCount.get()).isEqualTo(1);
+    assertThat(sharedToken).isEqualTo(signedToken);
+  }
+
+  @Test
+  public void signToken_withNonWildcardClaims_sharesTokenPerEntity()
+      throws SigningTokenException {
+    TokenStoreAuthStateManager manager = createManager();
+    TokenStoreAuthStateManager otherManager = createManager();
+
+    FleetEngineToken vehicle1Token = manager.signToken(signer, vehicleToken);
+    FleetEngineToken vehicle2Token = otherManager.signToken(signer, otherVehicleToken);
+
+    assertThat(otherManager.signToken(signer, vehicleToken).jwt()).isEqualTo(vehicle1Token.jwt());
+    assertThat(manager.signToken(signer, otherVehicleToken).jwt()).isEqualTo(vehicle2Token.jwt());
+    assertThat(signCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void signToken_whenTokenInMemory_doesNotReadStore()
+      throws SigningTokenException, TokenStoreException {
+    TokenStoreAuthStateManager manager = createManager();
+    manager.signToken(signer, serverToken);
+
+    manager.signToken(signer, serverToken);
+
+    verify(store, times(2)).get(anyString());
+  }
+
+  @Test
+  public void signToken_whenStoredTokenExpired_replacesStoredToken()
+      throws SigningTokenException, TokenStoreException {
+    createManager().signToken(signer, serverToken);
+    now = now.plus(TOKEN_LIFETIME).minus(Duration.ofMinutes(1));
+    serverToken =
+        serverToken.toBuilder()
+            .setCreationTimestamp(Date.from(now))
+            .setExpirationTimestamp(Date.from(now.plus(TOKEN_LIFETIME)))
+            .build();
+
+    FleetEngineToken token = createManager().signToken(signer, serverToken);
+
+    assertThat(token.jwt()).isEqualTo("jwt-2");
+    assertThat(createManager().signToken(signer, serverToken).jwt()).isEqualTo("jwt-2");
+    assertThat(signCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void signToken_whenStoredTokenInPolicyRefreshWindow_replacesStoredToken()
+      throws SigningTokenException {
+    tokenPolicies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.SERVER,
+                TokenPolicy.builder().setRefreshMargin(Duration.ofMinutes(20)).build())
+            .build();
+    createManager().signToken(signer, serverToken);
+    now = now.plus(TOKEN_LIFETIME).minus(Duration.ofMinutes(15));
+
+    FleetEngineToken token = createManager().signToken(signer, serverToken);
+
+    assertThat(token.jwt()).isEqualTo("jwt-2");
+  }
+
+  @Test
+  public void signToken_whenPolicyNotCacheable_signsWithoutStore()
+      throws SigningTokenException, TokenStoreException {
+    tokenPolicies =
+        TokenPolicies.builder()
+            .setDefaultPolicy(TokenPolicy.builder().setCacheable(false).build())
+            .build();
+    TokenStoreAuthStateManager manager = createManager();
+
+    assertThat(manager.signToken(signer, serverToken).jwt()).isEqualTo("jwt-1");
+    assertThat(manager.signToken(signer, serverToken).jwt()).isEqualTo("jwt-2");
+    verify(store, never()).get(anyString());
+  }
+
+  @Test
+  public void signToken_whenLeaseHeldByOtherProcess_waitsForStoredToken() throws Exception {
+    String key = storeKeyOfServerToken();
+    store.tryAcquireLease(key, "other-process", Duration.ofSeconds(30));
+    TokenStoreAuthStateManager manager = createManager();
+
+    CompletableFuture<FleetEngineToken> token = signServerTokenAsync(manager);
+    Thread.sleep(20);
+    store.compareAndSet(
+        key, null, StoredToken.create("jwt-other-process", now, now.plus(TOKEN_LIFETIME)));
+
+    assertThat(token.get(5, TimeUnit.SECONDS).jwt()).isEqualTo("jwt-other-process");
+    assertThat(signCount.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void signToken_concurrentlyInSameProcess_signsOnce() throws Exception {
+    CountDownLatch signing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    signer =
+        token -> {
+          signing.countDown();
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return token.toBuilder().setJwt("jwt-" + signCount.incrementAndGet()).build();
+        };
+    TokenStoreAuthStateManager manager = createManager();
+
+    CompletableFuture<FleetEngineToken> first = signServerTokenAsync(manager);
+    signing.await(5, TimeUnit.SECONDS);
+    CompletableFuture<FleetEngineToken> second = signServerTokenAsync(manager);
+    Thread.sleep(20);
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS).jwt()).isEqualTo("jwt-1");
+    assertThat(second.get(5, TimeUnit.SECONDS).jwt()).isEqualTo("jwt-1");
+    assertThat(signCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void signToken_whenOtherProcessDoesNotStoreToken_signsLocally()
+      throws SigningTokenException, TokenStoreException {
+    store.tryAcquireLease(storeKeyOfServerToken(), "other-process", Duration.ofSeconds(30));
+    settings =
+        TokenStoreAuthStateManagerSettings.builder()
+            .setPollInterval(Duration.ofMillis(1))
+            .setMaximumWait(Duration.ofMillis(10))
+            .build();
+
+    FleetEngineToken token = createManager().signToken(signer, serverToken);
+
+    assertThat(token.jwt()).isEqualTo("jwt-1");
+    assertThat(store.get(storeKeyOfServerToken()).jwt()).isEqualTo("jwt-1");
+  }
+
+  @Test
+  public void signToken_whenStoreFails_signsLocally()
+      throws SigningTokenException, TokenStoreException {
+    store = mock(TokenStore.class);
+    when(store.get(anyString())).thenThrow(new TokenStoreException("unavailable"));
+
+    FleetEngineToken token = createManager().signToken(signer, serverToken);
+
+    assertThat(token.jwt()).isEqualTo("jwt-1");
+  }
+
+  @Test
+  public void signToken_releasesLease() throws SigningTokenException, TokenStoreException {
+    createManager().signToken(signer, serverToken);
+
+    verify(store).releaseLease(any(), any());
+    assertThat(store.tryAcquireLease(storeKeyOfServerToken(), "other", Duration.ofSeconds(30)))
+        .isTrue();
+  }
+
+  @Test
+  public void signToken_whenSigningFails_releasesLease() throws TokenStoreException {
+    signer =
+        token -> {
+          throw new SigningTokenException("failed");
+        };
+    TokenStoreAuthStateManager manager = createManager();
+
+    try {
+      manager.signToken(signer, serverToken);
+    } catch (SigningTokenException expected) {
+      // Expected.
+    }
+
+    assertThat(store.tryAcquireLease(storeKeyOfServerToken(), "other", Duration.ofSeconds(30)))
+        .isTrue();
+    verify(store, never()).compareAndSet(any(), any(), any());
+  }
+
+  private String storeKeyOfServerToken() {
+    byte[] digest =
+        TokenKeys.digest(FleetEngineTokenType.SERVER, null, ServerTokenClaims.create().toMap());
+    return settings.keyPrefix() + ":" + BaseEncoding.base16().lowerCase().encode(digest);
+  }
+
+  private TokenStoreAuthStateManager createManager() {
+    return new TokenStoreAuthStateManager(settings, store, tokenExpiryValidator, tokenPolicies);
+  }
+
+  private CompletableFuture<FleetEngineToken> signServerTokenAsync(
+      TokenStoreAuthStateManager manager) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return manager.signToken(signer, serverToken);
+          } catch (SigningTokenException e) {
+            throw new RuntimeException(e);
+          }
+        });
+  }
+}
@@ -16,22 +16,43 @@ package com.google.fleetengine.auth.client;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.fleetengine.auth.EmptyFleetEngineTokenClaims;
 import com.google.fleetengine.auth.token.FleetEngineToken;
 import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
+import com.google.fleetengine.auth.token.factory.signer.SignerOverloadedException;
+import com.google.fleetengine.auth.token.factory.signer.SigningDeadline;
+import com.google.fleetengine.auth.token.factory.signer.SigningDeadlineExceededException;
 import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
 import io.grpc.CallCredentials;
+import io.grpc.Deadline;
 import io.grpc.Metadata;
+import io.grpc.Status;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -43,7 +64,10 @@ public class FleetEngineAuthCallCredentialsTest {
       Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
   private static final String FAKE_JWT = "fake.jwt.token";
   private static final String FAKE_AUTHORIZATION_HEADER = String.format("Bearer %s", FAKE_JWT);
-  @Mock private FleetEngineTokenProvider tokenProvider;
+  private static final Clock CLOCK =
+      Clock.fixed(Instant.parse("2021-06-01T00:00:00.00Z"), ZoneOffset.UTC);
+  @Mock(answer = Answers.CALLS_REAL_METHODS)
+  private FleetEngineTokenProvider tokenProvider;
   @Mock private CallCredentials.MetadataApplier applier;
   private FleetEngineToken fleetEngineToken;
 
@@ -85,4 +109,279 @@ public class FleetEngineAuthCallCredentialsTest {
     callCredentials.applyRequestMetadata(null, null, applier);
     verify(applier).fail(any());
   }
+
+  @Test
+  public void applyRequestMetadata_whenNoCachedToken_signsOnAppExecutor()
+      throws SigningTokenException {
+    when(tokenProvider.getSignedToken()).thenReturn(validToken());
+    Executor appExecutor = mock(Executor.class);
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+
+    callCredentials.applyRequestMetadata(null, appExecutor, applier);
+
+    verify(tokenProvider, never()).getSignedToken();
+    ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(appExecutor).execute(taskCaptor.capture());
+    taskCaptor.getValue().run();
+    ArgumentCaptor<Metadata> metadataCaptor = ArgumentCaptor.forClass(Metadata.class);
+    verify(applier).apply(metadataCaptor.capture());
+    assertThat(metadataCaptor.getValue().get(AUTHORIZATION_HEADER))
+        .isEqualTo(FAKE_AUTHORIZATION_HEADER);
+  }
+
+  @Test
+  public void applyRequestMetadata_whenCachedTokenValid_appliesCachedHeadersOnCallingThread()
+      throws SigningTokenException {
+    when(tokenProvider.getSignedToken()).thenReturn(validToken());
+    Executor appExecutor = mock(Executor.class);
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    callCredentials.applyRequestMetadata(null, appExecutor, applier);
+
+    verify(tokenProvider, times(1)).getSignedToken();
+    verifyNoInteractions(appExecutor);
+    ArgumentCaptor<Metadata> metadataCaptor = ArgumentCaptor.forClass(Metadata.class);
+    verify(applier, times(2)).apply(metadataCaptor.capture());
+    assertThat(metadataCaptor.getAllValues().get(1))
+        .isSameInstanceAs(metadataCaptor.getAllValues().get(0));
+  }
+
+  @Test
+  public void hasFreshHeaders_onlyOnceValidTokenCached() throws SigningTokenException {
+    when(tokenProvider.getSignedToken()).thenReturn(validToken());
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+    assertThat(callCredentials.hasFreshHeaders()).isFalse();
+
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    assertThat(callCredentials.hasFreshHeaders()).isTrue();
+  }
+
+  @Test
+  public void applyRequestMetadata_whenCachedTokenInExpirationWindow_signsNewToken()
+      throws SigningTokenException {
+    FleetEngineToken expiringToken =
+        validToken().toBuilder()
+            .setExpirationTimestamp(Date.from(CLOCK.instant().plus(Duration.ofMinutes(4))))
+            .build();
+    when(tokenProvider.getSignedToken()).thenReturn(expiringToken, validToken());
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    verify(tokenProvider, times(2)).getSignedToken();
+    verify(applier, times(3)).apply(any());
+  }
+
+  @Test
+  public void applyRequestMetadata_whenCachedTokenInPolicyRefreshWindow_signsNewToken()
+      throws SigningTokenException {
+    FleetEngineToken expiringToken =
+        validToken().toBuilder()
+            .setExpirationTimestamp(Date.from(CLOCK.instant().plus(Duration.ofMinutes(15))))
+            .build();
+    when(tokenProvider.getSignedToken()).thenReturn(expiringToken, validToken());
+    TokenPolicies tokenPolicies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.SERVER,
+                TokenPolicy.builder().setRefreshMargin(Duration.ofMinutes(20)).build())
+            .build();
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, tokenPolicies, CLOCK);
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    assertThat(callCredentials.hasFreshHeaders()).isFalse();
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    verify(tokenProvider, times(2)).getSignedToken();
+    assertThat(callCredentials.hasFreshHeaders()).isTrue();
+  }
+
+  @Test
+  public void applyRequestMetadata_whenPolicyNotCacheable_getsTokenForEveryCall()
+      throws SigningTokenException {
+    when(tokenProvider.getSignedToken()).thenReturn(validToken());
+    TokenPolicies tokenPolicies =
+        TokenPolicies.builder()
+            .setDefaultPolicy(TokenPolicy.builder().setCacheable(false).build())
+            .build();
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, tokenPolicies, CLOCK);
+
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    verify(tokenProvider, times(2)).getSignedToken();
+    verify(applier, times(2)).apply(any());
+    assertThat(callCredentials.hasFreshHeaders()).isFalse();
+  }
+
+  @Test
+  public void applyRequestMetadata_usesPoliciesOfTokenProvider() throws SigningTokenException {
+    when(tokenProvider.getSignedToken()).thenReturn(validToken());
+    when(tokenProvider.tokenPolicies())
+        .thenReturn(
+            TokenPolicies.builder()
+                .setDefaultPolicy(TokenPolicy.builder().setCacheable(false).build())
+                .build());
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    verify(tokenProvider, times(2)).getSignedToken();
+    assertThat(callCredentials.hasFreshHeaders()).isFalse();
+  }
+
+  @Test
+  public void applyRequestMetadata_whenAppExecutorRejects_callsFail() {
+    Executor appExecutor = mock(Executor.class);
+    doThrow(new RejectedExecutionException()).when(appExecutor).execute(any());
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+
+    callCredentials.applyRequestMetadata(null, appExecutor, applier);
+
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(applier).fail(statusCaptor.capture());
+    assertThat(statusCaptor.getValue().getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+  }
+
+  @Test
+  public void applyRequestMetadata_whenNoCachedToken_usesAsyncProvider()
+      throws SigningTokenException {
+    CompletableFuture<FleetEngineToken> signedToken = new CompletableFuture<>();
+    FleetEngineTokenProvider asyncProvider =
+        mock(FleetEngineTokenProvider.class, Answers.CALLS_REAL_METHODS);
+    when(asyncProvider.getSignedTokenAsync(any())).thenReturn(signedToken);
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(asyncProvider, CLOCK);
+
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    verify(asyncProvider, never()).getSignedToken();
+    verifyNoInteractions(applier);
+    signedToken.complete(validToken());
+    verify(applier).apply(any());
+    assertThat(callCredentials.hasFreshHeaders()).isTrue();
+  }
+
+  @Test
+  public void applyRequestMetadata_whenAsyncProviderOverloaded_failsWithUnavailable() {
+    FleetEngineTokenProvider asyncProvider =
+        mock(FleetEngineTokenProvider.class, Answers.CALLS_REAL_METHODS);
+    CompletableFuture<FleetEngineToken> signedToken = new CompletableFuture<>();
+    signedToken.completeExceptionally(
+        new CompletionException(
+            new SignerOverloadedException("Too many requests are waiting to be signed.")));
+    when(asyncProvider.getSignedTokenAsync(any())).thenReturn(signedToken);
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(asyncProvider, CLOCK);
+
+    callCredentials.applyRequestMetadata(null, Runnable::run, applier);
+
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(applier).fail(statusCaptor.capture());
+    assertThat(statusCaptor.getValue().getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+  }
+
+  @Test
+  public void applyRequestMetadata_whenSignerOverloaded_failsWithUnavailable()
+      throws SigningTokenException {
+    when(tokenProvider.getSignedToken())
+        .thenThrow(new SignerOverloadedException("Too many requests are waiting to be signed."));
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+
+    callCredentials.applyRequestMetadata(null, null, applier);
+
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(applier).fail(statusCaptor.capture());
+    assertThat(statusCaptor.getValue().getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+  }
+
+  @Test
+  public void applyRequestMetadata_whenSigningFails_failsWithUnauthenticated()
+      throws SigningTokenException {
+    when(tokenProvider.getSignedToken()).thenThrow(new SigningTokenException("fake error"));
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+
+    callCredentials.applyRequestMetadata(null, null, applier);
+
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(applier).fail(statusCaptor.capture());
+    assertThat(statusCaptor.getValue().getCode()).isEqualTo(Status.Code.UNAUTHENTICATED);
+  }
+
+  @Test
+  public void applyRequestMetadata_whenDeadlineExpired_failsWithoutSigning()
+      throws SigningTokenException {
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+
+    callCredentials
+        .withDeadline(Deadline.after(-1, TimeUnit.SECONDS))
+        .applyRequestMetadata(null, null, applier);
+
+    verify(tokenProvider, never()).getSignedToken();
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(applier).fail(statusCaptor.capture());
+    assertThat(statusCaptor.getValue().getCode()).isEqualTo(Status.Code.DEADLINE_EXCEEDED);
+  }
+
+  @Test
+  public void applyRequestMetadata_withDeadline_signsWithinSigningDeadline()
+      throws SigningTokenException {
+    AtomicLong remainingNanos = new AtomicLong();
+    when(tokenProvider.getSignedToken())
+        .thenAnswer(
+            invocation -> {
+              remainingNanos.set(SigningDeadline.remainingNanos());
+              return validToken();
+            });
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+
+    callCredentials
+        .withDeadline(Deadline.after(1, TimeUnit.MINUTES))
+        .applyRequestMetadata(null, null, applier);
+
+    assertThat(remainingNanos.get()).isAtMost(TimeUnit.MINUTES.toNanos(1));
+    assertThat(SigningDeadline.remainingNanos()).isEqualTo(Long.MAX_VALUE);
+    verify(applier).apply(any());
+  }
+
+  @Test
+  public void applyRequestMetadata_whenSigningDeadlineExceeded_failsWithDeadlineExceeded()
+      throws SigningTokenException {
+    when(tokenProvider.getSignedToken())
+        .thenThrow(new SigningDeadlineExceededException("Deadline exceeded while signing token."));
+    FleetEngineAuthCallCredentials callCredentials =
+        FleetEngineAuthCallCredentials.create(this.tokenProvider, CLOCK);
+
+    callCredentials
+        .withDeadline(Deadline.after(1, TimeUnit.MINUTES))
+        .applyRequestMetadata(null, null, applier);
+
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(applier).fail(statusCaptor.capture());
+    assertThat(statusCaptor.getValue().getCode()).isEqualTo(Status.Code.DEADLINE_EXCEEDED);
+  }
+
+  private FleetEngineToken validToken() {
+    return fleetEngineToken.toBuilder()
+        .setJwt(FAKE_JWT)
+        .setExpirationTimestamp(Date.from(CLOCK.instant().plus(Duration.ofHours(1))))
+        .build();
+  }
 }
@@ -25,11 +25,14 @@ import com.google.api.gax.core.CredentialsProvider;
 import com.google.api.gax.core.FixedCredentialsProvider;
 import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
 import com.google.api.gax.rpc.ClientSettings;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
 import com.google.api.gax.rpc.HeaderProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
 import com.google.fleetengine.auth.EmptyFleetEngineTokenClaims;
 import com.google.fleetengine.auth.token.FleetEngineToken;
 import com.google.fleetengine.auth.token.FleetEngineTokenType;
 import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import io.grpc.ManagedChannel;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.Date;
@@ -122,6 +125,43 @@ public class FleetEngineClientSettingsModifierTest {
     assertThat(fixedCredentialsProvider.getCredentials()).isNull();
   }
 
+  @Test
+  public void updateBuilder_withSharedChannel_setsSharedTransportChannelProvider() {
+    when(clientSettingsBuilder.getTransportChannelProvider())
+        .thenReturn(mock(TransportChannelProvider.class));
+    SharedFleetEngineChannel sharedChannel =
+        SharedFleetEngineChannel.create(mock(ManagedChannel.class));
+    FleetEngineClientSettingsModifier<FakeClientSettings, FakeClientSettings.Builder> modifier =
+        new FleetEngineClientSettingsModifier<>(fleetEngineTokenProvider, sharedChannel);
+
+    modifier.updateBuilder(clientSettingsBuilder);
+
+    ArgumentCaptor<TransportChannelProvider> transportChannelProviderCaptor =
+        ArgumentCaptor.forClass(TransportChannelProvider.class);
+    verify(clientSettingsBuilder, times(1))
+        .setTransportChannelProvider(transportChannelProviderCaptor.capture());
+    assertThat(transportChannelProviderCaptor.getValue())
+        .isInstanceOf(FixedTransportChannelProvider.class);
+  }
+
+  @Test
+  public void updateBuilder_withSharedChannel_addsNullCredentialsProvider() {
+    SharedFleetEngineChannel sharedChannel =
+        SharedFleetEngineChannel.create(mock(ManagedChannel.class));
+    FleetEngineClientSettingsModifier<FakeClientSettings, FakeClientSettings.Builder> modifier =
+        new FleetEngineClientSettingsModifier<>(fleetEngineTokenProvider, sharedChannel);
+
+    modifier.updateBuilder(clientSettingsBuilder);
+
+    ArgumentCaptor<CredentialsProvider> credentialsProviderArgumentCaptor =
+        ArgumentCaptor.forClass(CredentialsProvider.class);
+    verify(clientSettingsBuilder, times(1))
+        .setCredentialsProvider(credentialsProviderArgumentCaptor.capture());
+    FixedCredentialsProvider fixedCredentialsProvider =
+        (FixedCredentialsProvider) credentialsProviderArgumentCaptor.getValue();
+    assertThat(fixedCredentialsProvider.getCredentials()).isNull();
+  }
+
   /** Mimics a generated ClientSettings class. */
   abstract static class FakeClientSettings extends ClientSettings<FakeClientSettings> {
     protected FakeClientSettings(Builder builder) throws IOException {
@@ -0,0 +1,247 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.TransportChannel;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.fleetengine.auth.EmptyFleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import io.grpc.CallCredentials;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+@RunWith(JUnit4.class)
+public class SharedFleetEngineChannelTest {
+
+  private static final Metadata.Key<String> AUTHORIZATION_HEADER =
+      Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+  private ManagedChannel managedChannel;
+  private MethodDescriptor<String, String> method;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    managedChannel = mock(ManagedChannel.class);
+    when(managedChannel.authority()).thenReturn("fleetengine.googleapis.com");
+    MethodDescriptor.Marshaller<String> marshaller = mock(MethodDescriptor.Marshaller.class);
+    method =
+        MethodDescriptor.<String, String>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("maps.fleetengine.v1.VehicleService/GetVehicle")
+            .setRequestMarshaller(marshaller)
+            .setResponseMarshaller(marshaller)
+            .build();
+  }
+
+  @Test
+  public void transportChannelProvider_sendsCallsOverSharedChannel() throws IOException {
+    SharedFleetEngineChannel sharedChannel = SharedFleetEngineChannel.create(managedChannel);
+
+    Channel clientChannel = clientChannel(sharedChannel, tokenProvider("client.jwt"));
+    clientChannel.newCall(method, CallOptions.DEFAULT);
+
+    verify(managedChannel, times(1)).newCall(eq(method), any(CallOptions.class));
+    assertThat(clientChannel.authority()).isEqualTo("fleetengine.googleapis.com");
+  }
+
+  @Test
+  public void transportChannelProvider_selectsCredentialsOfEachClientPerCall()
+      throws IOException, SigningTokenException {
+    SharedFleetEngineChannel sharedChannel = SharedFleetEngineChannel.create(managedChannel);
+    Channel vehicleChannel = clientChannel(sharedChannel, tokenProvider("vehicle.jwt"));
+    Channel tripChannel = clientChannel(sharedChannel, tokenProvider("trip.jwt"));
+
+    vehicleChannel.newCall(method, CallOptions.DEFAULT);
+    tripChannel.newCall(method, CallOptions.DEFAULT);
+
+    ArgumentCaptor<CallOptions> callOptionsCaptor = ArgumentCaptor.forClass(CallOptions.class);
+    verify(managedChannel, times(2)).newCall(eq(method), callOptionsCaptor.capture());
+    List<CallOptions> callOptions = callOptionsCaptor.getAllValues();
+    assertThat(authorizationHeader(callOptions.get(0).getCredentials()))
+        .isEqualTo("Bearer vehicle.jwt");
+    assertThat(authorizationHeader(callOptions.get(1).getCredentials()))
+        .isEqualTo("Bearer trip.jwt");
+  }
+
+  @Test
+  public void clientTransportChannel_shutdown_doesNotShutDownSharedChannel() throws IOException {
+    SharedFleetEngineChannel sharedChannel = SharedFleetEngineChannel.create(managedChannel);
+    TransportChannel transportChannel =
+        sharedChannel
+            .transportChannelProvider(FleetEngineAuthClientInterceptor.create(tokenProvider("a")))
+            .getTransportChannel();
+
+    transportChannel.shutdown();
+
+    assertThat(transportChannel.isShutdown()).isTrue();
+    verify(managedChannel, never()).shutdown();
+    verify(managedChannel, never()).shutdownNow();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void clientTransportChannel_whenShutDown_failsNewCalls() throws IOException {
+    SharedFleetEngineChannel sharedChannel = SharedFleetEngineChannel.create(managedChannel);
+    ManagedChannel clientChannel = clientChannel(sharedChannel, tokenProvider("a"));
+    ClientCall.Listener<String> listener = mock(ClientCall.Listener.class);
+
+    clientChannel.shutdown();
+    clientChannel.newCall(method, CallOptions.DEFAULT).start(listener, new Metadata());
+
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(listener).onClose(statusCaptor.capture(), any(Metadata.class));
+    assertThat(statusCaptor.getValue().getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+    verify(managedChannel, never()).newCall(eq(method), any(CallOptions.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void clientTransportChannel_whenCallInFlight_terminatesOnceCallCloses()
+      throws IOException, InterruptedException {
+    ClientCall<String, String> sharedCall = mock(ClientCall.class);
+    when(managedChannel.newCall(eq(method), any(CallOptions.class))).thenReturn(sharedCall);
+    SharedFleetEngineChannel sharedChannel = SharedFleetEngineChannel.create(managedChannel);
+    ManagedChannel clientChannel = clientChannel(sharedChannel, tokenProvider("a"));
+    ClientCall.Listener<String> listener = mock(ClientCall.Listener.class);
+    clientChannel.newCall(method, CallOptions.DEFAULT).start(listener, new Metadata());
+    ArgumentCaptor<ClientCall.Listener<String>> listenerCaptor =
+        ArgumentCaptor.forClass(ClientCall.Listener.class);
+    verify(sharedCall).start(listenerCaptor.capture(), any(Metadata.class));
+
+    clientChannel.shutdown();
+
+    assertThat(clientChannel.isShutdown()).isTrue();
+    assertThat(clientChannel.isTerminated()).isFalse();
+    assertThat(clientChannel.awaitTermination(1, TimeUnit.MILLISECONDS)).isFalse();
+
+    listenerCaptor.getValue().onClose(Status.OK, new Metadata());
+
+    assertThat(clientChannel.isTerminated()).isTrue();
+    assertThat(clientChannel.awaitTermination(1, TimeUnit.MILLISECONDS)).isTrue();
+    verify(listener).onClose(eq(Status.OK), any(Metadata.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void clientTransportChannel_shutdownNow_cancelsCallsInFlight() throws IOException {
+    ClientCall<String, String> sharedCall = mock(ClientCall.class);
+    when(managedChannel.newCall(eq(method), any(CallOptions.class))).thenReturn(sharedCall);
+    SharedFleetEngineChannel sharedChannel = SharedFleetEngineChannel.create(managedChannel);
+    ManagedChannel clientChannel = clientChannel(sharedChannel, tokenProvider("a"));
+    clientChannel
+        .newCall(method, CallOptions.DEFAULT)
+        .start(mock(ClientCall.Listener.class), new Metadata());
+
+    clientChannel.shutdownNow();
+
+    verify(sharedCall).cancel(any(String.class), isNull());
+    verify(managedChannel, never()).shutdownNow();
+  }
+
+  @Test
+  public void transportChannelProvider_doesNotCloseChannelWithClient() {
+    SharedFleetEngineChannel sharedChannel = SharedFleetEngineChannel.create(managedChannel);
+
+    TransportChannelProvider provider =
+        sharedChannel.transportChannelProvider(
+            FleetEngineAuthClientInterceptor.create(tokenProvider("a")));
+
+    assertThat(provider.shouldAutoClose()).isFalse();
+    assertThat(provider.needsEndpoint()).isFalse();
+  }
+
+  @Test
+  public void close_shutsDownSharedChannel() throws InterruptedException {
+    when(managedChannel.awaitTermination(anyLong(), any(TimeUnit.class))).thenReturn(true);
+    SharedFleetEngineChannel sharedChannel = SharedFleetEngineChannel.create(managedChannel);
+
+    sharedChannel.close();
+
+    verify(managedChannel, times(1)).shutdown();
+    verify(managedChannel, never()).shutdownNow();
+  }
+
+  @Test
+  public void close_whenCallsDoNotComplete_shutsDownSharedChannelNow()
+      throws InterruptedException {
+    when(managedChannel.awaitTermination(anyLong(), any(TimeUnit.class))).thenReturn(false);
+    SharedFleetEngineChannel sharedChannel = SharedFleetEngineChannel.create(managedChannel);
+
+    sharedChannel.close();
+
+    verify(managedChannel, times(1)).shutdownNow();
+  }
+
+  private static ManagedChannel clientChannel(
+      SharedFleetEngineChannel sharedChannel, FleetEngineTokenProvider tokenProvider)
+      throws IOException {
+    GrpcTransportChannel transportChannel =
+        (GrpcTransportChannel)
+            sharedChannel
+                .transportChannelProvider(FleetEngineAuthClientInterceptor.create(tokenProvider))
+                .getTransportChannel();
+    return (ManagedChannel) transportChannel.getChannel();
+  }
+
+  private static FleetEngineTokenProvider tokenProvider(String jwt) {
+    FleetEngineToken token =
+        FleetEngineToken.builder()
+            .setCreationTimestamp(Date.from(Instant.EPOCH))
+            .setExpirationTimestamp(Date.from(Instant.EPOCH))
+            .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
+            .setTokenType(FleetEngineTokenType.SERVER)
+            .setJwt(jwt)
+            .build();
+    return () -> token;
+  }
+
+  private static String authorizationHeader(CallCredentials credentials) {
+    CallCredentials.MetadataApplier applier = mock(CallCredentials.MetadataApplier.class);
+    credentials.applyRequestMetadata(null, null, applier);
+    ArgumentCaptor<Metadata> metadataCaptor = ArgumentCaptor.forClass(Metadata.class);
+    verify(applier).apply(metadataCaptor.capture());
+    return metadataCaptor.getValue().get(AUTHORIZATION_HEADER);
+  }
+}
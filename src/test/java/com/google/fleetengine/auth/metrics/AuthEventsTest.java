@@ -0,0 +1,81 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TripClaims;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import java.time.Instant;
+import java.util.Date;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AuthEventsTest {
+  private static final Signer SIGNER = token -> token.toBuilder().setJwt("signed").build();
+
+  @Test
+  public void isFlightRecorderAvailable_matchesJvmSupport() {
+    assertThat(AuthEvents.isFlightRecorderAvailable()).isEqualTo(jvmSupportsEvents());
+  }
+
+  @Test
+  public void beginTokenMint_whenFailed_endsWithoutThrowing() {
+    AuthEventScope event =
+        AuthEvents.beginTokenMint(FleetEngineTokenType.CONSUMER, TripClaims.create(), null);
+
+    event.fail(new IllegalStateException());
+    event.close();
+  }
+
+  @Test
+  public void beginSignerCall_endsWithoutThrowing() {
+    FleetEngineToken token =
+        FleetEngineToken.builder()
+            .setTokenType(FleetEngineTokenType.CONSUMER)
+            .setCreationTimestamp(Date.from(Instant.EPOCH))
+            .setExpirationTimestamp(Date.from(Instant.EPOCH))
+            .setAuthorizationClaims(TripClaims.create("trip-1"))
+            .build();
+
+    try (AuthEventScope event = AuthEvents.beginSignerCall(token, SIGNER)) {
+      assertThat(event).isNotNull();
+    }
+  }
+
+  @Test
+  public void commitCacheLookup_doesNotThrow() {
+    for (CacheOutcome cacheOutcome : CacheOutcome.values()) {
+      AuthEvents.commitCacheLookup(FleetEngineTokenType.SERVER, TripClaims.create(), cacheOutcome);
+    }
+  }
+
+  /** Events are compiled for Java 11, and need the jdk.jfr module. */
+  private static boolean jvmSupportsEvents() {
+    if (System.getProperty("java.specification.version").startsWith("1.")) {
+      return false;
+    }
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+}
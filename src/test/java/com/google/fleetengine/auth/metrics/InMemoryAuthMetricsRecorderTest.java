@@ -0,0 +1,74 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InMemoryAuthMetricsRecorderTest {
+  @Test
+  public void signLatencyPercentile_whenNoSignatures_returnsZero() {
+    InMemoryAuthMetricsRecorder recorder = new InMemoryAuthMetricsRecorder();
+
+    assertThat(recorder.signLatencyPercentile(FleetEngineTokenType.SERVER, 0.5))
+        .isEqualTo(Duration.ZERO);
+  }
+
+  @Test
+  public void signLatencyPercentile_returnsUpperBoundOfBucket() {
+    InMemoryAuthMetricsRecorder recorder = new InMemoryAuthMetricsRecorder();
+    for (int i = 0; i < 99; i++) {
+      recordSignature(recorder, Duration.ofMillis(3));
+    }
+    recordSignature(recorder, Duration.ofMillis(300));
+
+    Duration median = recorder.signLatencyPercentile(FleetEngineTokenType.SERVER, 0.5);
+    Duration max = recorder.signLatencyPercentile(FleetEngineTokenType.SERVER, 1);
+
+    assertThat(median).isAtLeast(Duration.ofMillis(3));
+    assertThat(median).isLessThan(Duration.ofMillis(6));
+    assertThat(max).isAtLeast(Duration.ofMillis(300));
+    assertThat(max).isLessThan(Duration.ofMillis(600));
+  }
+
+  @Test
+  public void recordSignFailed_countsErrorsByClass() {
+    InMemoryAuthMetricsRecorder recorder = new InMemoryAuthMetricsRecorder();
+    recorder.recordSignStarted(FleetEngineTokenType.DRIVER);
+    recorder.recordSignStarted(FleetEngineTokenType.DRIVER);
+    recorder.recordSignStarted(FleetEngineTokenType.DRIVER);
+
+    recorder.recordSignFailed(FleetEngineTokenType.DRIVER, 0, SigningTokenException.class);
+    recorder.recordSignFailed(FleetEngineTokenType.DRIVER, 0, SigningTokenException.class);
+    recorder.recordSignFailed(FleetEngineTokenType.DRIVER, 0, IllegalStateException.class);
+
+    assertThat(recorder.signErrors(FleetEngineTokenType.DRIVER))
+        .containsExactly(SigningTokenException.class, 2L, IllegalStateException.class, 1L);
+    assertThat(recorder.signErrors(FleetEngineTokenType.SERVER)).isEmpty();
+    assertThat(recorder.inFlightSignings(FleetEngineTokenType.DRIVER)).isEqualTo(0);
+  }
+
+  private static void recordSignature(InMemoryAuthMetricsRecorder recorder, Duration latency) {
+    recorder.recordSignStarted(FleetEngineTokenType.SERVER);
+    recorder.recordSignSucceeded(FleetEngineTokenType.SERVER, latency.toNanos());
+  }
+}
@@ -0,0 +1,180 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.fleetengine.auth.CachingAuthStateManager;
+import com.google.fleetengine.auth.NaiveAuthStateManager;
+import com.google.fleetengine.auth.StaleWhileRevalidateAuthStateManager;
+import com.google.fleetengine.auth.metrics.InstrumentedSignerTest.SteppingTicker;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TripClaims;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InstrumentedAuthStateManagerTest {
+  private Signer signer;
+  private InMemoryAuthMetricsRecorder recorder;
+  private InstrumentedAuthStateManager stateManager;
+
+  @Before
+  public void setup() {
+    signer = unsignedToken -> unsignedToken.toBuilder().setJwt("signed").build();
+    recorder = new InMemoryAuthMetricsRecorder();
+    stateManager =
+        new InstrumentedAuthStateManager(
+            new NaiveAuthStateManager(), recorder, new SteppingTicker(1_000));
+  }
+
+  @Test
+  public void create_withNoopRecorder_returnsStateManagerUnchanged() {
+    NaiveAuthStateManager naiveStateManager = new NaiveAuthStateManager();
+
+    assertThat(InstrumentedAuthStateManager.create(naiveStateManager, AuthMetricsRecorder.NOOP))
+        .isSameInstanceAs(naiveStateManager);
+  }
+
+  @Test
+  public void signToken_whenWildcardTokenCached_recordsRefreshThenHits() throws Exception {
+    FleetEngineToken token = unsignedToken(TripClaims.create());
+
+    for (int i = 0; i < 3; i++) {
+      stateManager.signToken(signer, token);
+    }
+
+    assertThat(recorder.cacheMisses(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+    assertThat(recorder.cacheRefreshes(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+    assertThat(recorder.cacheHits(FleetEngineTokenType.CONSUMER)).isEqualTo(2);
+    assertThat(recorder.signatures(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+    assertThat(recorder.inFlightSignings(FleetEngineTokenType.CONSUMER)).isEqualTo(0);
+  }
+
+  @Test
+  public void signToken_whenClaimsNotWildcard_recordsMissesWithoutRefresh() throws Exception {
+    FleetEngineToken token = unsignedToken(TripClaims.create("trip-1"));
+
+    stateManager.signToken(signer, token);
+    stateManager.signToken(signer, token);
+
+    assertThat(recorder.cacheMisses(FleetEngineTokenType.CONSUMER)).isEqualTo(2);
+    assertThat(recorder.cacheRefreshes(FleetEngineTokenType.CONSUMER)).isEqualTo(0);
+    assertThat(recorder.cacheHits(FleetEngineTokenType.CONSUMER)).isEqualTo(0);
+  }
+
+  @Test
+  public void signToken_whenSignerFails_recordsMissAndError() throws Exception {
+    Signer signer =
+        unsignedToken -> {
+          throw new SigningTokenException("failed");
+        };
+    FleetEngineToken token = unsignedToken(TripClaims.create());
+
+    Assert.assertThrows(SigningTokenException.class, () -> stateManager.signToken(signer, token));
+
+    assertThat(recorder.cacheMisses(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+    assertThat(recorder.signErrors(FleetEngineTokenType.CONSUMER))
+        .containsExactly(SigningTokenException.class, 1L);
+    assertThat(recorder.inFlightSignings(FleetEngineTokenType.CONSUMER)).isEqualTo(0);
+  }
+
+  @Test
+  public void signToken_whenStateManagerKeysCacheBySigner_recordsHits() throws Exception {
+    InstrumentedAuthStateManager cachingStateManager =
+        new InstrumentedAuthStateManager(
+            new CachingAuthStateManager(), recorder, new SteppingTicker(1_000));
+    FleetEngineToken token = unsignedToken(TripClaims.create("trip-1"));
+
+    cachingStateManager.signToken(signer, token);
+    cachingStateManager.signToken(signer, token);
+
+    assertThat(recorder.cacheMisses(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+    assertThat(recorder.cacheHits(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+  }
+
+  @Test
+  public void signTokenAsync_recordsOutcomeOnCompletion() throws Exception {
+    FleetEngineTokenClaims claims = TripClaims.create();
+    FleetEngineToken token = unsignedToken(claims);
+
+    for (int i = 0; i < 2; i++) {
+      stateManager
+          .signTokenAsync(
+              signer,
+              FleetEngineTokenType.CONSUMER,
+              token.audience(),
+              claims,
+              () -> token,
+              MoreExecutors.directExecutor())
+          .get();
+    }
+
+    assertThat(recorder.cacheRefreshes(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+    assertThat(recorder.cacheHits(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+    assertThat(recorder.signErrors(FleetEngineTokenType.CONSUMER)).isEqualTo(ImmutableMap.of());
+  }
+
+  @Test
+  public void signToken_whenStateManagerRefreshesInBackground_recordsRefreshWithoutMiss()
+      throws Exception {
+    List<Runnable> backgroundRefreshes = new ArrayList<>();
+    InstrumentedAuthStateManager staleWhileRevalidateStateManager =
+        new InstrumentedAuthStateManager(
+            new StaleWhileRevalidateAuthStateManager(backgroundRefreshes::add),
+            recorder,
+            new SteppingTicker(1_000));
+    Instant now = Instant.now();
+    // Inside the refresh window but not yet expired, so the cached token is served stale.
+    FleetEngineToken token =
+        unsignedToken(TripClaims.create()).toBuilder()
+            .setExpirationTimestamp(Date.from(now.plus(Duration.ofMinutes(4))))
+            .build();
+
+    staleWhileRevalidateStateManager.signToken(signer, token);
+    staleWhileRevalidateStateManager.signToken(signer, token);
+    assertThat(backgroundRefreshes).hasSize(1);
+    backgroundRefreshes.get(0).run();
+
+    assertThat(recorder.cacheMisses(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+    assertThat(recorder.cacheHits(FleetEngineTokenType.CONSUMER)).isEqualTo(1);
+    assertThat(recorder.cacheRefreshes(FleetEngineTokenType.CONSUMER)).isEqualTo(2);
+    assertThat(recorder.signatures(FleetEngineTokenType.CONSUMER)).isEqualTo(2);
+  }
+
+  private static FleetEngineToken unsignedToken(FleetEngineTokenClaims claims) {
+    Instant now = Instant.now();
+    return FleetEngineToken.builder()
+        .setTokenType(FleetEngineTokenType.CONSUMER)
+        .setCreationTimestamp(Date.from(now))
+        .setExpirationTimestamp(Date.from(now.plus(Duration.ofHours(1))))
+        .setAuthorizationClaims(claims)
+        .build();
+  }
+}
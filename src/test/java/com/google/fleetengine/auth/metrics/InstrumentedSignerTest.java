@@ -0,0 +1,143 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.TripClaims;
+import com.google.fleetengine.auth.token.factory.signer.Signer;
+import com.google.fleetengine.auth.token.factory.signer.SigningTokenException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InstrumentedSignerTest {
+  private static final long LATENCY_NANOS = 1_000_000;
+
+  private Signer signer;
+  private AuthMetricsRecorder recorder;
+  private FleetEngineToken token;
+  private FleetEngineToken signedToken;
+
+  @Before
+  public void setup() {
+    signer = mock(Signer.class);
+    recorder = mock(AuthMetricsRecorder.class);
+    token =
+        FleetEngineToken.builder()
+            .setTokenType(FleetEngineTokenType.DRIVER)
+            .setCreationTimestamp(Date.from(Instant.EPOCH))
+            .setExpirationTimestamp(Date.from(Instant.EPOCH))
+            .setAuthorizationClaims(TripClaims.create("trip-1"))
+            .build();
+    signedToken = token.toBuilder().setJwt("signed").build();
+  }
+
+  @Test
+  public void create_withNoopRecorder_returnsSignerUnchanged() {
+    assertThat(InstrumentedSigner.create(signer, AuthMetricsRecorder.NOOP))
+        .isSameInstanceAs(signer);
+  }
+
+  @Test
+  public void sign_whenSignerSucceeds_recordsLatency() throws Exception {
+    when(signer.sign(token)).thenReturn(signedToken);
+
+    assertThat(createSigner().sign(token)).isEqualTo(signedToken);
+
+    verify(recorder).recordSignStarted(FleetEngineTokenType.DRIVER);
+    verify(recorder).recordSignSucceeded(FleetEngineTokenType.DRIVER, LATENCY_NANOS);
+    verify(recorder, never()).recordSignFailed(any(), anyLong(), any());
+  }
+
+  @Test
+  public void sign_whenSignerFails_recordsErrorClass() throws Exception {
+    when(signer.sign(token)).thenThrow(new SigningTokenException("failed"));
+
+    Assert.assertThrows(SigningTokenException.class, () -> createSigner().sign(token));
+
+    verify(recorder).recordSignStarted(FleetEngineTokenType.DRIVER);
+    verify(recorder)
+        .recordSignFailed(FleetEngineTokenType.DRIVER, LATENCY_NANOS, SigningTokenException.class);
+    verify(recorder, never()).recordSignSucceeded(any(), anyLong());
+  }
+
+  @Test
+  public void signAsync_whenSignatureFails_recordsUnwrappedErrorClass() {
+    CompletableFuture<FleetEngineToken> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new SigningTokenException("failed"));
+    when(signer.signAsync(token, MoreExecutors.directExecutor())).thenReturn(failed);
+
+    CompletableFuture<FleetEngineToken> signature =
+        createSigner().signAsync(token, MoreExecutors.directExecutor());
+
+    ExecutionException thrown = Assert.assertThrows(ExecutionException.class, signature::get);
+    assertThat(thrown).hasCauseThat().isInstanceOf(SigningTokenException.class);
+    verify(recorder)
+        .recordSignFailed(FleetEngineTokenType.DRIVER, LATENCY_NANOS, SigningTokenException.class);
+  }
+
+  @Test
+  public void signAsync_whenSignatureSucceeds_recordsLatencyOnCompletion() throws Exception {
+    CompletableFuture<FleetEngineToken> pending = new CompletableFuture<>();
+    when(signer.signAsync(token, MoreExecutors.directExecutor())).thenReturn(pending);
+
+    CompletableFuture<FleetEngineToken> signature =
+        createSigner().signAsync(token, MoreExecutors.directExecutor());
+    verify(recorder, never()).recordSignSucceeded(any(), anyLong());
+    pending.complete(signedToken);
+
+    assertThat(signature.get()).isEqualTo(signedToken);
+    verify(recorder).recordSignSucceeded(FleetEngineTokenType.DRIVER, LATENCY_NANOS);
+  }
+
+  private InstrumentedSigner createSigner() {
+    return new InstrumentedSigner(signer, recorder, new SteppingTicker(LATENCY_NANOS));
+  }
+
+  /** Ticker that moves forward by a fixed step on every read. */
+  static final class SteppingTicker extends Ticker {
+    private final long stepNanos;
+    private long nanos;
+
+    SteppingTicker(long stepNanos) {
+      this.stepNanos = stepNanos;
+    }
+
+    @Override
+    public synchronized long read() {
+      long now = nanos;
+      nanos += stepNanos;
+      return now;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.store;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InMemoryTokenStoreTest {
+  private static final Duration LEASE_DURATION = Duration.ofSeconds(30);
+
+  private Instant now;
+  private InMemoryTokenStore store;
+
+  @Before
+  public void setup() {
+    now = Instant.parse("2021-06-01T00:00:00.00Z");
+    Clock clock = mock(Clock.class);
+    when(clock.instant()).thenAnswer(invocation -> now);
+    store = new InMemoryTokenStore(clock);
+  }
+
+  @Test
+  public void get_withoutToken_returnsNull() {
+    assertThat(store.get("key")).isNull();
+  }
+
+  @Test
+  public void compareAndSet_withoutExpectedToken_storesTokenOnce() {
+    assertThat(store.compareAndSet("key", null, token("jwt-1"))).isTrue();
+    assertThat(store.compareAndSet("key", null, token("jwt-2"))).isFalse();
+
+    assertThat(store.get("key")).isEqualTo(token("jwt-1"));
+  }
+
+  @Test
+  public void compareAndSet_withExpectedToken_replacesToken() {
+    store.compareAndSet("key", null, token("jwt-1"));
+
+    assertThat(store.compareAndSet("key", "jwt-1", token("jwt-2"))).isTrue();
+    assertThat(store.get("key")).isEqualTo(token("jwt-2"));
+  }
+
+  @Test
+  public void compareAndSet_withOtherExpectedToken_keepsToken() {
+    store.compareAndSet("key", null, token("jwt-1"));
+
+    assertThat(store.compareAndSet("key", "jwt-0", token("jwt-2"))).isFalse();
+    assertThat(store.compareAndSet("other", "jwt-1", token("jwt-2"))).isFalse();
+    assertThat(store.get("key")).isEqualTo(token("jwt-1"));
+    assertThat(store.get("other")).isNull();
+  }
+
+  @Test
+  public void tryAcquireLease_whenHeldByOtherOwner_returnsFalse() {
+    assertThat(store.tryAcquireLease("key", "owner-1", LEASE_DURATION)).isTrue();
+
+    assertThat(store.tryAcquireLease("key", "owner-2", LEASE_DURATION)).isFalse();
+    assertThat(store.tryAcquireLease("other", "owner-2", LEASE_DURATION)).isTrue();
+  }
+
+  @Test
+  public void tryAcquireLease_whenHeldBySameOwner_returnsTrue() {
+    store.tryAcquireLease("key", "owner-1", LEASE_DURATION);
+
+    assertThat(store.tryAcquireLease("key", "owner-1", LEASE_DURATION)).isTrue();
+  }
+
+  @Test
+  public void tryAcquireLease_whenLeaseExpired_returnsTrue() {
+    store.tryAcquireLease("key", "owner-1", LEASE_DURATION);
+    now = now.plus(LEASE_DURATION);
+
+    assertThat(store.tryAcquireLease("key", "owner-2", LEASE_DURATION)).isTrue();
+  }
+
+  @Test
+  public void releaseLease_onlyReleasesLeaseOfOwner() {
+    store.tryAcquireLease("key", "owner-1", LEASE_DURATION);
+
+    store.releaseLease("key", "owner-2");
+    assertThat(store.tryAcquireLease("key", "owner-2", LEASE_DURATION)).isFalse();
+
+    store.releaseLease("key", "owner-1");
+    assertThat(store.tryAcquireLease("key", "owner-2", LEASE_DURATION)).isTrue();
+  }
+
+  private StoredToken token(String jwt) {
+    return StoredToken.create(jwt, now, now.plus(Duration.ofHours(1)));
+  }
+}
@@ -0,0 +1,230 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.Instant;
+import javax.annotation.Nullable;
+
+/**
+ * {@link TokenStore} reached over a loopback socket, served by a {@link
+ * LocalSocketTokenStoreServer}.
+ *
+ * <p>Reference implementation of a remote store, meant for tests that run several state managers
+ * against a store in another process or thread. Requests are sent one at a time over a single
+ * connection. Reads time out after the read timeout, and the connection is closed on any I/O
+ * error and opened again by the next request, so that a request never reads the response of an
+ * earlier one.
+ */
+public final class LocalSocketTokenStore implements TokenStore, Closeable {
+
+  static final byte GET = 1;
+  static final byte COMPARE_AND_SET = 2;
+  static final byte TRY_ACQUIRE_LEASE = 3;
+  static final byte RELEASE_LEASE = 4;
+
+  /** Default time to wait for a response from the server. */
+  public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(5);
+
+  private final int port;
+  private final int readTimeoutMillis;
+
+  /* Current connection, null once closed after an I/O error. Guarded by this. */
+  @Nullable private Connection connection;
+
+  private boolean closed;
+
+  /**
+   * Connects to a {@link LocalSocketTokenStoreServer} listening on {@code port} of the loopback
+   * interface, waiting up to {@link #DEFAULT_READ_TIMEOUT} for each response.
+   *
+   * @param port port returned by {@link LocalSocketTokenStoreServer#port()}
+   * @throws IOException when the server cannot be reached
+   */
+  public static LocalSocketTokenStore connect(int port) throws IOException {
+    return connect(port, DEFAULT_READ_TIMEOUT);
+  }
+
+  /**
+   * Connects to a {@link LocalSocketTokenStoreServer} listening on {@code port} of the loopback
+   * interface.
+   *
+   * @param port port returned by {@link LocalSocketTokenStoreServer#port()}
+   * @param readTimeout time to wait for each response before failing the request
+   * @throws IOException when the server cannot be reached
+   */
+  public static LocalSocketTokenStore connect(int port, Duration readTimeout) throws IOException {
+    LocalSocketTokenStore store = new LocalSocketTokenStore(port, readTimeout);
+    synchronized (store) {
+      store.connection = Connection.open(port, store.readTimeoutMillis);
+    }
+    return store;
+  }
+
+  private LocalSocketTokenStore(int port, Duration readTimeout) {
+    this.port = port;
+    this.readTimeoutMillis = Math.toIntExact(readTimeout.toMillis());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public synchronized StoredToken get(String key) throws TokenStoreException {
+    try {
+      Connection connection = connection();
+      connection.output.writeByte(GET);
+      connection.output.writeUTF(key);
+      connection.output.flush();
+      return connection.input.readBoolean() ? readToken(connection.input) : null;
+    } catch (IOException e) {
+      disconnect();
+      throw new TokenStoreException("Error while getting token from store.", e);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized boolean compareAndSet(
+      String key, @Nullable String expectedJwt, StoredToken token) throws TokenStoreException {
+    try {
+      Connection connection = connection();
+      connection.output.writeByte(COMPARE_AND_SET);
+      connection.output.writeUTF(key);
+      connection.output.writeBoolean(expectedJwt != null);
+      if (expectedJwt != null) {
+        connection.output.writeUTF(expectedJwt);
+      }
+      writeToken(connection.output, token);
+      connection.output.flush();
+      return connection.input.readBoolean();
+    } catch (IOException e) {
+      disconnect();
+      throw new TokenStoreException("Error while storing token.", e);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized boolean tryAcquireLease(String key, String owner, Duration leaseDuration)
+      throws TokenStoreException {
+    try {
+      Connection connection = connection();
+      connection.output.writeByte(TRY_ACQUIRE_LEASE);
+      connection.output.writeUTF(key);
+      connection.output.writeUTF(owner);
+      connection.output.writeLong(leaseDuration.toMillis());
+      connection.output.flush();
+      return connection.input.readBoolean();
+    } catch (IOException e) {
+      disconnect();
+      throw new TokenStoreException("Error while acquiring lease.", e);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized void releaseLease(String key, String owner) throws TokenStoreException {
+    try {
+      Connection connection = connection();
+      connection.output.writeByte(RELEASE_LEASE);
+      connection.output.writeUTF(key);
+      connection.output.writeUTF(owner);
+      connection.output.flush();
+      connection.input.readBoolean();
+    } catch (IOException e) {
+      disconnect();
+      throw new TokenStoreException("Error while releasing lease.", e);
+    }
+  }
+
+  /** Closes the connection to the server. */
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (connection != null) {
+      connection.socket.close();
+      connection = null;
+    }
+  }
+
+  /* Returns the current connection, opening a new one after an I/O error. */
+  private Connection connection() throws IOException {
+    if (closed) {
+      throw new IOException("Store is closed.");
+    }
+    if (connection == null) {
+      connection = Connection.open(port, readTimeoutMillis);
+    }
+    return connection;
+  }
+
+  /* Drops the current connection, whose stream may be left in the middle of a response. */
+  private void disconnect() {
+    if (connection == null) {
+      return;
+    }
+    try {
+      connection.socket.close();
+    } catch (IOException e) {
+      // The connection is dropped either way.
+    }
+    connection = null;
+  }
+
+  static void writeToken(DataOutputStream output, StoredToken token) throws IOException {
+    output.writeUTF(token.jwt());
+    output.writeLong(token.creationTimestamp().toEpochMilli());
+    output.writeLong(token.expirationTimestamp().toEpochMilli());
+  }
+
+  static StoredToken readToken(DataInputStream input) throws IOException {
+    String jwt = input.readUTF();
+    Instant creationTimestamp = Instant.ofEpochMilli(input.readLong());
+    Instant expirationTimestamp = Instant.ofEpochMilli(input.readLong());
+    return StoredToken.create(jwt, creationTimestamp, expirationTimestamp);
+  }
+
+  private static final class Connection {
+    final Socket socket;
+    final DataInputStream input;
+    final DataOutputStream output;
+
+    private Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    static Connection open(int port, int readTimeoutMillis) throws IOException {
+      Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+      try {
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(readTimeoutMillis);
+        return new Connection(socket);
+      } catch (IOException e) {
+        socket.close();
+        throw e;
+      }
+    }
+  }
+}
@@ -0,0 +1,160 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.store;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves a {@link TokenStore} on the loopback interface to {@link LocalSocketTokenStore} clients.
+ *
+ * <p>Each connection is handled on its own daemon thread. Meant for tests, the server neither
+ * authenticates nor encrypts connections.
+ */
+public final class LocalSocketTokenStoreServer implements AutoCloseable {
+
+  private static final Logger logger =
+      Logger.getLogger(LocalSocketTokenStoreServer.class.getName());
+
+  private final TokenStore store;
+  private final ServerSocket serverSocket;
+  private final ExecutorService executor;
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Starts a server backed by {@code store} on an ephemeral port of the loopback interface.
+   *
+   * @param store store that requests are served from, eg. an {@link InMemoryTokenStore}
+   * @throws IOException when the server socket cannot be bound
+   */
+  public static LocalSocketTokenStoreServer start(TokenStore store) throws IOException {
+    LocalSocketTokenStoreServer server =
+        new LocalSocketTokenStoreServer(
+            store, new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+    server.executor.execute(server::acceptConnections);
+    return server;
+  }
+
+  private LocalSocketTokenStoreServer(TokenStore store, ServerSocket serverSocket) {
+    this.store = store;
+    this.serverSocket = serverSocket;
+    this.executor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("fleetengine-auth-token-store-%d")
+                .build());
+  }
+
+  /** Port that the server listens on. */
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  /** Stops accepting connections and closes the open ones. */
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    for (Socket connection : connections) {
+      connection.close();
+    }
+    executor.shutdownNow();
+  }
+
+  private void acceptConnections() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket connection = serverSocket.accept();
+        connections.add(connection);
+        executor.execute(() -> serve(connection));
+      } catch (IOException e) {
+        if (!serverSocket.isClosed()) {
+          logger.log(Level.WARNING, "Error while accepting token store connection.", e);
+        }
+      }
+    }
+  }
+
+  private void serve(Socket connection) {
+    try (Socket socket = connection;
+        DataInputStream input =
+            new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream output =
+            new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+      while (true) {
+        byte request;
+        try {
+          request = input.readByte();
+        } catch (EOFException e) {
+          // The client closed the connection.
+          return;
+        }
+        handle(request, input, output);
+        output.flush();
+      }
+    } catch (IOException | TokenStoreException e) {
+      if (!serverSocket.isClosed()) {
+        logger.log(Level.WARNING, "Error while serving token store connection.", e);
+      }
+    } finally {
+      connections.remove(connection);
+    }
+  }
+
+  private void handle(byte request, DataInputStream input, DataOutputStream output)
+      throws IOException, TokenStoreException {
+    switch (request) {
+      case LocalSocketTokenStore.GET:
+        StoredToken token = store.get(input.readUTF());
+        output.writeBoolean(token != null);
+        if (token != null) {
+          LocalSocketTokenStore.writeToken(output, token);
+        }
+        break;
+      case LocalSocketTokenStore.COMPARE_AND_SET:
+        String key = input.readUTF();
+        String expectedJwt = input.readBoolean() ? input.readUTF() : null;
+        output.writeBoolean(
+            store.compareAndSet(key, expectedJwt, LocalSocketTokenStore.readToken(input)));
+        break;
+      case LocalSocketTokenStore.TRY_ACQUIRE_LEASE:
+        output.writeBoolean(
+            store.tryAcquireLease(
+                input.readUTF(), input.readUTF(), Duration.ofMillis(input.readLong())));
+        break;
+      case LocalSocketTokenStore.RELEASE_LEASE:
+        store.releaseLease(input.readUTF(), input.readUTF());
+        output.writeBoolean(true);
+        break;
+      default:
+        throw new IOException(String.format("Unknown token store request %d.", request));
+    }
+  }
+}
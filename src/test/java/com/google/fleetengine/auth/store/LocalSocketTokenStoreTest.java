@@ -0,0 +1,125 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.store;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LocalSocketTokenStoreTest {
+  private static final Duration LEASE_DURATION = Duration.ofSeconds(30);
+  private static final Instant CREATION = Instant.parse("2021-06-01T00:00:00.00Z");
+
+  private LocalSocketTokenStoreServer server;
+  private LocalSocketTokenStore store;
+
+  @Before
+  public void setup() throws IOException {
+    server = LocalSocketTokenStoreServer.start(new InMemoryTokenStore());
+    store = LocalSocketTokenStore.connect(server.port());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    store.close();
+    server.close();
+  }
+
+  @Test
+  public void get_withoutToken_returnsNull() throws TokenStoreException {
+    assertThat(store.get("key")).isNull();
+  }
+
+  @Test
+  public void compareAndSet_storesTokenForOtherClients()
+      throws IOException, TokenStoreException {
+    assertThat(store.compareAndSet("key", null, token("jwt-1"))).isTrue();
+    assertThat(store.compareAndSet("key", "jwt-1", token("jwt-2"))).isTrue();
+    assertThat(store.compareAndSet("key", "jwt-1", token("jwt-3"))).isFalse();
+
+    try (LocalSocketTokenStore otherStore = LocalSocketTokenStore.connect(server.port())) {
+      assertThat(otherStore.get("key")).isEqualTo(token("jwt-2"));
+    }
+  }
+
+  @Test
+  public void tryAcquireLease_isExclusiveAcrossClients() throws IOException, TokenStoreException {
+    try (LocalSocketTokenStore otherStore = LocalSocketTokenStore.connect(server.port())) {
+      assertThat(store.tryAcquireLease("key", "owner-1", LEASE_DURATION)).isTrue();
+      assertThat(otherStore.tryAcquireLease("key", "owner-2", LEASE_DURATION)).isFalse();
+
+      store.releaseLease("key", "owner-1");
+
+      assertThat(otherStore.tryAcquireLease("key", "owner-2", LEASE_DURATION)).isTrue();
+    }
+  }
+
+  @Test
+  public void get_afterServerClosed_throwsTokenStoreException() throws IOException {
+    server.close();
+
+    assertThrows(TokenStoreException.class, () -> store.get("key"));
+  }
+
+  @Test
+  public void get_whenServerDoesNotRespond_timesOut() throws IOException {
+    try (ServerSocket silentServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        LocalSocketTokenStore silentStore =
+            LocalSocketTokenStore.connect(silentServer.getLocalPort(), Duration.ofMillis(50))) {
+      assertThrows(TokenStoreException.class, () -> silentStore.get("key"));
+    }
+  }
+
+  @Test
+  public void get_afterIoError_closesConnectionAndReconnects() throws Exception {
+    try (ServerSocket silentServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        LocalSocketTokenStore silentStore =
+            LocalSocketTokenStore.connect(silentServer.getLocalPort(), Duration.ofMillis(50))) {
+      Socket firstConnection = silentServer.accept();
+      assertThrows(TokenStoreException.class, () -> silentStore.get("key"));
+
+      CompletableFuture<Void> retry =
+          CompletableFuture.runAsync(
+              () -> assertThrows(TokenStoreException.class, () -> silentStore.get("key")));
+      Socket secondConnection = silentServer.accept();
+
+      retry.get(5, TimeUnit.SECONDS);
+      // Reads the unanswered request, then the end of stream of the closed connection.
+      firstConnection.setSoTimeout(5000);
+      byte[] request = new byte[64];
+      while (firstConnection.getInputStream().read(request) != -1) {}
+      firstConnection.close();
+      secondConnection.close();
+    }
+  }
+
+  private static StoredToken token(String jwt) {
+    return StoredToken.create(jwt, CREATION, CREATION.plus(Duration.ofHours(1)));
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TokenPoliciesTest {
+  private static final String AUDIENCE = "https://fleetengine.googleapis.com/";
+  private static final TokenPolicy DEFAULT_POLICY =
+      TokenPolicy.builder().setLifetime(Duration.ofMinutes(30)).build();
+  private static final TokenPolicy CONSUMER_POLICY =
+      TokenPolicy.builder().setLifetime(Duration.ofMinutes(15)).build();
+  private static final TokenPolicy CONSUMER_AUDIENCE_POLICY =
+      TokenPolicy.builder().setCacheable(false).build();
+
+  @Test
+  public void defaults_returnsDefaultPolicy() {
+    assertThat(TokenPolicies.defaults().policyFor(FleetEngineTokenType.SERVER, AUDIENCE))
+        .isEqualTo(TokenPolicy.DEFAULT);
+  }
+
+  @Test
+  public void policyFor_withoutTypePolicy_returnsDefaultPolicy() {
+    TokenPolicies policies = createPolicies();
+
+    assertThat(policies.policyFor(FleetEngineTokenType.SERVER, AUDIENCE))
+        .isEqualTo(DEFAULT_POLICY);
+  }
+
+  @Test
+  public void policyFor_withTypePolicy_returnsTypePolicy() {
+    TokenPolicies policies = createPolicies();
+
+    assertThat(policies.policyFor(FleetEngineTokenType.CONSUMER, "https://other.audience/"))
+        .isEqualTo(CONSUMER_POLICY);
+    assertThat(policies.policyFor(FleetEngineTokenType.CONSUMER, null))
+        .isEqualTo(CONSUMER_POLICY);
+  }
+
+  @Test
+  public void policyFor_withAudiencePolicy_returnsAudiencePolicy() {
+    TokenPolicies policies = createPolicies();
+
+    assertThat(policies.policyFor(FleetEngineTokenType.CONSUMER, AUDIENCE))
+        .isEqualTo(CONSUMER_AUDIENCE_POLICY);
+  }
+
+  @Test
+  public void maximumLifetime_returnsLongestLifetimeOfAllPolicies() {
+    TokenPolicies policies = createPolicies();
+
+    assertThat(policies.maximumLifetime()).isEqualTo(TokenPolicy.DEFAULT_LIFETIME);
+    assertThat(TokenPolicies.builder().setDefaultPolicy(CONSUMER_POLICY).build().maximumLifetime())
+        .isEqualTo(Duration.ofMinutes(15));
+  }
+
+  @Test
+  public void minimumRefreshMargin_returnsShortestRefreshMarginOfAllPolicies() {
+    TokenPolicies policies =
+        TokenPolicies.builder()
+            .setPolicy(
+                FleetEngineTokenType.CONSUMER,
+                AUDIENCE,
+                TokenPolicy.builder().setRefreshMargin(Duration.ofMinutes(2)).build())
+            .build();
+
+    assertThat(policies.minimumRefreshMargin()).isEqualTo(Duration.ofMinutes(2));
+    assertThat(TokenPolicies.defaults().minimumRefreshMargin())
+        .isEqualTo(TokenPolicy.DEFAULT_REFRESH_MARGIN);
+  }
+
+  private static TokenPolicies createPolicies() {
+    return TokenPolicies.builder()
+        .setDefaultPolicy(DEFAULT_POLICY)
+        .setPolicy(FleetEngineTokenType.CONSUMER, CONSUMER_POLICY)
+        .setPolicy(FleetEngineTokenType.CONSUMER, AUDIENCE, CONSUMER_AUDIENCE_POLICY)
+        .build();
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TokenPolicyTest {
+  private static final Duration REFRESH_MARGIN = Duration.ofMinutes(10);
+  private static final Duration JITTER = Duration.ofMinutes(2);
+
+  @Test
+  public void default_matchesFormerConstants() {
+    TokenPolicy policy = TokenPolicy.DEFAULT;
+
+    assertThat(policy.lifetime()).isEqualTo(Duration.ofMinutes(60));
+    assertThat(policy.refreshMargin()).isEqualTo(Duration.ofMinutes(5));
+    assertThat(policy.jitter()).isEqualTo(Duration.ZERO);
+    assertThat(policy.cacheable()).isTrue();
+    assertThat(policy.staleWindow(createToken("jwt", Instant.EPOCH))).isEqualTo(Duration.ZERO);
+  }
+
+  @Test
+  public void refreshWindow_withoutJitter_isRefreshMargin() {
+    TokenPolicy policy = TokenPolicy.builder().setRefreshMargin(REFRESH_MARGIN).build();
+
+    assertThat(policy.refreshWindow(createToken("jwt", Instant.EPOCH))).isEqualTo(REFRESH_MARGIN);
+  }
+
+  @Test
+  public void refreshWindow_withJitter_isWithinJitterOfRefreshMargin() {
+    TokenPolicy policy =
+        TokenPolicy.builder().setRefreshMargin(REFRESH_MARGIN).setJitter(JITTER).build();
+
+    for (int i = 0; i < 100; i++) {
+      Duration refreshWindow = policy.refreshWindow(createToken("jwt-" + i, Instant.EPOCH));
+
+      assertThat(refreshWindow).isAtLeast(REFRESH_MARGIN);
+      assertThat(refreshWindow).isAtMost(REFRESH_MARGIN.plus(JITTER));
+    }
+  }
+
+  @Test
+  public void refreshWindow_withJitter_isStablePerToken() {
+    TokenPolicy policy =
+        TokenPolicy.builder().setRefreshMargin(REFRESH_MARGIN).setJitter(JITTER).build();
+    FleetEngineToken token = createToken("jwt", Instant.EPOCH);
+
+    assertThat(policy.refreshWindow(token)).isEqualTo(policy.refreshWindow(token));
+  }
+
+  @Test
+  public void refreshWindow_withJitter_spreadsTokensSignedTogether() {
+    TokenPolicy policy =
+        TokenPolicy.builder().setRefreshMargin(REFRESH_MARGIN).setJitter(JITTER).build();
+
+    Duration first = policy.refreshWindow(createToken(null, Instant.EPOCH));
+    Duration second = policy.refreshWindow(createToken(null, Instant.EPOCH.plusMillis(1)));
+
+    assertThat(first).isNotEqualTo(second);
+  }
+
+  @Test
+  public void staleWindow_isRefreshWindowLessMaximumStaleness() {
+    TokenPolicy policy =
+        TokenPolicy.builder()
+            .setRefreshMargin(REFRESH_MARGIN)
+            .setMaximumStaleness(Duration.ofMinutes(4))
+            .build();
+
+    assertThat(policy.staleWindow(createToken("jwt", Instant.EPOCH)))
+        .isEqualTo(Duration.ofMinutes(6));
+  }
+
+  @Test
+  public void staleWindow_whenMaximumStalenessExceedsRefreshWindow_isZero() {
+    TokenPolicy policy =
+        TokenPolicy.builder()
+            .setRefreshMargin(REFRESH_MARGIN)
+            .setMaximumStaleness(Duration.ofMinutes(20))
+            .build();
+
+    assertThat(policy.staleWindow(createToken("jwt", Instant.EPOCH))).isEqualTo(Duration.ZERO);
+  }
+
+  @Test
+  public void build_whenRefreshMarginAndJitterReachLifetime_throws() {
+    TokenPolicy.Builder builder =
+        TokenPolicy.builder()
+            .setLifetime(Duration.ofMinutes(15))
+            .setRefreshMargin(REFRESH_MARGIN)
+            .setJitter(Duration.ofMinutes(5));
+
+    assertThrows(IllegalArgumentException.class, builder::build);
+  }
+
+  @Test
+  public void build_whenRefreshMarginExceedsLifetime_throws() {
+    TokenPolicy.Builder builder =
+        TokenPolicy.builder().setLifetime(Duration.ofMinutes(1)).setRefreshMargin(REFRESH_MARGIN);
+
+    assertThrows(IllegalArgumentException.class, builder::build);
+  }
+
+  @Test
+  public void build_whenRefreshMarginAndJitterShorterThanLifetime_succeeds() {
+    TokenPolicy policy =
+        TokenPolicy.builder()
+            .setLifetime(Duration.ofMinutes(15))
+            .setRefreshMargin(REFRESH_MARGIN)
+            .setJitter(JITTER)
+            .build();
+
+    assertThat(policy.lifetime()).isEqualTo(Duration.ofMinutes(15));
+  }
+
+  private static FleetEngineToken createToken(String jwt, Instant creation) {
+    return FleetEngineToken.builder()
+        .setCreationTimestamp(Date.from(creation))
+        .setExpirationTimestamp(Date.from(creation.plus(TokenPolicy.DEFAULT_LIFETIME)))
+        .setTokenType(FleetEngineTokenType.SERVER)
+        .setAuthorizationClaims(ServerTokenClaims.create())
+        .setJwt(jwt)
+        .build();
+  }
+}
@@ -28,9 +28,12 @@ import com.google.fleetengine.auth.token.DeliveryVehicleClaims;
 import com.google.fleetengine.auth.token.FleetEngineToken;
 import com.google.fleetengine.auth.token.ServerTokenClaims;
 import com.google.fleetengine.auth.token.TaskClaims;
+import com.google.fleetengine.auth.token.TokenPolicies;
+import com.google.fleetengine.auth.token.TokenPolicy;
 import com.google.fleetengine.auth.token.TripClaims;
 import com.google.fleetengine.auth.token.VehicleClaims;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import org.junit.Before;
 import org.junit.Test;
@@ -113,6 +116,26 @@ public class FleetEngineTokenFactoryTest {
     assertThat(signedToken.audience()).isEqualTo(FAKE_AUDIENCE);
   }
 
+  @Test
+  public void createConsumerToken_withTokenPolicy_expiresAfterPolicyLifetime() {
+    TokenPolicies policies =
+        TokenPolicies.builder()
+            .setPolicy(
+                CONSUMER, TokenPolicy.builder().setLifetime(Duration.ofMinutes(15)).build())
+            .build();
+    FleetEngineTokenFactorySettings settings =
+        FleetEngineTokenFactorySettings.builder().setTokenPolicies(policies).build();
+    FleetEngineTokenFactory factory = new FleetEngineTokenFactory(clock, settings);
+
+    FleetEngineToken consumerToken = factory.createConsumerToken(TripClaims.create());
+    FleetEngineToken serverToken = factory.createServerToken();
+
+    assertThat(consumerToken.expirationTimestamp().toInstant())
+        .isEqualTo(ISSUED_INSTANT.plus(Duration.ofMinutes(15)));
+    assertThat(serverToken.expirationTimestamp().toInstant())
+        .isEqualTo(ISSUED_INSTANT.plus(TOKEN_EXPIRATION));
+  }
+
   @Test
   public void createDriverToken_whenNullVehicleClaim_throwsException() {
     FleetEngineTokenFactorySettings settings =
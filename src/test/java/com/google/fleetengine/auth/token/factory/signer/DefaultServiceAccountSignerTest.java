@@ -21,7 +21,6 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.ServiceAccountCredentials;
@@ -71,23 +70,17 @@ public class DefaultServiceAccountSignerTest {
             .setAudience(TEST_AUDIENCE)
             .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
             .build();
-    when(serviceAccountCredentials.sign(any(), any()))
-        .thenAnswer(
-            invocation -> {
-              byte[] presignedHeaderJwt = invocation.getArgument(0, byte[].class);
-              byte[] presignedContentJwt = invocation.getArgument(0, byte[].class);
-              return Algorithm.none().sign(presignedHeaderJwt, presignedContentJwt);
-            });
+    // Sign the token with the "none" algorithm, ie. an empty signature.
+    when(serviceAccountCredentials.sign(any())).thenReturn(new byte[0]);
     when(serviceAccountCredentials.getClientEmail()).thenReturn(TEST_SERVICE_ACCOUNT_EMAIL);
 
     DefaultServiceAccountSigner signer = new DefaultServiceAccountSigner(serviceAccountCredentials);
 
-    // Sign the token with the "none" algorithm.
     FleetEngineToken signedToken = signer.sign(token);
 
     // Check that the payload matches what was expected
     DecodedJWT decodedJWT = JWT.decode(signedToken.jwt());
-    String payload = new String(Base64.getDecoder().decode(decodedJWT.getPayload()), UTF_8);
+    String payload = new String(Base64.getUrlDecoder().decode(decodedJWT.getPayload()), UTF_8);
     Gson gson = new Gson();
     JwtPayload jwtPayload = gson.fromJson(payload, JwtPayload.class);
     assertThat(jwtPayload.audience).isEqualTo(TEST_AUDIENCE);
@@ -0,0 +1,257 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.fleetengine.auth.EmptyFleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.signer.FailoverSigner.CircuitState;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FailoverSignerTest {
+  private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+  private static final CircuitBreakerSettings SETTINGS =
+      CircuitBreakerSettings.builder()
+          .setFailureThreshold(2)
+          .setOpenDuration(OPEN_DURATION)
+          .build();
+
+  private FakeTicker ticker;
+  private Signer remoteSigner;
+  private Signer localSigner;
+  private FleetEngineToken token;
+  private FleetEngineToken remoteSignedToken;
+  private FleetEngineToken localSignedToken;
+
+  @Before
+  public void setup() {
+    ticker = new FakeTicker();
+    remoteSigner = mock(Signer.class);
+    localSigner = mock(Signer.class);
+    token =
+        FleetEngineToken.builder()
+            .setTokenType(FleetEngineTokenType.DRIVER)
+            .setCreationTimestamp(Date.from(Instant.EPOCH))
+            .setExpirationTimestamp(Date.from(Instant.EPOCH))
+            .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
+            .build();
+    remoteSignedToken = token.toBuilder().setJwt("remote").build();
+    localSignedToken = token.toBuilder().setJwt("local").build();
+  }
+
+  @Test
+  public void create_whenNoSigners_throwsIllegalArgumentException() {
+    Assert.assertThrows(
+        IllegalArgumentException.class, () -> FailoverSigner.create(ImmutableList.of()));
+  }
+
+  @Test
+  public void sign_whenFirstSignerHealthy_signsWithFirstSigner() throws Exception {
+    when(remoteSigner.sign(token)).thenReturn(remoteSignedToken);
+    FailoverSigner signer = createSigner();
+
+    assertThat(signer.sign(token)).isEqualTo(remoteSignedToken);
+
+    verify(localSigner, never()).sign(any());
+    assertThat(signer.failovers()).isEqualTo(0);
+    assertThat(signer.circuitStates()).containsExactly(CircuitState.CLOSED, CircuitState.CLOSED);
+  }
+
+  @Test
+  public void sign_whenFirstSignerFailsWithServerError_signsWithNextSigner() throws Exception {
+    when(remoteSigner.sign(token)).thenThrow(serverError());
+    when(localSigner.sign(token)).thenReturn(localSignedToken);
+    FailoverSigner signer = createSigner();
+
+    assertThat(signer.sign(token)).isEqualTo(localSignedToken);
+
+    assertThat(signer.failovers()).isEqualTo(1);
+    assertThat(signer.circuitStates()).containsExactly(CircuitState.CLOSED, CircuitState.CLOSED);
+  }
+
+  @Test
+  public void sign_whenFirstSignerFailsWithPermanentError_throwsWithoutFailover()
+      throws Exception {
+    when(remoteSigner.sign(token)).thenThrow(new SigningTokenException("permission denied"));
+    FailoverSigner signer = createSigner();
+
+    for (int i = 0; i < 3; i++) {
+      Assert.assertThrows(SigningTokenException.class, () -> signer.sign(token));
+    }
+
+    verify(localSigner, never()).sign(any());
+    assertThat(signer.transitions(CircuitState.OPEN)).isEqualTo(0);
+  }
+
+  @Test
+  public void sign_afterConsecutiveFailures_skipsSignerWhileCircuitOpen() throws Exception {
+    when(remoteSigner.sign(token)).thenThrow(serverError());
+    when(localSigner.sign(token)).thenReturn(localSignedToken);
+    FailoverSigner signer = createSigner();
+
+    for (int i = 0; i < 5; i++) {
+      assertThat(signer.sign(token)).isEqualTo(localSignedToken);
+    }
+
+    verify(remoteSigner, times(2)).sign(token);
+    assertThat(signer.circuitStates()).containsExactly(CircuitState.OPEN, CircuitState.CLOSED);
+    assertThat(signer.transitions(CircuitState.OPEN)).isEqualTo(1);
+  }
+
+  @Test
+  public void sign_afterOpenDuration_closesCircuitWhenSignerRecovered() throws Exception {
+    when(remoteSigner.sign(token))
+        .thenThrow(serverError())
+        .thenThrow(serverError())
+        .thenReturn(remoteSignedToken);
+    when(localSigner.sign(token)).thenReturn(localSignedToken);
+    FailoverSigner signer = createSigner();
+    signer.sign(token);
+    signer.sign(token);
+
+    ticker.advance(OPEN_DURATION);
+
+    assertThat(signer.sign(token)).isEqualTo(remoteSignedToken);
+    assertThat(signer.circuitStates()).containsExactly(CircuitState.CLOSED, CircuitState.CLOSED);
+    assertThat(signer.transitions(CircuitState.HALF_OPEN)).isEqualTo(1);
+    assertThat(signer.transitions(CircuitState.CLOSED)).isEqualTo(1);
+  }
+
+  @Test
+  public void sign_afterOpenDuration_reopensCircuitWhenSignerStillFailing() throws Exception {
+    when(remoteSigner.sign(token)).thenThrow(serverError());
+    when(localSigner.sign(token)).thenReturn(localSignedToken);
+    FailoverSigner signer = createSigner();
+    signer.sign(token);
+    signer.sign(token);
+
+    ticker.advance(OPEN_DURATION);
+    assertThat(signer.sign(token)).isEqualTo(localSignedToken);
+    signer.sign(token);
+
+    // A single failed half-open signature opens the circuit again.
+    verify(remoteSigner, times(3)).sign(token);
+    assertThat(signer.circuitStates()).containsExactly(CircuitState.OPEN, CircuitState.CLOSED);
+    assertThat(signer.transitions(CircuitState.OPEN)).isEqualTo(2);
+  }
+
+  @Test
+  public void sign_whenHalfOpenSignatureThrowsError_reopensCircuit() throws Exception {
+    when(remoteSigner.sign(token)).thenThrow(serverError());
+    when(localSigner.sign(token)).thenReturn(localSignedToken);
+    FailoverSigner signer = createSigner();
+    signer.sign(token);
+    signer.sign(token);
+    reset(remoteSigner);
+    when(remoteSigner.sign(token)).thenThrow(new StackOverflowError());
+
+    ticker.advance(OPEN_DURATION);
+    Assert.assertThrows(StackOverflowError.class, () -> signer.sign(token));
+    assertThat(signer.circuitStates()).containsExactly(CircuitState.OPEN, CircuitState.CLOSED);
+
+    ticker.advance(OPEN_DURATION);
+    reset(remoteSigner);
+    when(remoteSigner.sign(token)).thenReturn(remoteSignedToken);
+    assertThat(signer.sign(token)).isEqualTo(remoteSignedToken);
+    assertThat(signer.circuitStates()).containsExactly(CircuitState.CLOSED, CircuitState.CLOSED);
+  }
+
+  @Test
+  public void sign_whenEverySignerFails_throwsLastError() throws Exception {
+    SigningTokenException localError = serverError();
+    when(remoteSigner.sign(token)).thenThrow(serverError());
+    when(localSigner.sign(token)).thenThrow(localError);
+    FailoverSigner signer = createSigner();
+
+    SigningTokenException thrown =
+        Assert.assertThrows(SigningTokenException.class, () -> signer.sign(token));
+
+    assertThat(thrown).isSameInstanceAs(localError);
+  }
+
+  @Test
+  public void sign_whenEveryCircuitOpen_throwsSignerOverloadedException() throws Exception {
+    when(remoteSigner.sign(token)).thenThrow(serverError());
+    when(localSigner.sign(token)).thenThrow(serverError());
+    FailoverSigner signer = createSigner();
+    Assert.assertThrows(SigningTokenException.class, () -> signer.sign(token));
+    Assert.assertThrows(SigningTokenException.class, () -> signer.sign(token));
+
+    Assert.assertThrows(SignerOverloadedException.class, () -> signer.sign(token));
+
+    verify(remoteSigner, times(2)).sign(token);
+    verify(localSigner, times(2)).sign(token);
+  }
+
+  @Test
+  public void account_whenSignersShareAccount_returnsAccount() {
+    when(remoteSigner.account()).thenReturn("driver@test-project.iam.gserviceaccount.com");
+    when(localSigner.account()).thenReturn("driver@test-project.iam.gserviceaccount.com");
+
+    assertThat(createSigner().account()).isEqualTo("driver@test-project.iam.gserviceaccount.com");
+  }
+
+  @Test
+  public void account_whenSignersHaveOtherAccounts_returnsNull() {
+    when(remoteSigner.account()).thenReturn("driver@test-project.iam.gserviceaccount.com");
+    when(localSigner.account()).thenReturn("server@test-project.iam.gserviceaccount.com");
+
+    assertThat(createSigner().account()).isNull();
+  }
+
+  private FailoverSigner createSigner() {
+    return new FailoverSigner(ImmutableList.of(remoteSigner, localSigner), SETTINGS, ticker);
+  }
+
+  private static SigningTokenException serverError() {
+    return new SigningTokenException(
+        "Failed to sign the provided bytes",
+        new IOException("Error code 503 trying to sign provided bytes: Service unavailable"));
+  }
+
+  private static final class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.auth.http.HttpTransportFactory;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.fleetengine.auth.token.factory.signer.util.RSAPrivateKeyUtils;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the {@code signBlob} method of the IAM Credentials API.
+ *
+ * <p>Signs blobs with a generated RSA key, after an optional latency, and fails a configurable
+ * share of requests with {@code 503 UNAVAILABLE}. Point an {@link ImpersonatedSigner} at it with
+ * {@link #transportFactory()}:
+ *
+ * <pre>{@code
+ * try (FakeIamCredentialsServer server = FakeIamCredentialsServer.start()) {
+ *   server.setLatency(Duration.ofMillis(50)).setJitter(Duration.ofMillis(20)).setErrorRate(0.01);
+ *   ImpersonatedSigner signer =
+ *       ImpersonatedSigner.create(
+ *           "driver@project.iam.gserviceaccount.com",
+ *           FakeIamCredentialsServer.sourceCredentials(),
+ *           server.transportFactory());
+ * }
+ * }</pre>
+ */
+public final class FakeIamCredentialsServer implements AutoCloseable {
+  /** Key id returned with every signature. */
+  public static final String KEY_ID = "fake-iam-key-id";
+
+  private static final Pattern SIGN_BLOB_PATH =
+      Pattern.compile("/v1/projects/-/serviceAccounts/([^/]+):signBlob");
+  private static final Gson GSON = new Gson();
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final KeyPair keyPair;
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong errorCount = new AtomicLong();
+
+  private volatile Duration latency = Duration.ZERO;
+  private volatile Duration jitter = Duration.ZERO;
+  private volatile double errorRate;
+
+  /** Starts a server listening on an ephemeral port of the loopback interface. */
+  public static FakeIamCredentialsServer start() throws IOException, GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance(RSAPrivateKeyUtils.KEY_ALGORITHM);
+    generator.initialize(2048);
+    return new FakeIamCredentialsServer(generator.generateKeyPair());
+  }
+
+  /**
+   * Returns source credentials with a fixed access token, so impersonation never reaches the real
+   * token endpoint.
+   */
+  public static GoogleCredentials sourceCredentials() {
+    return GoogleCredentials.create(new AccessToken("fake-access-token", new Date(Long.MAX_VALUE)));
+  }
+
+  private FakeIamCredentialsServer(KeyPair keyPair) throws IOException {
+    this.keyPair = keyPair;
+    // One thread per request so that latency is injected concurrently, like a remote server.
+    this.executor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("fake-iam-credentials-%d")
+                .build());
+    this.server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.server.setExecutor(executor);
+    this.server.createContext("/", this::handle);
+    this.server.start();
+  }
+
+  /** Sets the fixed delay before each response. */
+  public FakeIamCredentialsServer setLatency(Duration latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  /** Sets the maximum random delay added to the latency of each response. */
+  public FakeIamCredentialsServer setJitter(Duration jitter) {
+    this.jitter = jitter;
+    return this;
+  }
+
+  /** Sets the share of requests, between 0 and 1, that fail with {@code 503 UNAVAILABLE}. */
+  public FakeIamCredentialsServer setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  /** Key that verifies the signatures returned by this server. */
+  public RSAPublicKey publicKey() {
+    return (RSAPublicKey) keyPair.getPublic();
+  }
+
+  /** Number of requests received, including failed ones. */
+  public long requestCount() {
+    return requestCount.get();
+  }
+
+  /** Number of requests failed on purpose. */
+  public long errorCount() {
+    return errorCount.get();
+  }
+
+  /**
+   * Creates transports that send every request to this server, keeping the path and query of the
+   * original URL.
+   */
+  public HttpTransportFactory transportFactory() {
+    String host = server.getAddress().getAddress().getHostAddress();
+    int port = server.getAddress().getPort();
+    NetHttpTransport transport =
+        new NetHttpTransport.Builder()
+            .setConnectionFactory(
+                url ->
+                    (HttpURLConnection)
+                        new URL("http", host, port, url.getFile()).openConnection())
+            .build();
+    return () -> transport;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      requestCount.incrementAndGet();
+      delay();
+
+      Matcher matcher = SIGN_BLOB_PATH.matcher(exchange.getRequestURI().getPath());
+      if (!"POST".equals(exchange.getRequestMethod()) || !matcher.matches()) {
+        sendError(exchange, 404, "NOT_FOUND", "Unknown method.");
+        return;
+      }
+      if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+        errorCount.incrementAndGet();
+        sendError(exchange, 503, "UNAVAILABLE", "Injected error.");
+        return;
+      }
+
+      JsonObject request;
+      try (Reader body = new InputStreamReader(exchange.getRequestBody(), UTF_8)) {
+        request = GSON.fromJson(body, JsonObject.class);
+      }
+      if (request == null || !request.has("payload")) {
+        sendError(exchange, 400, "INVALID_ARGUMENT", "Missing payload.");
+        return;
+      }
+
+      JsonObject response = new JsonObject();
+      response.addProperty("keyId", KEY_ID);
+      byte[] payload = Base64.getDecoder().decode(request.get("payload").getAsString());
+      response.addProperty("signedBlob", Base64.getEncoder().encodeToString(sign(payload)));
+      send(exchange, 200, response);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      sendError(exchange, 503, "UNAVAILABLE", "Server shutting down.");
+    } catch (GeneralSecurityException | RuntimeException e) {
+      sendError(exchange, 500, "INTERNAL", String.valueOf(e.getMessage()));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void delay() throws InterruptedException {
+    long delayMillis = latency.toMillis();
+    long jitterMillis = jitter.toMillis();
+    if (jitterMillis > 0) {
+      delayMillis += ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+    }
+    if (delayMillis > 0) {
+      Thread.sleep(delayMillis);
+    }
+  }
+
+  private byte[] sign(byte[] payload) throws GeneralSecurityException {
+    Signature signature = Signature.getInstance("SHA256withRSA");
+    signature.initSign(keyPair.getPrivate());
+    signature.update(payload);
+    return signature.sign();
+  }
+
+  /** Sends an error in the format of Google APIs. */
+  private static void sendError(HttpExchange exchange, int code, String status, String message)
+      throws IOException {
+    JsonObject error = new JsonObject();
+    error.addProperty("code", code);
+    error.addProperty("message", message);
+    error.addProperty("status", status);
+    JsonObject response = new JsonObject();
+    response.add("error", error);
+    send(exchange, code, response);
+  }
+
+  private static void send(HttpExchange exchange, int code, JsonObject response)
+      throws IOException {
+    byte[] body = GSON.toJson(response).getBytes(UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(code, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
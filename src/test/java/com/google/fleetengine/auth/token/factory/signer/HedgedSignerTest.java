@@ -0,0 +1,199 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.fleetengine.auth.EmptyFleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class HedgedSignerTest {
+  private static final HedgedSignerSettings FIXED_DELAY_SETTINGS =
+      HedgedSignerSettings.builder()
+          .setHedgeDelay(Duration.ofMillis(20))
+          .setHedgeDelayPercentile(0)
+          .build();
+
+  private FleetEngineToken token;
+  private CountDownLatch releaseSlowSignature;
+  private CountDownLatch slowSignatureInterrupted;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    token =
+        FleetEngineToken.builder()
+            .setTokenType(FleetEngineTokenType.SERVER)
+            .setCreationTimestamp(Date.from(Instant.EPOCH))
+            .setExpirationTimestamp(Date.from(Instant.EPOCH))
+            .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
+            .build();
+    releaseSlowSignature = new CountDownLatch(1);
+    slowSignatureInterrupted = new CountDownLatch(1);
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    releaseSlowSignature.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void sign_whenFirstRequestFast_doesNotHedge() throws Exception {
+    HedgedSigner signer =
+        HedgedSigner.create(
+            unsignedToken -> signed(unsignedToken, "first"), FIXED_DELAY_SETTINGS, executor);
+
+    assertThat(signer.sign(token).jwt()).isEqualTo("first");
+    assertThat(signer.hedgedRequests()).isEqualTo(0);
+  }
+
+  @Test
+  public void sign_whenFirstRequestSlow_returnsHedgedSignature() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    HedgedSigner signer =
+        HedgedSigner.create(
+            unsignedToken ->
+                requests.getAndIncrement() == 0
+                    ? slowSignature(unsignedToken)
+                    : signed(unsignedToken, "hedge"),
+            FIXED_DELAY_SETTINGS,
+            executor);
+
+    assertThat(signer.sign(token).jwt()).isEqualTo("hedge");
+    assertThat(signer.hedgedRequests()).isEqualTo(1);
+    // The slow request lost the race and is cancelled.
+    assertThat(slowSignatureInterrupted.await(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void sign_whenEveryRequestFails_throwsFirstError() throws Exception {
+    SigningTokenException firstError = new SigningTokenException("first");
+    AtomicInteger requests = new AtomicInteger();
+    HedgedSigner signer =
+        HedgedSigner.create(
+            unsignedToken -> {
+              if (requests.getAndIncrement() == 0) {
+                throw firstError;
+              }
+              throw new SigningTokenException("hedge");
+            },
+            FIXED_DELAY_SETTINGS,
+            executor);
+
+    SigningTokenException thrown =
+        Assert.assertThrows(SigningTokenException.class, () -> signer.sign(token));
+
+    assertThat(thrown).isSameInstanceAs(firstError);
+  }
+
+  @Test
+  public void sign_whenDeadlinePasses_throwsAndCancelsRequests() throws Exception {
+    HedgedSigner signer = HedgedSigner.create(this::slowSignature, FIXED_DELAY_SETTINGS, executor);
+
+    try (SigningDeadline.Scope ignored = SigningDeadline.withTimeout(50, TimeUnit.MILLISECONDS)) {
+      Assert.assertThrows(SigningDeadlineExceededException.class, () -> signer.sign(token));
+    }
+
+    assertThat(slowSignatureInterrupted.await(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void sign_whenDeadlineBeforeHedgeDelay_doesNotHedge() throws Exception {
+    HedgedSigner signer =
+        HedgedSigner.create(
+            this::slowSignature,
+            HedgedSignerSettings.builder()
+                .setHedgeDelay(Duration.ofSeconds(10))
+                .setHedgeDelayPercentile(0)
+                .build(),
+            executor);
+
+    try (SigningDeadline.Scope ignored = SigningDeadline.withTimeout(20, TimeUnit.MILLISECONDS)) {
+      Assert.assertThrows(SigningDeadlineExceededException.class, () -> signer.sign(token));
+    }
+
+    assertThat(signer.hedgedRequests()).isEqualTo(0);
+  }
+
+  @Test
+  public void sign_withDeadline_setsDeadlineOnSigningThread() throws Exception {
+    AtomicLong signerRemainingNanos = new AtomicLong();
+    HedgedSigner signer =
+        HedgedSigner.create(
+            unsignedToken -> {
+              signerRemainingNanos.set(SigningDeadline.remainingNanos());
+              return signed(unsignedToken, "first");
+            },
+            FIXED_DELAY_SETTINGS,
+            executor);
+
+    try (SigningDeadline.Scope ignored = SigningDeadline.withTimeout(10, TimeUnit.SECONDS)) {
+      signer.sign(token);
+    }
+
+    assertThat(signerRemainingNanos.get()).isGreaterThan(0L);
+    assertThat(signerRemainingNanos.get()).isAtMost(TimeUnit.SECONDS.toNanos(10));
+  }
+
+  @Test
+  public void hedgeDelayNanos_afterEnoughSignatures_usesObservedLatencyPercentile()
+      throws Exception {
+    HedgedSigner signer =
+        HedgedSigner.create(
+            unsignedToken -> signed(unsignedToken, "first"),
+            HedgedSignerSettings.builder().setHedgeDelay(Duration.ofSeconds(10)).build(),
+            executor);
+    assertThat(signer.hedgeDelayNanos()).isEqualTo(Duration.ofSeconds(10).toNanos());
+
+    for (int i = 0; i < 20; i++) {
+      signer.sign(token);
+    }
+
+    assertThat(signer.hedgeDelayNanos()).isLessThan(Duration.ofSeconds(10).toNanos());
+  }
+
+  private FleetEngineToken slowSignature(FleetEngineToken unsignedToken) {
+    try {
+      releaseSlowSignature.await();
+    } catch (InterruptedException e) {
+      slowSignatureInterrupted.countDown();
+      Thread.currentThread().interrupt();
+    }
+    return signed(unsignedToken, "slow");
+  }
+
+  private static FleetEngineToken signed(FleetEngineToken unsignedToken, String jwt) {
+    return unsignedToken.toBuilder().setJwt(jwt).build();
+  }
+}
@@ -23,6 +23,7 @@ import static org.mockito.Mockito.when;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import com.google.auth.ServiceAccountSigner.SigningException;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.ImpersonatedCredentials;
 import com.google.fleetengine.auth.EmptyFleetEngineTokenClaims;
@@ -35,6 +36,7 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Base64;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -74,22 +76,16 @@ public class ImpersonatedSignerTest {
     ImpersonatedAccountSignerCredentials impersonatedCredentials =
         mock(ImpersonatedAccountSignerCredentials.class);
     when(impersonatedCredentials.getAccount()).thenReturn(TEST_SERVICE_ACCOUNT);
-    when(impersonatedCredentials.sign(any(), any()))
-        .thenAnswer(
-            invocation -> {
-              byte[] presignedHeaderJwt = invocation.getArgument(0, byte[].class);
-              byte[] presignedContentJwt = invocation.getArgument(0, byte[].class);
-              return Algorithm.none().sign(presignedHeaderJwt, presignedContentJwt);
-            });
+    // Sign the token with the "none" algorithm, ie. an empty signature.
+    when(impersonatedCredentials.sign(any())).thenReturn(new byte[0]);
 
     ImpersonatedSigner signer = new ImpersonatedSigner(impersonatedCredentials);
 
-    // Sign the token with the "none" algorithm.
     FleetEngineToken signedToken = signer.sign(token);
 
     // Check that the payload matches what was expected
     DecodedJWT decodedJWT = JWT.decode(signedToken.jwt());
-    String payload = new String(Base64.getDecoder().decode(decodedJWT.getPayload()), UTF_8);
+    String payload = new String(Base64.getUrlDecoder().decode(decodedJWT.getPayload()), UTF_8);
     Gson gson = new Gson();
     JwtPayload jwtPayload = gson.fromJson(payload, JwtPayload.class);
     assertThat(jwtPayload.audience).isEqualTo(TEST_AUDIENCE);
@@ -116,4 +112,50 @@ public class ImpersonatedSignerTest {
     assertThat(impersonatedCredentialsBuilder.getTargetPrincipal()).isEqualTo(TEST_SERVICE_ACCOUNT);
     assertThat(impersonatedCredentialsBuilder.getSourceCredentials()).isEqualTo(defaultCredentials);
   }
+
+  @Test
+  public void sign_throughIamCredentialsApi_signsWithServiceAccountKey() throws Exception {
+    try (FakeIamCredentialsServer server = FakeIamCredentialsServer.start()) {
+      ImpersonatedSigner signer =
+          ImpersonatedSigner.create(
+              TEST_SERVICE_ACCOUNT,
+              FakeIamCredentialsServer.sourceCredentials(),
+              server.transportFactory());
+
+      FleetEngineToken signedToken = signer.sign(createToken());
+
+      DecodedJWT verifiedJwt =
+          JWT.require(Algorithm.RSA256(server.publicKey(), null))
+              .withIssuer(TEST_SERVICE_ACCOUNT)
+              .build()
+              .verify(signedToken.jwt());
+      assertThat(verifiedJwt.getAudience()).containsExactly(TEST_AUDIENCE);
+      assertThat(server.requestCount()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void sign_whenIamCredentialsApiUnavailable_throwsSigningException() throws Exception {
+    try (FakeIamCredentialsServer server = FakeIamCredentialsServer.start()) {
+      server.setErrorRate(1);
+      ImpersonatedSigner signer =
+          ImpersonatedSigner.create(
+              TEST_SERVICE_ACCOUNT,
+              FakeIamCredentialsServer.sourceCredentials(),
+              server.transportFactory());
+
+      Assert.assertThrows(SigningException.class, () -> signer.sign(createToken()));
+      assertThat(server.errorCount()).isEqualTo(1);
+    }
+  }
+
+  private FleetEngineToken createToken() {
+    return FleetEngineToken.builder()
+        .setTokenType(FleetEngineTokenType.SERVER)
+        .setCreationTimestamp(Date.from(creation.instant()))
+        .setExpirationTimestamp(Date.from(expiration.instant()))
+        .setAudience(TEST_AUDIENCE)
+        .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
+        .build();
+  }
 }
@@ -19,4 +19,10 @@ import com.google.gson.annotations.SerializedName;
 public class JwtHeader {
   @SerializedName("kid")
   public String keyId;
+
+  @SerializedName("alg")
+  public String algorithm;
+
+  @SerializedName("typ")
+  public String type;
 }
@@ -0,0 +1,153 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.fleetengine.auth.token.factory.signer.JwtPayload.Authorization.CLAIM_KEY_1;
+import static com.google.fleetengine.auth.token.factory.signer.JwtPayload.Authorization.CLAIM_KEY_2;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import com.google.fleetengine.auth.token.factory.signer.JwtWriter.SigningInput;
+import com.google.gson.Gson;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JwtWriterTest {
+  private static final String ISSUER = "fake_server@fake_project.iam.gserviceaccount.com";
+  private static final String KEY_ID = "1122334455aabbcc";
+  private static final String TEST_AUDIENCE = "https://test.jwt.audience";
+  private static final Instant CREATION = Instant.ofEpochMilli(1_600_000_000_123L);
+
+  private FleetEngineTokenClaims claims;
+  private FleetEngineToken token;
+
+  @Before
+  public void setup() {
+    claims = mock(FleetEngineTokenClaims.class);
+    when(claims.toMap()).thenReturn(ImmutableMap.of(CLAIM_KEY_1, "value_1", CLAIM_KEY_2, "*"));
+    token =
+        FleetEngineToken.builder()
+            .setTokenType(FleetEngineTokenType.SERVER)
+            .setCreationTimestamp(Date.from(CREATION))
+            .setExpirationTimestamp(Date.from(CREATION.plus(Duration.ofHours(1))))
+            .setAudience(TEST_AUDIENCE)
+            .setAuthorizationClaims(claims)
+            .build();
+  }
+
+  @Test
+  public void writeSigningInput_withKeyId_writesHeaderWithKeyId() {
+    JwtWriter writer = JwtWriter.create(ISSUER, KEY_ID);
+
+    JwtHeader header = new Gson().fromJson(decodeSegment(writer, 0), JwtHeader.class);
+
+    assertThat(header.algorithm).isEqualTo("RS256");
+    assertThat(header.type).isEqualTo("JWT");
+    assertThat(header.keyId).isEqualTo(KEY_ID);
+  }
+
+  @Test
+  public void writeSigningInput_withoutKeyId_omitsKeyId() {
+    JwtWriter writer = JwtWriter.create(ISSUER, null);
+
+    String header = decodeSegment(writer, 0);
+
+    assertThat(header).isEqualTo("{\"alg\":\"RS256\",\"typ\":\"JWT\"}");
+  }
+
+  @Test
+  public void writeSigningInput_writesPayloadClaims() {
+    JwtWriter writer = JwtWriter.create(ISSUER, KEY_ID);
+
+    JwtPayload payload = new Gson().fromJson(decodeSegment(writer, 1), JwtPayload.class);
+
+    assertThat(payload.issuer).isEqualTo(ISSUER);
+    assertThat(payload.subject).isEqualTo(ISSUER);
+    assertThat(payload.audience).isEqualTo(TEST_AUDIENCE);
+    assertThat(payload.issuedAt).isEqualTo(CREATION.getEpochSecond());
+    assertThat(payload.expiredAt).isEqualTo(CREATION.plus(Duration.ofHours(1)).getEpochSecond());
+    assertThat(payload.authorization.numberOne).isEqualTo("value_1");
+    assertThat(payload.authorization.numberTwo).isEqualTo("*");
+  }
+
+  @Test
+  public void writeSigningInput_escapesClaimValues() {
+    String value = "quote\" backslash\\ newline\n control\u0001 accent\u00e9 emoji\ud83d\ude95";
+    when(claims.toMap()).thenReturn(ImmutableMap.of(CLAIM_KEY_1, value));
+    JwtWriter writer = JwtWriter.create(ISSUER, KEY_ID);
+
+    JwtPayload payload = new Gson().fromJson(decodeSegment(writer, 1), JwtPayload.class);
+
+    assertThat(payload.authorization.numberOne).isEqualTo(value);
+  }
+
+  @Test
+  public void writeSigningInput_forEachAudience_writesMatchingAudience() {
+    JwtWriter writer = JwtWriter.create(ISSUER, KEY_ID);
+    decodeSegment(writer, 1);
+    token = token.toBuilder().setAudience("https://other.jwt.audience").build();
+
+    JwtPayload payload = new Gson().fromJson(decodeSegment(writer, 1), JwtPayload.class);
+
+    assertThat(payload.audience).isEqualTo("https://other.jwt.audience");
+  }
+
+  @Test
+  public void writeSigningInput_afterManyAudiences_writesEvictedAudienceAgain() {
+    JwtWriter writer = JwtWriter.create(ISSUER, KEY_ID);
+    for (int i = 0; i < 100; i++) {
+      token = token.toBuilder().setAudience("https://audience-" + i).build();
+      decodeSegment(writer, 1);
+    }
+    token = token.toBuilder().setAudience("https://audience-0").build();
+
+    JwtPayload payload = new Gson().fromJson(decodeSegment(writer, 1), JwtPayload.class);
+
+    assertThat(payload.audience).isEqualTo("https://audience-0");
+  }
+
+  @Test
+  public void toJwt_appendsBase64UrlSignature() {
+    JwtWriter writer = JwtWriter.create(ISSUER, KEY_ID);
+    byte[] signature = {(byte) 0xfb, (byte) 0xff, 0x01, 0x02};
+
+    SigningInput signingInput = writer.writeSigningInput(token);
+    String content = new String(signingInput.toByteArray(), US_ASCII);
+    String jwt = signingInput.toJwt(signature);
+
+    assertThat(jwt).isEqualTo(content + "." + "-_8BAg");
+    // The signing input is left untouched.
+    assertThat(new String(signingInput.toByteArray(), US_ASCII)).isEqualTo(content);
+  }
+
+  private String decodeSegment(JwtWriter writer, int segment) {
+    String content = new String(writer.writeSigningInput(token).toByteArray(), US_ASCII);
+    return new String(Base64.getUrlDecoder().decode(content.split("\\.")[segment]), UTF_8);
+  }
+}
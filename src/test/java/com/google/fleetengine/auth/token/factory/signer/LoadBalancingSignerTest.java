@@ -0,0 +1,197 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.fleetengine.auth.EmptyFleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LoadBalancingSignerTest {
+  private static final Duration EJECTION_DURATION = Duration.ofSeconds(10);
+
+  private FakeTicker ticker;
+  private Signer firstSigner;
+  private Signer secondSigner;
+  private FleetEngineToken token;
+  private FleetEngineToken signedToken;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    ticker = new FakeTicker();
+    firstSigner = mock(Signer.class);
+    secondSigner = mock(Signer.class);
+    executor = Executors.newSingleThreadExecutor();
+    token =
+        FleetEngineToken.builder()
+            .setTokenType(FleetEngineTokenType.CONSUMER)
+            .setCreationTimestamp(Date.from(Instant.EPOCH))
+            .setExpirationTimestamp(Date.from(Instant.EPOCH))
+            .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
+            .build();
+    signedToken = token.toBuilder().setJwt("signed").build();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void create_whenNoSigners_throwsIllegalArgumentException() {
+    Assert.assertThrows(
+        IllegalArgumentException.class, () -> LoadBalancingSigner.create(ImmutableList.of()));
+  }
+
+  @Test
+  public void sign_whenMemberBusy_signsWithIdleMember() throws Exception {
+    CountDownLatch firstSignerStarted = new CountDownLatch(1);
+    CountDownLatch releaseFirstSigner = new CountDownLatch(1);
+    Signer blockingSigner =
+        unsignedToken -> {
+          firstSignerStarted.countDown();
+          try {
+            releaseFirstSigner.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return signedToken;
+        };
+    when(secondSigner.sign(token)).thenReturn(signedToken);
+    LoadBalancingSigner signer = createSigner(blockingSigner, secondSigner);
+
+    // Members are tied, so the first token goes to the first member.
+    Future<FleetEngineToken> blockedSignature = executor.submit(() -> signer.sign(token));
+    assertThat(firstSignerStarted.await(5, TimeUnit.SECONDS)).isTrue();
+    signer.sign(token);
+    signer.sign(token);
+    releaseFirstSigner.countDown();
+
+    assertThat(blockedSignature.get(5, TimeUnit.SECONDS)).isEqualTo(signedToken);
+    verify(secondSigner, times(2)).sign(token);
+  }
+
+  @Test
+  public void sign_whenMemberFailsWithQuotaError_ejectsMemberAndSignsWithAnother()
+      throws Exception {
+    when(firstSigner.sign(any())).thenThrow(quotaError());
+    when(secondSigner.sign(any())).thenThrow(quotaError());
+    LoadBalancingSigner signer = createSigner(firstSigner, secondSigner);
+
+    Assert.assertThrows(SigningTokenException.class, () -> signer.sign(token));
+
+    verify(firstSigner, times(1)).sign(token);
+    verify(secondSigner, times(1)).sign(token);
+    assertThat(signer.availableSigners()).isEqualTo(0);
+  }
+
+  @Test
+  public void sign_whileMemberEjected_doesNotSignWithIt() throws Exception {
+    when(firstSigner.sign(any())).thenThrow(quotaError()).thenReturn(signedToken);
+    when(secondSigner.sign(any())).thenReturn(signedToken);
+    LoadBalancingSigner signer = createSigner(firstSigner, secondSigner);
+
+    for (int i = 0; i < 5; i++) {
+      assertThat(signer.sign(token)).isEqualTo(signedToken);
+    }
+
+    verify(firstSigner, times(1)).sign(token);
+    assertThat(signer.availableSigners()).isEqualTo(1);
+  }
+
+  @Test
+  public void sign_afterEjectionDuration_signsWithMemberAgain() throws Exception {
+    when(firstSigner.sign(any())).thenThrow(quotaError()).thenReturn(signedToken);
+    LoadBalancingSigner signer = createSigner(firstSigner);
+
+    Assert.assertThrows(SigningTokenException.class, () -> signer.sign(token));
+    assertThat(signer.availableSigners()).isEqualTo(0);
+    ticker.advance(EJECTION_DURATION);
+
+    assertThat(signer.availableSigners()).isEqualTo(1);
+    assertThat(signer.sign(token)).isEqualTo(signedToken);
+  }
+
+  @Test
+  public void sign_whenMemberFailsWithPermanentError_throwsWithoutEjecting() throws Exception {
+    when(firstSigner.sign(any())).thenThrow(new SigningTokenException("permission denied"));
+    when(secondSigner.sign(any())).thenThrow(new SigningTokenException("permission denied"));
+    LoadBalancingSigner signer = createSigner(firstSigner, secondSigner);
+
+    Assert.assertThrows(SigningTokenException.class, () -> signer.sign(token));
+
+    assertThat(signer.availableSigners()).isEqualTo(2);
+  }
+
+  @Test
+  public void sign_whenEveryMemberEjected_signsWithMemberEjectedFirst() throws Exception {
+    when(firstSigner.sign(any())).thenThrow(quotaError()).thenReturn(signedToken);
+    LoadBalancingSigner signer = createSigner(firstSigner);
+    Assert.assertThrows(SigningTokenException.class, () -> signer.sign(token));
+
+    assertThat(signer.sign(token)).isEqualTo(signedToken);
+    verify(secondSigner, never()).sign(any());
+  }
+
+  private LoadBalancingSigner createSigner(Signer... signers) {
+    return new LoadBalancingSigner(ImmutableList.copyOf(signers), EJECTION_DURATION, ticker);
+  }
+
+  private static SigningTokenException quotaError() {
+    return new SigningTokenException(
+        "Failed to sign the provided bytes",
+        new IOException("Error code 429 trying to sign provided bytes: Quota exceeded"));
+  }
+
+  private static final class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
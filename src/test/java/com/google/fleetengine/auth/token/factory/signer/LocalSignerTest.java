@@ -44,7 +44,14 @@ import java.sql.Date;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -107,10 +114,12 @@ public class LocalSignerTest {
     FleetEngineToken signedToken = localSigner.sign(token);
 
     DecodedJWT decodedJWT = JWT.decode(signedToken.jwt());
-    String header = new String(Base64.getDecoder().decode(decodedJWT.getHeader()), UTF_8);
+    String header = new String(Base64.getUrlDecoder().decode(decodedJWT.getHeader()), UTF_8);
     Gson gson = new Gson();
     JwtHeader jwtHeader = gson.fromJson(header, JwtHeader.class);
     assertThat(jwtHeader.keyId).isEqualTo(FAKE_PRIVATE_KEY_ID);
+    assertThat(jwtHeader.algorithm).isEqualTo("RS256");
+    assertThat(jwtHeader.type).isEqualTo("JWT");
   }
 
   @Test
@@ -128,7 +137,7 @@ public class LocalSignerTest {
     FleetEngineToken signedToken = localSigner.sign(token);
 
     DecodedJWT decodedJWT = JWT.decode(signedToken.jwt());
-    String payload = new String(Base64.getDecoder().decode(decodedJWT.getPayload()), UTF_8);
+    String payload = new String(Base64.getUrlDecoder().decode(decodedJWT.getPayload()), UTF_8);
     Gson gson = new Gson();
     JwtPayload jwtPayload = gson.fromJson(payload, JwtPayload.class);
 
@@ -165,6 +174,35 @@ public class LocalSignerTest {
     algorithm.verify(decodedJWT);
   }
 
+  @Test
+  public void sign_concurrentlyFromManyThreads_returnsValidSignatures() throws Exception {
+    LocalSigner localSigner =
+        LocalSigner.create(CLIENT_EMAIL, FAKE_PRIVATE_KEY_ID, FAKE_PRIVATE_KEY);
+    Algorithm algorithm =
+        Algorithm.RSA256(createPublicKey(), RSAPrivateKeyUtils.getPrivateKey(FAKE_PRIVATE_KEY));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<FleetEngineToken>> signedTokens = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        FleetEngineToken token =
+            FleetEngineToken.builder()
+                .setTokenType(FleetEngineTokenType.SERVER)
+                .setCreationTimestamp(Date.from(creation.instant().plusSeconds(i)))
+                .setExpirationTimestamp(Date.from(expiration.instant()))
+                .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
+                .build();
+        signedTokens.add(executor.submit(() -> localSigner.sign(token)));
+      }
+
+      for (Future<FleetEngineToken> signedToken : signedTokens) {
+        // Throws SignatureVerificationException if the signature is incorrect
+        algorithm.verify(JWT.decode(signedToken.get().jwt()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void sign_whenInvalidSignature_throwsSigningTokenException() {
     LocalSigner localSigner =
@@ -180,6 +218,52 @@ public class LocalSignerTest {
     Assert.assertThrows(SigningTokenException.class, () -> localSigner.sign(token));
   }
 
+  @Test
+  public void account_returnsClientEmail() {
+    LocalSigner localSigner =
+        LocalSigner.create(CLIENT_EMAIL, FAKE_PRIVATE_KEY_ID, FAKE_PRIVATE_KEY);
+
+    assertThat(localSigner.account()).isEqualTo(CLIENT_EMAIL);
+  }
+
+  @Test
+  public void signAsync_signsOnExecutor() throws Exception {
+    LocalSigner localSigner =
+        LocalSigner.create(CLIENT_EMAIL, FAKE_PRIVATE_KEY_ID, FAKE_PRIVATE_KEY);
+    FleetEngineToken token =
+        FleetEngineToken.builder()
+            .setTokenType(FleetEngineTokenType.SERVER)
+            .setCreationTimestamp(Date.from(creation.instant()))
+            .setExpirationTimestamp(Date.from(expiration.instant()))
+            .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
+            .build();
+    List<Runnable> tasks = new ArrayList<>();
+
+    CompletableFuture<FleetEngineToken> signedToken = localSigner.signAsync(token, tasks::add);
+
+    assertThat(signedToken.isDone()).isFalse();
+    tasks.forEach(Runnable::run);
+    assertThat(signedToken.get().jwt()).isEqualTo(localSigner.sign(token).jwt());
+  }
+
+  @Test
+  public void signAsync_whenInvalidSignature_completesExceptionally() {
+    LocalSigner localSigner =
+        LocalSigner.create(CLIENT_EMAIL, FAKE_PRIVATE_KEY_ID, FAKE_PRIVATE_INVALID_KEY);
+    FleetEngineToken token =
+        FleetEngineToken.builder()
+            .setTokenType(FleetEngineTokenType.SERVER)
+            .setCreationTimestamp(Date.from(creation.instant()))
+            .setExpirationTimestamp(Date.from(expiration.instant()))
+            .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
+            .build();
+
+    CompletableFuture<FleetEngineToken> signedToken = localSigner.signAsync(token, Runnable::run);
+
+    ExecutionException thrown = Assert.assertThrows(ExecutionException.class, signedToken::get);
+    assertThat(thrown).hasCauseThat().isInstanceOf(SigningTokenException.class);
+  }
+
   @Test
   public void sign_customClaims_returnsSameIds() throws SigningTokenException {
     LocalSigner localSigner =
@@ -202,7 +286,7 @@ public class LocalSignerTest {
     FleetEngineToken signedToken = localSigner.sign(token);
 
     DecodedJWT decodedJWT = JWT.decode(signedToken.jwt());
-    String payload = new String(Base64.getDecoder().decode(decodedJWT.getPayload()), UTF_8);
+    String payload = new String(Base64.getUrlDecoder().decode(decodedJWT.getPayload()), UTF_8);
     Gson gson = new Gson();
     JwtPayload jwtPayload = gson.fromJson(payload, JwtPayload.class);
     assertThat(jwtPayload.authorization.numberOne).isEqualTo(CLAIM_VALUE_1);
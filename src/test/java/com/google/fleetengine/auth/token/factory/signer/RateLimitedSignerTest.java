@@ -0,0 +1,206 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.fleetengine.auth.EmptyFleetEngineTokenClaims;
+import com.google.fleetengine.auth.token.FleetEngineToken;
+import com.google.fleetengine.auth.token.FleetEngineTokenType;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RateLimitedSignerTest {
+  private FleetEngineToken token;
+  private CountDownLatch signingStarted;
+  private CountDownLatch releaseSigning;
+  private Signer blockingSigner;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    token =
+        FleetEngineToken.builder()
+            .setTokenType(FleetEngineTokenType.CONSUMER)
+            .setCreationTimestamp(Date.from(Instant.EPOCH))
+            .setExpirationTimestamp(Date.from(Instant.EPOCH))
+            .setAuthorizationClaims(EmptyFleetEngineTokenClaims.INSTANCE)
+            .build();
+    signingStarted = new CountDownLatch(1);
+    releaseSigning = new CountDownLatch(1);
+    blockingSigner =
+        unsignedToken -> {
+          signingStarted.countDown();
+          try {
+            releaseSigning.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return unsignedToken.toBuilder().setJwt("signed").build();
+        };
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    releaseSigning.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void sign_withinLimits_signsWithSigner() throws Exception {
+    RateLimitedSigner signer =
+        RateLimitedSigner.create(
+            unsignedToken -> unsignedToken.toBuilder().setJwt("signed").build(),
+            RateLimitedSignerSettings.builder()
+                .setPermitsPerSecond(1000)
+                .setMaxConcurrentRequests(1)
+                .build());
+
+    assertThat(signer.sign(token).jwt()).isEqualTo("signed");
+  }
+
+  @Test
+  public void sign_whenConcurrencyLimitReachedAndNoQueue_failsFast() throws Exception {
+    RateLimitedSigner signer =
+        RateLimitedSigner.create(
+            blockingSigner,
+            RateLimitedSignerSettings.builder()
+                .setMaxConcurrentRequests(1)
+                .setMaxQueuedRequests(0)
+                .build());
+    Future<FleetEngineToken> inFlight = executor.submit(() -> signer.sign(token));
+    assertThat(signingStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    Assert.assertThrows(SignerOverloadedException.class, () -> signer.sign(token));
+
+    releaseSigning.countDown();
+    assertThat(inFlight.get(5, TimeUnit.SECONDS).jwt()).isEqualTo("signed");
+  }
+
+  @Test
+  public void sign_whenConcurrencyPermitNotReleasedInTime_failsWithOverloaded() throws Exception {
+    RateLimitedSigner signer =
+        RateLimitedSigner.create(
+            blockingSigner,
+            RateLimitedSignerSettings.builder()
+                .setMaxConcurrentRequests(1)
+                .setMaxWait(Duration.ofMillis(50))
+                .build());
+    executor.submit(() -> signer.sign(token));
+    assertThat(signingStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    Assert.assertThrows(SignerOverloadedException.class, () -> signer.sign(token));
+    assertThat(signer.queuedRequests()).isEqualTo(0);
+  }
+
+  @Test
+  public void sign_whenConcurrencyPermitReleased_signsQueuedRequest() throws Exception {
+    RateLimitedSigner signer =
+        RateLimitedSigner.create(
+            blockingSigner,
+            RateLimitedSignerSettings.builder()
+                .setMaxConcurrentRequests(1)
+                .setMaxWait(Duration.ofSeconds(5))
+                .build());
+    executor.submit(() -> signer.sign(token));
+    assertThat(signingStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    Future<FleetEngineToken> queued = executor.submit(() -> signer.sign(token));
+    while (signer.queuedRequests() == 0) {
+      Thread.sleep(1);
+    }
+    releaseSigning.countDown();
+
+    assertThat(queued.get(5, TimeUnit.SECONDS).jwt()).isEqualTo("signed");
+  }
+
+  @Test
+  public void sign_whenRejectedForConcurrency_doesNotTakeRatePermit() throws Exception {
+    RateLimiter rateLimiter = mock(RateLimiter.class);
+    when(rateLimiter.tryAcquire()).thenReturn(true);
+    RateLimitedSigner signer =
+        new RateLimitedSigner(
+            blockingSigner,
+            RateLimitedSignerSettings.builder()
+                .setPermitsPerSecond(1)
+                .setMaxConcurrentRequests(1)
+                .setMaxQueuedRequests(0)
+                .build(),
+            rateLimiter,
+            Ticker.systemTicker());
+    executor.submit(() -> signer.sign(token));
+    assertThat(signingStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    Assert.assertThrows(SignerOverloadedException.class, () -> signer.sign(token));
+
+    verify(rateLimiter, times(1)).tryAcquire();
+    verify(rateLimiter, never()).tryAcquire(anyInt(), anyLong(), any());
+  }
+
+  @Test
+  public void sign_whenRateLimitReachedAndNoQueue_failsFast() throws Exception {
+    RateLimitedSigner signer =
+        RateLimitedSigner.create(
+            unsignedToken -> unsignedToken.toBuilder().setJwt("signed").build(),
+            RateLimitedSignerSettings.builder()
+                .setPermitsPerSecond(0.001)
+                .setMaxQueuedRequests(0)
+                .build());
+
+    signer.sign(token);
+
+    Assert.assertThrows(SignerOverloadedException.class, () -> signer.sign(token));
+  }
+
+  @Test
+  public void sign_whenRatePermitNotAvailableInTime_failsWithOverloaded() throws Exception {
+    RateLimitedSigner signer =
+        RateLimitedSigner.create(
+            unsignedToken -> unsignedToken.toBuilder().setJwt("signed").build(),
+            RateLimitedSignerSettings.builder()
+                .setPermitsPerSecond(0.001)
+                .setMaxWait(Duration.ofMillis(50))
+                .build());
+
+    signer.sign(token);
+
+    Assert.assertThrows(SignerOverloadedException.class, () -> signer.sign(token));
+    assertThat(signer.queuedRequests()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,60 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.fleetengine.auth.token.factory.signer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SigningDeadlineTest {
+  @Test
+  public void remainingNanos_whenNotSet_returnsMaxValue() {
+    assertThat(SigningDeadline.remainingNanos()).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void withTimeout_setsDeadlineUntilClosed() {
+    try (SigningDeadline.Scope ignored = SigningDeadline.withTimeout(1, TimeUnit.MINUTES)) {
+      assertThat(SigningDeadline.remainingNanos()).isAtMost(TimeUnit.MINUTES.toNanos(1));
+      assertThat(SigningDeadline.remainingNanos()).isGreaterThan(0);
+    }
+
+    assertThat(SigningDeadline.remainingNanos()).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void withTimeout_whenEarlierDeadlineSet_keepsEarlierDeadline() {
+    try (SigningDeadline.Scope outer = SigningDeadline.withTimeout(1, TimeUnit.SECONDS)) {
+      try (SigningDeadline.Scope inner = SigningDeadline.withTimeout(1, TimeUnit.HOURS)) {
+        assertThat(SigningDeadline.remainingNanos()).isAtMost(TimeUnit.SECONDS.toNanos(1));
+      }
+      assertThat(SigningDeadline.remainingNanos()).isAtMost(TimeUnit.SECONDS.toNanos(1));
+    }
+  }
+
+  @Test
+  public void withTimeout_whenLaterDeadlineSet_restoresLaterDeadlineOnClose() {
+    try (SigningDeadline.Scope outer = SigningDeadline.withTimeout(1, TimeUnit.HOURS)) {
+      try (SigningDeadline.Scope inner = SigningDeadline.withTimeout(1, TimeUnit.SECONDS)) {
+        assertThat(SigningDeadline.remainingNanos()).isAtMost(TimeUnit.SECONDS.toNanos(1));
+      }
+      assertThat(SigningDeadline.remainingNanos()).isGreaterThan(TimeUnit.SECONDS.toNanos(1));
+    }
+  }
+}